@@ -16,12 +16,14 @@
 package org.modeshape.jcr.index.elasticsearch;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import javax.jcr.query.qom.Constraint;
 import org.modeshape.common.util.CheckArg;
 import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.api.index.IndexDefinition;
+import org.modeshape.jcr.index.elasticsearch.client.EsBulkRequest;
 import org.modeshape.jcr.index.elasticsearch.client.EsClient;
 import org.modeshape.jcr.index.elasticsearch.client.EsRequest;
 import org.modeshape.jcr.spi.index.IndexConstraints;
@@ -29,16 +31,27 @@ import org.modeshape.jcr.spi.index.provider.ProvidedIndex;
 
 /**
  * Index stored in Elasticsearch.
+ * <p>
+ * The changes made to the documents of the nodes are kept in memory and are written with a single bulk request when the index is
+ * committed, each document being partially updated rather than read and stored again.
+ * </p>
  *
  * @author kulikov
  */
 public class EsIndex implements ProvidedIndex {
 
+    /**
+     * The maximum number of nodes whose changes are kept in memory until the next commit.
+     */
+    private static final int MAX_PENDING_NODES = 1000;
+
     private final String name;
     private final String workspace;
     private final EsIndexColumns columns;
     private final Operations operations;
     private final EsClient client;
+    // the changes which are written on commit, in the order in which the nodes were first changed...
+    private final Map<String, PendingChanges> pendingChanges = new LinkedHashMap<>();
     
     /**
      * Creates new index.
@@ -105,13 +118,10 @@ public class EsIndex implements ProvidedIndex {
         EsIndexColumn column = columns.column(propertyName);
         assert column != null : "Unexpected column for the index " + name();
 
-        try {
-            EsRequest doc = findOrCreateDoc(nodeKey);
-            putValue(doc, column, value);
-            client.storeDocument(name(), workspace, nodeKey, doc);
-        } catch (IOException e) {
-            throw new EsIndexException(e);
+        synchronized (pendingChanges) {
+            putValue(pendingChanges(nodeKey).fields, column, value);
         }
+        flushIfFull();
     }
 
     @Override
@@ -123,78 +133,110 @@ public class EsIndex implements ProvidedIndex {
         EsIndexColumn column = columns.column(propertyName);
         assert column != null : "Unexpected column for the index " + name();
 
-        try {
-            EsRequest doc = findOrCreateDoc(nodeKey);
-            putValues(doc, column, values);
-            client.storeDocument(name(), workspace, nodeKey, doc);
-        } catch (IOException e) {
-            throw new EsIndexException(e);
+        synchronized (pendingChanges) {
+            putValues(pendingChanges(nodeKey).fields, column, values);
         }
+        flushIfFull();
     }
 
     @Override
     public void remove(String nodeKey) {
         CheckArg.isNotNull(nodeKey, "nodeKey");
-        try {
-            client.deleteDocument(name(), workspace, nodeKey);
-        } catch (IOException e) {
-            throw new EsIndexException(e);
+        synchronized (pendingChanges) {
+            // whatever was changed before is replaced by the removal of the document...
+            PendingChanges changes = new PendingChanges();
+            changes.deleted = true;
+            pendingChanges.put(nodeKey, changes);
         }
+        flushIfFull();
     }
 
     @Override
     public void remove(String nodeKey, String propertyName, Object value) {
         CheckArg.isNotNull(nodeKey, "nodeKey");
         CheckArg.isNotNull(propertyName, "propertyName");
-
-        try {
-            EsRequest doc = find(nodeKey);
-            if (doc == null) {
-                return;
-            }
-            doc.remove(propertyName);            
-            client.storeDocument(name(), workspace, nodeKey, doc);
-        } catch (IOException e) {
-            throw new EsIndexException(e);
-        }
+        removeColumn(nodeKey, propertyName);
     }
 
     @Override
     public void remove(String nodeKey, String propertyName, Object[] values) {
         CheckArg.isNotNull(nodeKey, "nodeKey");
         CheckArg.isNotNull(propertyName, "propertyName");
+        removeColumn(nodeKey, propertyName);
+    }
 
-        try {
-            EsRequest doc = find(nodeKey);
-            doc.remove(propertyName);
-            client.storeDocument(name(), workspace, nodeKey, doc);
-        } catch (Exception e) {
-            throw new EsIndexException(e);
+    /**
+     * Clears the value of the given column and related pseudo columns, which
+     * is done by a partial update of the document rather than by reading and
+     * storing it again.
+     *
+     * @param nodeKey node key being indexed.
+     * @param propertyName the name of the column.
+     */
+    private void removeColumn(String nodeKey, String propertyName) {
+        EsIndexColumn column = columns.column(propertyName);
+        assert column != null : "Unexpected column for the index " + name();
+
+        synchronized (pendingChanges) {
+            EsRequest fields = pendingChanges(nodeKey).fields;
+            // null values are not indexed...
+            fields.put(column.getName(), (Object) null);
+            fields.put(column.getLowerCaseFieldName(), (Object) null);
+            fields.put(column.getUpperCaseFieldName(), (Object) null);
+            fields.put(column.getLengthFieldName(), (Object) null);
         }
+        flushIfFull();
     }
 
     /**
-     * Searches indexed node's properties by node key.
-     * 
+     * Gets the changes which are not written yet for the given node, creating
+     * them if needed. Must be called while holding the lock on the pending changes.
+     *
      * @param nodeKey node key being indexed.
-     * @return list of stored properties as json document.
-     * @throws IOException 
+     * @return the pending changes of the node.
      */
-    private EsRequest find(String nodeKey) throws IOException {
-        return client.getDocument(name(), workspace, nodeKey);
+    private PendingChanges pendingChanges(String nodeKey) {
+        return pendingChanges.computeIfAbsent(nodeKey, key -> new PendingChanges());
     }
 
     /**
-     * Searches indexed node's properties by node key or creates new empty list.
-     * 
-     * @param nodeKey node key being indexed.
-     * @return list of stored properties as json document or empty document 
-     * if not found.
-     * @throws IOException 
+     * Writes the pending changes if there are too many of them to keep waiting
+     * for the next commit.
+     */
+    private void flushIfFull() {
+        boolean full;
+        synchronized (pendingChanges) {
+            full = pendingChanges.size() >= MAX_PENDING_NODES;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all the pending changes with a single bulk request. The changes
+     * are kept until the request succeeds, so that they are written again by
+     * the next flush if it fails.
      */
-    private EsRequest findOrCreateDoc(String nodeKey) throws IOException {
-        EsRequest doc = client.getDocument(name(), workspace, nodeKey);
-        return doc != null ? doc : new EsRequest();
+    private void flush() {
+        synchronized (pendingChanges) {
+            EsBulkRequest bulk = new EsBulkRequest();
+            for (Map.Entry<String, PendingChanges> entry : pendingChanges.entrySet()) {
+                PendingChanges changes = entry.getValue();
+                if (changes.deleted) {
+                    bulk.delete(entry.getKey());
+                }
+                if (!changes.isEmpty()) {
+                    bulk.update(entry.getKey(), changes.fields);
+                }
+            }
+            try {
+                client.bulk(name(), workspace, bulk);
+            } catch (IOException e) {
+                throw new EsIndexException(e);
+            }
+            pendingChanges.clear();
+        }
     }
 
     /**
@@ -243,6 +285,7 @@ public class EsIndex implements ProvidedIndex {
 
     @Override
     public void commit() {
+        flush();
         try {
             client.refresh(name());
         } catch (IOException e) {
@@ -283,6 +326,9 @@ public class EsIndex implements ProvidedIndex {
 
     @Override
     public void clearAllData() {
+        synchronized (pendingChanges) {
+            pendingChanges.clear();
+        }
         try {
             client.deleteAll(name(), workspace);
         } catch (IOException e) {
@@ -300,4 +346,16 @@ public class EsIndex implements ProvidedIndex {
             }
         }
     }
+
+    /**
+     * The changes made to the document of a node since the last flush.
+     */
+    private static class PendingChanges {
+        private boolean deleted;
+        private final EsRequest fields = new EsRequest();
+
+        private boolean isEmpty() {
+            return fields.isEmpty();
+        }
+    }
 }
@@ -35,6 +35,7 @@ import javax.jcr.query.qom.ChildNodeJoinCondition;
 import javax.jcr.query.qom.DescendantNodeJoinCondition;
 import javax.jcr.query.qom.DynamicOperand;
 import javax.jcr.query.qom.JoinCondition;
+import java.io.IOException;
 import java.util.Collection;
 
 /**
@@ -92,6 +93,14 @@ public class EsIndexProvider extends IndexProvider {
     @Override
     protected void postShutdown() {
         logger().debug("Shutting down the elasticsearch index provider '{0}' in repository '{1}'", getName(), getRepositoryName());
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger().debug(e, "Unable to close the connections of the elasticsearch index provider '{0}'", getName());
+        }
     }
 
     @Override
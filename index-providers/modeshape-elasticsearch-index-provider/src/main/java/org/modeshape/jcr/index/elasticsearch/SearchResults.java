@@ -28,17 +28,27 @@ import org.modeshape.jcr.spi.index.provider.Filter;
 import org.modeshape.schematic.document.Document;
 
 /**
+ * The results of a query, which are read one batch after the other through a
+ * scroll cursor, so that only the current batch is kept in memory whatever
+ * the number of results.
  *
  * @author kulikov
  */
 public class SearchResults implements Index.Results {
 
+    /**
+     * How long the cursor is kept by the ES engine between two batches.
+     */
+    private static final String SCROLL_KEEP_ALIVE = "1m";
+
     private final EsClient client;
     private final EsRequest query;
     private final String index, type;
     
     private int pos = 0;
     private int totalHits;
+    private String scrollId;
+    private boolean finished;
     
     /**
      * Creates new search result instance for the given search request.
@@ -53,15 +63,25 @@ public class SearchResults implements Index.Results {
     @Override
     @SuppressWarnings("unchecked")
     public Filter.ResultBatch getNextBatch(int batchSize) {
-        query.put("from", pos);
-        query.put("size", batchSize);
-        
+        if (finished) {
+            return Filter.ResultBatch.EMPTY;
+        }
         try {
-            EsResponse res = client.search(index, type, query);
+            EsResponse res;
+            if (scrollId == null) {
+                // the size of all the batches is the size of the first one...
+                query.remove("from");
+                query.put("size", batchSize);
+                res = client.openScroll(index, type, query, SCROLL_KEEP_ALIVE);
+            } else {
+                res = client.scroll(scrollId, SCROLL_KEEP_ALIVE);
+            }
+            scrollId = (String) res.get("_scroll_id");
             Document hits = (Document) res.get("hits");
             totalHits = hits.getInteger("total");
             List<Document> items = (List<Document>) hits.getArray("hits");
             if (items == null || items.isEmpty()) {
+                close();
                 return Filter.ResultBatch.EMPTY;
             }
             LinkedHashMap<NodeKey, Float> results = items.stream().collect(Collectors.toMap(
@@ -69,7 +89,11 @@ public class SearchResults implements Index.Results {
                     doc -> doc.getDouble("_score").floatValue(),
                     (v1, v2) -> v1,
                     LinkedHashMap::new));
-            pos += results.size();
+            pos += items.size();
+            boolean hasNext = pos < totalHits;
+            if (!hasNext) {
+                close();
+            }
             return new Filter.ResultBatch() {
                 @Override
                 public Iterable<NodeKey> keys() {
@@ -83,7 +107,7 @@ public class SearchResults implements Index.Results {
 
                 @Override
                 public boolean hasNext() {
-                    return pos < totalHits;
+                    return hasNext;
                 }
 
                 @Override
@@ -98,6 +122,17 @@ public class SearchResults implements Index.Results {
 
     @Override
     public void close() {
+        finished = true;
+        if (scrollId == null) {
+            return;
+        }
+        try {
+            client.clearScroll(scrollId);
+        } catch (IOException e) {
+            // the cursor expires anyway...
+        } finally {
+            scrollId = null;
+        }
     }
 
     /**
@@ -110,6 +145,8 @@ public class SearchResults implements Index.Results {
             return totalHits;
         }
         try {
+            // only the number of hits is needed...
+            query.put("size", 0);
             EsResponse res = client.search(index, type, query);
             Document hits = (Document) res.get("hits");
             totalHits = hits.getInteger("total");
@@ -0,0 +1,86 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.index.elasticsearch.client;
+
+/**
+ * Several document operations which are sent to the Elasticsearch engine in a single request, using the bulk API.
+ * <p>
+ * The body of the request contains one line per action, each of them followed by the line of its source when the action has one.
+ * </p>
+ *
+ * @since 5.5
+ */
+public class EsBulkRequest {
+
+    private final StringBuilder body = new StringBuilder();
+    private int size;
+
+    /**
+     * Deletes a document.
+     *
+     * @param id document id
+     */
+    public void delete(String id) {
+        appendAction("delete", id);
+    }
+
+    /**
+     * Updates the given fields of a document, leaving its other fields unchanged, or creates the document with only these fields
+     * if it does not exist. A field which is set to null is not indexed anymore.
+     *
+     * @param id document id
+     * @param fields the fields of the document which are updated.
+     */
+    public void update(String id, EsRequest fields) {
+        appendAction("update", id);
+        EsRequest source = new EsRequest();
+        source.put("doc", fields);
+        source.put("doc_as_upsert", true);
+        body.append(source.toString()).append('\n');
+    }
+
+    private void appendAction(String action, String id) {
+        EsRequest metadata = new EsRequest();
+        metadata.put("_id", id);
+        EsRequest line = new EsRequest();
+        line.put(action, metadata);
+        body.append(line.toString()).append('\n');
+        ++size;
+    }
+
+    /**
+     * Gets the number of operations.
+     *
+     * @return number of operations.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Tests for the presence of operations.
+     *
+     * @return true if there is no operation.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public String toString() {
+        return body.toString();
+    }
+}
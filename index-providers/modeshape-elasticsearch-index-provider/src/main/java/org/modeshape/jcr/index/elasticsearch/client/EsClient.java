@@ -16,8 +16,9 @@
 package org.modeshape.jcr.index.elasticsearch.client;
 
 import java.io.IOException;
+import java.net.URLEncoder;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
@@ -26,18 +27,29 @@ import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.modeshape.schematic.document.Document;
 import org.modeshape.jcr.index.elasticsearch.query.MatchAllQuery;
 
 /**
  * HTTP-based interface for the Elasticsearch engine.
+ * <p>
+ * All the requests share the same pool of connections, which are kept alive between requests and are only closed when the
+ * client is {@link #close() closed}.
+ * </p>
  *
  * @author kulikov
  */
-public class EsClient {
+public class EsClient implements AutoCloseable {
+
+    /**
+     * The default maximum number of connections which are opened at the same time to the ES engine.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
 
     private final String host;
     private final int port;
+    private final CloseableHttpClient client;
 
     /**
      * Creates new instance.
@@ -46,8 +58,24 @@ public class EsClient {
      * @param port the port number of ES engine.
      */
     public EsClient(String host, int port) {
+        this(host, port, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Creates new instance.
+     *
+     * @param host the address of the ES engine.
+     * @param port the port number of ES engine.
+     * @param maxConnections the maximum number of connections which are opened at the same time to the ES engine.
+     */
+    public EsClient(String host, int port, int maxConnections) {
         this.host = host;
         this.port = port;
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        // all the requests go to the same host, so the whole pool can be used for it...
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        this.client = HttpClients.custom().setConnectionManager(connectionManager).build();
     }
 
     /**
@@ -58,14 +86,8 @@ public class EsClient {
      * @throws IOException communication exception.
      */
     public boolean indexExists(String name) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
         HttpHead head = new HttpHead(String.format("http://%s:%d/%s", host, port, name));
-        try {
-            CloseableHttpResponse response = client.execute(head);
-            return response.getStatusLine().getStatusCode() == HttpStatus.SC_OK;
-        } finally {
-            head.releaseConnection();
-        }
+        return client.execute(head, resp -> resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK);
     }
 
     /**
@@ -82,16 +104,9 @@ public class EsClient {
             return true;
         }
 
-        CloseableHttpClient client = HttpClients.createDefault();
         HttpPost method = new HttpPost(String.format("http://%s:%d/%s", host, port, name));
-        try {
-            StringEntity requestEntity = new StringEntity(mappings.toString(), ContentType.APPLICATION_JSON);
-            method.setEntity(requestEntity);
-            CloseableHttpResponse resp = client.execute(method);
-            return resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK;
-        } finally {
-            method.releaseConnection();
-        }
+        method.setEntity(new StringEntity(mappings.toString(), ContentType.APPLICATION_JSON));
+        return client.execute(method, resp -> resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK);
     }
 
     /**
@@ -102,14 +117,8 @@ public class EsClient {
      * @throws IOException
      */
     public boolean deleteIndex(String name) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
         HttpDelete delete = new HttpDelete(String.format("http://%s:%d/%s", host, port, name));
-        try {
-            CloseableHttpResponse resp = client.execute(delete);
-            return resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK;
-        } finally {
-            delete.releaseConnection();
-        }
+        return client.execute(delete, resp -> resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK);
     }
 
     /**
@@ -124,17 +133,12 @@ public class EsClient {
      */
     public boolean storeDocument(String name, String type, String id,
             EsRequest doc) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
         HttpPost method = new HttpPost(String.format("http://%s:%d/%s/%s/%s", host, port, name, type, id));
-        try {
-            StringEntity requestEntity = new StringEntity(doc.toString(), ContentType.APPLICATION_JSON);
-            method.setEntity(requestEntity);
-            CloseableHttpResponse resp = client.execute(method);
+        method.setEntity(new StringEntity(doc.toString(), ContentType.APPLICATION_JSON));
+        return client.execute(method, resp -> {
             int statusCode = resp.getStatusLine().getStatusCode();
             return statusCode == HttpStatus.SC_CREATED || statusCode == HttpStatus.SC_OK;
-        } finally {
-            method.releaseConnection();
-        }
+        });
     }
 
     /**
@@ -147,10 +151,8 @@ public class EsClient {
      * @throws IOException
      */
     public EsRequest getDocument(String name, String type, String id) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
         HttpGet method = new HttpGet(String.format("http://%s:%d/%s/%s/%s", host, port, name, type, id));
-        try {
-            CloseableHttpResponse resp = client.execute(method);
+        return client.execute(method, resp -> {
             int status = resp.getStatusLine().getStatusCode();
             switch (status) {
                 case HttpStatus.SC_OK :
@@ -162,9 +164,7 @@ public class EsClient {
                 default:
                     throw new IOException(resp.getStatusLine().getReasonPhrase());
             }
-        } finally {
-            method.releaseConnection();
-        }
+        });
     }
 
     /**
@@ -177,12 +177,41 @@ public class EsClient {
      * @throws IOException
      */
     public boolean deleteDocument(String name, String type, String id) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
         HttpDelete delete = new HttpDelete(String.format("http://%s:%d/%s/%s/%s", host, port, name, type, id));
-        try {
-            return client.execute(delete).getStatusLine().getStatusCode() == HttpStatus.SC_OK;
-        } finally {
-            delete.releaseConnection();
+        return client.execute(delete, resp -> resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK);
+    }
+
+    /**
+     * Executes several document operations in a single request.
+     *
+     * @param name index name.
+     * @param type index type.
+     * @param operations the operations to execute.
+     * @throws IOException communication exception or if at least one of the operations failed.
+     */
+    public void bulk(String name, String type, EsBulkRequest operations) throws IOException {
+        if (operations.isEmpty()) {
+            return;
+        }
+        HttpPost method = new HttpPost(String.format("http://%s:%d/%s/%s/_bulk", host, port, name, type));
+        method.setEntity(new StringEntity(operations.toString(), ContentType.APPLICATION_JSON));
+        EsResponse response = client.execute(method, resp -> {
+            int status = resp.getStatusLine().getStatusCode();
+            if (status != HttpStatus.SC_OK) {
+                throw new IOException(resp.getStatusLine().getReasonPhrase());
+            }
+            return EsResponse.read(resp.getEntity().getContent());
+        });
+        if (Boolean.TRUE.equals(response.get("errors"))) {
+            // the operations are executed independently, so report the first one which failed...
+            for (Object item : (Object[]) response.get("items")) {
+                for (Document.Field field : ((Document) item).fields()) {
+                    Object error = ((Document) field.getValue()).get("error");
+                    if (error != null) {
+                        throw new IOException(String.format("Bulk %s failed: %s", field.getName(), error));
+                    }
+                }
+            }
         }
     }
 
@@ -194,22 +223,12 @@ public class EsClient {
      * @throws IOException
      */
     public void deleteAll(String name, String type) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
         HttpPost method = new HttpPost(String.format("http://%s:%d/%s/%s", host, port, name, type));
-        try {
-            EsRequest query = new EsRequest();
-            query.put("query", new MatchAllQuery().build());
-            StringEntity requestEntity = new StringEntity(query.toString(), ContentType.APPLICATION_JSON);
-            method.setEntity(requestEntity);
-            method.setHeader(" X-HTTP-Method-Override", "DELETE");
-            CloseableHttpResponse resp = client.execute(method);
-            int status = resp.getStatusLine().getStatusCode();
-            if (status != HttpStatus.SC_OK) {
-                throw new IOException(resp.getStatusLine().getReasonPhrase());
-            }
-        } finally {
-            method.releaseConnection();
-        }
+        EsRequest query = new EsRequest();
+        query.put("query", new MatchAllQuery().build());
+        method.setEntity(new StringEntity(query.toString(), ContentType.APPLICATION_JSON));
+        method.setHeader(" X-HTTP-Method-Override", "DELETE");
+        client.execute(method, EsClient::checkStatus);
     }
 
     /**
@@ -219,17 +238,8 @@ public class EsClient {
      * @throws IOException
      */
     public void flush(String name) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
         HttpPost method = new HttpPost(String.format("http://%s:%d/%s/_flush", host, port, name));
-        try {
-            CloseableHttpResponse resp = client.execute(method);
-            int status = resp.getStatusLine().getStatusCode();
-            if (status != HttpStatus.SC_OK) {
-                throw new IOException(resp.getStatusLine().getReasonPhrase());
-            }
-        } finally {
-            method.releaseConnection();
-        }
+        client.execute(method, EsClient::checkStatus);
     }
 
     /**
@@ -239,17 +249,8 @@ public class EsClient {
      * @throws IOException
      */
     public void refresh(String name) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
         HttpPost method = new HttpPost(String.format("http://%s:%d/%s/_refresh", host, port, name));
-        try {
-            CloseableHttpResponse resp = client.execute(method);
-            int status = resp.getStatusLine().getStatusCode();
-            if (status != HttpStatus.SC_OK) {
-                throw new IOException(resp.getStatusLine().getReasonPhrase());
-            }
-        } finally {
-            method.releaseConnection();
-        }
+        client.execute(method, EsClient::checkStatus);
     }
 
     /**
@@ -262,21 +263,67 @@ public class EsClient {
      * @throws IOException
      */
     public EsResponse search(String name, String type, EsRequest query) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
         HttpPost method = new HttpPost(String.format("http://%s:%d/%s/%s/_search", host, port, name, type));
-        try {
-            StringEntity requestEntity = new StringEntity(query.toString(), ContentType.APPLICATION_JSON);
-            method.setEntity(requestEntity);
+        method.setEntity(new StringEntity(query.toString(), ContentType.APPLICATION_JSON));
+        return client.execute(method, resp -> {
+            checkStatus(resp);
+            return EsResponse.read(resp.getEntity().getContent());
+        });
+    }
 
-            CloseableHttpResponse resp = client.execute(method);
-            int status = resp.getStatusLine().getStatusCode();
-            if (status != HttpStatus.SC_OK) {
-                throw new IOException(resp.getStatusLine().getReasonPhrase());
-            }
+    /**
+     * Executes query and keeps a cursor on its results, so that they can be
+     * read one page after the other.
+     *
+     * @param name index name.
+     * @param type index type.
+     * @param query query to be executed, with the size of the pages.
+     * @param keepAlive how long the cursor is kept between two pages, e.g. "1m".
+     * @return the first page of search results, with the "_scroll_id" of the cursor.
+     * @throws IOException
+     */
+    public EsResponse openScroll(String name, String type, EsRequest query, String keepAlive) throws IOException {
+        HttpPost method = new HttpPost(String.format("http://%s:%d/%s/%s/_search?scroll=%s", host, port, name, type,
+                                                     keepAlive));
+        method.setEntity(new StringEntity(query.toString(), ContentType.APPLICATION_JSON));
+        return client.execute(method, resp -> {
+            checkStatus(resp);
             return EsResponse.read(resp.getEntity().getContent());
-        } finally {
-            method.releaseConnection();
-        }
+        });
+    }
+
+    /**
+     * Reads the next page of the results of a query.
+     *
+     * @param scrollId the identifier of the cursor returned with the previous page.
+     * @param keepAlive how long the cursor is kept until the next page, e.g. "1m".
+     * @return the next page of search results, which has no hits when all the
+     * results were read.
+     * @throws IOException
+     */
+    public EsResponse scroll(String scrollId, String keepAlive) throws IOException {
+        HttpPost method = new HttpPost(String.format("http://%s:%d/_search/scroll", host, port));
+        EsRequest request = new EsRequest();
+        request.put("scroll", keepAlive);
+        request.put("scroll_id", scrollId);
+        method.setEntity(new StringEntity(request.toString(), ContentType.APPLICATION_JSON));
+        return client.execute(method, resp -> {
+            checkStatus(resp);
+            return EsResponse.read(resp.getEntity().getContent());
+        });
+    }
+
+    /**
+     * Releases the cursor on the results of a query before it expires.
+     *
+     * @param scrollId the identifier of the cursor.
+     * @throws IOException
+     */
+    public void clearScroll(String scrollId) throws IOException {
+        HttpDelete delete = new HttpDelete(String.format("http://%s:%d/_search/scroll/%s", host, port,
+                                                         URLEncoder.encode(scrollId, "UTF-8")));
+        // the cursor may have expired already...
+        client.execute(delete, resp -> null);
     }
 
     /**
@@ -288,23 +335,30 @@ public class EsClient {
      * @throws IOException
      */
     public long count(String name, String type) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
         HttpPost method = new HttpPost(String.format("http://%s:%d/%s/%s/_count", host, port, name, type));
-        try {
-            EsRequest query = new EsRequest();
-            query.put("query", new MatchAllQuery().build());
-            StringEntity requestEntity = new StringEntity(query.toString(), ContentType.APPLICATION_JSON);
-            method.setEntity(requestEntity);
+        EsRequest query = new EsRequest();
+        query.put("query", new MatchAllQuery().build());
+        method.setEntity(new StringEntity(query.toString(), ContentType.APPLICATION_JSON));
+        return client.execute(method, resp -> {
+            checkStatus(resp);
+            return (long) (Integer) EsResponse.read(resp.getEntity().getContent()).get("count");
+        });
+    }
 
-            CloseableHttpResponse resp = client.execute(method);
-            int status = resp.getStatusLine().getStatusCode();
-            if (status != HttpStatus.SC_OK) {
-                throw new IOException(resp.getStatusLine().getReasonPhrase());
-            }
-            return (Integer) EsResponse.read(resp.getEntity().getContent()).get("count");
-        } finally {
-            method.releaseConnection();
-        }
+    /**
+     * Closes all the connections to the ES engine. This client cannot be used anymore afterwards.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        client.close();
     }
 
+    private static Void checkStatus(HttpResponse resp) throws IOException {
+        if (resp.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+            throw new IOException(resp.getStatusLine().getReasonPhrase());
+        }
+        return null;
+    }
 }
@@ -99,6 +99,15 @@ public class EsRequest {
         document.remove(name);
     }
     
+    /**
+     * Tests for the presence of properties.
+     * 
+     * @return true if there is no property.
+     */
+    public boolean isEmpty() {
+        return document.isEmpty();
+    }
+    
     /**
      * Writes document content to the stream.
      * 
@@ -0,0 +1,175 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.index.elasticsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.jcr.PropertyType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.index.elasticsearch.client.EsClient;
+
+/**
+ * Tests the requests sent by an {@link EsIndex} to a stub of the Elasticsearch HTTP interface.
+ */
+public class EsIndexBulkTest {
+
+    private final static ExecutionContext context = new ExecutionContext();
+    private final static EsIndexColumn def1 = new EsIndexColumn(context, "field1", PropertyType.STRING);
+    private final static EsIndexColumn def2 = new EsIndexColumn(context, "field2", PropertyType.LONG);
+
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final List<String> bulkBodies = new CopyOnWriteArrayList<>();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger failingBulkRequests = new AtomicInteger();
+    private HttpServer server;
+    private EsClient client;
+    private EsIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        client = new EsClient("localhost", server.getAddress().getPort());
+        index = new EsIndex(client, new EsIndexColumns(def1, def2), context, "test", "workspace");
+        requests.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldWriteTheChangesOfAllTheNodesWithOneBulkRequestOnCommit() throws Exception {
+        index.add("key1", def1.getName(), "value1");
+        index.add("key1", def2.getName(), 1L);
+        index.add("key2", def1.getName(), "value2");
+        index.remove("key2", def2.getName(), 2L);
+        index.remove("key3");
+        // nothing is written (and in particular nothing is read) before the commit...
+        assertTrue(requests.isEmpty());
+
+        index.commit();
+        assertEquals(2, requests.size());
+        assertEquals("POST /test-workspace/workspace/_bulk", requests.get(0));
+        assertEquals("POST /test-workspace/_refresh", requests.get(1));
+
+        String[] lines = bulkBodies.get(0).split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[0].contains("\"update\"") && lines[0].contains("key1"));
+        assertTrue(lines[1].contains("\"doc_as_upsert\" : true"));
+        assertTrue(lines[2].contains("\"update\"") && lines[2].contains("key2"));
+        // the removed column is set to null rather than read and stored again...
+        assertTrue(lines[3].contains("null"));
+        assertTrue(lines[4].contains("\"delete\"") && lines[4].contains("key3"));
+
+        // there is nothing left to write...
+        index.commit();
+        assertEquals(1, bulkBodies.size());
+    }
+
+    @Test
+    public void shouldKeepTheChangesUntilTheBulkRequestSucceeds() throws Exception {
+        index.add("key1", def1.getName(), "value1");
+        index.remove("key2");
+        failingBulkRequests.set(1);
+        try {
+            index.commit();
+            fail("The bulk request should have failed");
+        } catch (EsIndexException e) {
+            // expected
+        }
+
+        index.add("key3", def1.getName(), "value3");
+        index.commit();
+        assertEquals(2, bulkBodies.size());
+        // the changes of the failed request are written again, together with the new ones...
+        assertEquals(bulkBodies.get(0), bulkBodies.get(1).substring(0, bulkBodies.get(0).length()));
+        String[] lines = bulkBodies.get(1).split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[0].contains("\"update\"") && lines[0].contains("key1"));
+        assertTrue(lines[2].contains("\"delete\"") && lines[2].contains("key2"));
+        assertTrue(lines[3].contains("\"update\"") && lines[3].contains("key3"));
+    }
+
+    @Test
+    public void shouldReuseTheConnectionForSuccessiveRequests() throws Exception {
+        for (int i = 0; i != 10; i++) {
+            index.add("key" + i, def1.getName(), "value" + i);
+            index.commit();
+            client.count("test-workspace", "workspace");
+        }
+        assertEquals(30, requests.size());
+        assertEquals(1, clientPorts.size());
+    }
+
+    private void handle( HttpExchange exchange ) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        String path = exchange.getRequestURI().getPath();
+        requests.add(exchange.getRequestMethod() + " " + path);
+        String body = read(exchange.getRequestBody());
+        String response = "{}";
+        int status = 200;
+        if (path.endsWith("/_bulk")) {
+            bulkBodies.add(body);
+            response = "{\"took\" : 1, \"errors\" : false, \"items\" : []}";
+            if (failingBulkRequests.getAndUpdate(count -> Math.max(count - 1, 0)) > 0) {
+                status = 503;
+            }
+        } else if (path.endsWith("/_count")) {
+            response = "{\"count\" : 0}";
+        }
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    private static String read( InputStream in ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -19,7 +19,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import javax.jcr.PropertyType;
 import javax.jcr.query.qom.Constraint;
 import javax.jcr.query.qom.JoinCondition;
@@ -252,6 +254,26 @@ public class EsIndexTest {
         validate(sc, "key8");
     }
 
+    @Test
+    public void shouldReadTheResultsInSeveralBatches() {
+        PropertyExistence pe = new PropertyExistence(new SelectorName("test"), def2.getName());
+        Results results = index.filter(constraints(pe), 6);
+        Set<String> keys = new HashSet<>();
+        Filter.ResultBatch batch;
+        int batchCount = 0;
+        do {
+            batch = results.getNextBatch(2);
+            assertTrue(batch.size() <= 2);
+            batch.keys().forEach(key -> keys.add(key.toString()));
+            ++batchCount;
+        } while (batch.hasNext());
+        results.close();
+
+        assertEquals(3, batchCount);
+        assertEquals(6, keys.size());
+        assertEquals(0, results.getNextBatch(2).size());
+    }
+
     private void validate(Constraint constraint, String... keys) {
         Results results = index.filter(constraints(constraint), keys.length);
         Filter.ResultBatch batch = results.getNextBatch(100);
@@ -17,6 +17,7 @@ package org.modeshape.jcr.index.lucene;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.Term;
@@ -48,6 +49,11 @@ public class FieldUtil {
         return new StringField(ID, new BytesRef(key), Field.Store.YES);
     }
 
+    protected static Field idDocValuesField( String key ) {
+        // the ids are also written column-wise, so that they can be read for the search results without loading the stored fields
+        return new BinaryDocValuesField(ID, new BytesRef(key));
+    }
+
     protected static TermQuery idQuery( String key ) {
         return new TermQuery(idTerm(key));
     }
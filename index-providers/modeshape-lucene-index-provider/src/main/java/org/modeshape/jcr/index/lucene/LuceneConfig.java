@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.CharArraySet;
@@ -56,6 +57,10 @@ import org.modeshape.jcr.Environment;
 public final class LuceneConfig {
 
     protected static final String LAST_SUCCESSFUL_COMMIT_TIME = "last_commit_time";
+    protected static final String FORMAT_VERSION = "format_version";
+    protected static final String REBUILD_PENDING = "rebuild_pending";
+    protected static final int DEFAULT_COMMIT_INTERVAL_SECONDS = 60;
+    protected static final int DEFAULT_MAX_UNCOMMITTED_SEGMENTS = 20;
 
     private final LockFactory lockFactory;
     private final String directoryClass;
@@ -63,6 +68,9 @@ public final class LuceneConfig {
     private final Codec codec;
     private final String basePath;   
     private final AtomicLong lastSuccessfulCommitTime;
+    private final ScheduledExecutorService committer;
+    private final int commitIntervalSeconds;
+    private final int maxUncommittedSegments;
     
     protected static LuceneConfig inMemory() {
         return new LuceneConfig(null, null, null, null, null, null);
@@ -71,15 +79,27 @@ public final class LuceneConfig {
     protected static LuceneConfig onDisk(String baseDir) {
         return new LuceneConfig(baseDir, null, null, null, null, null);
     }
-    
+
     protected LuceneConfig(String baseDir, String lockFactoryClass, String directoryClass, String analyzerClass,
                            String codecName, Environment environment) {
+        this(baseDir, lockFactoryClass, directoryClass, analyzerClass, codecName, environment, null,
+             DEFAULT_COMMIT_INTERVAL_SECONDS, DEFAULT_MAX_UNCOMMITTED_SEGMENTS);
+    }
+    
+    protected LuceneConfig(String baseDir, String lockFactoryClass, String directoryClass, String analyzerClass,
+                           String codecName, Environment environment, ScheduledExecutorService committer,
+                           int commitIntervalSeconds, int maxUncommittedSegments) {
+        CheckArg.isPositive(commitIntervalSeconds, "commitIntervalSeconds");
+        CheckArg.isPositive(maxUncommittedSegments, "maxUncommittedSegments");
         this.directoryClass = directoryClass;
         this.lockFactory = lockFactory(lockFactoryClass);
         this.analyzer = analyzer(analyzerClass, environment);
         this.codec = codec(codecName);
         this.basePath = baseDir;
         this.lastSuccessfulCommitTime = new AtomicLong(-1);
+        this.committer = committer;
+        this.commitIntervalSeconds = commitIntervalSeconds;
+        this.maxUncommittedSegments = maxUncommittedSegments;
     }
     
     protected IndexWriter newWriter( String workspaceName, String indexName ) {
@@ -120,6 +140,46 @@ public final class LuceneConfig {
         return 30;
     }
 
+    /**
+     * Whether the changes committed by the repository are only flushed to new segments and made visible to the queries, while
+     * the Lucene commits which sync them to the disk are performed periodically.
+     *
+     * @return true if the indexes are updated in near real time, false if each change set is committed to the disk
+     */
+    protected boolean nearRealTime() {
+        return committer != null;
+    }
+
+    /**
+     * Returns the executor which periodically commits the changes which were flushed in {@link #nearRealTime() near real time}
+     * mode. The executor is shared by all the indexes and is owned by the provider, which shuts it down.
+     *
+     * @return the executor, or null if the indexes are not updated in near real time
+     */
+    protected ScheduledExecutorService committer() {
+        return committer;
+    }
+
+    /**
+     * Returns the interval after which the changes which were flushed in {@link #nearRealTime() near real time} mode are
+     * committed to the disk.
+     *
+     * @return the number of seconds; always positive
+     */
+    protected int commitIntervalSeconds() {
+        return commitIntervalSeconds;
+    }
+
+    /**
+     * Returns the number of segments which can be flushed in {@link #nearRealTime() near real time} mode before the changes are
+     * committed to the disk, regardless of the {@link #commitIntervalSeconds() commit interval}.
+     *
+     * @return the number of segments; always positive
+     */
+    protected int maxUncommittedSegments() {
+        return maxUncommittedSegments;
+    }
+
     /**
      * Returns the analyzer configured for Lucene.
      * 
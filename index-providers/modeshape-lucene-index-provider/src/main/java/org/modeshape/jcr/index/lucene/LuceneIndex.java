@@ -21,6 +21,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.jcr.Binary;
 import javax.jcr.RepositoryException;
 import javax.jcr.query.qom.Constraint;
@@ -55,6 +58,12 @@ import org.modeshape.jcr.value.StringFactory;
 @SuppressWarnings("deprecation")
 public abstract class LuceneIndex implements ProvidedIndex<Object> {
 
+    /**
+     * The version of the layout of the documents, which is written in the commit data. It must be changed whenever the documents
+     * written by the previous versions cannot be searched correctly anymore, so that the existing indexes are rebuilt.
+     */
+    protected static final String FORMAT_VERSION = "2";
+
     protected final Logger logger = Logger.getLogger(getClass());
     protected final String name;
     protected final ExecutionContext context;
@@ -63,6 +72,13 @@ public abstract class LuceneIndex implements ProvidedIndex<Object> {
     protected final LuceneConfig config;
     protected final StringFactory stringFactory;
     protected final Searcher searcher;
+    // only used in near real time mode, to commit the flushed changes to the disk periodically
+    private final ScheduledFuture<?> periodicCommit;
+    private final AtomicInteger uncommittedFlushes = new AtomicInteger();
+    private volatile long lastFlushTime;
+    // the time of the last change set which is complete in the commit being written
+    private long committedChangesTime;
+    private volatile boolean outdatedFormat;
    
     protected LuceneIndex( String name,
                            String workspaceName, 
@@ -76,7 +92,15 @@ public abstract class LuceneIndex implements ProvidedIndex<Object> {
         this.stringFactory = context.getValueFactories().getStringFactory();
         this.config = config;
         this.writer = config.newWriter(workspaceName, name);
+        this.outdatedFormat = clearOutdatedFormat();
         this.searcher = new Searcher(config, writer, name);
+        if (config.nearRealTime()) {
+            this.periodicCommit = config.committer().scheduleWithFixedDelay(this::commitPeriodically,
+                                                                            config.commitIntervalSeconds(),
+                                                                            config.commitIntervalSeconds(), TimeUnit.SECONDS);
+        } else {
+            this.periodicCommit = null;
+        }
     }
 
     @Override
@@ -134,7 +158,7 @@ public abstract class LuceneIndex implements ProvidedIndex<Object> {
     @Override
     public boolean requiresReindexing() {
         try {
-            return !DirectoryReader.indexExists(writer.getDirectory());
+            return outdatedFormat || !DirectoryReader.indexExists(writer.getDirectory());
         } catch (IOException e) {
             logger.debug(e, "cannot determine if lucene index exists...");
             return false;
@@ -145,13 +169,52 @@ public abstract class LuceneIndex implements ProvidedIndex<Object> {
         if (!writer.hasUncommittedChanges()) {
             return;
         }
+        long changesTime = System.currentTimeMillis();
+        if (periodicCommit == null) {
+            commitDurably(changesTime);
+            return;
+        }
+        try {
+            // the changes are written to a new segment and made visible to the queries, but are not synced to the disk yet
+            writer.flush();
+            searcher.refreshSearchManagerIfIdle();
+        } catch (IOException e) {
+            throw new LuceneIndexException("Cannot flush index writer", e);
+        }
+        lastFlushTime = changesTime;
+        if (uncommittedFlushes.incrementAndGet() >= config.maxUncommittedSegments()) {
+            commitDurably(changesTime);
+        }
+    }
+
+    private void commitPeriodically() {
+        if (uncommittedFlushes.get() == 0) {
+            // the changes which are being written are committed after they are complete
+            return;
+        }
         try {
+            // the changes written after the last flush may be incomplete, so the commit is only recorded as of that flush
+            commitDurably(lastFlushTime);
+        } catch (RuntimeException e) {
+            logger.warn(e, LuceneIndexProviderI18n.warnErrorWhileCommittingIndex, name);
+        }
+    }
+
+    protected synchronized void commitDurably( long changesTime ) {
+        if (!writer.hasUncommittedChanges()) {
+            return;
+        }
+        try {
+            committedChangesTime = changesTime;
+            // the changes flushed from now on are not part of this commit
+            int flushes = uncommittedFlushes.get();
             Map<String, String> oldData = writer.getCommitData();
             Map<String, String> newData = new HashMap<>(oldData);
             preCommit(newData);
             writer.setCommitData(newData);
             writer.commit();
             postCommit();
+            uncommittedFlushes.addAndGet(-flushes);
         } catch (IOException e) {
             throw new LuceneIndexException("Cannot commit index writer", e);
         }
@@ -162,12 +225,61 @@ public abstract class LuceneIndex implements ProvidedIndex<Object> {
     }
 
     protected void preCommit(Map<String, String> commitData) {
-        commitData.put(LuceneConfig.LAST_SUCCESSFUL_COMMIT_TIME, String.valueOf(System.currentTimeMillis()));
+        commitData.put(LuceneConfig.LAST_SUCCESSFUL_COMMIT_TIME, String.valueOf(committedChangesTime));
+        commitData.put(LuceneConfig.FORMAT_VERSION, FORMAT_VERSION);
+    }
+
+    @Override
+    public synchronized void reindexingCompleted() {
+        if (!outdatedFormat) {
+            return;
+        }
+        // the documents were all rewritten in the current format, so the index doesn't have to be rebuilt anymore...
+        Map<String, String> newData = new HashMap<>(writer.getCommitData());
+        newData.remove(LuceneConfig.REBUILD_PENDING);
+        writer.setCommitData(newData);
+        commitDurably(System.currentTimeMillis());
+        outdatedFormat = false;
+    }
+
+    private boolean clearOutdatedFormat() {
+        try {
+            if (!DirectoryReader.indexExists(writer.getDirectory())) {
+                return false;
+            }
+            Map<String, String> commitData = writer.getCommitData();
+            String version = commitData.get(LuceneConfig.FORMAT_VERSION);
+            if (commitData.containsKey(LuceneConfig.REBUILD_PENDING)) {
+                logger.debug("The rebuild of the Lucene index '{0}' was not completed and will be started again", name);
+            } else if (FORMAT_VERSION.equals(version)) {
+                return false;
+            } else {
+                logger.debug("The Lucene index '{0}' was written with the format version '{1}' instead of '{2}' and will be "
+                             + "rebuilt", name, version, FORMAT_VERSION);
+            }
+            // the commit data may also contain the keys of the documents, which must not survive the documents themselves;
+            // the pending rebuild is kept in the commit data by all the commits, until the rebuild is completed
+            Map<String, String> newData = new HashMap<>();
+            newData.put(LuceneConfig.FORMAT_VERSION, FORMAT_VERSION);
+            newData.put(LuceneConfig.REBUILD_PENDING, Boolean.TRUE.toString());
+            writer.deleteAll();
+            writer.setCommitData(newData);
+            writer.commit();
+            return true;
+        } catch (IOException e) {
+            throw new LuceneIndexException("Cannot clear the outdated Lucene index '" + name + "'", e);
+        }
     }
 
     public void shutdown( boolean destroyed ) {
+        if (periodicCommit != null) {
+            periodicCommit.cancel(false);
+        }
         if (destroyed) {
             clearAllData();
+        } else if (periodicCommit != null) {
+            // the changes which were only flushed are committed with the commit data (the writer would commit them without it)
+            commitDurably(System.currentTimeMillis());
         }
         try {
             searcher.close();
@@ -196,6 +308,7 @@ public abstract class LuceneIndex implements ProvidedIndex<Object> {
         }
         // always add the ID (which in the case of an update is removed first)
         document.add(FieldUtil.idField(nodeKey));
+        document.add(FieldUtil.idDocValuesField(nodeKey));
     }
     
     protected abstract void remove(final String nodeKey, final String propertyName);
@@ -18,12 +18,15 @@ package org.modeshape.jcr.index.lucene;
 import java.io.File;
 import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import javax.jcr.RepositoryException;
 import javax.jcr.query.qom.ChildNodeJoinCondition;
 import javax.jcr.query.qom.DescendantNodeJoinCondition;
 import javax.jcr.query.qom.DynamicOperand;
 import javax.jcr.query.qom.JoinCondition;
 import org.modeshape.common.collection.Problems;
+import org.modeshape.common.util.NamedThreadFactory;
 import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.NodeTypes;
 import org.modeshape.jcr.api.index.IndexDefinition;
@@ -76,13 +79,37 @@ public class LuceneIndexProvider extends IndexProvider {
     private String directoryClass;
     private String analyzerClass;
     private String codec;
+
+    /**
+     * Whether the changes are only flushed and made visible to the queries when they are committed by the repository, the
+     * Lucene commits which sync them to the disk being performed every {@link #commitIntervalSeconds} or once
+     * {@link #maxUncommittedSegments} were flushed. Changes which were not committed to the disk are lost if the process crashes,
+     * and are then reindexed from the journal like the ones of a stopped repository.
+     */
+    private boolean nearRealTime = false;
+    private int commitIntervalSeconds = LuceneConfig.DEFAULT_COMMIT_INTERVAL_SECONDS;
+    private int maxUncommittedSegments = LuceneConfig.DEFAULT_MAX_UNCOMMITTED_SEGMENTS;
     
     private LuceneConfig luceneConfig;
+    // commits the changes of all the indexes in near real time mode
+    private ScheduledExecutorService committer;
     
     @Override
     protected void doInitialize() throws RepositoryException {
         String baseDir = baseDir(); 
-        this.luceneConfig = new LuceneConfig(baseDir, lockFactoryClass, directoryClass, analyzerClass, codec, environment());
+        if (nearRealTime) {
+            this.committer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(getName() + "-lucene-committer"));
+        }
+        this.luceneConfig = new LuceneConfig(baseDir, lockFactoryClass, directoryClass, analyzerClass, codec, environment(),
+                                             committer, commitIntervalSeconds, maxUncommittedSegments);
+    }
+
+    @Override
+    protected void postShutdown() {
+        if (committer != null) {
+            // the indexes have all committed their changes and cancelled their periodic commits
+            committer.shutdown();
+        }
     }
 
     private String baseDir() throws RepositoryException {
@@ -25,7 +25,10 @@ import org.modeshape.common.i18n.I18n;
  */
 public final class LuceneIndexProviderI18n {
     
-    public static I18n warnErrorWhileClosingSearcher;      
+    public static I18n warnErrorWhileClosingSearcher;
+    public static I18n warnErrorWhileRefreshingSearcher;
+    public static I18n warnErrorWhileCommittingIndex;      
+    public static I18n resultsSearcherReleased;
     public static I18n multiColumnTextIndexesNotSupported;      
     public static I18n invalidColumnType; 
     public static I18n invalidOperatorForPropertyType;
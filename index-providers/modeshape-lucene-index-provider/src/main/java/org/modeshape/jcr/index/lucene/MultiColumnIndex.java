@@ -108,6 +108,11 @@ class MultiColumnIndex extends LuceneIndex {
                    .filter((field) -> (!excluded.contains(field.name())))
                    .map((field) -> (clone((Field) field)))
                    .forEach(newDocument::add);
+        // the doc values are not part of the stored fields, so they are written again
+        BytesRef id = oldDocument.getBinaryValue(FieldUtil.ID);
+        if (id != null) {
+            newDocument.add(FieldUtil.idDocValuesField(id.utf8ToString()));
+        }
         return newDocument;
     }
     
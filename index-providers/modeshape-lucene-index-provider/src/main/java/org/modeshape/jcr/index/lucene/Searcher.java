@@ -17,14 +17,11 @@ package org.modeshape.jcr.index.lucene;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -32,9 +29,11 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import javax.jcr.query.qom.Constraint;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.CollectionTerminatedException;
@@ -43,10 +42,14 @@ import org.apache.lucene.search.LRUQueryCache;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.QueryCache;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SearcherLifetimeManager;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.modeshape.common.annotation.Immutable;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.logging.Logger;
@@ -71,16 +74,25 @@ public class Searcher {
     private static final Logger LOGGER = Logger.getLogger(Searcher.class);
     private static final int MAX_QUERIES_TO_CACHE = 200;
     private static final long MAX_RAM_BYTES_TO_USE = 50 * 1024L * 1024L;
+    // the maximum number of documents for which scores are kept in a priority queue rather than for each document of the index
+    private static final int MAX_TOP_DOCS = 10000;
+    // the number of seconds during which the searcher of some results can still be used after a newer searcher was used
+    private static final int MAX_RESULTS_SEARCHER_AGE_SECONDS = 600;
 
     private static final Set<String> ID_FIELD_SET = Collections.singleton(FieldUtil.ID);
     
     private final SearcherManager searchManager;
+    // the searchers used by the results which are being read, so that all the batches of some results use the same searcher
+    private final SearcherLifetimeManager resultsSearchers;
+    private final SearcherLifetimeManager.Pruner resultsSearchersPruner;
     private final ScheduledExecutorService searchManagerRefreshService;
     private final ScheduledFuture<?> searchManagerRefreshResult;
     private final QueryCache queryCache;
 
     protected Searcher( LuceneConfig config, IndexWriter writer, String name ) {
         this.searchManager = config.searchManager(writer);
+        this.resultsSearchers = new SearcherLifetimeManager();
+        this.resultsSearchersPruner = new SearcherLifetimeManager.PruneByAge(MAX_RESULTS_SEARCHER_AGE_SECONDS);
         this.queryCache = new LRUQueryCache(MAX_QUERIES_TO_CACHE, MAX_RAM_BYTES_TO_USE);
         this.searchManagerRefreshService = Executors.newScheduledThreadPool(1, new NamedThreadFactory(
                 name + "-lucene-search-manager-refresher"));
@@ -94,6 +106,7 @@ public class Searcher {
         try {
             searchManagerRefreshResult.cancel(false);
             searchManagerRefreshService.shutdown();
+            resultsSearchers.close();
             searchManager.close();
         } catch (IOException e) {
             LOGGER.warn(e, LuceneIndexProviderI18n.warnErrorWhileClosingSearcher);
@@ -149,6 +162,15 @@ public class Searcher {
         }
     }
 
+    protected void refreshSearchManagerIfIdle() {
+        try {
+            // this doesn't wait if the searcher is already being refreshed by another thread
+            searchManager.maybeRefresh();
+        } catch (IOException e) {
+            LOGGER.warn(e, LuceneIndexProviderI18n.warnErrorWhileRefreshingSearcher);
+        }
+    }
+
     protected <T> T search(Searchable<T> searchable, boolean refreshReader) {
         if (refreshReader) {
             refreshSearchManager();
@@ -171,136 +193,167 @@ public class Searcher {
         }
     }
    
+    /**
+     * The results of a query, which are collected when the first batch is requested. Only the Lucene ids of the matching
+     * documents (and their scores) are collected: the {@link NodeKey}s are only read for the documents of the batch which is
+     * requested, so the same searcher is used for all the batches. That searcher is kept by the results searchers rather than by
+     * the results, so that it is eventually released even if the results are never completely read nor closed; the results
+     * can't be read anymore once it is released. The keys are read from the doc values of the documents, and only from their
+     * stored fields for the documents which were written without doc values.
+     */
     private class LuceneResults implements Filter.Results {
         
         private final boolean scoreDocuments;
         private final long size;
         
         private Query query;
-        private Iterator<NodeKey> keysIterator;
-        private Iterator<Float> scoresIterator;
-        private int currentBatch;
+        // the version of the searcher which collected the documents, or -1 before the first batch
+        private long searcherVersion = -1L;
+        // either all the matching documents, or only the top scoring ones ...
+        private BitSet docIds;
+        private IdsCollector idsCollector;
+        private ScoreDoc[] topDocs;
+        // the position of the next document, in 'topDocs' or in 'docIds'
+        private int position;
+        private long returnedCount;
 
         protected LuceneResults( Query query, boolean scoreDocuments, long size ) {
             this.scoreDocuments = scoreDocuments;
             this.query = query;
-            this.currentBatch = 0;
             this.size = size;
         }
 
         @Override
         public Filter.ResultBatch getNextBatch(final int batchSize) {
-            int startPosition = currentBatch++ * batchSize;
-            int endPosition = (int) Math.min(size, startPosition + batchSize);
-            boolean hasNextBatch = endPosition != size;
-            int size = endPosition - startPosition;
-            return new Filter.ResultBatch() {
-                private int keysCount = 0;
-                private int scoresCount = 0;
-                
-                @Override
-                public Iterable<NodeKey> keys() {
-                   return () -> new Iterator<NodeKey>() {
-                       @Override
-                       public boolean hasNext() {
-                           if (keysCount == size) {
-                               return false;
-                           }
-                           if (keysIterator == null) {
-                               runQuery();
-                           }
-                           return keysIterator.hasNext();
-                       }
-
-                       @Override
-                       public NodeKey next() {
-                           if (keysCount++ == size) {
-                               throw new NoSuchElementException();
-                           }  
-                           if (keysIterator == null) {
-                               runQuery();
-                           }
-                           return keysIterator.next();
-                       }
-                   };
+            if (query == null || returnedCount >= size) {
+                return Filter.ResultBatch.EMPTY;
+            }
+            IndexSearcher searcher = null;
+            try {
+                searcher = searcherVersion < 0 ? collect() : resultsSearchers.acquire(searcherVersion);
+                if (searcher == null) {
+                    String msg = LuceneIndexProviderI18n.resultsSearcherReleased.text(query, MAX_RESULTS_SEARCHER_AGE_SECONDS);
+                    release();
+                    throw new LuceneIndexException(msg);
                 }
-
-                @Override
-                public Iterable<Float> scores() {
-                    return () -> new Iterator<Float>() {
-                        @Override
-                        public boolean hasNext() {
-                            if (scoresCount == size) {
-                                return false;
-                            }
-                            if (scoresIterator == null) {
-                                runQuery();
-                            }
-                            return scoresIterator.hasNext();
-                        }
-
-                        @Override
-                        public Float next() {
-                            if (scoresCount++ == size) {
-                                throw new NoSuchElementException();
-                            }
-                            if (scoresIterator == null) {
-                                runQuery();
-                            }
-                            return scoresIterator.next();
-                        }
-                    };
+                BinaryDocValues idValues = MultiDocValues.getBinaryValues(searcher.getIndexReader(), FieldUtil.ID);
+                int expectedCount = (int) Math.min(batchSize, size - returnedCount);
+                List<NodeKey> keys = new ArrayList<>(expectedCount);
+                List<Float> scores = new ArrayList<>(expectedCount);
+                while (keys.size() < expectedCount && hasMoreDocuments()) {
+                    int docId;
+                    float score;
+                    if (topDocs != null) {
+                        ScoreDoc scoreDoc = topDocs[position++];
+                        docId = scoreDoc.doc;
+                        score = scoreDoc.score;
+                    } else {
+                        docId = docIds.nextSetBit(position);
+                        position = docId + 1;
+                        score = idsCollector.scoreFor(docId);
+                    }
+                    keys.add(nodeKey(searcher, idValues, docId));
+                    scores.add(score);
                 }
-
-                @Override
-                public boolean hasNext() {
-                    return hasNextBatch;
+                returnedCount += keys.size();
+                boolean hasNextBatch = returnedCount < size && hasMoreDocuments();
+                if (!hasNextBatch) {
+                    release();
                 }
+                return new Filter.ResultBatch() {
+                    @Override
+                    public Iterable<NodeKey> keys() {
+                        return keys;
+                    }
 
-                @Override
-                public int size() {
-                    return size;
-                }
+                    @Override
+                    public Iterable<Float> scores() {
+                        return scores;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return hasNextBatch;
+                    }
 
-                private void runQuery() {
-                    if (keysIterator == null && scoresIterator == null) {
-                        Map<NodeKey, Float> results = search(searcher -> getSearchResults(searcher), true);
-                        keysIterator = results.keySet().iterator();
-                        scoresIterator = results.values().iterator();
+                    @Override
+                    public int size() {
+                        return keys.size();
+                    }
+                };
+            } catch (IOException e) {
+                release();
+                throw new LuceneIndexException(e);
+            } finally {
+                if (searcher != null) {
+                    try {
+                        resultsSearchers.release(searcher);
+                    } catch (IOException e) {
+                        LOGGER.debug(e, "Cannot release Lucene searcher");
                     }
                 }
-            };
+            }
         }
 
-        private Map<NodeKey, Float> getSearchResults(IndexSearcher searcher) throws IOException {
-            IdsCollector collector = new IdsCollector(scoreDocuments, searcher.getIndexReader().maxDoc());
-            searcher.search(query, collector);
-            BitSet docIds = collector.documents();
-            Map<NodeKey, Float> results = new LinkedHashMap<>();
-            for (int i = docIds.nextSetBit(0); i >= 0; i = docIds.nextSetBit(i + 1)) {
-                try {
-                    // this is a valid document which we have to load...
-                    Document document = searcher.doc(i, ID_FIELD_SET);
-                    String id = document.getBinaryValue(FieldUtil.ID).utf8ToString();
-                    Float score = collector.scoreFor(i);
-                    results.put(new NodeKey(id), score);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+        private IndexSearcher collect() throws IOException {
+            refreshSearchManager();
+            IndexSearcher searcher = searchManager.acquire();
+            try {
+                searcher.setQueryCache(queryCache);
+                // the searcher is kept (for a limited time) until all the batches are read ...
+                searcherVersion = resultsSearchers.record(searcher);
+                resultsSearchers.prune(resultsSearchersPruner);
+                int maxDoc = searcher.getIndexReader().maxDoc();
+                if (scoreDocuments && size > 0 && size <= MAX_TOP_DOCS && size < maxDoc) {
+                    // only the expected number of documents is returned, so only keep the ones with the highest scores ...
+                    TopScoreDocCollector collector = TopScoreDocCollector.create((int) size);
+                    searcher.search(query, collector);
+                    topDocs = collector.topDocs().scoreDocs;
+                } else {
+                    idsCollector = new IdsCollector(scoreDocuments, maxDoc);
+                    searcher.search(query, idsCollector);
+                    docIds = idsCollector.documents();
                 }
+                position = 0;
+                return resultsSearchers.acquire(searcherVersion);
+            } finally {
+                searchManager.release(searcher);
+            }
+        }
+
+        private NodeKey nodeKey( IndexSearcher searcher, BinaryDocValues idValues, int docId ) throws IOException {
+            BytesRef id = idValues != null ? idValues.get(docId) : null;
+            if (id == null || id.length == 0) {
+                // this document has no doc values, so we have to load it...
+                Document document = searcher.doc(docId, ID_FIELD_SET);
+                id = document.getBinaryValue(FieldUtil.ID);
             }
-            return results;
+            return new NodeKey(id.utf8ToString());
+        }
+
+        private boolean hasMoreDocuments() {
+            if (topDocs == null && docIds == null) {
+                return false;
+            }
+            return topDocs != null ? position < topDocs.length : docIds.nextSetBit(position) >= 0;
+        }
+
+        private void release() {
+            // the searcher itself is released by the results searchers once it is old enough ...
+            docIds = null;
+            idsCollector = null;
+            topDocs = null;
+            query = null;
         }
 
         @Override
         public void close() {
-            keysIterator = null;
-            scoresIterator = null;
-            query = null;
+            release();
         }
 
         @Override
         public String toString() {
-            final StringBuilder sb = new StringBuilder(query.toString());
+            final StringBuilder sb = new StringBuilder(String.valueOf(query));
             sb.append("=").append("[").append(size).append( " keys]");
             return sb.toString();
         }
@@ -93,6 +93,33 @@ public class LuceneRepositoryTest {
         validateQuery().hasNodesAtPaths("/node2").useIndex("titleIndex").validate(query, query.execute());
     }
 
+    @Test
+    public void shouldSearchAndPersistChangesInNearRealTimeMode() throws Exception {
+        FileUtil.delete("target/lucene-nrt");
+        repository = TestingUtil.startRepositoryWithConfig("config/repo-config-persistent-lucene-provider-near-real-time.json");
+
+        Session session = repository.login();
+        for (int i = 1; i <= 3; i++) {
+            Node node = session.getRootNode().addNode("node" + i);
+            node.addMixin("mix:title");
+            node.setProperty("jcr:title", "title" + i);
+            // each change set is only flushed, but must be visible to the next query
+            session.save();
+            Query query = session.getWorkspace().getQueryManager().createQuery(
+                    "select node.[jcr:path] from [mix:title] as node where node.[jcr:title] = 'title" + i + "'", Query.JCR_SQL2);
+            validateQuery().hasNodesAtPaths("/node" + i).useIndex("titleIndex").validate(query, query.execute());
+        }
+        session.logout();
+
+        // the flushed changes are committed to the disk when the repository is shut down
+        TestingUtil.killRepositories(repository);
+        repository = TestingUtil.startRepositoryWithConfig("config/repo-config-persistent-lucene-provider-near-real-time.json");
+        session = repository.login();
+        Query query = session.getWorkspace().getQueryManager().createQuery(
+                "select node.[jcr:path] from [mix:title] as node where node.[jcr:title] LIKE 'title%'", Query.JCR_SQL2);
+        validateQuery().hasNodesAtPaths("/node1", "/node2", "/node3").useIndex("titleIndex").validate(query, query.execute());
+    }
+
     @Test
     @FixFor( "MODE-1903" )
     public void shouldReindexContentInClusterIncrementally() throws Exception {
@@ -20,14 +20,19 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import org.apache.lucene.index.DirectoryReader;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.modeshape.jcr.value.PropertyType;
@@ -161,6 +166,87 @@ public class SingleColumnIndexPersistenceTest extends AbstractIndexPersistenceTe
         assertEquals(2, index.estimateTotalCount());
     }
 
+    @Test
+    @SuppressWarnings("deprecation")
+    public void shouldRebuildTheIndexWrittenWithAnOlderFormat() throws Exception {
+        addMultiplePropertiesToSameNode(index, UUID.randomUUID().toString(), 1, PropertyType.STRING);
+        index.commit();
+        // simulate an index written before the format version was recorded
+        Map<String, String> commitData = new HashMap<>(index.writer.getCommitData());
+        commitData.remove(LuceneConfig.FORMAT_VERSION);
+        index.writer.setCommitData(commitData);
+        index.writer.commit();
+
+        // restart the index without clearing the data
+        index.shutdown(false);
+        index = defaultIndex();
+
+        // the old documents are removed and the index must be rebuilt
+        assertTrue(index.requiresReindexing());
+        assertEquals(0, index.estimateTotalCount());
+        addMultiplePropertiesToSameNode(index, UUID.randomUUID().toString(), 1, PropertyType.STRING);
+        index.commit();
+        // the rebuild is not completed yet
+        assertTrue(index.requiresReindexing());
+
+        // simulate a crash during the rebuild, so that the partially rebuilt index must be rebuilt again
+        index.shutdown(false);
+        index = defaultIndex();
+        assertTrue(index.requiresReindexing());
+        assertEquals(0, index.estimateTotalCount());
+
+        addMultiplePropertiesToSameNode(index, UUID.randomUUID().toString(), 1, PropertyType.STRING);
+        index.commit();
+        index.reindexingCompleted();
+        assertFalse(index.requiresReindexing());
+
+        index.shutdown(false);
+        index = defaultIndex();
+        assertFalse(index.requiresReindexing());
+        assertEquals(1, index.estimateTotalCount());
+    }
+
+    @Test
+    public void shouldCommitTheChangesToTheDiskPeriodicallyInNearRealTimeMode() throws Exception {
+        index.shutdown(false);
+        ScheduledExecutorService committer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            config = new LuceneConfig("target/lucene-index-test", null, null, null, null, null, committer, 3600, 3);
+            index = defaultIndex();
+
+            addMultiplePropertiesToSameNode(index, UUID.randomUUID().toString(), 1, PropertyType.STRING);
+            index.commit();
+            // the changes can be searched, but were not committed to the disk
+            assertEquals(1, index.estimateCardinality(Collections.emptyList(), Collections.emptyMap()));
+            assertEquals(0, committedDocumentCount());
+
+            addMultiplePropertiesToSameNode(index, UUID.randomUUID().toString(), 1, PropertyType.STRING);
+            index.commit();
+            addMultiplePropertiesToSameNode(index, UUID.randomUUID().toString(), 1, PropertyType.STRING);
+            index.commit();
+            // the maximum number of segments was flushed
+            assertEquals(3, committedDocumentCount());
+
+            addMultiplePropertiesToSameNode(index, UUID.randomUUID().toString(), 1, PropertyType.STRING);
+            index.commit();
+            assertEquals(3, committedDocumentCount());
+
+            // the flushed changes are committed on shutdown
+            index.shutdown(false);
+            index = defaultIndex();
+            assertFalse(index.requiresReindexing());
+            assertEquals(4, index.estimateTotalCount());
+        } finally {
+            committer.shutdownNow();
+        }
+    }
+
+    private int committedDocumentCount() throws Exception {
+        try (DirectoryReader reader = DirectoryReader.open(index.writer.getDirectory())) {
+            return reader.numDocs();
+        }
+    }
+
     @Test
     @Ignore("perf test")
     public void singleThreadIndexCrudPerformance() throws Exception {
@@ -639,6 +639,19 @@ public class SingleColumnIndexSearchTest extends AbstractLuceneIndexSearchTest {
         validateCardinality(constraint, 0);
     }
 
+    @Test
+    public void shouldReturnTheResultsInSeveralBatches() throws Exception {
+        Long[] values = new Long[25];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) i;
+        }
+        List<String> nodeKeys = indexNodes(LONG_PROP, values);
+        indexNodes(STRING_PROP, "a", "b");
+        Constraint constraint = propertyExistence(LONG_PROP);
+        validateCardinality(constraint, 25);
+        validateFilterResults(constraint, 4, false, nodeKeys.toArray(new String[nodeKeys.size()]));
+    }
+
     @Test
     public void shouldSearchForBetweenConstraint() throws Exception {
         List<String> nodeKeys = indexNodes(LONG_PROP, 1l, 3l);
@@ -701,6 +714,29 @@ public class SingleColumnIndexSearchTest extends AbstractLuceneIndexSearchTest {
         System.out.println(Thread.currentThread().getName() + ": (" + index.getName() + ") Total time to search " + nodeKeys.size() + " nodes: " + searchTime/1000d + " seconds");
     }
 
+    @Test
+    @Ignore("perf test")
+    public void readResultKeysPerfTest() throws Exception {
+        int nodeCount = 2000000;
+        List<String> evenKeys = new ArrayList<>(nodeCount / 2);
+        for (int i = 0; i < nodeCount; i++) {
+            List<String> keys = indexNodes(LONG_PROP, (long) (i % 2));
+            if (i % 2 == 0) {
+                evenKeys.addAll(keys);
+            }
+        }
+        index.commit();
+        assertEquals(nodeCount, index.estimateTotalCount());
+        // the node keys of the results are read from the doc values, in batches of the size used by the query engine
+        long start = System.nanoTime();
+        Constraint constraint = propertyValue(LONG_PROP, Operator.EQUAL_TO, 0L);
+        validateFilterResults(constraint, 1000, false, evenKeys.toArray(new String[evenKeys.size()]));
+        long duration = System.nanoTime() - start;
+        long searchTime = TimeUnit.MILLISECONDS.convert(duration, TimeUnit.NANOSECONDS);
+        System.out.println(Thread.currentThread().getName() + ": (" + index.getName() + ") Total time to read the keys of " +
+                           evenKeys.size() + " results out of " + nodeCount + " nodes: " + searchTime / 1000d + " seconds");
+    }
+
     @Test
     @FixFor( "MODE-2567" )
     public void shouldSearchForLikeConstraintContainingSpaceAmpersand() throws Exception {
@@ -104,7 +104,58 @@ public enum ValueMetric {
     /**
      * The metric that records the number of nodes that were sequenced.
      */
-    SEQUENCED_COUNT("sequenced-count", false, "Sequenced nodes", "The number of nodes that were sequenced during the window.");
+    SEQUENCED_COUNT("sequenced-count", false, "Sequenced nodes", "The number of nodes that were sequenced during the window."),
+    /**
+     * The metric that records the number of node lookups which were served from the workspace caches.
+     */
+    WORKSPACE_CACHE_HITS("workspace-cache-hits", false, "Workspace cache hits",
+                         "The number of node lookups which were served from the workspace caches during the window."),
+    /**
+     * The metric that records the number of node lookups which had to be read from the persistent store.
+     */
+    WORKSPACE_CACHE_MISSES("workspace-cache-misses", false, "Workspace cache misses",
+                           "The number of node lookups which had to be read from the persistent store during the window."),
+    /**
+     * The metric that records the number of nodes evicted from the workspace caches because of their size limits.
+     */
+    WORKSPACE_CACHE_EVICTIONS("workspace-cache-evictions", false, "Workspace cache evictions",
+                              "The number of nodes evicted from the workspace caches during the window because the caches were full."),
+    /**
+     * The metric that records the number of query executions which reused a cached query plan.
+     */
+    QUERY_PLAN_CACHE_HITS("query-plan-cache-hits", false, "Query plan cache hits",
+                          "The number of query executions which reused a cached query plan during the window."),
+    /**
+     * The metric that records the number of query executions which had to plan and optimize the query.
+     */
+    QUERY_PLAN_CACHE_MISSES("query-plan-cache-misses", false, "Query plan cache misses",
+                            "The number of query executions which had to plan and optimize the query during the window."),
+    /**
+     * The metric that records the number of bytes of rows which queries held in memory buffers.
+     */
+    QUERY_BUFFERED_BYTES("query-buffered-bytes", false, "Query buffered bytes",
+                         "The number of bytes of rows which queries held in memory buffers during the window."),
+    /**
+     * The metric that records the number of bytes of rows which queries wrote to temporary files because their memory budget was
+     * exceeded.
+     */
+    QUERY_SPILLED_BYTES("query-spilled-bytes", false, "Query spilled bytes",
+                        "The number of bytes of rows which queries wrote to temporary files during the window."),
+    /**
+     * The metric that records the number of query executions which reused a cached query result.
+     */
+    QUERY_RESULT_CACHE_HITS("query-result-cache-hits", false, "Query result cache hits",
+                            "The number of query executions which reused a cached query result during the window."),
+    /**
+     * The metric that records the number of cacheable query executions which found no cached query result.
+     */
+    QUERY_RESULT_CACHE_MISSES("query-result-cache-misses", false, "Query result cache misses",
+                              "The number of cacheable query executions which found no cached query result during the window."),
+    /**
+     * The metric that records the number of nodes which were written to the indexes while reindexing the repository content.
+     */
+    REINDEXED_NODES("reindexed-nodes", false, "Reindexed nodes",
+                    "The number of nodes which were written to the indexes while reindexing the content during the window.");
 
     private static final Map<String, ValueMetric> BY_LITERAL;
     private static final Map<String, ValueMetric> BY_NAME;
@@ -37,6 +37,16 @@ public interface Query extends javax.jcr.query.Query {
      */
     public void includeSystemContent( boolean includeSystemContent );
 
+    /**
+     * Specify whether the results of this query should be streamed. The rows of streamed results are computed only as they are
+     * consumed, so that the first rows are available before the whole result is known. However, the rows or nodes of streamed
+     * results can only be obtained once, and their {@link javax.jcr.RangeIterator#getSize() size} is unknown (-1) until all the
+     * rows have been consumed. Results are not streamed by default.
+     * 
+     * @param streaming true if the results should be streamed, or false if they can be iterated several times
+     */
+    public void streaming( boolean streaming );
+
     /**
      * Signal that the query, if currently {@link Query#execute() executing}, should be cancelled and stopped (with an exception).
      * This method does not block until the query is actually stopped.
@@ -38,6 +38,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import javax.jcr.RepositoryException;
@@ -426,23 +427,20 @@ public class BackupService {
                     // PHASE 1:
                     // Perform the backup of the repository cache content ...
                     AtomicInteger counter = new AtomicInteger();
-                    List<String> keys = documentStore.keys();
-                    // remove the metadata key since we want that to always export that last
-                    keys.remove(metadataKey.toString());
-                    int startIdx = 0;
-                    int totalDocumentsCount = keys.size();
-                    int batchSize = options.batchSize();
-                    while (startIdx < totalDocumentsCount) {
-                        int estimatedEndIdx = startIdx + batchSize;
-                        int endIdx = estimatedEndIdx < totalDocumentsCount ? estimatedEndIdx : totalDocumentsCount;
-                        LOGGER.debug("writing batch [{0}, {1}] of documents from the content store...", startIdx, endIdx);
-                        List<String> batchKeys = keys.subList(startIdx, endIdx);
-                        batchWriteDocuments(batchKeys, contentWriter);
-                        counter.addAndGet(batchKeys.size());
-                        if (endIdx == totalDocumentsCount) {
-                            break;
-                        }
-                        startIdx += batchSize;
+                    String metadataKeyString = metadataKey.toString();
+                    // the entries are streamed from the store in batches, so that the keys are never all held in memory
+                    try (Stream<SchematicEntry> entries = documentStore.scan(options.batchSize())) {
+                        entries.forEach(entry -> {
+                            // skip the metadata document since we want that to always export that last
+                            if (metadataKeyString.equals(entry.id())) {
+                                return;
+                            }
+                            if (LOGGER.isTraceEnabled()) {
+                                LOGGER.trace("backing up doc: {0}", entry.source());
+                            }
+                            writeToContentArea(entry, contentWriter);
+                            counter.incrementAndGet();
+                        });
                     }
                     LOGGER.debug("Wrote {0} documents to {1}", counter, backupDirectory.getAbsolutePath());
 
@@ -531,15 +529,6 @@ public class BackupService {
 
             return problems;
         }
-        
-        private void batchWriteDocuments(List<String> keys, BackupDocumentWriter contentWriter) {
-            documentStore.load(keys).forEach(entry -> {
-                if (LOGGER.isTraceEnabled()) {
-                    LOGGER.trace("backing up doc: {0}", entry.source());
-                }
-                writeToContentArea(entry, contentWriter);
-            });   
-        }
     }
 
     /**
@@ -47,6 +47,9 @@ public final class JcrI18n {
     public static I18n warnIncrementalIndexingJournalNotEnabled;
     public static I18n warnIncrementalIndexingJournalNotStarted;
     public static I18n warnIncrementalIndexingNotSupported;
+    public static I18n unableToReadReindexingCheckpoint;
+    public static I18n unableToSaveReindexingCheckpoint;
+    public static I18n resumingInterruptedReindexing;
 
     public static I18n cannotConvertValue;
     public static I18n loginFailed;
@@ -439,6 +442,7 @@ public final class JcrI18n {
 
     public static I18n cannotStartJournal;
     public static I18n cannotStopJournal;
+    public static I18n cannotCommitJournalRecords;
     public static I18n journalHasNotCompletedReconciliation;
 
     public static I18n indexProviderNameRequired;
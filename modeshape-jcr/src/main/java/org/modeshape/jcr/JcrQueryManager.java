@@ -48,6 +48,7 @@ import org.modeshape.jcr.query.CancellableQuery;
 import org.modeshape.jcr.query.JcrQuery;
 import org.modeshape.jcr.query.JcrQueryContext;
 import org.modeshape.jcr.query.JcrTypeSystem;
+import org.modeshape.jcr.query.QueryPlanCache;
 import org.modeshape.jcr.query.model.QueryCommand;
 import org.modeshape.jcr.query.model.QueryObjectModel;
 import org.modeshape.jcr.query.model.QueryObjectModelFactory;
@@ -136,11 +137,16 @@ class JcrQueryManager implements QueryManager {
             throw new InvalidQueryException(JcrI18n.invalidQueryLanguage.text(language, languages));
         }
         try {
-            // Parsing must be done now ...
-            QueryCommand command = parser.parseQuery(expression, typeSystem);
+            // Parsing must be done now, unless the same expression has already been parsed ...
+            QueryPlanCache planCache = session.repository().queryManager().planCache();
+            QueryCommand command = planCache.parsedQuery(parser.getLanguage(), expression, session.context());
             if (command == null) {
-                // The query is not well-formed and cannot be parsed ...
-                throw new InvalidQueryException(JcrI18n.queryCannotBeParsedUsingLanguage.text(language, expression));
+                command = parser.parseQuery(expression, typeSystem);
+                if (command == null) {
+                    // The query is not well-formed and cannot be parsed ...
+                    throw new InvalidQueryException(JcrI18n.queryCannotBeParsedUsingLanguage.text(language, expression));
+                }
+                planCache.putParsedQuery(parser.getLanguage(), expression, session.context(), command);
             }
             // Set up the hints ...
             PlanHints hints = new PlanHints();
@@ -964,7 +964,7 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                     // Start the Cron service, with a minimum of a single thread ...
                     this.statsRollupService = tempContext.getScheduledThreadPool("modeshape-stats");
                     this.statistics.start(this.statsRollupService);
-                    this.mbean = new RepositoryStatisticsBean(statistics, getName());
+                    this.mbean = new RepositoryStatisticsBean(statistics, statistics.reindexingProgress(), getName());
                     this.mbean.start();
                 } else {
                     this.statsRollupService = null;
@@ -1088,7 +1088,8 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                     if (journaling.isEnabled()) {
                         boolean asyncWritesEnabled = journaling.asyncWritesEnabled();
                         LocalJournal localJournal = new LocalJournal(journaling.location(), asyncWritesEnabled,
-                                                                     journaling.maxDaysToKeepRecords());
+                                                                     journaling.maxDaysToKeepRecords(),
+                                                                     journaling.groupCommitMaxLatencyMillis());
                         this.journal = clusteringService != null ? new ClusteredJournal(localJournal, clusteringService) : localJournal;
                         this.journal.start();
                         if (asyncWritesEnabled) {
@@ -1111,7 +1112,7 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
 
                     // Set up the repository cache ...
                     this.cache = new RepositoryCache(context, documentStore, config, systemContentInitializer,
-                                                     repositoryEnvironment, changeBus, Upgrades.STANDARD_UPGRADES);
+                                                     repositoryEnvironment, changeBus, statistics(), Upgrades.STANDARD_UPGRADES);
 
                     // Set up the node type manager ...
                     this.nodeTypes = new RepositoryNodeTypeManager(this, true, true);
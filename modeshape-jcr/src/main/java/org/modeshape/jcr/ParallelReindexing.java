@@ -0,0 +1,450 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.jcr.JcrRepository.RunningState;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.ChildReference;
+import org.modeshape.jcr.cache.ChildReferences;
+import org.modeshape.jcr.cache.NodeCache;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.PathCache;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.BatchingIndexWriter;
+import org.modeshape.jcr.spi.index.IndexWriter;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * The reindexing of all the content below a node, which is split into subtrees that are reindexed in parallel by the threads of
+ * an executor and by the thread performing the reindexing. Each thread buffers the nodes of its subtrees and writes them in
+ * batches to one index provider after the other.
+ * <p>
+ * The content is split by expanding the top of the tree breadth-first, so that the same content is always split into the same
+ * subtrees regardless of the number of threads. When {@link ReindexingCheckpoints checkpoints} are used, the indexes are
+ * periodically committed and the completed subtrees saved, so that a reindexing which is interrupted can be resumed without
+ * reindexing those subtrees again.
+ * </p>
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+final class ParallelReindexing {
+
+    /**
+     * The number of subtrees below which the top of the content is split further.
+     */
+    private static final int MIN_SUBTREE_COUNT = 64;
+
+    /**
+     * The maximum depth at which the content is split into subtrees.
+     */
+    private static final int MAX_SPLIT_DEPTH = 3;
+
+    private static final long CHECKPOINT_INTERVAL_IN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Logger logger = Logger.getLogger(getClass());
+    private final Logger indexLogger = Logger.getLogger(getClass().getPackage().getName() + ".index");
+    private final RunningState runningState;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final int batchSize;
+    private final ReindexingCheckpoints checkpoints;
+
+    /**
+     * Create the reindexing engine of a repository.
+     *
+     * @param runningState the state of the repository; may not be null
+     * @param executor the executor whose threads reindex the subtrees, which must not run the operations that call
+     *        {@link #reindex} since those wait for the subtrees; may not be null
+     * @param parallelism the maximum number of threads which can reindex the subtrees at the same time; must be positive
+     * @param batchSize the number of nodes buffered by each thread before they are written to each index provider
+     * @param checkpoints the checkpoints in which the progress is saved, or null if the progress should not be saved
+     */
+    ParallelReindexing( RunningState runningState,
+                        ExecutorService executor,
+                        int parallelism,
+                        int batchSize,
+                        ReindexingCheckpoints checkpoints ) {
+        assert parallelism > 0;
+        assert batchSize > 0;
+        this.runningState = runningState;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * Get the checkpoints in which the progress of the reindexing operations is saved.
+     *
+     * @return the checkpoints, or null if the progress is not saved
+     */
+    ReindexingCheckpoints checkpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Reindex a node and all the content below it.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @param cache the cache of the workspace; may not be null
+     * @param node the node at the top of the content; may not be null
+     * @param includeSystemContent true if the "/jcr:system" content below the node should be reindexed as well
+     * @param indexes the writer to the indexes; may not be null
+     * @param fingerprint the fingerprint of the index definitions which are reindexed; may not be null
+     * @param resume true if the subtrees completed by a previous reindexing of the same content which was interrupted should not
+     *        be reindexed again, or false if the reindexing should start over
+     * @return true if at least one index was updated, or false otherwise
+     */
+    boolean reindex( String workspaceName,
+                     NodeCache cache,
+                     CachedNode node,
+                     boolean includeSystemContent,
+                     IndexWriter indexes,
+                     String fingerprint,
+                     boolean resume ) {
+        if (indexes.canBeSkipped() || node.isExcludedFromSearch(cache)) {
+            return false;
+        }
+        ReindexingCheckpoints.Checkpoint checkpoint = checkpoints != null ? checkpoints.open(workspaceName, node.getKey(),
+                                                                                             includeSystemContent, fingerprint,
+                                                                                             resume) : null;
+        return new Run(indexes, checkpoint).reindex(new Subtree(workspaceName, cache, node.getKey()), includeSystemContent);
+    }
+
+    /**
+     * The content below a node, which is reindexed by a single thread.
+     */
+    private static final class Subtree {
+        private final String workspaceName;
+        private final NodeCache cache;
+        private final NodeKey key;
+
+        protected Subtree( String workspaceName,
+                           NodeCache cache,
+                           NodeKey key ) {
+            this.workspaceName = workspaceName;
+            this.cache = cache;
+            this.key = key;
+        }
+    }
+
+    /**
+     * A single reindexing operation.
+     */
+    private final class Run {
+        private final IndexWriter indexes;
+        private final ReindexingCheckpoints.Checkpoint checkpoint;
+        private final ReindexingProgress progress;
+        private final Set<String> workspaceNames = new HashSet<>();
+        private final AtomicLong nextCheckpointTime = new AtomicLong(System.currentTimeMillis() + CHECKPOINT_INTERVAL_IN_MILLIS);
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        private final AtomicInteger completedCount = new AtomicInteger();
+        private volatile boolean stopped;
+        private volatile boolean indexesUpdated;
+
+        protected Run( IndexWriter indexes,
+                       ReindexingCheckpoints.Checkpoint checkpoint ) {
+            this.indexes = indexes;
+            this.checkpoint = checkpoint;
+            this.progress = runningState.statistics().reindexingProgress();
+        }
+
+        protected boolean reindex( Subtree top,
+                                   boolean includeSystemContent ) {
+            boolean completed = false;
+            try {
+                // Split the top of the content into subtrees, reindexing the nodes above the subtrees ...
+                BatchingIndexWriter writer = new BatchingIndexWriter(indexes, batchSize);
+                List<Subtree> subtrees = split(top, includeSystemContent, writer);
+                reindexed(writer.flush());
+                indexesUpdated = writer.indexesUpdated();
+                workspaceNames.add(top.workspaceName);
+
+                Queue<Subtree> remaining = new ConcurrentLinkedQueue<>();
+                int resumedCount = 0;
+                for (Subtree subtree : subtrees) {
+                    workspaceNames.add(subtree.workspaceName);
+                    if (checkpoint != null && checkpoint.isResumed(subtree.key)) {
+                        ++resumedCount;
+                    } else {
+                        remaining.add(subtree);
+                    }
+                }
+                if (resumedCount > 0) {
+                    logger.info(JcrI18n.resumingInterruptedReindexing, top.workspaceName, runningState.name());
+                    logger.debug("{0} of the {1} subtrees were already reindexed", resumedCount, subtrees.size());
+                }
+                progress.started(subtrees.size(), resumedCount);
+                boolean interrupted = false;
+                try {
+                    // Reindex the subtrees using the threads of the executor and this thread ...
+                    int threadCount = Math.min(parallelism, remaining.size());
+                    List<Future<?>> futures = new ArrayList<>(threadCount);
+                    for (int i = 1; i < threadCount; i++) {
+                        try {
+                            futures.add(executor.submit(() -> work(remaining)));
+                        } catch (RejectedExecutionException e) {
+                            // the executor is shut down or saturated, so use fewer threads ...
+                            break;
+                        }
+                    }
+                    work(remaining);
+                    interrupted = waitFor(futures);
+                } finally {
+                    progress.finished(subtrees.size() - resumedCount - completedCount.get());
+                }
+                try {
+                    completed = remaining.isEmpty() && failure.get() == null && !interrupted;
+                    if (checkpoint != null) {
+                        if (completed) {
+                            commit();
+                        } else {
+                            saveCheckpoint();
+                        }
+                    }
+                } finally {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (failure.get() != null) {
+                    throw failure.get();
+                }
+                return indexesUpdated;
+            } finally {
+                if (checkpoint != null) {
+                    if (completed) {
+                        checkpoint.finished();
+                    } else {
+                        // keep the saved progress, so that the reindexing can be resumed ...
+                        checkpoint.interrupted();
+                    }
+                }
+            }
+        }
+
+        private List<Subtree> split( Subtree top,
+                                     boolean includeSystemContent,
+                                     BatchingIndexWriter writer ) {
+            List<Subtree> subtrees = new ArrayList<>();
+            subtrees.add(top);
+            for (int depth = 0; depth != MAX_SPLIT_DEPTH && subtrees.size() < MIN_SUBTREE_COUNT; depth++) {
+                List<Subtree> children = new ArrayList<>();
+                for (Subtree subtree : subtrees) {
+                    CachedNode node = subtree.cache.getNode(subtree.key);
+                    if (node == null || node.isExcludedFromSearch(subtree.cache)) {
+                        continue;
+                    }
+                    add(subtree.workspaceName, subtree.cache, node, new PathCache(subtree.cache), writer);
+                    if (depth == 0) {
+                        addChildrenOfTop(subtree, node, includeSystemContent, children);
+                    } else {
+                        for (ChildReference childRef : node.getChildReferences(subtree.cache)) {
+                            children.add(new Subtree(subtree.workspaceName, subtree.cache, childRef.getKey()));
+                        }
+                    }
+                }
+                subtrees = children;
+            }
+            return subtrees;
+        }
+
+        private void addChildrenOfTop( Subtree top,
+                                       CachedNode node,
+                                       boolean includeSystemContent,
+                                       List<Subtree> children ) {
+            if (includeSystemContent) {
+                // We need to look for the system node, and index it in the system workspace ...
+                ChildReferences childRefs = node.getChildReferences(top.cache);
+                ChildReference systemRef = childRefs.getChild(JcrLexicon.SYSTEM);
+                NodeKey systemKey = systemRef != null ? systemRef.getKey() : null;
+                for (ChildReference childRef : childRefs) {
+                    NodeKey childKey = childRef.getKey();
+                    if (childKey.equals(systemKey)) {
+                        RepositoryCache repoCache = runningState.repositoryCache();
+                        String systemWorkspaceName = repoCache.getSystemWorkspaceName();
+                        NodeCache systemWorkspaceCache = repoCache.getWorkspaceCache(systemWorkspaceName);
+                        children.add(new Subtree(systemWorkspaceName, systemWorkspaceCache, childKey));
+                    } else {
+                        children.add(new Subtree(top.workspaceName, top.cache, childKey));
+                    }
+                }
+            } else {
+                for (ChildReference childRef : node.getChildReferences(top.cache)) {
+                    NodeKey childKey = childRef.getKey();
+                    // we should not reindex anything which is in the system area
+                    if (!childKey.getWorkspaceKey().equals(runningState.systemWorkspaceKey())) {
+                        children.add(new Subtree(top.workspaceName, top.cache, childKey));
+                    }
+                }
+            }
+        }
+
+        private void work( Queue<Subtree> remaining ) {
+            BatchingIndexWriter writer = new BatchingIndexWriter(indexes, batchSize);
+            try {
+                Subtree subtree = null;
+                while (!isStopped() && (subtree = remaining.poll()) != null) {
+                    if (reindexSubtree(subtree, writer)) {
+                        if (checkpoint != null) {
+                            checkpoint.completed(subtree.key);
+                        }
+                        completedCount.incrementAndGet();
+                        progress.subtreeCompleted();
+                        saveCheckpointIfDue();
+                    } else {
+                        // put it back, so that it is not counted as completed ...
+                        remaining.add(subtree);
+                    }
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+                stopped = true;
+            } finally {
+                if (writer.indexesUpdated()) {
+                    indexesUpdated = true;
+                }
+            }
+        }
+
+        private boolean reindexSubtree( Subtree subtree,
+                                        BatchingIndexWriter writer ) {
+            NodeCache cache = subtree.cache;
+            PathCache paths = new PathCache(cache);
+            Deque<NodeKey> keys = new ArrayDeque<>();
+            keys.push(subtree.key);
+            int count = 0;
+            while (!keys.isEmpty()) {
+                if (isStopped()) {
+                    writer.flush();
+                    reindexed(count);
+                    return false;
+                }
+                CachedNode node = cache.getNode(keys.pop());
+                if (node == null || node.isExcludedFromSearch(cache)) {
+                    continue;
+                }
+                add(subtree.workspaceName, cache, node, paths, writer);
+                if (++count == batchSize) {
+                    reindexed(count);
+                    count = 0;
+                }
+                for (ChildReference childRef : node.getChildReferences(cache)) {
+                    keys.push(childRef.getKey());
+                }
+            }
+            writer.flush();
+            reindexed(count);
+            return true;
+        }
+
+        private void add( String workspaceName,
+                          NodeCache cache,
+                          CachedNode node,
+                          PathCache paths,
+                          IndexWriter writer ) {
+            Path nodePath = paths.getPath(node);
+            if (indexLogger.isTraceEnabled()) {
+                String path = runningState.context().getValueFactories().getStringFactory().create(nodePath);
+                indexLogger.trace("Reindexing node '{0}' in workspace '{1}' of repository '{2}': {3}", path, workspaceName,
+                                  runningState.name(), node);
+            }
+            writer.add(workspaceName, node.getKey(), nodePath, node.getPrimaryType(cache), node.getMixinTypes(cache),
+                       node.getPropertiesByName(cache));
+        }
+
+        private void reindexed( long nodeCount ) {
+            if (nodeCount > 0) {
+                progress.reindexed(nodeCount);
+                runningState.statistics().increment(ValueMetric.REINDEXED_NODES, nodeCount);
+            }
+        }
+
+        private boolean isStopped() {
+            if (!stopped && Thread.currentThread().isInterrupted()) {
+                // the reindexing was cancelled, so make all the threads stop ...
+                stopped = true;
+            }
+            return stopped;
+        }
+
+        private boolean waitFor( List<Future<?>> futures ) {
+            boolean interrupted = Thread.interrupted();
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // the other threads will stop after their current node, so keep waiting for them ...
+                        interrupted = true;
+                        stopped = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        failure.compareAndSet(null, cause instanceof RuntimeException ? (RuntimeException)cause :
+                                                    new RuntimeException(cause));
+                        break;
+                    }
+                }
+            }
+            return interrupted;
+        }
+
+        private void saveCheckpointIfDue() {
+            if (checkpoint == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long next = nextCheckpointTime.get();
+            if (now >= next && nextCheckpointTime.compareAndSet(next, now + CHECKPOINT_INTERVAL_IN_MILLIS)) {
+                saveCheckpoint();
+            }
+        }
+
+        private void saveCheckpoint() {
+            // the changes of the completed subtrees must be committed before the subtrees are saved ...
+            Set<NodeKey> completedSubtrees = checkpoint.completedSubtrees();
+            commit();
+            checkpoint.save(completedSubtrees);
+        }
+
+        private void commit() {
+            for (String workspaceName : workspaceNames) {
+                indexes.commit(workspaceName);
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.SecureHash;
+import org.modeshape.jcr.cache.NodeKey;
+
+/**
+ * The files in which the reindexing operations periodically save the subtrees which they have completely reindexed, so that a
+ * reindexing which is interrupted by a shutdown of the repository can be resumed when the repository is restarted.
+ * <p>
+ * Each file belongs to the reindexing of the subtree below one node, and starts with the fingerprint of the index definitions,
+ * the name of the workspace, the key of the node and whether the system content is reindexed, followed by the keys of the
+ * roots of the completed subtrees, one per line. The file is removed when the reindexing is completed.
+ * </p>
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+final class ReindexingCheckpoints {
+
+    private static final Logger LOGGER = Logger.getLogger(ReindexingCheckpoints.class);
+    private static final String EXTENSION = ".checkpoint";
+    private static final int HEADER_LINES = 4;
+
+    private final File directory;
+    private final String repositoryName;
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+
+    ReindexingCheckpoints( File directory,
+                           String repositoryName ) {
+        this.directory = directory;
+        this.repositoryName = repositoryName;
+    }
+
+    /**
+     * Open the checkpoint of the reindexing of the subtree below a node.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @param startKey the key of the node at the top of the reindexed subtree; may not be null
+     * @param includeSystemContent whether the system content is reindexed
+     * @param fingerprint the fingerprint of the index definitions which are reindexed; may not be null
+     * @param resume true if the subtrees completed by a previous reindexing of the same content should not be reindexed again,
+     *        or false if the reindexing starts over
+     * @return the checkpoint, or null if the same content is already being reindexed by another operation which saves the
+     *         progress
+     */
+    Checkpoint open( String workspaceName,
+                     NodeKey startKey,
+                     boolean includeSystemContent,
+                     String fingerprint,
+                     boolean resume ) {
+        String id = idOf(workspaceName, startKey);
+        if (!inProgress.add(id)) {
+            return null;
+        }
+        File file = new File(directory, id + EXTENSION);
+        List<String> header = new ArrayList<>(HEADER_LINES);
+        header.add(fingerprint);
+        header.add(workspaceName);
+        header.add(startKey.toString());
+        header.add(Boolean.toString(includeSystemContent));
+        Set<NodeKey> completed = new HashSet<>();
+        if (resume && file.exists()) {
+            List<String> lines = read(file);
+            if (lines.size() >= HEADER_LINES && lines.subList(0, HEADER_LINES).equals(header)) {
+                for (String line : lines.subList(HEADER_LINES, lines.size())) {
+                    completed.add(new NodeKey(line));
+                }
+            }
+        }
+        return new Checkpoint(id, file, header, completed);
+    }
+
+    /**
+     * Get the reindexing operations which were interrupted before they were completed, and which are not running.
+     *
+     * @return the interrupted operations; never null
+     */
+    List<Interrupted> interrupted() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<Interrupted> result = new ArrayList<>();
+        for (File file : files) {
+            String id = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+            if (inProgress.contains(id)) {
+                continue;
+            }
+            List<String> lines = read(file);
+            if (lines.size() >= HEADER_LINES) {
+                result.add(new Interrupted(lines.get(1), new NodeKey(lines.get(2)), Boolean.parseBoolean(lines.get(3))));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Discard the checkpoint of an interrupted reindexing operation which cannot be resumed.
+     *
+     * @param interrupted the interrupted operation; may not be null
+     */
+    void discard( Interrupted interrupted ) {
+        File file = new File(directory, idOf(interrupted.workspaceName(), interrupted.startKey()) + EXTENSION);
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOGGER.debug(e, "Unable to remove the reindexing checkpoint '{0}'", file);
+        }
+    }
+
+    private static String idOf( String workspaceName,
+                                NodeKey startKey ) {
+        return SecureHash.sha1(workspaceName + "/" + startKey);
+    }
+
+    private List<String> read( File file ) {
+        try {
+            return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.warn(JcrI18n.unableToReadReindexingCheckpoint, file, repositoryName, e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * The progress of one reindexing operation.
+     */
+    @ThreadSafe
+    final class Checkpoint {
+        private final String id;
+        private final File file;
+        private final List<String> header;
+        private final Set<NodeKey> resumed;
+        private final Set<NodeKey> completed = ConcurrentHashMap.newKeySet();
+        private boolean saveable = true;
+
+        protected Checkpoint( String id,
+                              File file,
+                              List<String> header,
+                              Set<NodeKey> resumed ) {
+            this.id = id;
+            this.file = file;
+            this.header = header;
+            this.resumed = resumed;
+        }
+
+        /**
+         * Determine whether the subtree below a node was completely reindexed by a previous operation which was interrupted.
+         *
+         * @param key the key of the node at the top of the subtree; may not be null
+         * @return true if the subtree should not be reindexed again, or false otherwise
+         */
+        boolean isResumed( NodeKey key ) {
+            return resumed.contains(key);
+        }
+
+        /**
+         * Record that the subtree below a node was completely reindexed. The subtree is only saved by the next
+         * {@link #save(Set)}.
+         *
+         * @param key the key of the node at the top of the subtree; may not be null
+         */
+        void completed( NodeKey key ) {
+            completed.add(key);
+        }
+
+        /**
+         * Get the subtrees which were completely reindexed so far, including the resumed ones.
+         *
+         * @return a snapshot of the keys of the nodes at the top of the subtrees; never null
+         */
+        Set<NodeKey> completedSubtrees() {
+            Set<NodeKey> snapshot = new HashSet<>(resumed);
+            snapshot.addAll(completed);
+            return snapshot;
+        }
+
+        /**
+         * Save the subtrees which were completely reindexed. This must only be called after the changes made to the indexes
+         * by the reindexing of those subtrees were committed.
+         *
+         * @param completedSubtrees the keys of the nodes at the top of the completed subtrees; may not be null
+         */
+        synchronized void save( Set<NodeKey> completedSubtrees ) {
+            if (!saveable) {
+                return;
+            }
+            List<String> lines = new ArrayList<>(header.size() + completedSubtrees.size());
+            lines.addAll(header);
+            for (NodeKey key : completedSubtrees) {
+                lines.add(key.toString());
+            }
+            File temp = new File(directory, id + ".tmp");
+            try {
+                Files.createDirectories(directory.toPath());
+                Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                LOGGER.warn(JcrI18n.unableToSaveReindexingCheckpoint, file, repositoryName, e.getMessage());
+                // don't keep trying ...
+                saveable = false;
+            }
+        }
+
+        /**
+         * Close this checkpoint when the reindexing was completed, removing its file.
+         */
+        synchronized void finished() {
+            saveable = false;
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                LOGGER.debug(e, "Unable to remove the reindexing checkpoint '{0}'", file);
+            } finally {
+                inProgress.remove(id);
+            }
+        }
+
+        /**
+         * Close this checkpoint when the reindexing was interrupted, keeping its file so that the reindexing can be resumed.
+         */
+        synchronized void interrupted() {
+            saveable = false;
+            inProgress.remove(id);
+        }
+    }
+
+    /**
+     * A reindexing operation which was interrupted.
+     */
+    static final class Interrupted {
+        private final String workspaceName;
+        private final NodeKey startKey;
+        private final boolean includeSystemContent;
+
+        protected Interrupted( String workspaceName,
+                               NodeKey startKey,
+                               boolean includeSystemContent ) {
+            this.workspaceName = workspaceName;
+            this.startKey = startKey;
+            this.includeSystemContent = includeSystemContent;
+        }
+
+        String workspaceName() {
+            return workspaceName;
+        }
+
+        NodeKey startKey() {
+            return startKey;
+        }
+
+        boolean includeSystemContent() {
+            return includeSystemContent;
+        }
+    }
+}
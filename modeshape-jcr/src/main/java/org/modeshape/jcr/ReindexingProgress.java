@@ -0,0 +1,167 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr;
+
+import java.util.concurrent.TimeUnit;
+import org.modeshape.common.annotation.ThreadSafe;
+
+/**
+ * The progress of the reindexing operations of a repository. Each reindexing operation splits the content into subtrees, and the
+ * remaining time is estimated from the rate at which the subtrees are reindexed. When several reindexing operations are running
+ * at the same time, the progress covers all of them.
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+public final class ReindexingProgress {
+
+    private int runningOperations;
+    private long startTime;
+    private long endTime;
+    private long reindexedNodes;
+    private int subtrees;
+    private int completedSubtrees;
+    private int resumedSubtrees;
+
+    ReindexingProgress() {
+    }
+
+    /**
+     * Record the start of a reindexing operation.
+     *
+     * @param subtreeCount the number of subtrees which the operation has to reindex
+     * @param alreadyCompletedSubtreeCount the number of those subtrees which were reindexed by a previous operation that was
+     *        interrupted and which will not be reindexed again
+     */
+    synchronized void started( int subtreeCount,
+                               int alreadyCompletedSubtreeCount ) {
+        if (runningOperations++ == 0) {
+            // this is the only reindexing operation, so start over ...
+            startTime = System.nanoTime();
+            reindexedNodes = 0L;
+            subtrees = 0;
+            completedSubtrees = 0;
+            resumedSubtrees = 0;
+        }
+        subtrees += subtreeCount;
+        completedSubtrees += alreadyCompletedSubtreeCount;
+        resumedSubtrees += alreadyCompletedSubtreeCount;
+    }
+
+    /**
+     * Record that a number of nodes were written to the indexes.
+     *
+     * @param nodeCount the number of nodes
+     */
+    synchronized void reindexed( long nodeCount ) {
+        reindexedNodes += nodeCount;
+    }
+
+    /**
+     * Record that all the nodes of a subtree were written to the indexes.
+     */
+    synchronized void subtreeCompleted() {
+        ++completedSubtrees;
+    }
+
+    /**
+     * Record the end of a reindexing operation.
+     *
+     * @param incompleteSubtreeCount the number of subtrees which were not reindexed because the operation was interrupted
+     */
+    synchronized void finished( int incompleteSubtreeCount ) {
+        subtrees -= incompleteSubtreeCount;
+        if (--runningOperations == 0) {
+            endTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Determine whether there is at least one reindexing operation which is running.
+     *
+     * @return true if the content is being reindexed, or false otherwise
+     */
+    public synchronized boolean isRunning() {
+        return runningOperations > 0;
+    }
+
+    /**
+     * Get the number of nodes which were written to the indexes by the current reindexing operations, or by the last ones if
+     * there is no reindexing operation running.
+     *
+     * @return the number of nodes
+     */
+    public synchronized long getReindexedNodeCount() {
+        return reindexedNodes;
+    }
+
+    /**
+     * Get the number of subtrees which have to be reindexed by the current reindexing operations, or which had to be reindexed
+     * by the last ones if there is no reindexing operation running.
+     *
+     * @return the number of subtrees
+     */
+    public synchronized int getSubtreeCount() {
+        return subtrees;
+    }
+
+    /**
+     * Get the number of subtrees which are completely reindexed, including those reindexed by interrupted operations which were
+     * resumed.
+     *
+     * @return the number of subtrees
+     */
+    public synchronized int getCompletedSubtreeCount() {
+        return completedSubtrees;
+    }
+
+    /**
+     * Get the time elapsed since the current reindexing operations were started, or the duration of the last ones if there is no
+     * reindexing operation running.
+     *
+     * @param unit the unit of the result; may not be null
+     * @return the elapsed time, or 0 if the content was never reindexed
+     */
+    public synchronized long getElapsedTime( TimeUnit unit ) {
+        if (startTime == 0L) {
+            return 0L;
+        }
+        long end = runningOperations > 0 ? System.nanoTime() : endTime;
+        return unit.convert(end - startTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the estimated time until the current reindexing operations are completed.
+     *
+     * @param unit the unit of the result; may not be null
+     * @return the remaining time, or -1 if there is no reindexing operation running or if the time cannot be estimated yet
+     */
+    public synchronized long getEstimatedRemainingTime( TimeUnit unit ) {
+        int reindexedSubtrees = completedSubtrees - resumedSubtrees;
+        if (runningOperations == 0 || reindexedSubtrees == 0) {
+            return -1L;
+        }
+        long elapsed = System.nanoTime() - startTime;
+        long remaining = (long)((double)elapsed * (subtrees - completedSubtrees) / reindexedSubtrees);
+        return unit.convert(remaining, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "(reindexing running=" + (runningOperations > 0) + " nodes=" + reindexedNodes + " subtrees=" + completedSubtrees
+               + "/" + subtrees + ")";
+    }
+}
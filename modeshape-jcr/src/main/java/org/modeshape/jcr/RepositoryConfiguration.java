@@ -338,6 +338,11 @@ public class RepositoryConfiguration {
          */
         public static final String WORKSPACE_CACHE_SIZE = "cacheSize";
 
+        /**
+         * The name for the field containing the maximum estimated size, in bytes, of the nodes held by all the workspace caches
+         */
+        public static final String WORKSPACE_CACHE_SIZE_IN_BYTES = "cacheSizeInBytes";
+
         /**
          * The name for the field whose value is a document containing binary storage information.
          */
@@ -432,6 +437,13 @@ public class RepositoryConfiguration {
         public static final String REINDEXING = "reindexing";
         public static final String REINDEXING_ASYNC = "async";
         public static final String REINDEXING_MODE = "mode";
+        public static final String REINDEXING_PARALLELISM = "parallelism";
+        public static final String REINDEXING_BATCH_SIZE = "batchSize";
+        public static final String REINDEXING_CHECKPOINT_LOCATION = "checkpointLocation";
+        public static final String QUERY = "query";
+        public static final String SCAN_PARALLELISM = "scanParallelism";
+        public static final String MEMORY_BUDGET_IN_BYTES = "memoryBudgetInBytes";
+        public static final String RESULT_CACHE_SIZE = "resultCacheSize";
         public static final String ADDRESS = "address";
         public static final String DATABASE = "database";
         public static final String HOST = "host";
@@ -483,6 +495,11 @@ public class RepositoryConfiguration {
          * Whether asynchronous writes into the journal should be enabled or not.
          */
         public static final String ASYNC_WRITES_ENABLED = "asyncWritesEnabled";
+
+        /**
+         * The maximum number of milliseconds journal records can be buffered in memory before being committed to disk.
+         */
+        public static final String GROUP_COMMIT_MAX_LATENCY_MILLIS = "groupCommitMaxLatencyMillis";
     }
 
     public static class Default {
@@ -491,6 +508,11 @@ public class RepositoryConfiguration {
          * The default number of items the workspace cache can hold in memory
          */
         public static final int WORKSPACE_CACHE_SIZE = 10000;
+
+        /**
+         * The default memory budget of the workspace caches, which means the caches are bounded only by the number of nodes
+         */
+        public static final long WORKSPACE_CACHE_SIZE_IN_BYTES = 0L;
         
         /**
          * The default value of the {@link FieldName#MINIMUM_BINARY_SIZE_IN_BYTES} field is '{@value} ' (4 kilobytes).
@@ -560,6 +582,8 @@ public class RepositoryConfiguration {
         // by default journal entries are kept indefinitely
         public static final int MAX_DAYS_TO_KEEP_RECORDS = -1;
         public static final boolean ASYNC_WRITES_ENABLED = false;
+        // by default each journal record is committed to disk as soon as it is received
+        public static final long GROUP_COMMIT_MAX_LATENCY_MILLIS = 0L;
 
         public static final String KIND = IndexKind.VALUE.name();
         public static final String NODE_TYPE = "nt:base";
@@ -568,6 +592,17 @@ public class RepositoryConfiguration {
 
         public static final int SEQUENCING_MAX_POOL_SIZE = 10;
         public static final int TEXT_EXTRACTION_MAX_POOL_SIZE = 5;
+
+        // by default the content is reindexed by a single thread
+        public static final int REINDEXING_PARALLELISM = 1;
+        public static final int REINDEXING_BATCH_SIZE = 100;
+
+        public static final String QUERY_SCAN_POOL = "modeshape-query-scan";
+        // by default each query scans the workspace content on the calling thread
+        public static final int QUERY_SCAN_PARALLELISM = 1;
+        public static final long QUERY_MEMORY_BUDGET_IN_BYTES = 64L * 1024 * 1024;
+        // by default the results of the queries are not cached
+        public static final int QUERY_RESULT_CACHE_SIZE = 0;
     }
 
     public static final class FieldValue {
@@ -950,6 +985,21 @@ public class RepositoryConfiguration {
         return Default.WORKSPACE_CACHE_SIZE;
     }
 
+    /**
+     * Get the maximum estimated number of bytes of the nodes held in memory by the caches of all the workspaces. When this is
+     * greater than 0, a single cache bounded by this budget is shared by all the workspaces and {@link #getWorkspaceCacheSize()}
+     * is ignored.
+     *
+     * @return the memory budget in bytes, or 0 if the workspace caches are bounded by the number of nodes
+     */
+    public long getWorkspaceCacheSizeInBytes() {
+        Document storage = doc.getDocument(FieldName.WORKSPACES);
+        if (storage != null) {
+            return storage.getLong(FieldName.WORKSPACE_CACHE_SIZE_IN_BYTES, Default.WORKSPACE_CACHE_SIZE_IN_BYTES);
+        }
+        return Default.WORKSPACE_CACHE_SIZE_IN_BYTES;
+    }
+
     public Clustering getClustering() {
         return new Clustering(doc.getDocument(FieldName.CLUSTERING));
     }
@@ -989,6 +1039,15 @@ public class RepositoryConfiguration {
         return new Reindexing(doc.getDocument(FieldName.REINDEXING));
     }
 
+    /**
+     * Returns the query configuration.
+     *
+     * @return a {@link org.modeshape.jcr.RepositoryConfiguration.Query} instance, never {@code null}.
+     */
+    public Query getQuery() {
+        return new Query(doc.getDocument(FieldName.QUERY));
+    }
+
     /**
      * Returns a list with the cnd files which should be loaded at startup.
      *
@@ -1806,6 +1865,92 @@ public class RepositoryConfiguration {
             String reindexingMode = reindexing == null ? defaultMode : reindexing.getString(FieldName.REINDEXING_MODE, defaultMode);
             return ReindexingMode.valueOf(reindexingMode.toUpperCase());
         }
+
+        /**
+         * Get the maximum number of threads which can be used at the same time to reindex the subtrees of the content.
+         *
+         * @return the maximum number of threads, or 1 if the content is reindexed only by the thread performing the reindexing
+         */
+        public int parallelism() {
+            int parallelism = reindexing == null ? Default.REINDEXING_PARALLELISM : reindexing.getInteger(
+                    FieldName.REINDEXING_PARALLELISM, Default.REINDEXING_PARALLELISM);
+            return Math.max(parallelism, 1);
+        }
+
+        /**
+         * Get the number of nodes which are buffered by each reindexing thread before they are written to each index provider.
+         *
+         * @return the number of nodes; always positive
+         */
+        public int batchSize() {
+            int batchSize = reindexing == null ? Default.REINDEXING_BATCH_SIZE : reindexing.getInteger(
+                    FieldName.REINDEXING_BATCH_SIZE, Default.REINDEXING_BATCH_SIZE);
+            return Math.max(batchSize, 1);
+        }
+
+        /**
+         * Get the location of the directory where the progress of the reindexing operations is periodically saved, so that the
+         * reindexing which is interrupted by a shutdown of the repository can be resumed when the repository is restarted.
+         *
+         * @return the path to the directory, or null if the progress of the reindexing operations is not saved
+         */
+        public String checkpointLocation() {
+            return reindexing == null ? null : reindexing.getString(FieldName.REINDEXING_CHECKPOINT_LOCATION);
+        }
+    }
+
+    /**
+     * The query configuration information.
+     */
+    @Immutable
+    public class Query {
+        private final Document query;
+
+        protected Query( Document query ) {
+            this.query = query;
+        }
+
+        /**
+         * Get the name of the thread pool that should be used for scanning the workspace content in parallel.
+         *
+         * @return the thread pool name; never null
+         */
+        public String getThreadPoolName() {
+            return query == null ? Default.QUERY_SCAN_POOL : query.getString(FieldName.THREAD_POOL, Default.QUERY_SCAN_POOL);
+        }
+
+        /**
+         * Get the maximum number of threads which can be used at the same time to scan the workspace content for the queries
+         * that cannot use any index.
+         *
+         * @return the maximum number of threads, or 1 if the content is scanned only by the thread executing each query
+         */
+        public int getScanParallelism() {
+            int parallelism = query == null ? Default.QUERY_SCAN_PARALLELISM : query.getInteger(FieldName.SCAN_PARALLELISM,
+                                                                                                  Default.QUERY_SCAN_PARALLELISM);
+            return Math.max(parallelism, 1);
+        }
+
+        /**
+         * Get the maximum number of bytes of buffered rows that each query can keep in memory.
+         *
+         * @return the number of bytes, or a non-positive value if the memory of the queries is not limited
+         */
+        public long getMemoryBudgetInBytes() {
+            return query == null ? Default.QUERY_MEMORY_BUDGET_IN_BYTES : query.getLong(FieldName.MEMORY_BUDGET_IN_BYTES,
+                                                                                      Default.QUERY_MEMORY_BUDGET_IN_BYTES);
+        }
+
+        /**
+         * Get the maximum number of query results which are cached and reused by the identical queries executed afterwards.
+         *
+         * @return the maximum number of cached results, or 0 if the results of the queries are not cached
+         */
+        public int getResultCacheSize() {
+            int size = query == null ? Default.QUERY_RESULT_CACHE_SIZE : query.getInteger(FieldName.RESULT_CACHE_SIZE,
+                                                                                            Default.QUERY_RESULT_CACHE_SIZE);
+            return Math.max(size, 0);
+        }
     }
 
     /**
@@ -2353,6 +2498,17 @@ public class RepositoryConfiguration {
             return this.journalingDoc.getBoolean(FieldName.ASYNC_WRITES_ENABLED, Default.ASYNC_WRITES_ENABLED);
         }
 
+        /**
+         * The maximum number of milliseconds the journal records of concurrent saves can be buffered in memory, so that they are
+         * committed to disk together. A save may complete before its journal record has been committed, so the records buffered
+         * when the process crashes are lost.
+         *
+         * @return the maximum latency in milliseconds, or 0 if each record is committed as soon as it is received
+         */
+        public long groupCommitMaxLatencyMillis() {
+            return this.journalingDoc.getLong(FieldName.GROUP_COMMIT_MAX_LATENCY_MILLIS, Default.GROUP_COMMIT_MAX_LATENCY_MILLIS);
+        }
+
         /**
          * Get the name of the thread pool that should be used for garbage collection journal entries.
          *
@@ -947,6 +947,9 @@ class RepositoryIndexManager implements IndexManager, NodeTypes.Listener {
                     callback.beforeIndexing();
                     try {
                         operation.scan(workspaceName, pathToScan.path(), callback.writer());
+                        if (!Thread.currentThread().isInterrupted()) {
+                            callback.indexingCompleted();
+                        }
                     } catch (Exception e) {
                         Logger.getLogger(getClass()).error(e, JcrI18n.errorIndexing, pathToScan.path(), workspaceName,
                                                            e.getMessage());
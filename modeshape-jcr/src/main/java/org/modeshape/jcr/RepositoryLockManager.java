@@ -513,6 +513,12 @@ class RepositoryLockManager implements ChangeSetListener {
         return cleanedTokens != null ? cleanedTokens : Collections.<String>emptySet();
     }
 
+    @Override
+    public boolean requiresRemoteChanges() {
+        // only changes to the system workspace are processed, and those are always propagated in full
+        return false;
+    }
+
     @Override
     public void notify( ChangeSet changeSet ) {
         if (!systemWorkspaceName.equals(changeSet.getWorkspaceName())) {
@@ -656,6 +656,12 @@ class RepositoryNodeTypeManager implements ChangeSetListener, NodeTypes.Supplier
                                      isProtected, allowsSns, defaultPrimaryTypeName, requiredTypes);
     }
 
+    @Override
+    public boolean requiresRemoteChanges() {
+        // only changes to the system workspace are processed, and those are always propagated in full
+        return false;
+    }
+
     @Override
     public void notify( ChangeSet changeSet ) {
         if (!systemWorkspaceName.equals(changeSet.getWorkspaceName())) {
@@ -15,9 +15,14 @@
  */
 package org.modeshape.jcr;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -35,14 +40,17 @@ import org.modeshape.common.annotation.GuardedBy;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.CheckArg;
 import org.modeshape.common.util.ImmediateFuture;
+import org.modeshape.common.util.SecureHash;
 import org.modeshape.jcr.JcrRepository.RunningState;
 import org.modeshape.jcr.RepositoryIndexManager.ScanOperation;
 import org.modeshape.jcr.RepositoryIndexManager.ScanningRequest;
 import org.modeshape.jcr.RepositoryIndexManager.ScanningTasks;
 import org.modeshape.jcr.api.index.IndexDefinition;
 import org.modeshape.jcr.api.index.IndexManager;
+import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.api.query.QueryCancelledException;
 import org.modeshape.jcr.api.query.qom.QueryCommand;
+import org.modeshape.jcr.bus.ChangeBus;
 import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.ChildReference;
 import org.modeshape.jcr.cache.ChildReferences;
@@ -54,14 +62,17 @@ import org.modeshape.jcr.cache.change.ChangeSet;
 import org.modeshape.jcr.cache.change.ChangeSetListener;
 import org.modeshape.jcr.cache.document.WorkspaceCache;
 import org.modeshape.jcr.journal.ChangeJournal;
+import org.modeshape.jcr.query.BatchingIndexWriter;
 import org.modeshape.jcr.query.BufferManager;
 import org.modeshape.jcr.query.CancellableQuery;
 import org.modeshape.jcr.query.CompositeIndexWriter;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryEngine;
 import org.modeshape.jcr.query.QueryEngineBuilder;
+import org.modeshape.jcr.query.QueryPlanCache;
 import org.modeshape.jcr.query.QueryResults;
 import org.modeshape.jcr.query.engine.IndexQueryEngine;
+import org.modeshape.jcr.query.engine.QueryResultCache;
 import org.modeshape.jcr.query.engine.ScanningQueryEngine;
 import org.modeshape.jcr.query.plan.PlanHints;
 import org.modeshape.jcr.query.validate.Schemata;
@@ -76,13 +87,23 @@ import org.modeshape.jcr.value.Path.Segment;
  */
 class RepositoryQueryManager implements ChangeSetListener {
 
+    /**
+     * The number of changed nodes which are loaded from the document store at once when the indexes catch up with the changes.
+     */
+    private static final int CHANGED_NODES_LOAD_BATCH_SIZE = 1000;
+
     private final Logger logger = Logger.getLogger(getClass());
     private final Logger indexLogger = Logger.getLogger(getClass().getPackage().getName() + ".index");
     private final RunningState runningState;
     private final ExecutorService indexingExecutorService;
+    private final ExecutorService subtreeReindexingExecutorService;
     private final RepositoryConfiguration repoConfig;
     private final RepositoryConfiguration.Reindexing reindexingCfg;
     private final RepositoryIndexManager indexManager;
+    private final QueryPlanCache planCache;
+    private final QueryResultCache resultCache;
+    private volatile ChangeSetListener resultCacheListener;
+    private final ParallelReindexing parallelReindexing;
     private final Lock engineInitLock = new ReentrantLock();
     @GuardedBy( "engineInitLock" )
     private volatile QueryEngine queryEngine;
@@ -99,17 +120,42 @@ class RepositoryQueryManager implements ChangeSetListener {
         this.repoConfig = config;
         this.reindexingCfg = reindexingCfg;
         this.indexManager = new RepositoryIndexManager(runningState, config);
+        this.planCache = new QueryPlanCache(QueryPlanCache.DEFAULT_MAX_SIZE, runningState.statistics());
+        int resultCacheSize = config.getQuery().getResultCacheSize();
+        this.resultCache = resultCacheSize > 0 ? new QueryResultCache(resultCacheSize, runningState.statistics()) : null;
+        String checkpointLocation = reindexingCfg.checkpointLocation();
+        ReindexingCheckpoints checkpoints = checkpointLocation != null ? new ReindexingCheckpoints(new File(checkpointLocation),
+                                                                                                   config.getName()) : null;
+        // the subtrees are reindexed by their own threads, because the reindexing jobs wait for them while holding a thread of
+        // the indexing executor ...
+        this.subtreeReindexingExecutorService = runningState.context().getCachedTreadPool("modeshape-reindexing-subtrees",
+                                                                                          reindexingCfg.parallelism());
+        this.parallelReindexing = new ParallelReindexing(runningState, subtreeReindexingExecutorService,
+                                                         reindexingCfg.parallelism(), reindexingCfg.batchSize(), checkpoints);
     }
 
     synchronized void initialize() {
         this.toBeScanned.add(indexManager.initialize());
+        registerResultCacheListener();
         started.set(true);
     }
 
+    @Override
+    public boolean requiresRemoteChanges() {
+        // only changes to the workspaces or to the system workspace are processed; the indexes register their own listeners
+        return false;
+    }
+
     @Override
     public synchronized void notify( ChangeSet changeSet ) {
         if (started.get()) {
-            boolean scanRequired = this.toBeScanned.add(this.indexManager.notify(changeSet));
+            ScanningTasks tasks = this.indexManager.notify(changeSet);
+            boolean scanRequired = this.toBeScanned.add(tasks);
+            if (tasks != null) {
+                // the providers were notified of changes to the index definitions or to the workspaces, so more synchronous
+                // indexes may have been registered ...
+                registerResultCacheListener();
+            }
             if (scanRequired) {
                 // refresh the index writer
                 this.indexManager.refreshIndexWriter();
@@ -124,9 +170,31 @@ class RepositoryQueryManager implements ChangeSetListener {
         return this;
     }
 
+    /**
+     * Register a new listener which invalidates the cached query results affected by each change set, and unregister the
+     * previous one. The listener is notified in the thread which makes the changes and after all the synchronous indexes that
+     * are currently registered, so that no query can cache results computed from indexes which don't yet reflect the changes,
+     * and so that the sessions always see their own changes in the results of their queries.
+     */
+    @GuardedBy( "this" )
+    private void registerResultCacheListener() {
+        if (resultCache == null) {
+            return;
+        }
+        ChangeBus changeBus = runningState.changeBus();
+        ChangeSetListener previous = resultCacheListener;
+        resultCacheListener = new ResultCacheInvalidation(resultCache);
+        changeBus.registerInThread(resultCacheListener);
+        if (previous != null) {
+            // only unregister the previous listener now, so that no change sets are missed in between ...
+            changeBus.unregister(previous);
+        }
+    }
+
     void shutdown() {
         started.compareAndSet(true, false);
         indexingExecutorService.shutdown();
+        subtreeReindexingExecutorService.shutdown();
         if (queryEngine != null) {
             try {
                 engineInitLock.lock();
@@ -135,6 +203,10 @@ class RepositoryQueryManager implements ChangeSetListener {
                         queryEngine.shutdown();
                     } finally {
                         queryEngine = null;
+                        planCache.clear();
+                        if (resultCache != null) {
+                            resultCache.clear();
+                        }
                     }
                 }
             } finally {
@@ -230,6 +302,24 @@ class RepositoryQueryManager implements ChangeSetListener {
         return indexManager.getIndexes();
     }
 
+    /**
+     * Get the cache of parsed queries and optimized query plans which is shared by all the sessions of the repository.
+     *
+     * @return the cache; never null
+     */
+    QueryPlanCache planCache() {
+        return planCache;
+    }
+
+    /**
+     * Get the cache of query results which is shared by all the sessions of the repository.
+     *
+     * @return the cache, or null if the results of the queries are not cached
+     */
+    QueryResultCache resultCache() {
+        return resultCache;
+    }
+
     /**
      * Obtain the query engine, which is created lazily and in a thread-safe manner.
      *
@@ -252,7 +342,8 @@ class RepositoryQueryManager implements ChangeSetListener {
                         logger.debug("Queries with no indexes are enabled for the '{0}' repository. Executing queries will always scan the repository contents.",
                                      repoConfig.getName());
                     }
-                    queryEngine = builder.using(repoConfig, indexManager, runningState.context()).build();
+                    queryEngine = builder.using(repoConfig, indexManager, runningState.context()).with(planCache)
+                                         .with(resultCache).with(runningState.statistics()).build();
                 }
             } finally {
                 engineInitLock.unlock();
@@ -292,8 +383,8 @@ class RepositoryQueryManager implements ChangeSetListener {
             }
             case IF_MISSING: {
                 // when reindexing after startup, make sure the system area is included as well or indexes will lack this
-                // information
-                reindexIfNeeded(async, true);
+                // information; also resume the reindexing operations which were interrupted by the last shutdown
+                reindexIfNeeded(async, true, true);
                 break;
             }
             default: {
@@ -321,19 +412,42 @@ class RepositoryQueryManager implements ChangeSetListener {
             return;
         }
         assert earliestTimestamp != Long.MAX_VALUE;
-        Iterator<NodeKey> changedNodes = journal.changedNodesSince(earliestTimestamp);
+        // the journal is read only once, because the keys of all the workspaces are mixed together ...
+        Map<String, Set<NodeKey>> changedNodesByWorkspaceKey = changedNodesByWorkspaceKey(
+                journal.changedNodesSince(earliestTimestamp));
         IndexWriter writer = CompositeIndexWriter.create(incrementalIndexingProviders);
         RepositoryCache repositoryCache = runningState.repositoryCache();
         for (String workspaceName : repositoryCache.getWorkspaceNames()) {
+            Set<NodeKey> changedNodes = changedNodesByWorkspaceKey.get(NodeKey.keyForWorkspaceName(workspaceName));
+            if (changedNodes == null) {
+                // nothing was changed in this workspace ...
+                continue;
+            }
             if (logger.isDebugEnabled()) {
-                logger.debug("Performing incremental reindexing since '{0}' for repository '{1}' on workspace '{2}'",
-                             new Date(earliestTimestamp), repositoryCache.getName(), workspaceName);
+                logger.debug("Performing incremental reindexing of {0} nodes since '{1}' for repository '{2}' on workspace '{3}'",
+                             changedNodes.size(), new Date(earliestTimestamp), repositoryCache.getName(), workspaceName);
             }
             WorkspaceCache workspaceCache = repositoryCache.getWorkspaceCache(workspaceName);
             reindexSince(workspaceCache, writer, changedNodes);
         }
     }
 
+    /**
+     * Read the keys of the changed nodes, removing the duplicates (a node may be changed many times) and grouping them by the
+     * key of the workspace which contains them.
+     *
+     * @param changedNodes the keys of the changed nodes; may not be null
+     * @return the unique keys of the changed nodes, in the order in which they were read, keyed by workspace key; never null
+     */
+    private static Map<String, Set<NodeKey>> changedNodesByWorkspaceKey( Iterator<NodeKey> changedNodes ) {
+        Map<String, Set<NodeKey>> result = new HashMap<>();
+        while (changedNodes.hasNext()) {
+            NodeKey nodeKey = changedNodes.next();
+            result.computeIfAbsent(nodeKey.getWorkspaceKey(), workspaceKey -> new LinkedHashSet<>()).add(nodeKey);
+        }
+        return result;
+    }
+
     /**
      * Reindex the repository only if there is at least one provider that required scanning and reindexing.
      *
@@ -341,8 +455,15 @@ class RepositoryQueryManager implements ChangeSetListener {
      * @param includeSystemContent whether the /jcr:system area should be indexed or not
      */
     protected void reindexIfNeeded( boolean async, final boolean includeSystemContent ) {
+        reindexIfNeeded(async, includeSystemContent, false);
+    }
+
+    private void reindexIfNeeded( boolean async,
+                                  final boolean includeSystemContent,
+                                  final boolean resumeInterrupted ) {
         final ScanningRequest request = toBeScanned.drain();
-        if (!request.isEmpty()) {
+        final ReindexingCheckpoints checkpoints = resumeInterrupted ? parallelReindexing.checkpoints() : null;
+        if (!request.isEmpty() || checkpoints != null && !checkpoints.interrupted().isEmpty()) {
             final RepositoryCache repoCache = runningState.repositoryCache();
             scan(async, () -> {
                 // Scan each of the workspace-path pairs ...
@@ -375,8 +496,7 @@ class RepositoryQueryManager implements ChangeSetListener {
                             boolean scanSystemContent = includeSystemContent ||
                                                         repoCache.getSystemWorkspaceName().equals(workspaceName);
                             updateIndexesStatus(workspaceName, IndexManager.IndexStatus.ENABLED, IndexManager.IndexStatus.REINDEXING);
-                            if (reindexContent(workspaceName, workspaceCache, node, Integer.MAX_VALUE, scanSystemContent, 
-                                               writer)) {
+                            if (reindexAll(workspaceName, workspaceCache, node, scanSystemContent, writer, false)) {
                                 commitChanges(workspaceName);
                             }
                             updateIndexesStatus(workspaceName, IndexManager.IndexStatus.REINDEXING, IndexManager.IndexStatus.ENABLED);
@@ -384,11 +504,42 @@ class RepositoryQueryManager implements ChangeSetListener {
                     }
                 };
                 request.onEachPathInWorkspace(op);
+                if (checkpoints != null) {
+                    // the reindexing operations which were completed above removed their checkpoints ...
+                    resumeInterruptedReindexing(checkpoints.interrupted());
+                }
                 return null;
             });
         }
     }
 
+    /**
+     * Resume the reindexing operations which were interrupted before they were completed, without reindexing again the
+     * subtrees which they completed.
+     *
+     * @param interruptedOperations the interrupted operations; may not be null
+     */
+    private void resumeInterruptedReindexing( List<ReindexingCheckpoints.Interrupted> interruptedOperations ) {
+        RepositoryCache repoCache = runningState.repositoryCache();
+        IndexWriter writer = getIndexWriter();
+        for (ReindexingCheckpoints.Interrupted interrupted : interruptedOperations) {
+            String workspaceName = interrupted.workspaceName();
+            NodeCache workspaceCache = repoCache.getWorkspaceNames().contains(workspaceName) ? repoCache.getWorkspaceCache(
+                    workspaceName) : null;
+            CachedNode node = workspaceCache != null ? workspaceCache.getNode(interrupted.startKey()) : null;
+            if (node == null) {
+                // the content was removed in the meantime ...
+                parallelReindexing.checkpoints().discard(interrupted);
+                continue;
+            }
+            updateIndexesStatus(workspaceName, IndexManager.IndexStatus.ENABLED, IndexManager.IndexStatus.REINDEXING);
+            if (reindexAll(workspaceName, workspaceCache, node, interrupted.includeSystemContent(), writer, true)) {
+                commitChanges(workspaceName);
+            }
+            updateIndexesStatus(workspaceName, IndexManager.IndexStatus.REINDEXING, IndexManager.IndexStatus.ENABLED);
+        }
+    }
+
     /**
      * Clean all indexes and reindex all content.
      *
@@ -461,7 +612,7 @@ class RepositoryQueryManager implements ChangeSetListener {
             CachedNode rootNode = systemWorkspaceCache.getNode(repoCache.getSystemKey());
             // Index the system content ...
             logger.debug("Starting reindex of system content in '{0}' repository.", runningState.name());
-            if (reindexSystemContent(rootNode, Integer.MAX_VALUE, indexes)) {
+            if (reindexAll(systemWorkspaceName, systemWorkspaceCache, rootNode, true, indexes, false)) {
                 commitChanges(systemWorkspaceName);
             }
             logger.debug("Completed reindex of system content in '{0}' repository.", runningState.name());
@@ -475,7 +626,7 @@ class RepositoryQueryManager implements ChangeSetListener {
             NodeCache workspaceCache = repoCache.getWorkspaceCache(workspaceName);
             CachedNode rootNode = workspaceCache.getNode(workspaceCache.getRootKey());
             logger.debug("Starting reindex of workspace '{0}' content in '{1}' repository.", runningState.name(), workspaceName);
-            if (reindexContent(workspaceName, workspaceCache, rootNode, Integer.MAX_VALUE, false, indexes)) {
+            if (reindexAll(workspaceName, workspaceCache, rootNode, false, indexes, false)) {
                 commitChanges(workspaceName);
             }
             logger.debug("Completed reindex of workspace '{0}' content in '{1}' repository.", runningState.name(), workspaceName);
@@ -527,12 +678,19 @@ class RepositoryQueryManager implements ChangeSetListener {
         String systemWorkspaceName = repoCache.getSystemWorkspaceName();
         String systemWorkspaceKey = repoCache.getSystemWorkspaceKey();
         if (node.getKey().getWorkspaceKey().equals(systemWorkspaceKey)) {
-            if (reindexSystemContent(node, depth, getIndexWriter())) {
+            boolean indexesUpdated = depth == Integer.MAX_VALUE ?
+                                     reindexAll(systemWorkspaceName, repoCache.getWorkspaceCache(systemWorkspaceName), node, true,
+                                                getIndexWriter(), false) :
+                                     reindexSystemContent(node, depth, getIndexWriter());
+            if (indexesUpdated) {
                 commitChanges(systemWorkspaceName);   
             }
         } else {
             // It's just a regular node in the workspace ...
-            if (reindexContent(workspaceName, cache, node, depth, path.isRoot(), getIndexWriter())) {
+            boolean indexesUpdated = depth == Integer.MAX_VALUE ?
+                                     reindexAll(workspaceName, cache, node, path.isRoot(), getIndexWriter(), false) :
+                                     reindexContent(workspaceName, cache, node, depth, path.isRoot(), getIndexWriter());
+            if (indexesUpdated) {
                 commitChanges(workspaceName);
             }
         }
@@ -554,35 +712,84 @@ class RepositoryQueryManager implements ChangeSetListener {
     protected void reindexSince( final WorkspaceCache cache,
                                  final IndexWriter writer,
                                  final Iterator<NodeKey> changedNodes ) {
+        // only the nodes which belong to this WS cache are reindexed, and each of them only once ...
+        Set<NodeKey> changedNodesInWorkspace = changedNodesByWorkspaceKey(changedNodes).get(
+                NodeKey.keyForWorkspaceName(cache.getWorkspaceName()));
+        if (changedNodesInWorkspace != null) {
+            reindexSince(cache, writer, changedNodesInWorkspace);
+        }
+    }
+
+    /**
+     * Reindex the nodes of a workspace which have been changed. The nodes are loaded from the document store in batches, and each
+     * batch is written to the indexes at once.
+     *
+     * @param cache the cache of the workspace; may not be null
+     * @param writer the writer to the indexes; may not be null
+     * @param changedNodes the unique keys of the changed nodes, which must all belong to the workspace; may not be null
+     */
+    private void reindexSince( final WorkspaceCache cache,
+                               final IndexWriter writer,
+                               final Collection<NodeKey> changedNodes ) {
         if (writer.canBeSkipped()) {
             // There's no indexes that require updating ...
             return;
         }
         String workspaceName = cache.getWorkspaceName();
-        String workspaceKey = NodeKey.keyForWorkspaceName(workspaceName);
         boolean commitRequired = false;
-        updateIndexesStatus(workspaceName, IndexManager.IndexStatus.ENABLED, IndexManager.IndexStatus.REINDEXING); 
-        // take each of node keys that have been changed since the given timestamp and reindex each one if they belong to this WS
-        while (changedNodes.hasNext()) {
-            NodeKey nodeKey = changedNodes.next();
-            if (!workspaceKey.equals(nodeKey.getWorkspaceKey())) {
-                // this node does not belong to this WS cache, so ignore it...
+        updateIndexesStatus(workspaceName, IndexManager.IndexStatus.ENABLED, IndexManager.IndexStatus.REINDEXING);
+        BatchingIndexWriter batchingWriter = new BatchingIndexWriter(writer, reindexingCfg.batchSize());
+        List<NodeKey> batch = new ArrayList<>(CHANGED_NODES_LOAD_BATCH_SIZE);
+        for (Iterator<NodeKey> iterator = changedNodes.iterator(); iterator.hasNext();) {
+            batch.add(iterator.next());
+            if (batch.size() == CHANGED_NODES_LOAD_BATCH_SIZE || !iterator.hasNext()) {
+                commitRequired |= reindexChangedNodes(workspaceName, cache, batch, batchingWriter);
+                batch.clear();
+            }
+        }
+        batchingWriter.flush();
+        commitRequired |= batchingWriter.indexesUpdated();
+
+        if (commitRequired) {
+            commitChanges(workspaceName);
+        }
+        updateIndexesStatus(workspaceName, IndexManager.IndexStatus.REINDEXING, IndexManager.IndexStatus.ENABLED);
+    }
+
+    private boolean reindexChangedNodes( String workspaceName,
+                                         WorkspaceCache cache,
+                                         List<NodeKey> changedNodes,
+                                         BatchingIndexWriter writer ) {
+        Map<NodeKey, CachedNode> nodes = cache.getNodes(changedNodes);
+        // the paths of the ancestors shared by the nodes of the batch are only computed once ...
+        PathCache paths = new PathCache(cache);
+        long reindexedCount = 0L;
+        for (CachedNode node : nodes.values()) {
+            // the node still exists in the repository so reindex based on the latest available data...
+            if (node.isExcludedFromSearch(cache)) {
                 continue;
             }
-            CachedNode node = cache.getNode(nodeKey);
-            if (node != null) {
-                // the node still exists in the repository so reindex based on the latest available data...
-                commitRequired |= reindexContent(workspaceName, cache, node, 1, true, writer);
-            } else {
+            Path nodePath = paths.getPath(node);
+            if (indexLogger.isTraceEnabled()) {
+                String path = runningState.context().getValueFactories().getStringFactory().create(nodePath);
+                indexLogger.trace("Reindexing changed node '{0}' in workspace '{1}' of repository '{2}': {3}", path,
+                                  workspaceName, runningState.name(), node);
+            }
+            writer.add(workspaceName, node.getKey(), nodePath, node.getPrimaryType(cache), node.getMixinTypes(cache),
+                       node.getPropertiesByName(cache));
+            ++reindexedCount;
+        }
+        if (reindexedCount > 0) {
+            runningState.statistics().increment(ValueMetric.REINDEXED_NODES, reindexedCount);
+        }
+        boolean indexesUpdated = false;
+        for (NodeKey nodeKey : changedNodes) {
+            if (!nodes.containsKey(nodeKey)) {
                 // the node has been removed from the repository so clear the information from the indexes...
-                commitRequired |= writer.remove(workspaceName, nodeKey);                 
+                indexesUpdated |= writer.remove(workspaceName, nodeKey);
             }
-        }   
-        
-        if (commitRequired) {
-            commitChanges(workspaceName);
         }
-        updateIndexesStatus(workspaceName, IndexManager.IndexStatus.REINDEXING, IndexManager.IndexStatus.ENABLED);        
+        return indexesUpdated;
     }
 
     protected Future<Boolean> reindexSinceAsync( final JcrWorkspace workspace,
@@ -719,6 +926,10 @@ class RepositoryQueryManager implements ChangeSetListener {
         for (IndexProvider indexProvider : indexManager.getProviders()) {
             indexProvider.getIndexWriter().commit(workspaceName);
         }   
+        if (resultCache != null) {
+            // the results may have been computed from indexes that were not completely rebuilt ...
+            resultCache.invalidate(workspaceName);
+        }
     }
 
     protected boolean reindexSystemContent( CachedNode nodeInSystemBranch,
@@ -735,11 +946,46 @@ class RepositoryQueryManager implements ChangeSetListener {
         String workspaceName = repoCache.getSystemWorkspaceName();
         NodeCache systemWorkspaceCache = repoCache.getWorkspaceCache(workspaceName);
         CachedNode systemNode = systemWorkspaceCache.getNode(repoCache.getSystemKey());
-        if (reindexContent(workspaceName, systemWorkspaceCache, systemNode, Integer.MAX_VALUE, true, getIndexWriter())) {
+        if (reindexAll(workspaceName, systemWorkspaceCache, systemNode, true, getIndexWriter(), false)) {
             commitChanges(workspaceName);
         }
     }
 
+    /**
+     * Reindex a node and all the content below it, splitting the content into subtrees which are reindexed in parallel.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @param cache the cache of the workspace; may not be null
+     * @param node the node at the top of the content; may not be null
+     * @param reindexSystemContent true if the "/jcr:system" content below the node should be reindexed as well
+     * @param indexes the writer to the indexes; may not be null
+     * @param resume true if a previous reindexing of the same content which was interrupted should be resumed
+     * @return true if at least one index was updated, or false otherwise
+     */
+    private boolean reindexAll( String workspaceName,
+                                NodeCache cache,
+                                CachedNode node,
+                                boolean reindexSystemContent,
+                                IndexWriter indexes,
+                                boolean resume ) {
+        return parallelReindexing.reindex(workspaceName, cache, node, reindexSystemContent, indexes, indexesFingerprint(),
+                                          resume);
+    }
+
+    /**
+     * Get the fingerprint of the index definitions, which identifies the indexes that a reindexing operation was writing to.
+     *
+     * @return the fingerprint; never null
+     */
+    private String indexesFingerprint() {
+        List<String> definitions = new ArrayList<>();
+        for (IndexDefinition defn : getIndexes().getIndexDefinitions().values()) {
+            definitions.add(defn.toString());
+        }
+        Collections.sort(definitions);
+        return SecureHash.sha1(definitions.toString());
+    }
+
     /**
      * Asynchronously crawl and index the content in the named workspace.
      *
@@ -772,4 +1018,25 @@ class RepositoryQueryManager implements ChangeSetListener {
         });
     }
 
+    /**
+     * The listener which invalidates the cached query results affected by each change set.
+     */
+    protected static final class ResultCacheInvalidation implements ChangeSetListener {
+        private final QueryResultCache resultCache;
+
+        protected ResultCacheInvalidation( QueryResultCache resultCache ) {
+            this.resultCache = resultCache;
+        }
+
+        @Override
+        public void notify( ChangeSet changeSet ) {
+            resultCache.invalidate(changeSet);
+        }
+
+        @Override
+        public boolean requiresRemoteChanges() {
+            // the change sets with only the keys of the changed nodes invalidate all the results of their workspace
+            return false;
+        }
+    }
 }
@@ -29,8 +29,8 @@ import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.modeshape.common.SystemFailureException;
@@ -142,6 +142,7 @@ public class RepositoryStatistics implements RepositoryMonitor, ChangeSetListene
     private final AtomicReference<DateTime> hoursStartTime = new AtomicReference<DateTime>();
     private final AtomicReference<DateTime> daysStartTime = new AtomicReference<DateTime>();
     private final AtomicReference<DateTime> weeksStartTime = new AtomicReference<DateTime>();
+    private final ReindexingProgress reindexingProgress = new ReindexingProgress();
 
     RepositoryStatistics( ExecutionContext context ) {
         this.timeFactory = context.getValueFactories().getDateFactory();
@@ -253,6 +254,15 @@ public class RepositoryStatistics implements RepositoryMonitor, ChangeSetListene
         throw new SystemFailureException("Should never happen");
     }
 
+    /**
+     * Get the progress of the operations which reindex the content of the repository.
+     *
+     * @return the reindexing progress; never null
+     */
+    public ReindexingProgress reindexingProgress() {
+        return reindexingProgress;
+    }
+
     @Override
     public Set<DurationMetric> getAvailableDurationMetrics() {
         return RepositoryMonitor.ALL_DURATION_METRICS;
@@ -355,6 +365,18 @@ public class RepositoryStatistics implements RepositoryMonitor, ChangeSetListene
         if (history != null) history.recordIncrement(-1L);
     }
 
+    /**
+     * Get the sum of all the increments recorded for a metric since the statistics were started, regardless of the rollups.
+     * 
+     * @param metric the metric; may not be null
+     * @return the sum of the increments, or 0 if the statistics haven't been started
+     */
+    long incrementsSinceStart( ValueMetric metric ) {
+        assert metric != null;
+        ValueHistory history = values.get(metric);
+        return history != null ? history.incrementsSinceStart() : 0L;
+    }
+
     /**
      * Record a new duration for the given metric, called by the code that knows about the duration.
      * 
@@ -375,6 +397,12 @@ public class RepositoryStatistics implements RepositoryMonitor, ChangeSetListene
         if (history != null) history.recordDuration(duration, timeUnit, payload);
     }
 
+    @Override
+    public boolean requiresRemoteChanges() {
+        // only the keys of the changed nodes and the changes to the workspaces are used
+        return false;
+    }
+
     @Override
     public void notify( ChangeSet changeSet ) {
         // Track all changes, even those that originate in remote processes ...
@@ -544,7 +572,11 @@ public class RepositoryStatistics implements RepositoryMonitor, ChangeSetListene
      */
     @ThreadSafe
     protected static final class ValueHistory extends MetricHistory {
-        private final AtomicLong value = new AtomicLong();
+        // some values (e.g. cache hits) are incremented very frequently by many threads, so the increments are only added to a
+        // single adder which is never reset; the value is derived from the sum of the increments since the value was last set
+        // or rolled up, so that no increment is lost when the value is reset
+        private final LongAdder incrementsSinceStart = new LongAdder();
+        private final AtomicReference<Base> base = new AtomicReference<>(new Base(0L, 0L));
         private final boolean resetCounterUponRollup;
 
         protected ValueHistory( boolean resetCounterUponRollup ) {
@@ -552,18 +584,44 @@ public class RepositoryStatistics implements RepositoryMonitor, ChangeSetListene
         }
 
         void recordIncrement( long increment ) {
-            this.value.addAndGet(increment);
+            this.incrementsSinceStart.add(increment);
+        }
+
+        long incrementsSinceStart() {
+            return incrementsSinceStart.sum();
         }
 
         void recordNewValue( long value ) {
-            this.value.set(value);
+            this.base.set(new Base(value, incrementsSinceStart.sum()));
         }
 
         @Override
         Window rollup() {
-            long value = resetCounterUponRollup ? this.value.getAndSet(0L) : this.value.get();
+            Base base = this.base.get();
+            long increments = incrementsSinceStart.sum();
+            long value = base.value + increments - base.increments;
+            if (resetCounterUponRollup) {
+                // the increments made after the sum was read are counted by the next rollup, and a value set concurrently
+                // is kept ...
+                this.base.compareAndSet(base, new Base(0L, increments));
+            }
             return recordStatisticsForLastSecond(statisticsFor(value));
         }
+
+        /**
+         * The last value which was set or rolled up, together with the sum of the increments at that time.
+         */
+        @Immutable
+        private static final class Base {
+            protected final long value;
+            protected final long increments;
+
+            protected Base( long value,
+                            long increments ) {
+                this.value = value;
+                this.increments = increments;
+            }
+        }
     }
 
     /**
@@ -416,6 +416,12 @@ public class Sequencers implements ChangeSetListener {
         }
     }
 
+    @Override
+    public boolean requiresRemoteChanges() {
+        // only the changes made in this process are sequenced
+        return false;
+    }
+
     /**
      * This method is called when changes are persisted to the repository. This method quickly looks at the changes and decides
      * which (if any) sequencers should be called, and enqueues any sequencing work in the supplied work queue for subsequent
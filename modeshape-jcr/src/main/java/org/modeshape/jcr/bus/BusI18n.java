@@ -29,6 +29,8 @@ public final class BusI18n {
     public static I18n errorDeserializingChanges;
     public static I18n errorProcessingEvent;
     public static I18n loopbackMessageNotReceived;
+    public static I18n errorSendingInvalidation;
+    public static I18n missedChangesNotRetained;
 
     private BusI18n() {
     }
@@ -15,10 +15,25 @@
  */
 package org.modeshape.jcr.bus;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+import org.modeshape.common.annotation.GuardedBy;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.CheckArg;
+import org.modeshape.jcr.RepositoryConfiguration;
 import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetCodec;
 import org.modeshape.jcr.cache.change.ChangeSetListener;
 import org.modeshape.jcr.clustering.ClusteringService;
 import org.modeshape.jcr.clustering.MessageConsumer;
@@ -31,6 +46,22 @@ import org.modeshape.jcr.clustering.MessageConsumer;
  * cluster, and JGroups will do this for us as long as we push all local changes into the channel and receive all local/remote
  * changes from the channel.
  * </p>
+ * <p>
+ * Changes made to non-system workspaces are only sent in full when at least one other member of the cluster has listeners which
+ * {@link ChangeSetListener#requiresRemoteChanges() require} them. Otherwise only the keys of the changed nodes are sent to the
+ * other members, which use them to evict those nodes from their caches, and the full changes are kept locally until the
+ * {@link NodeKeysInvalidation} message is delivered back by JGroups, so that the local listeners see them in the same order as
+ * all the other changes. The message is sent right away, but the keys of all the changes made while another message is being
+ * sent are coalesced into the next message. Each bus announces to the other members whether it requires the full changes via
+ * {@link RemoteChangesInterest} messages.
+ * </p>
+ * <p>
+ * The change sets which only have the keys of the nodes changed by other members are only delivered to the local listeners
+ * which don't require the full changes. A bus which has started requiring the full changes may still receive such change sets
+ * from members which didn't know it yet; since each invalidation message carries the versions of the interests known to its
+ * sender, the bus detects this and asks the sender for the full change sets via {@link MissedChanges} messages. The sender
+ * keeps the full change sets of its last {@value #MAX_RETAINED_INVALIDATIONS} invalidation messages for this purpose.
+ * </p>
  * 
  * @author Horia Chiorean
  */
@@ -39,6 +70,11 @@ public final class ClusteredChangeBus extends MessageConsumer<ChangeSet> impleme
 
     private static final Logger LOGGER = Logger.getLogger(ClusteredChangeBus.class);
 
+    /**
+     * The number of invalidation messages whose full change sets are kept, in case another bus missed them
+     */
+    protected static final int MAX_RETAINED_INVALIDATIONS = 100;
+
     /**
      * The wrapped standalone bus to which standard bus operations are delegated
      */
@@ -49,6 +85,65 @@ public final class ClusteredChangeBus extends MessageConsumer<ChangeSet> impleme
      */
     private final ClusteringService clusteringService;
 
+    /**
+     * The unique identifier of this bus, used to tell apart the buses which run on the same cluster member
+     */
+    private final String busId = UUID.randomUUID().toString();
+
+    /**
+     * The local listeners which require the full changes made by other members, each with the listener registered with the
+     * delegate bus which doesn't forward the change sets which only have the keys of the changed nodes
+     */
+    private final ConcurrentMap<ChangeSetListener, ChangeSetListener> listenersRequiringChanges = new ConcurrentHashMap<>();
+
+    /**
+     * The latest interest announced by each of the other buses in the cluster, keyed by bus identifier
+     */
+    private final ConcurrentMap<String, RemoteChangesInterest> interestsByBusId = new ConcurrentHashMap<>();
+
+    /**
+     * The local changes which haven't been processed yet, keyed by the sequence number of the invalidation message which holds
+     * their keys
+     */
+    private final Map<Long, List<ChangeSet>> localChangesBySequence = new ConcurrentSkipListMap<>();
+
+    /**
+     * The local changes which have been sent as keys most recently, keyed by the sequence number of the invalidation message
+     */
+    @GuardedBy( "retainedLocalChanges" )
+    private final Map<Long, List<ChangeSet>> retainedLocalChanges = new LinkedHashMap<Long, List<ChangeSet>>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Long, List<ChangeSet>> eldest ) {
+            return size() > MAX_RETAINED_INVALIDATIONS;
+        }
+    };
+
+    /**
+     * The lock held while sending messages, so that the messages are sent in the same order as the changes
+     */
+    private final Object sendLock = new Object();
+
+    private final Object pendingInvalidationLock = new Object();
+
+    @GuardedBy( "pendingInvalidationLock" )
+    private NodeKeysInvalidation pendingInvalidation;
+
+    @GuardedBy( "pendingInvalidationLock" )
+    private List<ChangeSet> pendingLocalChanges = new ArrayList<>();
+
+    @GuardedBy( "pendingInvalidationLock" )
+    private long lastSequence;
+
+    @GuardedBy( "this" )
+    private boolean requiresChanges;
+
+    /**
+     * The version of the interest of this bus, which is incremented each time {@link #requiresChanges} changes
+     */
+    private volatile long interestVersion;
+
     /**
      * Creates a new clustered repository bus
      * 
@@ -63,6 +158,7 @@ public final class ClusteredChangeBus extends MessageConsumer<ChangeSet> impleme
         CheckArg.isNotNull(clusteringService, "clusteringService");
         this.delegate = delegate;
         this.clusteringService = clusteringService;
+        this.pendingInvalidation = new NodeKeysInvalidation(busId, ++lastSequence);
     }
 
     @Override
@@ -84,7 +180,90 @@ public final class ClusteredChangeBus extends MessageConsumer<ChangeSet> impleme
         delegate.start();
 
         // register with the clustering service
+        clusteringService.addCodec(new ChangeSetCodec());
         clusteringService.addConsumer(this);
+        clusteringService.addConsumer(new MessageConsumer<NodeKeysInvalidation>(NodeKeysInvalidation.class) {
+            @Override
+            public void consume( NodeKeysInvalidation invalidation ) {
+                consumeInvalidation(invalidation);
+            }
+        });
+        clusteringService.addConsumer(new MessageConsumer<RemoteChangesInterest>(RemoteChangesInterest.class) {
+            @Override
+            public void consume( RemoteChangesInterest interest ) {
+                consumeInterest(interest);
+            }
+        });
+        clusteringService.addConsumer(new MessageConsumer<MissedChanges>(MissedChanges.class) {
+            @Override
+            public void consume( MissedChanges missedChanges ) {
+                consumeMissedChanges(missedChanges);
+            }
+        });
+        clusteringService.addMembershipListener(this::membersChanged);
+
+        // and let the other members know whether we need their changes
+        announceInterest();
+    }
+
+    protected void consumeInvalidation( NodeKeysInvalidation invalidation ) {
+        if (busId.equals(invalidation.senderId())) {
+            // the changes were made locally, and all the changes sent before them have now been processed ...
+            processLocalChanges(invalidation.sequence());
+            return;
+        }
+        for (ChangeSet changeSet : invalidation.changeSets()) {
+            consume(changeSet);
+        }
+        long interestVersion = this.interestVersion;
+        if (!listenersRequiringChanges.isEmpty() && invalidation.interestVersionOf(busId) < interestVersion) {
+            // the sender didn't know yet that the full changes are required by this bus ...
+            LOGGER.debug("Bus {0} (interest version {1}) asks for the full changes of {2}", busId, interestVersion, invalidation);
+            clusteringService.sendMessage(new MissedChanges(busId, invalidation.senderId(), invalidation.sequence()));
+        }
+    }
+
+    protected void consumeMissedChanges( MissedChanges missedChanges ) {
+        if (missedChanges.isRequest()) {
+            if (!busId.equals(missedChanges.senderId())) {
+                return;
+            }
+            List<ChangeSet> localChanges;
+            synchronized (retainedLocalChanges) {
+                localChanges = retainedLocalChanges.get(missedChanges.sequence());
+            }
+            if (localChanges == null) {
+                LOGGER.warn(BusI18n.missedChangesNotRetained, clusteringService.toString(), missedChanges.requesterId(),
+                            MAX_RETAINED_INVALIDATIONS);
+                return;
+            }
+            clusteringService.sendMessage(missedChanges.withChangeSets(localChanges));
+        } else if (busId.equals(missedChanges.requesterId())) {
+            // the listeners which don't require the full changes have already seen the keys, so seeing them again is harmless
+            missedChanges.changeSets().forEach(this::consume);
+        }
+    }
+
+    protected void consumeInterest( RemoteChangesInterest interest ) {
+        if (busId.equals(interest.busId())) {
+            return;
+        }
+        if (interestsByBusId.put(interest.busId(), interest) == null) {
+            // this is a bus we haven't heard of before (e.g. a new member), so make sure it knows about us as well
+            announceInterest();
+        }
+    }
+
+    protected void membersChanged( Set<String> memberIds ) {
+        // forget about the buses of the members which have left the cluster
+        interestsByBusId.values().removeIf(interest -> !memberIds.contains(interest.memberId()));
+    }
+
+    private void processLocalChanges( long sequence ) {
+        List<ChangeSet> localChanges = localChangesBySequence.remove(sequence);
+        if (localChanges != null) {
+            localChanges.forEach(this::consume);
+        }
     }
 
     @Override
@@ -94,7 +273,18 @@ public final class ClusteredChangeBus extends MessageConsumer<ChangeSet> impleme
 
     @Override
     public synchronized void shutdown() {
+        flushInvalidations();
+        // the messages which haven't been delivered back yet won't be anymore, so process their changes right away
+        for (Long sequence : new ArrayList<>(localChangesBySequence.keySet())) {
+            processLocalChanges(sequence);
+        }
         delegate.shutdown();
+        listenersRequiringChanges.clear();
+        if (requiresChanges) {
+            requiresChanges = false;
+            ++interestVersion;
+        }
+        announceInterest();
     }
 
     @Override
@@ -102,18 +292,128 @@ public final class ClusteredChangeBus extends MessageConsumer<ChangeSet> impleme
         if (changeSet == null) {
             return; // do nothing
         }
-        if (!clusteringService.multipleMembersInCluster()) {
+        if (!clusteringService.multipleMembersInCluster() && localChangesBySequence.isEmpty()) {
             // We are in clustered mode, but there is only one participant in the cluster (us).
             // So short-circuit the cluster and just notify the local observers ...
             consume(changeSet);
             return;
         }
 
-        // There are multiple participants in the cluster, so send all changes out to JGroups,
-        // letting JGroups do the ordering of messages...
-        // note that JGroups will dispatch our own changeset *in a separate thread* (see below)
-        logSendOperation(changeSet);
-        clusteringService.sendMessage(changeSet);
+        // read the interests before deciding, so that the versions sent with the keys are never newer than the decision ...
+        Map<String, Long> interestVersions = interestVersions();
+        if (requiresFullChanges(changeSet)) {
+            // There are multiple participants in the cluster, so send all changes out to JGroups,
+            // letting JGroups do the ordering of messages...
+            // note that JGroups will dispatch our own changeset *in a separate thread* (see below)
+            synchronized (sendLock) {
+                flushInvalidations();
+                logSendOperation(changeSet);
+                if (!clusteringService.sendMessage(changeSet)) {
+                    // the other members have left the cluster in the meantime
+                    consume(changeSet);
+                }
+            }
+            return;
+        }
+
+        // None of the other members needs the individual changes, so only send the keys of the changed nodes to the other
+        // members; the changes are processed locally once the message is delivered back ...
+        synchronized (pendingInvalidationLock) {
+            pendingInvalidation.add(changeSet);
+            pendingInvalidation.recordInterestVersions(interestVersions);
+            pendingLocalChanges.add(changeSet);
+        }
+        flushInvalidations();
+    }
+
+    private boolean requiresFullChanges( ChangeSet changeSet ) {
+        String workspaceName = changeSet.getWorkspaceName();
+        if (workspaceName == null || RepositoryConfiguration.SYSTEM_WORKSPACE_NAME.equals(workspaceName)) {
+            // changes to the workspaces, the node types, locks, index definitions etc. are always needed by all members
+            return true;
+        }
+        return otherMembersRequireChanges();
+    }
+
+    private Map<String, Long> interestVersions() {
+        Map<String, Long> versionsByBusId = new HashMap<>();
+        for (RemoteChangesInterest interest : interestsByBusId.values()) {
+            versionsByBusId.put(interest.busId(), interest.version());
+        }
+        return versionsByBusId;
+    }
+
+    /**
+     * Checks whether any of the other members of the cluster requires the full changes made to non-system workspaces.
+     *
+     * @return {@code true} if at least one other member requires them or if it's not known yet, {@code false} otherwise
+     */
+    boolean otherMembersRequireChanges() {
+        Set<String> members = clusteringService.memberIds();
+        Set<String> knownMembers = new HashSet<>();
+        knownMembers.add(clusteringService.localMemberId());
+        for (RemoteChangesInterest interest : interestsByBusId.values()) {
+            if (!members.contains(interest.memberId())) {
+                // the member has left the cluster
+                continue;
+            }
+            if (interest.requiresChanges()) {
+                return true;
+            }
+            knownMembers.add(interest.memberId());
+        }
+        // members which haven't announced their interest yet might require the changes
+        return !knownMembers.containsAll(members);
+    }
+
+    private void flushInvalidations() {
+        synchronized (sendLock) {
+            NodeKeysInvalidation invalidation;
+            List<ChangeSet> localChanges;
+            synchronized (pendingInvalidationLock) {
+                if (pendingLocalChanges.isEmpty()) {
+                    // the changes have already been sent by another thread, together with the changes made by that thread
+                    return;
+                }
+                invalidation = pendingInvalidation;
+                localChanges = pendingLocalChanges;
+                pendingInvalidation = new NodeKeysInvalidation(busId, ++lastSequence);
+                pendingLocalChanges = new ArrayList<>();
+            }
+            localChangesBySequence.put(invalidation.sequence(), localChanges);
+            synchronized (retainedLocalChanges) {
+                retainedLocalChanges.put(invalidation.sequence(), localChanges);
+            }
+            try {
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("Sending to cluster '{0}' {1}", clusteringService.toString(), invalidation);
+                }
+                if (!clusteringService.sendMessage(invalidation)) {
+                    // the other members have left the cluster in the meantime
+                    processLocalChanges(invalidation.sequence());
+                }
+            } catch (RuntimeException e) {
+                LOGGER.error(e, BusI18n.errorSendingInvalidation, clusteringService.toString(), invalidation.keyCount(),
+                             e.getMessage());
+                processLocalChanges(invalidation.sequence());
+            }
+        }
+    }
+
+    private synchronized void listenersChanged() {
+        boolean requiresChanges = !listenersRequiringChanges.isEmpty();
+        if (this.requiresChanges != requiresChanges) {
+            this.requiresChanges = requiresChanges;
+            ++interestVersion;
+            announceInterest();
+        }
+    }
+
+    private synchronized void announceInterest() {
+        if (clusteringService.isOpen()) {
+            clusteringService.sendMessage(new RemoteChangesInterest(busId, clusteringService.localMemberId(), requiresChanges,
+                                                                  interestVersion));
+        }
     }
 
     protected final void logSendOperation( ChangeSet changeSet ) {
@@ -143,16 +443,64 @@ public final class ClusteredChangeBus extends MessageConsumer<ChangeSet> impleme
 
     @Override
     public boolean register( ChangeSetListener listener ) {
-        return delegate.register(listener);
+        return register(listener, delegate::register);
     }
 
     @Override
     public boolean registerInThread( ChangeSetListener listener ) {
-        return delegate.registerInThread(listener);
+        return register(listener, delegate::registerInThread);
+    }
+
+    private boolean register( ChangeSetListener listener,
+                              Predicate<ChangeSetListener> registration ) {
+        if (listener == null || !listener.requiresRemoteChanges()) {
+            return registration.test(listener);
+        }
+        ChangeSetListener fullChangesListener = new FullChangesListener(listener);
+        if (listenersRequiringChanges.putIfAbsent(listener, fullChangesListener) != null) {
+            // the listener is already registered
+            return false;
+        }
+        if (!registration.test(fullChangesListener)) {
+            listenersRequiringChanges.remove(listener, fullChangesListener);
+            return false;
+        }
+        listenersChanged();
+        return true;
     }
 
     @Override
     public boolean unregister( ChangeSetListener listener ) {
-        return delegate.unregister(listener);
+        ChangeSetListener fullChangesListener = listener != null ? listenersRequiringChanges.remove(listener) : null;
+        if (fullChangesListener == null) {
+            return delegate.unregister(listener);
+        }
+        boolean unregistered = delegate.unregister(fullChangesListener);
+        listenersChanged();
+        return unregistered;
+    }
+
+    /**
+     * The listener registered with the delegate bus for a listener which requires the full changes made by other members, and
+     * which therefore must not see the change sets that only have the keys of the changed nodes.
+     */
+    private static final class FullChangesListener implements ChangeSetListener {
+        private final ChangeSetListener listener;
+
+        protected FullChangesListener( ChangeSetListener listener ) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void notify( ChangeSet changeSet ) {
+            if (!NodeKeysInvalidation.hasOnlyKeys(changeSet)) {
+                listener.notify(changeSet);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return listener.toString();
+        }
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.bus;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.cache.change.ChangeSet;
+
+/**
+ * A cluster message through which a {@link ClusteredChangeBus} which only received the keys of the nodes changed by another
+ * member, because that member didn't know yet that the bus {@link RemoteChangesInterest requires} the full change sets, asks
+ * for the full change sets of that {@link NodeKeysInvalidation invalidation}. The same message, with the change sets, is the
+ * reply of the bus which sent the invalidation.
+ *
+ * @since 5.5
+ */
+@Immutable
+final class MissedChanges implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String requesterId;
+    private final String senderId;
+    private final long sequence;
+    private final ArrayList<ChangeSet> changeSets;
+
+    protected MissedChanges( String requesterId,
+                             String senderId,
+                             long sequence ) {
+        this(requesterId, senderId, sequence, null);
+    }
+
+    private MissedChanges( String requesterId,
+                           String senderId,
+                           long sequence,
+                           ArrayList<ChangeSet> changeSets ) {
+        this.requesterId = requesterId;
+        this.senderId = senderId;
+        this.sequence = sequence;
+        this.changeSets = changeSets;
+    }
+
+    /**
+     * Creates the reply to this request.
+     *
+     * @param changeSets the full change sets of the invalidation; may not be null
+     * @return the reply; never null
+     */
+    protected MissedChanges withChangeSets( List<ChangeSet> changeSets ) {
+        return new MissedChanges(requesterId, senderId, sequence, new ArrayList<>(changeSets));
+    }
+
+    /**
+     * Returns the identifier of the bus which asked for the change sets.
+     *
+     * @return the bus identifier; never null
+     */
+    protected String requesterId() {
+        return requesterId;
+    }
+
+    /**
+     * Returns the identifier of the bus which sent the invalidation.
+     *
+     * @return the bus identifier; never null
+     */
+    protected String senderId() {
+        return senderId;
+    }
+
+    /**
+     * Returns the sequence number of the invalidation.
+     *
+     * @return the sequence number
+     * @see NodeKeysInvalidation#sequence()
+     */
+    protected long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Checks whether this message is a request or a reply.
+     *
+     * @return {@code true} if this message asks for the change sets, {@code false} if it holds them
+     */
+    protected boolean isRequest() {
+        return changeSets == null;
+    }
+
+    /**
+     * Returns the full change sets of the invalidation.
+     *
+     * @return the change sets; never null but empty for a request
+     */
+    protected List<ChangeSet> changeSets() {
+        return changeSets != null ? Collections.unmodifiableList(changeSets) : Collections.<ChangeSet>emptyList();
+    }
+
+    @Override
+    public String toString() {
+        return "MissedChanges[requester=" + requesterId + ", sender=" + senderId + ", sequence=" + sequence
+               + (changeSets != null ? ", changeSets=" + changeSets.size() : "") + "]";
+    }
+}
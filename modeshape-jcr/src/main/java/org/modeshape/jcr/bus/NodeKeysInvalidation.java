@@ -0,0 +1,455 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.bus;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.jcr.api.value.DateTime;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.value.BinaryKey;
+import org.modeshape.jcr.value.basic.ModeShapeDateTime;
+
+/**
+ * A cluster message which only carries the keys of the nodes changed by one or more {@link ChangeSet} instances, so that the
+ * other members of the cluster can evict those nodes from their caches. The keys of all the change sets made in the same
+ * workspace are coalesced, and are written using a compact binary format: the source and workspace prefix of the keys is
+ * written only once, and identifiers which are UUIDs are written as 16 bytes. Each message sent by a bus has a sequence number,
+ * which allows the sender to recognize its own messages when they are delivered back by the cluster. Each message also carries
+ * the versions of the {@link RemoteChangesInterest interests} of the other buses which were known to the sender when it
+ * decided to only send the keys, so that a bus which has started requiring the full changes in the meantime can detect that it
+ * missed them.
+ *
+ * @since 5.5
+ */
+@NotThreadSafe
+final class NodeKeysInvalidation implements Externalizable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String senderId;
+    private long sequence;
+    private long timestamp;
+    private final Map<String, InvalidatedNodes> nodesByChangeSource = new LinkedHashMap<>();
+    private final Map<String, Long> interestVersionsByBusId = new HashMap<>();
+    private boolean interestVersionsRecorded;
+    private int keyCount;
+
+    /**
+     * Creates an empty message; this is required by {@link Externalizable}.
+     */
+    public NodeKeysInvalidation() {
+    }
+
+    protected NodeKeysInvalidation( String senderId,
+                                    long sequence ) {
+        this.senderId = senderId;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Adds the keys of the nodes changed by the given change set to this message.
+     *
+     * @param changeSet a {@link ChangeSet} instance; may not be null
+     */
+    protected void add( ChangeSet changeSet ) {
+        Set<NodeKey> changedNodes = changeSet.changedNodes();
+        if (changedNodes.isEmpty()) {
+            return;
+        }
+        if (keyCount == 0) {
+            timestamp = System.currentTimeMillis();
+        }
+        String changeSource = changeSet.getProcessKey() + "/" + changeSet.getRepositoryKey() + "/" + changeSet.getWorkspaceName();
+        InvalidatedNodes nodes = nodesByChangeSource.computeIfAbsent(changeSource,
+                                                                     source -> new InvalidatedNodes(senderId,
+                                                                                                    changeSet.getProcessKey(),
+                                                                                                    changeSet.getRepositoryKey(),
+                                                                                                    changeSet.getWorkspaceName(),
+                                                                                                    timestamp));
+        int sizeBefore = nodes.keys.size();
+        nodes.keys.addAll(changedNodes);
+        keyCount += nodes.keys.size() - sizeBefore;
+    }
+
+    /**
+     * Records the versions of the interests of the other buses which were known when the keys of a change set were added to
+     * this message. Since the keys of several change sets may be coalesced, only the oldest version known for each bus is kept,
+     * and the buses which weren't known for all the change sets are forgotten.
+     *
+     * @param versionsByBusId the versions of the interests keyed by bus identifier; may not be null
+     */
+    protected void recordInterestVersions( Map<String, Long> versionsByBusId ) {
+        if (!interestVersionsRecorded) {
+            interestVersionsByBusId.putAll(versionsByBusId);
+            interestVersionsRecorded = true;
+            return;
+        }
+        interestVersionsByBusId.keySet().retainAll(versionsByBusId.keySet());
+        interestVersionsByBusId.replaceAll((busId, version) -> Math.min(version, versionsByBusId.get(busId)));
+    }
+
+    /**
+     * Returns the version of the interest of the given bus which was known to the sender of this message.
+     *
+     * @param busId the identifier of the bus; may not be null
+     * @return the version of the interest, or 0 if the sender didn't know about the bus
+     * @see RemoteChangesInterest#version()
+     */
+    protected long interestVersionOf( String busId ) {
+        Long version = interestVersionsByBusId.get(busId);
+        return version != null ? version : 0L;
+    }
+
+    /**
+     * Checks whether the given change set only carries the keys of the changed nodes, because it was created from an
+     * invalidation message.
+     *
+     * @param changeSet a {@link ChangeSet} instance; may not be null
+     * @return {@code true} if the change set doesn't have any individual changes, {@code false} otherwise
+     */
+    protected static boolean hasOnlyKeys( ChangeSet changeSet ) {
+        return changeSet instanceof InvalidatedNodes;
+    }
+
+    /**
+     * Returns the identifier of the bus which sent this message.
+     *
+     * @return the identifier of the sender; never null once the message has been sent
+     */
+    protected String senderId() {
+        return senderId;
+    }
+
+    /**
+     * Returns the sequence number of this message, which is unique among the messages sent by the same bus.
+     *
+     * @return the sequence number
+     */
+    protected long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the number of distinct node keys in this message.
+     *
+     * @return the number of keys
+     */
+    protected int keyCount() {
+        return keyCount;
+    }
+
+    /**
+     * Checks if this message has any node keys.
+     *
+     * @return {@code true} if there aren't any keys in this message
+     */
+    protected boolean isEmpty() {
+        return keyCount == 0;
+    }
+
+    /**
+     * Returns the invalidated nodes as change sets which don't contain any individual changes, but only the keys of the changed
+     * nodes. There is one such change set for each workspace in which nodes have been changed.
+     *
+     * @return the change sets; never null
+     */
+    protected Collection<ChangeSet> changeSets() {
+        return Collections.unmodifiableCollection(nodesByChangeSource.values());
+    }
+
+    @Override
+    public void writeExternal( ObjectOutput out ) throws IOException {
+        out.writeUTF(senderId);
+        out.writeLong(sequence);
+        out.writeLong(timestamp);
+        writeVarInt(out, interestVersionsByBusId.size());
+        for (Map.Entry<String, Long> entry : interestVersionsByBusId.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+        writeVarInt(out, nodesByChangeSource.size());
+        for (InvalidatedNodes nodes : nodesByChangeSource.values()) {
+            writeNullableString(out, nodes.processKey);
+            writeNullableString(out, nodes.repositoryKey);
+            writeNullableString(out, nodes.workspaceName);
+            writeKeys(out, nodes.keys);
+        }
+    }
+
+    @Override
+    public void readExternal( ObjectInput in ) throws IOException {
+        senderId = in.readUTF();
+        sequence = in.readLong();
+        timestamp = in.readLong();
+        int busCount = readVarInt(in);
+        for (int i = 0; i != busCount; i++) {
+            interestVersionsByBusId.put(in.readUTF(), in.readLong());
+        }
+        int changeSourceCount = readVarInt(in);
+        for (int i = 0; i != changeSourceCount; i++) {
+            InvalidatedNodes nodes = new InvalidatedNodes(senderId, readNullableString(in), readNullableString(in),
+                                                          readNullableString(in), timestamp);
+            readKeys(in, nodes.keys);
+            nodesByChangeSource.put(nodes.processKey + "/" + nodes.repositoryKey + "/" + nodes.workspaceName, nodes);
+            keyCount += nodes.keys.size();
+        }
+    }
+
+    private static void writeKeys( ObjectOutput out,
+                                   Set<NodeKey> keys ) throws IOException {
+        // all the keys from a workspace usually share the same source and workspace prefix, so write each prefix only once
+        Map<String, Integer> prefixes = new HashMap<>();
+        List<String> prefixTable = new ArrayList<>();
+        for (NodeKey key : keys) {
+            String prefix = prefixOf(key);
+            if (!prefixes.containsKey(prefix)) {
+                prefixes.put(prefix, prefixTable.size());
+                prefixTable.add(prefix);
+            }
+        }
+        writeVarInt(out, prefixTable.size());
+        for (String prefix : prefixTable) {
+            out.writeUTF(prefix);
+        }
+        writeVarInt(out, keys.size());
+        for (NodeKey key : keys) {
+            String identifier = key.getIdentifier();
+            UUID uuid = uuidOrNull(identifier);
+            // the lowest bit of the header marks whether the identifier is a UUID, the others hold the prefix index
+            writeVarInt(out, (prefixes.get(prefixOf(key)) << 1) | (uuid != null ? 1 : 0));
+            if (uuid != null) {
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+            } else {
+                out.writeUTF(identifier);
+            }
+        }
+    }
+
+    private static void readKeys( ObjectInput in,
+                                  Set<NodeKey> keys ) throws IOException {
+        int prefixCount = readVarInt(in);
+        String[] prefixTable = new String[prefixCount];
+        for (int i = 0; i != prefixCount; i++) {
+            prefixTable[i] = in.readUTF();
+        }
+        int count = readVarInt(in);
+        for (int i = 0; i != count; i++) {
+            int header = readVarInt(in);
+            String identifier = (header & 1) != 0 ? new UUID(in.readLong(), in.readLong()).toString() : in.readUTF();
+            keys.add(new NodeKey(prefixTable[header >>> 1] + identifier));
+        }
+    }
+
+    private static String prefixOf( NodeKey key ) {
+        return key.getSourceKey() + key.getWorkspaceKey();
+    }
+
+    private static UUID uuidOrNull( String identifier ) {
+        if (!NodeKey.isValidRandomIdentifier(identifier)) {
+            return null;
+        }
+        UUID uuid = UUID.fromString(identifier);
+        // only use the binary form if the identifier can be restored exactly
+        return uuid.toString().equals(identifier) ? uuid : null;
+    }
+
+    private static void writeNullableString( ObjectOutput out,
+                                             String value ) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString( ObjectInput in ) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeVarInt( ObjectOutput out,
+                                     int value ) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt( ObjectInput in ) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    @Override
+    public String toString() {
+        return "NodeKeysInvalidation[sender=" + senderId + ", sequence=" + sequence + ", keys=" + keyCount + ", workspaces="
+               + nodesByChangeSource.size() + "]";
+    }
+
+    /**
+     * The keys of the nodes which have been changed in one workspace, exposed as a {@link ChangeSet} which doesn't have any
+     * individual changes: each changed node counts as one change, but {@link #iterator() iterating} over the changes doesn't
+     * return anything.
+     */
+    private static final class InvalidatedNodes implements ChangeSet {
+        private static final long serialVersionUID = 1L;
+
+        private final String senderId;
+        private final String processKey;
+        private final String repositoryKey;
+        private final String workspaceName;
+        private final long timestamp;
+        private final Set<NodeKey> keys = new HashSet<>();
+        private final String uuid = UUID.randomUUID().toString();
+
+        private InvalidatedNodes( String senderId,
+                                  String processKey,
+                                  String repositoryKey,
+                                  String workspaceName,
+                                  long timestamp ) {
+            this.senderId = senderId;
+            this.processKey = processKey;
+            this.repositoryKey = repositoryKey;
+            this.workspaceName = workspaceName;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int size() {
+            return keys.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return keys.isEmpty();
+        }
+
+        @Override
+        public String getUserId() {
+            return null;
+        }
+
+        @Override
+        public Map<String, String> getUserData() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public DateTime getTimestamp() {
+            return new ModeShapeDateTime(timestamp);
+        }
+
+        @Override
+        public String getProcessKey() {
+            return processKey;
+        }
+
+        @Override
+        public String getRepositoryKey() {
+            return repositoryKey;
+        }
+
+        @Override
+        public String getWorkspaceName() {
+            return workspaceName;
+        }
+
+        @Override
+        public Set<NodeKey> changedNodes() {
+            return Collections.unmodifiableSet(keys);
+        }
+
+        @Override
+        public Set<BinaryKey> unusedBinaries() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<BinaryKey> usedBinaries() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public boolean hasBinaryChanges() {
+            return false;
+        }
+
+        @Override
+        public String getSessionId() {
+            return senderId;
+        }
+
+        @Override
+        public String getJournalId() {
+            return null;
+        }
+
+        @Override
+        public String getUUID() {
+            return uuid;
+        }
+
+        @Override
+        public Iterator<Change> iterator() {
+            return Collections.<Change>emptyIterator();
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof InvalidatedNodes)) {
+                return false;
+            }
+            return uuid.equals(((InvalidatedNodes)obj).uuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(uuid);
+        }
+
+        @Override
+        public String toString() {
+            return "InvalidatedNodes[workspace=" + workspaceName + ", keys=" + keys.size() + "]";
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.bus;
+
+import java.io.Serializable;
+import org.modeshape.common.annotation.Immutable;
+
+/**
+ * A cluster message through which a {@link ClusteredChangeBus} announces to the other members of the cluster whether it has
+ * any listeners which {@link org.modeshape.jcr.cache.change.ChangeSetListener#requiresRemoteChanges() require} the full change
+ * sets made by the other members, or whether the keys of the changed nodes are enough. Each change of the interest of a bus has
+ * a new, higher version.
+ *
+ * @since 5.5
+ */
+@Immutable
+final class RemoteChangesInterest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String busId;
+    private final String memberId;
+    private final boolean requiresChanges;
+    private final long version;
+
+    protected RemoteChangesInterest( String busId,
+                                     String memberId,
+                                     boolean requiresChanges,
+                                     long version ) {
+        this.busId = busId;
+        this.memberId = memberId;
+        this.requiresChanges = requiresChanges;
+        this.version = version;
+    }
+
+    /**
+     * Returns the identifier of the bus which sent this message.
+     *
+     * @return the bus identifier; never null
+     */
+    protected String busId() {
+        return busId;
+    }
+
+    /**
+     * Returns the identifier of the cluster member on which the sending bus runs.
+     *
+     * @return the member identifier; never null
+     * @see org.modeshape.jcr.clustering.ClusteringService#localMemberId()
+     */
+    protected String memberId() {
+        return memberId;
+    }
+
+    /**
+     * Returns whether the sending bus requires the full change sets.
+     *
+     * @return {@code true} if the full change sets are required, {@code false} if the keys of the changed nodes are enough
+     */
+    protected boolean requiresChanges() {
+        return requiresChanges;
+    }
+
+    /**
+     * Returns the version of this interest, which is incremented each time the sending bus starts or stops requiring the full
+     * change sets.
+     *
+     * @return the version
+     */
+    protected long version() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteChangesInterest[bus=" + busId + ", member=" + memberId + ", requiresChanges=" + requiresChanges
+               + ", version=" + version + "]";
+    }
+}
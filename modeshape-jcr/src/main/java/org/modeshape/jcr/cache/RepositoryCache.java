@@ -41,7 +41,9 @@ import org.modeshape.jcr.ModeShape;
 import org.modeshape.jcr.ModeShapeLexicon;
 import org.modeshape.jcr.RepositoryConfiguration;
 import org.modeshape.jcr.RepositoryEnvironment;
+import org.modeshape.jcr.RepositoryStatistics;
 import org.modeshape.jcr.Upgrades;
+import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.api.value.DateTime;
 import org.modeshape.jcr.bus.ChangeBus;
 import org.modeshape.jcr.cache.change.Change;
@@ -52,6 +54,7 @@ import org.modeshape.jcr.cache.change.RepositoryMetadataChanged;
 import org.modeshape.jcr.cache.change.WorkspaceAdded;
 import org.modeshape.jcr.cache.change.WorkspaceRemoved;
 import org.modeshape.jcr.cache.document.DocumentOptimizer;
+import org.modeshape.jcr.cache.document.DocumentSizeWeigher;
 import org.modeshape.jcr.cache.document.DocumentStore;
 import org.modeshape.jcr.cache.document.DocumentTranslator;
 import org.modeshape.jcr.cache.document.LocalDocumentStore;
@@ -71,8 +74,9 @@ import org.modeshape.schematic.SchematicEntry;
 import org.modeshape.schematic.document.Document;
 import org.modeshape.schematic.document.EditableArray;
 import org.modeshape.schematic.document.EditableDocument;
-import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalListener;
+import com.github.benmanes.caffeine.cache.Weigher;
 
 /**
  *
@@ -121,6 +125,8 @@ public class RepositoryCache {
     private volatile boolean upgradingRepository = false;
     private int lastUpgradeId;
     private final int workspaceCacheSize;
+    private final RepositoryStatistics statistics;
+    private final SharedNodeCache sharedNodeCache;
 
     public RepositoryCache(ExecutionContext context,
                            DocumentStore documentStore,
@@ -128,6 +134,7 @@ public class RepositoryCache {
                            ContentInitializer initializer,
                            RepositoryEnvironment repositoryEnvironment,
                            ChangeBus changeBus,
+                           RepositoryStatistics statistics,
                            Upgrades upgradeFunctions) {
         assert initializer != null;
         this.context = context;
@@ -146,6 +153,12 @@ public class RepositoryCache {
         this.upgrades = upgradeFunctions;
         this.workspaceCacheSize = configuration.getWorkspaceCacheSize();
         CheckArg.isPositive(workspaceCacheSize, "workspaceCacheSize");
+        this.statistics = statistics;
+        long workspaceCacheSizeInBytes = configuration.getWorkspaceCacheSizeInBytes();
+        CheckArg.isNonNegative(workspaceCacheSizeInBytes, "workspaceCacheSizeInBytes");
+        this.sharedNodeCache = workspaceCacheSizeInBytes > 0 ? 
+                               new SharedNodeCache(workspaceCacheSizeInBytes, workspaceCacheWeigher(), evictionListener()) : 
+                               null;
         
         SchematicEntry repositoryInfo = this.documentStore.localStore().get(REPOSITORY_INFO_KEY);
         boolean upgradeRequired = false;
@@ -492,6 +505,9 @@ public class RepositoryCache {
         // Shutdown the in-memory caches used for the WorkspaceCache instances ...
         workspaceCachesByName.values().stream().forEach(WorkspaceCache::signalClosed);
         workspaceCachesByName.clear();
+        if (sharedNodeCache != null) {
+            sharedNodeCache.clear();
+        }
     }
 
     /**
@@ -583,6 +599,12 @@ public class RepositoryCache {
     }
     
     protected class ChangesToWorkspacesListener implements ChangeSetListener {
+        @Override
+        public boolean requiresRemoteChanges() {
+            // only changes to the workspaces are processed, and those are always propagated in full
+            return false;
+        }
+
         @Override
         public void notify( ChangeSet changeSet ) {
 
@@ -681,7 +703,7 @@ public class RepositoryCache {
         NodeKey rootKey = new NodeKey(sourceKey, workspaceKey, rootNodeId);
 
         return localStore().runInTransaction(() -> {
-            ConcurrentMap<NodeKey, CachedNode> nodeCache = cacheForWorkspace().asMap();
+            ConcurrentMap<NodeKey, CachedNode> nodeCache = cacheForWorkspace(name);
             ExecutionContext context = context();
             logger.debug("Attempting to initialize a new ws cache for workspace '{0}' in repository '{1}' with root key '{2}'", name, 
                          getName(), rootKey);
@@ -697,7 +719,7 @@ public class RepositoryCache {
 
             WorkspaceCache result = new WorkspaceCache(context, getKey(), name, systemWorkspaceCache,
                                                        documentStore, translator, rootKey, nodeCache,
-                                                       changeBus, repositoryEnvironment());
+                                                       changeBus, repositoryEnvironment(), statistics);
 
             if (documentStore.storeIfAbsent(rootKeyString, rootDoc) == null) {
                 // we are the first node to perform the initialization (in a cluster), so we need to link the system node
@@ -729,9 +751,37 @@ public class RepositoryCache {
         }, 2, REPOSITORY_INFO_KEY);
     }
     
-    protected Cache<NodeKey, CachedNode> cacheForWorkspace() {
+    protected ConcurrentMap<NodeKey, CachedNode> cacheForWorkspace( String workspaceName ) {
+        if (sharedNodeCache != null) {
+            // all the workspaces share the same memory budget
+            return sharedNodeCache.forWorkspace(workspaceName);
+        }
         // make sure eviction runs in the same thread
-        return Caffeine.newBuilder().maximumSize(workspaceCacheSize).executor(Runnable::run).build();
+        return Caffeine.newBuilder()
+                       .maximumSize(workspaceCacheSize)
+                       .removalListener(evictionListener())
+                       .executor(Runnable::run)
+                       .<NodeKey, CachedNode>build()
+                       .asMap();
+    }
+
+    /**
+     * Returns the weigher used to estimate the memory retained by each cached node, when the workspace caches are bounded by
+     * {@link RepositoryConfiguration#getWorkspaceCacheSizeInBytes() a memory budget}. Subclasses may override this to use a
+     * different estimate.
+     *
+     * @return a {@link Weigher} instance, never {@code null}
+     */
+    protected Weigher<NodeKey, CachedNode> workspaceCacheWeigher() {
+        return new DocumentSizeWeigher();
+    }
+
+    private RemovalListener<Object, CachedNode> evictionListener() {
+        return (key, node, cause) -> {
+            if (statistics != null && cause.wasEvicted()) {
+                statistics.increment(ValueMetric.WORKSPACE_CACHE_EVICTIONS);
+            }
+        };
     }
 
     public final DocumentTranslator getDocumentTranslator() {
@@ -759,7 +809,11 @@ public class RepositoryCache {
      */
     void refreshWorkspace( String name ) {
         assert name != null;
-        this.workspaceCachesByName.remove(name);
+        WorkspaceCache removed = this.workspaceCachesByName.remove(name);
+        if (removed != null && sharedNodeCache != null) {
+            // the new workspace cache will use the same shared cache, so make sure it doesn't see any of the old nodes
+            removed.clear();
+        }
     }
 
     Iterable<WorkspaceCache> workspaces() {
@@ -897,7 +951,7 @@ public class RepositoryCache {
         this.workspaceNames.add(workspaceName);
         refreshRepositoryMetadata(true);
 
-        ConcurrentMap<NodeKey, CachedNode> nodeCache = cacheForWorkspace().asMap();
+        ConcurrentMap<NodeKey, CachedNode> nodeCache = cacheForWorkspace(workspaceName);
         ExecutionContext context = context();
         
         //the name of the external connector is used for source name and workspace name
@@ -920,7 +974,8 @@ public class RepositoryCache {
         final WorkspaceCache systemWorkspaceCache = workspaceCachesByName.get(systemWorkspaceName);
         
         WorkspaceCache workspaceCache = new WorkspaceCache(context, getKey(), 
-                workspaceName, systemWorkspaceCache, documentStore, translator, rootKey, nodeCache, changeBus, repositoryEnvironment());
+                workspaceName, systemWorkspaceCache, documentStore, translator, rootKey, nodeCache, changeBus, repositoryEnvironment(), 
+                statistics);
         workspaceCachesByName.put(workspaceName, workspaceCache);
 
         return workspace(workspaceName);
@@ -0,0 +1,267 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.cache;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.modeshape.common.annotation.ThreadSafe;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheWriter;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.RemovalListener;
+import com.github.benmanes.caffeine.cache.Weigher;
+
+/**
+ * A cache of {@link CachedNode} instances which is shared by the caches of all the workspaces of a repository and which is
+ * bounded by the estimated number of bytes retained by the cached nodes, rather than by their number.
+ * <p>
+ * Each workspace accesses the shared cache via its own {@link #forWorkspace(String) view}, which is keyed by {@link NodeKey}.
+ * Entries are stored under the name of the workspace as well, because the same node (e.g. the system node) can be cached by
+ * several workspaces and the cached node instances hold workspace-specific information. The keys of the nodes cached by each
+ * workspace are also tracked separately as they are added, removed and evicted, so that the size, the iteration and the
+ * clearing of a view are proportional to the number of nodes of that workspace rather than of the whole cache.
+ * </p>
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+final class SharedNodeCache {
+
+    private final Cache<WorkspaceNodeKey, CachedNode> cache;
+    private final ConcurrentMap<String, Set<NodeKey>> keysByWorkspaceName = new ConcurrentHashMap<>();
+
+    SharedNodeCache( long maxSizeInBytes,
+                     Weigher<NodeKey, CachedNode> weigher,
+                     RemovalListener<Object, CachedNode> removalListener ) {
+        // make sure eviction runs in the same thread
+        this.cache = Caffeine.newBuilder()
+                             .maximumWeight(maxSizeInBytes)
+                             .<WorkspaceNodeKey, CachedNode>weigher((key, node) -> weigher.weigh(key.nodeKey, node))
+                             .removalListener(removalListener)
+                             .writer(new KeyTracker())
+                             .executor(Runnable::run)
+                             .build();
+    }
+
+    /**
+     * Returns a view of this cache which only contains the nodes cached by the given workspace.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @return a {@link ConcurrentMap} instance, never {@code null}
+     */
+    ConcurrentMap<NodeKey, CachedNode> forWorkspace( String workspaceName ) {
+        return new WorkspaceView(workspaceName, keysOf(workspaceName), cache.asMap());
+    }
+
+    private Set<NodeKey> keysOf( String workspaceName ) {
+        return keysByWorkspaceName.computeIfAbsent(workspaceName, name -> ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * Returns the estimated number of bytes retained by all the nodes in this cache.
+     *
+     * @return the number of bytes
+     */
+    long sizeInBytes() {
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L);
+    }
+
+    /**
+     * Removes all the nodes from this cache, for all the workspaces.
+     */
+    void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Tracks the keys of the nodes of each workspace. It is called atomically with each change of an entry, including evictions.
+     */
+    private final class KeyTracker implements CacheWriter<WorkspaceNodeKey, CachedNode> {
+        @Override
+        public void write( WorkspaceNodeKey key,
+                           CachedNode node ) {
+            keysOf(key.workspaceName).add(key.nodeKey);
+        }
+
+        @Override
+        public void delete( WorkspaceNodeKey key,
+                            CachedNode node,
+                            RemovalCause cause ) {
+            keysOf(key.workspaceName).remove(key.nodeKey);
+        }
+    }
+
+    private static final class WorkspaceNodeKey {
+        private final String workspaceName;
+        private final NodeKey nodeKey;
+
+        private WorkspaceNodeKey( String workspaceName, NodeKey nodeKey ) {
+            this.workspaceName = workspaceName;
+            this.nodeKey = nodeKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * nodeKey.hashCode() + workspaceName.hashCode();
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof WorkspaceNodeKey)) {
+                return false;
+            }
+            WorkspaceNodeKey that = (WorkspaceNodeKey) obj;
+            return nodeKey.equals(that.nodeKey) && workspaceName.equals(that.workspaceName);
+        }
+
+        @Override
+        public String toString() {
+            return workspaceName + ":" + nodeKey;
+        }
+    }
+
+    private static final class WorkspaceView extends AbstractMap<NodeKey, CachedNode>
+            implements ConcurrentMap<NodeKey, CachedNode> {
+        private final String workspaceName;
+        private final Set<NodeKey> keys;
+        private final ConcurrentMap<WorkspaceNodeKey, CachedNode> nodes;
+        private final Set<Map.Entry<NodeKey, CachedNode>> entrySet = new EntrySet();
+
+        private WorkspaceView( String workspaceName, Set<NodeKey> keys, ConcurrentMap<WorkspaceNodeKey, CachedNode> nodes ) {
+            this.workspaceName = workspaceName;
+            this.keys = keys;
+            this.nodes = nodes;
+        }
+
+        private WorkspaceNodeKey keyFor( Object key ) {
+            return key instanceof NodeKey ? new WorkspaceNodeKey(workspaceName, (NodeKey) key) : null;
+        }
+
+        @Override
+        public CachedNode get( Object key ) {
+            WorkspaceNodeKey nodeKey = keyFor(key);
+            return nodeKey != null ? nodes.get(nodeKey) : null;
+        }
+
+        @Override
+        public boolean containsKey( Object key ) {
+            WorkspaceNodeKey nodeKey = keyFor(key);
+            return nodeKey != null && nodes.containsKey(nodeKey);
+        }
+
+        @Override
+        public CachedNode put( NodeKey key, CachedNode value ) {
+            return nodes.put(keyFor(key), value);
+        }
+
+        @Override
+        public CachedNode putIfAbsent( NodeKey key, CachedNode value ) {
+            return nodes.putIfAbsent(keyFor(key), value);
+        }
+
+        @Override
+        public CachedNode remove( Object key ) {
+            WorkspaceNodeKey nodeKey = keyFor(key);
+            return nodeKey != null ? nodes.remove(nodeKey) : null;
+        }
+
+        @Override
+        public boolean remove( Object key, Object value ) {
+            WorkspaceNodeKey nodeKey = keyFor(key);
+            return nodeKey != null && nodes.remove(nodeKey, value);
+        }
+
+        @Override
+        public boolean replace( NodeKey key, CachedNode oldValue, CachedNode newValue ) {
+            return nodes.replace(keyFor(key), oldValue, newValue);
+        }
+
+        @Override
+        public CachedNode replace( NodeKey key, CachedNode value ) {
+            return nodes.replace(keyFor(key), value);
+        }
+
+        @Override
+        public void clear() {
+            for (NodeKey key : keys) {
+                nodes.remove(new WorkspaceNodeKey(workspaceName, key));
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<NodeKey, CachedNode>> entrySet() {
+            return entrySet;
+        }
+
+        private final class EntrySet extends AbstractSet<Map.Entry<NodeKey, CachedNode>> {
+            @Override
+            public Iterator<Map.Entry<NodeKey, CachedNode>> iterator() {
+                Iterator<NodeKey> delegate = keys.iterator();
+                return new Iterator<Map.Entry<NodeKey, CachedNode>>() {
+                    private Map.Entry<NodeKey, CachedNode> next;
+                    private Map.Entry<NodeKey, CachedNode> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == null && delegate.hasNext()) {
+                            NodeKey key = delegate.next();
+                            CachedNode node = nodes.get(new WorkspaceNodeKey(workspaceName, key));
+                            if (node != null) {
+                                // the node was not removed since its key was read
+                                next = new SimpleImmutableEntry<>(key, node);
+                            }
+                        }
+                        return next != null;
+                    }
+
+                    @Override
+                    public Map.Entry<NodeKey, CachedNode> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        last = next;
+                        next = null;
+                        return last;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last == null) {
+                            throw new IllegalStateException();
+                        }
+                        WorkspaceView.this.remove(last.getKey(), last.getValue());
+                        last = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.size();
+            }
+        }
+    }
+}
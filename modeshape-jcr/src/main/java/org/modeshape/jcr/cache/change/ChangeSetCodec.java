@@ -0,0 +1,354 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.cache.change;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.api.value.DateTime;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.clustering.MessageCodec;
+import org.modeshape.jcr.value.BinaryKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Property;
+import org.modeshape.jcr.value.basic.CompactValueInput;
+import org.modeshape.jcr.value.basic.CompactValueOutput;
+
+/**
+ * {@link MessageCodec} which writes the {@link RecordingChanges} sent across the cluster using a compact binary format, instead
+ * of Java serialization. Each {@link Change} is written as a one byte tag followed by its fields, with keys, names and paths
+ * written via {@link CompactValueOutput}. Changes of a type which isn't known by this codec are written using Java
+ * serialization.
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+public final class ChangeSetCodec implements MessageCodec<RecordingChanges> {
+
+    /**
+     * The identifier of this codec.
+     */
+    public static final byte ID = 1;
+
+    private static final byte OTHER = 0;
+    private static final byte NODE_ADDED = 1;
+    private static final byte NODE_CHANGED = 2;
+    private static final byte NODE_MOVED = 3;
+    private static final byte NODE_REMOVED = 4;
+    private static final byte NODE_RENAMED = 5;
+    private static final byte NODE_REORDERED = 6;
+    private static final byte NODE_SEQUENCED = 7;
+    private static final byte NODE_SEQUENCING_FAILURE = 8;
+    private static final byte PROPERTY_ADDED = 9;
+    private static final byte PROPERTY_CHANGED = 10;
+    private static final byte PROPERTY_REMOVED = 11;
+    private static final byte WORKSPACE_ADDED = 12;
+    private static final byte WORKSPACE_REMOVED = 13;
+    private static final byte REPOSITORY_METADATA_CHANGED = 14;
+    private static final byte BINARY_VALUE_USED = 15;
+    private static final byte BINARY_VALUE_UNUSED = 16;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public Class<RecordingChanges> payloadType() {
+        return RecordingChanges.class;
+    }
+
+    @Override
+    public void encode( RecordingChanges payload,
+                        DataOutput output ) throws IOException {
+        write(payload, new CompactValueOutput(output));
+    }
+
+    @Override
+    public RecordingChanges decode( DataInput input ) throws IOException {
+        return read(new CompactValueInput(input));
+    }
+
+    /**
+     * Writes a change set, sharing the string and key tables of the given output with any other values written to it.
+     *
+     * @param changes the change set; may not be null
+     * @param output the output; may not be null
+     * @throws IOException if the change set cannot be written
+     */
+    public static void write( RecordingChanges changes,
+                              CompactValueOutput output ) throws IOException {
+        output.writeString(changes.getUUID());
+        output.writeString(changes.getSessionId());
+        output.writeString(changes.getProcessKey());
+        output.writeString(changes.getRepositoryKey());
+        output.writeString(changes.getWorkspaceName());
+        output.writeString(changes.getJournalId());
+        output.writeString(changes.getUserId());
+        output.writeStringMap(changes.getUserData());
+        output.writeValue(changes.getTimestamp());
+        output.writeNodeKeys(changes.changedNodes());
+        output.writeVarInt(changes.size());
+        for (Change change : changes) {
+            writeChange(change, output);
+        }
+    }
+
+    /**
+     * Reads a change set written by {@link #write(RecordingChanges, CompactValueOutput)}.
+     *
+     * @param input the input; may not be null
+     * @return the change set; never null
+     * @throws IOException if the change set cannot be read
+     */
+    public static RecordingChanges read( CompactValueInput input ) throws IOException {
+        RecordingChanges changes = new RecordingChanges(input.readString(), input.readString(), input.readString(),
+                                                        input.readString(), input.readString(), input.readString());
+        String userId = input.readString();
+        Map<String, String> userData = input.readStringMap();
+        DateTime timestamp = (DateTime)input.readValue();
+        changes.setChangedNodes(input.readNodeKeys());
+        int size = input.readVarInt();
+        for (int i = 0; i != size; i++) {
+            changes.record(readChange(input));
+        }
+        changes.freeze(userId, userData, timestamp);
+        return changes;
+    }
+
+    private static void writeChange( Change change,
+                                     CompactValueOutput output ) throws IOException {
+        // the exact class is checked, so that subclasses which may have additional state are serialized
+        Class<?> type = change.getClass();
+        if (type == NodeAdded.class) {
+            NodeAdded added = (NodeAdded)change;
+            output.output().writeByte(NODE_ADDED);
+            writeNodeChange(added, output);
+            output.writeNodeKey(added.getParentKey());
+            Map<Name, Property> properties = added.getProperties();
+            output.writeVarInt(properties != null ? properties.size() : 0);
+            if (properties != null) {
+                for (Map.Entry<Name, Property> entry : properties.entrySet()) {
+                    output.writeName(entry.getKey());
+                    output.writeProperty(entry.getValue());
+                }
+            }
+        } else if (type == NodeChanged.class) {
+            output.output().writeByte(NODE_CHANGED);
+            writeNodeChange((NodeChanged)change, output);
+        } else if (type == NodeMoved.class) {
+            NodeMoved moved = (NodeMoved)change;
+            output.output().writeByte(NODE_MOVED);
+            writeNodeChange(moved, output);
+            output.writeNodeKey(moved.getOldParent());
+            output.writeNodeKey(moved.getNewParent());
+            output.writePath(moved.getOldPath());
+        } else if (type == NodeRemoved.class) {
+            NodeRemoved removed = (NodeRemoved)change;
+            output.output().writeByte(NODE_REMOVED);
+            writeNodeChange(removed, output);
+            output.writeNodeKey(removed.getParentKey());
+            output.writeName(removed.getParentPrimaryType());
+            output.writeNames(removed.getParentMixinTypes());
+        } else if (type == NodeRenamed.class) {
+            NodeRenamed renamed = (NodeRenamed)change;
+            output.output().writeByte(NODE_RENAMED);
+            writeNodeChange(renamed, output);
+            output.writeSegment(renamed.getOldSegment());
+        } else if (type == NodeReordered.class) {
+            NodeReordered reordered = (NodeReordered)change;
+            output.output().writeByte(NODE_REORDERED);
+            writeNodeChange(reordered, output);
+            output.writeNodeKey(reordered.getParent());
+            output.writePath(reordered.getOldPath());
+            output.writePath(reordered.getReorderedBeforePath());
+            Map<NodeKey, Map<Path, Path>> snsPathChanges = reordered.getSnsPathChangesByNodeKey();
+            output.writeVarInt(snsPathChanges != null ? snsPathChanges.size() : 0);
+            if (snsPathChanges != null) {
+                for (Map.Entry<NodeKey, Map<Path, Path>> entry : snsPathChanges.entrySet()) {
+                    output.writeNodeKey(entry.getKey());
+                    output.writeVarInt(entry.getValue().size());
+                    for (Map.Entry<Path, Path> paths : entry.getValue().entrySet()) {
+                        output.writePath(paths.getKey());
+                        output.writePath(paths.getValue());
+                    }
+                }
+            }
+        } else if (type == NodeSequenced.class) {
+            NodeSequenced sequenced = (NodeSequenced)change;
+            output.output().writeByte(NODE_SEQUENCED);
+            writeSequencingChange(sequenced, output);
+            output.writeNodeKey(sequenced.getOutputNodeKey());
+            output.writePath(sequenced.getOutputNodePath());
+        } else if (type == NodeSequencingFailure.class) {
+            NodeSequencingFailure failure = (NodeSequencingFailure)change;
+            output.output().writeByte(NODE_SEQUENCING_FAILURE);
+            writeSequencingChange(failure, output);
+            output.writeSerialized(failure.getCause());
+        } else if (type == PropertyAdded.class) {
+            output.output().writeByte(PROPERTY_ADDED);
+            writePropertyChange((PropertyAdded)change, output);
+        } else if (type == PropertyChanged.class) {
+            PropertyChanged changed = (PropertyChanged)change;
+            output.output().writeByte(PROPERTY_CHANGED);
+            writePropertyChange(changed, output);
+            output.writeProperty(changed.getOldProperty());
+        } else if (type == PropertyRemoved.class) {
+            output.output().writeByte(PROPERTY_REMOVED);
+            writePropertyChange((PropertyRemoved)change, output);
+        } else if (type == WorkspaceAdded.class) {
+            output.output().writeByte(WORKSPACE_ADDED);
+            output.writeString(((WorkspaceAdded)change).getWorkspaceName());
+        } else if (type == WorkspaceRemoved.class) {
+            output.output().writeByte(WORKSPACE_REMOVED);
+            output.writeString(((WorkspaceRemoved)change).getWorkspaceName());
+        } else if (type == RepositoryMetadataChanged.class) {
+            output.output().writeByte(REPOSITORY_METADATA_CHANGED);
+        } else if (type == BinaryValueUsed.class) {
+            output.output().writeByte(BINARY_VALUE_USED);
+            output.writeString(((BinaryValueUsed)change).getKey().toString());
+        } else if (type == BinaryValueUnused.class) {
+            output.output().writeByte(BINARY_VALUE_UNUSED);
+            output.writeString(((BinaryValueUnused)change).getKey().toString());
+        } else {
+            output.output().writeByte(OTHER);
+            output.writeSerialized(change);
+        }
+    }
+
+    private static void writeNodeChange( AbstractNodeChange change,
+                                         CompactValueOutput output ) throws IOException {
+        output.writeNodeKey(change.getKey());
+        output.writePath(change.getPath());
+        output.writeName(change.getPrimaryType());
+        output.writeNames(change.getMixinTypes());
+    }
+
+    private static void writePropertyChange( AbstractPropertyChange change,
+                                             CompactValueOutput output ) throws IOException {
+        writeNodeChange(change, output);
+        output.writeProperty(change.getProperty());
+    }
+
+    private static void writeSequencingChange( AbstractSequencingChange change,
+                                               CompactValueOutput output ) throws IOException {
+        writeNodeChange(change, output);
+        output.writeString(change.getOutputPath());
+        output.writeString(change.getUserId());
+        output.writeString(change.getSelectedPath());
+        output.writeString(change.getSequencerName());
+    }
+
+    private static Change readChange( CompactValueInput input ) throws IOException {
+        byte type = input.input().readByte();
+        if (type == OTHER) {
+            return (Change)input.readSerialized();
+        }
+        switch (type) {
+            case WORKSPACE_ADDED:
+                return new WorkspaceAdded(input.readString());
+            case WORKSPACE_REMOVED:
+                return new WorkspaceRemoved(input.readString());
+            case REPOSITORY_METADATA_CHANGED:
+                return new RepositoryMetadataChanged();
+            case BINARY_VALUE_USED:
+                return new BinaryValueUsed(new BinaryKey(input.readString()));
+            case BINARY_VALUE_UNUSED:
+                return new BinaryValueUnused(new BinaryKey(input.readString()));
+            default:
+                break;
+        }
+        NodeKey key = input.readNodeKey();
+        Path path = input.readPath();
+        Name primaryType = input.readName();
+        Set<Name> mixinTypes = input.readNames();
+        switch (type) {
+            case NODE_ADDED:
+                NodeKey parentKey = input.readNodeKey();
+                int propertyCount = input.readVarInt();
+                Map<Name, Property> properties = new HashMap<>(propertyCount);
+                for (int i = 0; i != propertyCount; i++) {
+                    properties.put(input.readName(), input.readProperty());
+                }
+                return new NodeAdded(key, parentKey, path, primaryType, mixinTypes, properties);
+            case NODE_CHANGED:
+                return new NodeChanged(key, path, primaryType, mixinTypes);
+            case NODE_MOVED:
+                NodeKey oldParent = input.readNodeKey();
+                NodeKey newParent = input.readNodeKey();
+                return new NodeMoved(key, primaryType, mixinTypes, oldParent, newParent, path, input.readPath());
+            case NODE_REMOVED:
+                NodeKey removedFromKey = input.readNodeKey();
+                Name parentPrimaryType = input.readName();
+                return new NodeRemoved(key, removedFromKey, path, primaryType, mixinTypes, parentPrimaryType,
+                                       input.readNames());
+            case NODE_RENAMED:
+                return new NodeRenamed(key, path, input.readSegment(), primaryType, mixinTypes);
+            case NODE_REORDERED:
+                NodeKey parent = input.readNodeKey();
+                Path oldPath = input.readPath();
+                Path reorderedBeforePath = input.readPath();
+                return new NodeReordered(key, primaryType, mixinTypes, parent, path, oldPath, reorderedBeforePath,
+                                         readSnsPathChanges(input));
+            case NODE_SEQUENCED:
+            case NODE_SEQUENCING_FAILURE:
+                String outputPath = input.readString();
+                String userId = input.readString();
+                String selectedPath = input.readString();
+                String sequencerName = input.readString();
+                if (type == NODE_SEQUENCED) {
+                    NodeKey outputNodeKey = input.readNodeKey();
+                    return new NodeSequenced(key, path, primaryType, mixinTypes, outputNodeKey, input.readPath(), outputPath,
+                                             userId, selectedPath, sequencerName);
+                }
+                return new NodeSequencingFailure(key, path, primaryType, mixinTypes, outputPath, userId, selectedPath,
+                                                 sequencerName, (Throwable)input.readSerialized());
+            case PROPERTY_ADDED:
+                return new PropertyAdded(key, primaryType, mixinTypes, path, input.readProperty());
+            case PROPERTY_CHANGED:
+                Property newProperty = input.readProperty();
+                return new PropertyChanged(key, primaryType, mixinTypes, path, newProperty, input.readProperty());
+            case PROPERTY_REMOVED:
+                return new PropertyRemoved(key, primaryType, mixinTypes, path, input.readProperty());
+            default:
+                throw new IOException("Unknown change type: " + type);
+        }
+    }
+
+    private static Map<NodeKey, Map<Path, Path>> readSnsPathChanges( CompactValueInput input ) throws IOException {
+        int size = input.readVarInt();
+        if (size == 0) {
+            return Collections.emptyMap();
+        }
+        Map<NodeKey, Map<Path, Path>> result = new HashMap<>(size);
+        for (int i = 0; i != size; i++) {
+            NodeKey key = input.readNodeKey();
+            int pathCount = input.readVarInt();
+            Map<Path, Path> paths = new HashMap<>(pathCount);
+            for (int j = 0; j != pathCount; j++) {
+                paths.put(input.readPath(), input.readPath());
+            }
+            result.put(key, paths);
+        }
+        return result;
+    }
+}
@@ -26,4 +26,17 @@ public interface ChangeSetListener {
      * @param changeSet a {@code non-null} {@link ChangeSet}
      */
     void notify( ChangeSet changeSet );
+
+    /**
+     * Returns whether this listener needs the individual changes which other members of a cluster make to non-system
+     * workspaces. Listeners which only look at the {@link ChangeSet#changedNodes() keys of the changed nodes} of such change
+     * sets (e.g. to evict cached nodes) should return {@code false}, so that those changes can be propagated throughout the
+     * cluster as compact invalidation messages. Changes made to the system workspace or to the repository metadata are always
+     * propagated in full.
+     *
+     * @return {@code true} if the listener requires the full change sets made by other processes, {@code false} otherwise
+     */
+    default boolean requiresRemoteChanges() {
+        return true;
+    }
 }
@@ -54,7 +54,7 @@ public class RecordingChanges implements Changes, ChangeSet {
     private final String journalId;
     private final String sessionId;
     private final Queue<Change> events = new ConcurrentLinkedQueue<Change>();
-    private final String uuid = UUID.randomUUID().toString();
+    private final String uuid;
     private Set<NodeKey> nodeKeys = Collections.emptySet();
     private Map<String, String> userData = Collections.emptyMap();
     private Set<BinaryKey> unusedBinaries = Collections.newSetFromMap(new ConcurrentHashMap<BinaryKey, Boolean>());
@@ -75,12 +75,23 @@ public class RecordingChanges implements Changes, ChangeSet {
                              String repositoryKey,
                              String workspaceName,
                              String journalId ) {
+        this(UUID.randomUUID().toString(), sessionId, processKey, repositoryKey, workspaceName, journalId);
+    }
+
+    RecordingChanges( String uuid,
+                      String sessionId,
+                      String processKey,
+                      String repositoryKey,
+                      String workspaceName,
+                      String journalId ) {
+        this.uuid = uuid;
         this.sessionId = sessionId;
         this.processKey = processKey;
         this.repositoryKey = repositoryKey;
         this.workspaceName = workspaceName;
         this.journalId = journalId;
 
+        assert this.uuid != null;
         assert this.sessionId != null;
         assert this.processKey != null;
         assert this.repositoryKey != null;
@@ -246,6 +257,20 @@ public class RecordingChanges implements Changes, ChangeSet {
         usedBinaries.add(key);
     }
 
+    /**
+     * Adds a change which has already been created, e.g. when reading a change set written by {@link ChangeSetCodec}.
+     *
+     * @param change the change; may not be null
+     */
+    void record( Change change ) {
+        if (change instanceof BinaryValueUsed) {
+            usedBinaries.add(((BinaryValueUsed)change).getKey());
+        } else if (change instanceof BinaryValueUnused) {
+            unusedBinaries.add(((BinaryValueUnused)change).getKey());
+        }
+        events.add(change);
+    }
+
     @Override
     public int size() {
         return events.size();
@@ -0,0 +1,50 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.cache.document;
+
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.schematic.internal.document.DocumentSizeEstimator;
+import com.github.benmanes.caffeine.cache.Weigher;
+
+/**
+ * A {@link Weigher} which weighs the nodes held by a {@link WorkspaceCache} by the estimated amount of memory retained by their
+ * underlying documents, so that a node with many child references or large multi-valued properties weighs more than a leaf
+ * node.
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+public class DocumentSizeWeigher implements Weigher<NodeKey, CachedNode> {
+
+    /**
+     * The estimated size of a node whose document cannot be weighed, and the overhead added to each node for the key and the
+     * node instance itself.
+     */
+    protected static final int NODE_OVERHEAD = 256;
+
+    @Override
+    public int weigh( NodeKey key, CachedNode node ) {
+        if (!(node instanceof LazyCachedNode)) {
+            return NODE_OVERHEAD;
+        }
+        // the properties and child references which are lazily materialized from the document are not accounted for, but
+        // they are roughly proportional to the size of the document
+        long size = NODE_OVERHEAD + DocumentSizeEstimator.estimateSize(((LazyCachedNode) node).document());
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+}
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.function.BiFunction;
+import java.util.stream.Stream;
 import javax.transaction.NotSupportedException;
 import javax.transaction.SystemException;
 import org.modeshape.common.SystemFailureException;
@@ -78,6 +79,29 @@ public class LocalDocumentStore implements DocumentStore {
         return database.keys();    
     }
 
+    /**
+     * Returns a stream over all the keys which are held by this store, without loading all of them in memory at once.
+     * The stream should always be closed after it has been used.
+     *
+     * @return a {@link Stream} of keys, never {@code null}
+     * @see SchematicDb#streamKeys()
+     */
+    public Stream<String> streamKeys() {
+        return database.streamKeys();
+    }
+
+    /**
+     * Returns a stream over all the entries which are held by this store, loading them lazily in batches of the given size. 
+     * The stream should always be closed after it has been used.
+     *
+     * @param batchSize the number of entries which should be loaded at once; must be positive
+     * @return a {@link Stream} of entries, never {@code null}
+     * @see SchematicDb#scan(int)
+     */
+    public Stream<SchematicEntry> scan( int batchSize ) {
+        return database.scan(batchSize);
+    }
+
     @Override
     public List<SchematicEntry> load(Collection<String> keys) {
         return database.load(keys);
@@ -248,23 +272,26 @@ public class LocalDocumentStore implements DocumentStore {
      */
     public DocumentOperationResults performOnEachDocument( BiFunction<String, EditableDocument, Boolean> operation ) {
         DocumentOperationResults results = new DocumentOperationResults();
-        database.keys().forEach(key -> 
-            runInTransaction(() -> {
-                // We operate upon each document within a transaction ...
-                try {
-                    EditableDocument doc = edit(key, false);
-                    if (doc != null) {
-                        if (operation.apply(key, doc)) {
-                            results.recordModified();
-                        } else {
-                            results.recordUnmodified();
+        // the keys are read lazily, so that they aren't all held in memory at the same time ...
+        try (Stream<String> keys = database.streamKeys()) {
+            keys.forEach(key ->
+                runInTransaction(() -> {
+                    // We operate upon each document within a transaction ...
+                    try {
+                        EditableDocument doc = edit(key, false);
+                        if (doc != null) {
+                            if (operation.apply(key, doc)) {
+                                results.recordModified();
+                            } else {
+                                results.recordUnmodified();
+                            }
                         }
+                    } catch (Throwable t) {
+                        results.recordFailure();
                     }
-                } catch (Throwable t) {
-                    results.recordFailure();
-                }
-                return null;
-            }, 1, key));
+                    return null;
+                }, 1, key));
+        }
         return results;
     }
 
@@ -15,13 +15,20 @@
  */
 package org.modeshape.jcr.cache.document;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.JcrI18n;
 import org.modeshape.jcr.RepositoryEnvironment;
+import org.modeshape.jcr.RepositoryStatistics;
+import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.bus.ChangeBus;
 import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.ChildReference;
@@ -60,6 +67,7 @@ public class WorkspaceCache implements DocumentCache {
     private final ChangeSetListener systemChangeNotifier;
     private final ChangeSetListener nonSystemChangeNotifier;
     private final RepositoryEnvironment repositoryEnvironment;
+    private final RepositoryStatistics statistics;
     private volatile boolean closed = false;
 
     public WorkspaceCache( ExecutionContext context,
@@ -72,6 +80,21 @@ public class WorkspaceCache implements DocumentCache {
                            ConcurrentMap<NodeKey, CachedNode> cache,
                            ChangeBus changeBus,
                            RepositoryEnvironment repositoryEnvironment) {
+        this(context, repositoryKey, workspaceName, systemWorkspace, documentStore, translator, rootKey, cache, changeBus,
+             repositoryEnvironment, null);
+    }
+
+    public WorkspaceCache( ExecutionContext context,
+                           String repositoryKey,
+                           String workspaceName,
+                           WorkspaceCache systemWorkspace,
+                           DocumentStore documentStore,
+                           DocumentTranslator translator,
+                           NodeKey rootKey,
+                           ConcurrentMap<NodeKey, CachedNode> cache,
+                           ChangeBus changeBus,
+                           RepositoryEnvironment repositoryEnvironment,
+                           RepositoryStatistics statistics ) {
         assert context != null;
         assert repositoryKey != null;
         assert workspaceName != null;
@@ -94,6 +117,7 @@ public class WorkspaceCache implements DocumentCache {
         this.nameFactory = context.getValueFactories().getNameFactory();
         this.nodesByKey = cache;
         this.repositoryEnvironment = repositoryEnvironment;
+        this.statistics = statistics;
         if (systemWorkspace != null) {
             // This is not the system workspace, so we have to listen both asynchronously and synchronously ...
             this.systemChangeNotifier = new SystemChangeNotifier(systemWorkspace.getWorkspaceName());
@@ -122,6 +146,7 @@ public class WorkspaceCache implements DocumentCache {
         this.pathFactory = original.pathFactory;
         this.nameFactory = original.nameFactory;
         this.repositoryEnvironment = original.repositoryEnvironment;
+        this.statistics = original.statistics;
         this.nodesByKey = cache;
         this.systemChangeNotifier = null;
         this.nonSystemChangeNotifier = null;
@@ -231,6 +256,9 @@ public class WorkspaceCache implements DocumentCache {
     public CachedNode getNode( NodeKey key ) {
         checkNotClosed();
         CachedNode node = nodesByKey.get(key);
+        if (statistics != null) {
+            statistics.increment(node != null ? ValueMetric.WORKSPACE_CACHE_HITS : ValueMetric.WORKSPACE_CACHE_MISSES);
+        }
         if (node == null) {
             // Load the node from the database ...
             if (LOGGER.isTraceEnabled()) {
@@ -255,6 +283,56 @@ public class WorkspaceCache implements DocumentCache {
         return node;
     }
 
+    /**
+     * Get the nodes with the supplied keys, loading all the nodes which are not already in this cache with a single call to the
+     * document store rather than with one call per node. The loaded nodes are cached just like the ones returned by
+     * {@link #getNode(NodeKey)}.
+     *
+     * @param keys the keys of the nodes; may not be null
+     * @return the nodes which exist, keyed by their node keys; never null but does not contain the keys of the nodes which do
+     *         not exist
+     */
+    public Map<NodeKey, CachedNode> getNodes( Collection<NodeKey> keys ) {
+        checkNotClosed();
+        Map<NodeKey, CachedNode> nodes = new HashMap<>(keys.size());
+        List<String> missingKeys = new ArrayList<>();
+        for (NodeKey key : keys) {
+            CachedNode node = nodesByKey.get(key);
+            if (node != null) {
+                nodes.put(key, node);
+            } else {
+                missingKeys.add(key.toString());
+            }
+        }
+        if (statistics != null) {
+            statistics.increment(ValueMetric.WORKSPACE_CACHE_HITS, nodes.size());
+            statistics.increment(ValueMetric.WORKSPACE_CACHE_MISSES, missingKeys.size());
+        }
+        if (missingKeys.isEmpty()) {
+            return nodes;
+        }
+        // Load all the other nodes from the database at once ...
+        for (SchematicEntry entry : documentStore.load(missingKeys)) {
+            Document doc;
+            try {
+                doc = entry.content();
+            } catch (IllegalStateException e) {
+                LOGGER.debug("The document '{0}' was concurrently removed; ignoring it.", entry.id());
+                continue;
+            }
+            NodeKey key = new NodeKey(entry.id());
+            CachedNode node = new LazyCachedNode(key, doc);
+            if (translator.isCacheable(doc)) {
+                CachedNode existing = nodesByKey.putIfAbsent(key, node);
+                if (existing != null) {
+                    node = existing;
+                }
+            }
+            nodes.put(key, node);
+        }
+        return nodes;
+    }
+
     @Override
     public CachedNode getNode( ChildReference reference ) {
         checkNotClosed();
@@ -411,6 +489,12 @@ public class WorkspaceCache implements DocumentCache {
                 evictChangedNodes(changeSet);
             }
         }
+
+        @Override
+        public boolean requiresRemoteChanges() {
+            // only the keys of the changed nodes are needed to evict them
+            return false;
+        }
     }
 
     protected final class NonSystemChangeNotifier implements ChangeSetListener {
@@ -432,5 +516,11 @@ public class WorkspaceCache implements DocumentCache {
             // in other workspaces ...
             evictChangedNodes(changeSet);
         }
+
+        @Override
+        public boolean requiresRemoteChanges() {
+            // only the keys of the changed nodes are needed to evict them
+            return false;
+        }
     }
 }
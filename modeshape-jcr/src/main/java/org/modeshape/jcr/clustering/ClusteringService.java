@@ -18,6 +18,8 @@ package org.modeshape.jcr.clustering;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -27,14 +29,18 @@ import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import javax.jcr.RepositoryException;
 import org.jgroups.Address;
 import org.jgroups.Channel;
@@ -50,6 +56,7 @@ import org.jgroups.protocols.CENTRAL_LOCK;
 import org.jgroups.protocols.FORK;
 import org.jgroups.stack.Protocol;
 import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.UUID;
 import org.modeshape.common.SystemFailureException;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.logging.Logger;
@@ -71,6 +78,11 @@ public abstract class ClusteringService {
      */
     private static final long DEFAULT_MAX_CLOCK_DELAY_CLUSTER_MILLIS = TimeUnit.MINUTES.toMillis(10);
 
+    /**
+     * The first byte of any Java serialization stream, which is never used as the identifier of a {@link MessageCodec}.
+     */
+    private static final byte JAVA_SERIALIZATION_MAGIC_BYTE = (byte)0xAC;
+
     /**
      * The listener for channel changes.
      */
@@ -111,6 +123,16 @@ public abstract class ClusteringService {
      */
     private final Set<MessageConsumer<Serializable>> consumers;
 
+    /**
+     * The codecs used to write the payloads of certain types, keyed by their identifier.
+     */
+    private final Map<Byte, MessageCodec<Serializable>> codecsById;
+
+    /**
+     * The listeners which are notified with the identifiers of the members each time the members of the cluster change.
+     */
+    private final Set<Consumer<Set<String>>> membershipListeners;
+
     protected ClusteringService( String clusterName ) {
         assert clusterName != null;
         this.clusterName = clusterName;
@@ -121,6 +143,8 @@ public abstract class ClusteringService {
         this.membersInCluster = new AtomicInteger(1);
         this.maxAllowedClockDelayMillis = DEFAULT_MAX_CLOCK_DELAY_CLUSTER_MILLIS;
         this.consumers = new CopyOnWriteArraySet<>();     
+        this.codecsById = new ConcurrentHashMap<>();
+        this.membershipListeners = new CopyOnWriteArraySet<>();
     }
 
     /**
@@ -143,6 +167,43 @@ public abstract class ClusteringService {
         consumers.add((MessageConsumer<Serializable>)consumer);
     }
 
+    /**
+     * Adds a listener which is notified each time the members of the cluster change (e.g. when a member joins or leaves the
+     * cluster).
+     *
+     * @param membershipListener a listener which receives the {@link #memberIds() identifiers} of all the current members of
+     * the cluster; may not be null
+     */
+    public void addMembershipListener( Consumer<Set<String>> membershipListener ) {
+        membershipListeners.add(membershipListener);
+    }
+
+    /**
+     * Adds a codec which will be used to write and read the payloads of its type, instead of Java serialization. All the members
+     * of the cluster should register the same codecs, since a member ignores the messages written by a codec it doesn't know.
+     * Adding another instance of the same codec class more than once has no effect.
+     * 
+     * @param codec a {@link MessageCodec} instance; may not be null
+     * @throws IllegalArgumentException if the identifier of the codec is not valid, or if a different codec has already been
+     *         added with the same identifier
+     */
+    @SuppressWarnings( "unchecked" )
+    public synchronized void addCodec( MessageCodec<? extends Serializable> codec ) {
+        byte id = codec.id();
+        if (id <= 0) {
+            throw new IllegalArgumentException("The identifier of a message codec must be between 1 and 127: " + id);
+        }
+        MessageCodec<Serializable> existing = codecsById.get(id);
+        if (existing != null) {
+            if (existing.getClass().equals(codec.getClass())) {
+                return;
+            }
+            throw new IllegalArgumentException("The identifier " + id + " of the " + codec.getClass().getName()
+                                               + " codec is already used by " + existing.getClass().getName());
+        }
+        codecsById.put(id, (MessageCodec<Serializable>)codec);
+    }
+
     /**
      * Shuts down and clears resources held by this service.
      * 
@@ -155,6 +216,7 @@ public abstract class ClusteringService {
         Address address = channel.getAddress();
         LOGGER.debug("{0} shutting down clustering service...", address);
         consumers.clear();
+        membershipListeners.clear();
 
         // Mark this as not accepting any more ...
         isOpen.set(false);
@@ -200,6 +262,42 @@ public abstract class ClusteringService {
         return membersInCluster.get();
     }
 
+    /**
+     * Returns a string which uniquely identifies the local member in the cluster.
+     *
+     * @return the identifier of the local member; never {@code null}
+     */
+    public String localMemberId() {
+        return memberId(channel.getAddress());
+    }
+
+    /**
+     * Returns the identifiers of all the members which are currently part of the cluster, including the local member.
+     *
+     * @return a {@link Set} of member identifiers; never {@code null}
+     * @see #localMemberId()
+     */
+    public Set<String> memberIds() {
+        View view = channel.getView();
+        if (view == null) {
+            return Collections.singleton(localMemberId());
+        }
+        return memberIds(view);
+    }
+
+    private Set<String> memberIds( View view ) {
+        Set<String> result = new HashSet<>();
+        for (Address member : view.getMembers()) {
+            result.add(memberId(member));
+        }
+        return result;
+    }
+
+    private String memberId( Address address ) {
+        // the logical name of an address is not guaranteed to be unique
+        return address instanceof UUID ? ((UUID)address).toStringLong() : String.valueOf(address);
+    }
+
     /**
      * Returns the name of the cluster which has been configured for this service.
      * 
@@ -293,16 +391,43 @@ public abstract class ClusteringService {
         return clusteringService;
     }
 
-    private byte[] toByteArray( Object payload ) throws IOException {
+    private byte[] toByteArray( Serializable payload ) throws IOException {
         ByteArrayOutputStream output = new ByteArrayOutputStream();
+        MessageCodec<Serializable> codec = codecFor(payload);
+        if (codec != null) {
+            try (DataOutputStream stream = new DataOutputStream(output)) {
+                stream.writeByte(codec.id());
+                codec.encode(payload, stream);
+            }
+            return output.toByteArray();
+        }
         try (ObjectOutputStream stream = new ObjectOutputStream(output)) {
             stream.writeObject(payload);
         }
         return output.toByteArray();
     }
 
+    private MessageCodec<Serializable> codecFor( Serializable payload ) {
+        for (MessageCodec<Serializable> codec : codecsById.values()) {
+            if (codec.payloadType().isInstance(payload)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
     protected Serializable fromByteArray( byte[] data,
                                           ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+        if (data.length > 0 && data[0] != JAVA_SERIALIZATION_MAGIC_BYTE) {
+            // the payload was written by a codec
+            MessageCodec<Serializable> codec = codecsById.get(data[0]);
+            if (codec == null) {
+                return null;
+            }
+            try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1))) {
+                return codec.decode(input);
+            }
+        }
         if (classLoader == null) {
             classLoader = ClusteringService.class.getClassLoader();
         }
@@ -335,6 +460,10 @@ public abstract class ClusteringService {
         public void receive( final org.jgroups.Message message ) {
             try {
                 Serializable payload = fromByteArray(message.getBuffer(), getClass().getClassLoader());
+                if (payload == null) {
+                    LOGGER.debug("{0} ignoring a message written by an unknown codec", ClusteringService.this.toString());
+                    return;
+                }
 
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("{0} RECEIVED {1}", ClusteringService.this.toString(), payload);
@@ -361,6 +490,12 @@ public abstract class ClusteringService {
         public void viewAccepted( View newView ) {
             int membersCount = newView.getMembers().size();
             membersInCluster.set(membersCount);
+            if (!membershipListeners.isEmpty()) {
+                Set<String> memberIds = memberIds(newView);
+                for (Consumer<Set<String>> membershipListener : membershipListeners) {
+                    membershipListener.accept(memberIds);
+                }
+            }
             if (LOGGER.isDebugEnabled()) {
                 String clusterServiceInfo = ClusteringService.this.toString();
                 LOGGER.debug("{0}: new cluster member joined: {1}, total count: {2}", clusterServiceInfo, newView, membersCount);
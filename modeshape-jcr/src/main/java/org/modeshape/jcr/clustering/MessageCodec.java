@@ -0,0 +1,69 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.clustering;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Interface which allows the payloads of the messages sent via a {@link ClusteringService} to be written using a custom binary
+ * format instead of Java serialization. Payloads for which no codec has been {@link ClusteringService#addCodec(MessageCodec)
+ * registered} are still written using Java serialization.
+ * <p>
+ * Implementations must be thread-safe, since the same instance is used to encode and decode messages concurrently.
+ * </p>
+ *
+ * @param <T> the payload type which the codec handles
+ * @since 5.5
+ */
+public interface MessageCodec<T extends Serializable> {
+
+    /**
+     * Returns the identifier of this codec, which is written in front of each encoded message so that the receivers know which
+     * codec should decode it. All the members of a cluster must use the same identifier for the same codec.
+     *
+     * @return a value between 1 and 127
+     */
+    byte id();
+
+    /**
+     * Returns the type of payload which this codec can encode. Instances of subclasses are encoded as well.
+     *
+     * @return a {@link Class} instance; never null
+     */
+    Class<T> payloadType();
+
+    /**
+     * Writes the given payload.
+     *
+     * @param payload the payload; never null
+     * @param output the output to which the payload should be written; never null
+     * @throws IOException if the payload cannot be written
+     */
+    void encode( T payload,
+                 DataOutput output ) throws IOException;
+
+    /**
+     * Reads a payload which was previously written by {@link #encode(Serializable, DataOutput)}.
+     *
+     * @param input the input from which the payload should be read; never null
+     * @return the payload; never null
+     * @throws IOException if the payload cannot be read
+     */
+    T decode( DataInput input ) throws IOException;
+}
@@ -90,6 +90,7 @@ public class ClusteredJournal extends MessageConsumer<ClusteredJournal.DeltaMess
         localJournal.start();
 
         //make sure this process can always process delta messages
+        clusteringService.addCodec(new DeltaMessageCodec());
         clusteringService.addConsumer(this);
         
         if (!clusteringService.multipleMembersInCluster()) {
@@ -0,0 +1,108 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.journal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetCodec;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+import org.modeshape.jcr.clustering.MessageCodec;
+import org.modeshape.jcr.value.basic.CompactValueInput;
+import org.modeshape.jcr.value.basic.CompactValueOutput;
+
+/**
+ * {@link MessageCodec} which writes the {@link ClusteredJournal.DeltaMessage delta messages} exchanged by the journals of a
+ * cluster using a compact binary format. The change sets of the {@link JournalRecord records} are written via
+ * {@link ChangeSetCodec}, sharing the same string and key tables.
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+final class DeltaMessageCodec implements MessageCodec<ClusteredJournal.DeltaMessage> {
+
+    /**
+     * The identifier of this codec.
+     */
+    static final byte ID = 2;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public Class<ClusteredJournal.DeltaMessage> payloadType() {
+        return ClusteredJournal.DeltaMessage.class;
+    }
+
+    @Override
+    public void encode( ClusteredJournal.DeltaMessage payload,
+                        DataOutput output ) throws IOException {
+        CompactValueOutput values = new CompactValueOutput(output);
+        values.writeString(payload.getRequestorId());
+        Long lastChangeSetTime = payload.getRequestorLastChangeSetTime();
+        output.writeBoolean(lastChangeSetTime != null);
+        if (lastChangeSetTime != null) {
+            output.writeLong(lastChangeSetTime);
+        }
+        values.writeString(payload.getRespondentId());
+        List<JournalRecord> records = payload.getRespondentRecords();
+        values.writeVarInt(records != null ? records.size() + 1 : 0);
+        if (records == null) {
+            return;
+        }
+        for (JournalRecord record : records) {
+            output.writeLong(record.getTimeBasedKey());
+            ChangeSet changeSet = record.getChangeSet();
+            boolean compact = changeSet.getClass() == RecordingChanges.class;
+            output.writeBoolean(compact);
+            if (compact) {
+                ChangeSetCodec.write((RecordingChanges)changeSet, values);
+            } else {
+                values.writeSerialized(changeSet);
+            }
+        }
+    }
+
+    @Override
+    public ClusteredJournal.DeltaMessage decode( DataInput input ) throws IOException {
+        CompactValueInput values = new CompactValueInput(input);
+        String requestorId = values.readString();
+        Long lastChangeSetTime = input.readBoolean() ? input.readLong() : null;
+        ClusteredJournal.DeltaMessage request = ClusteredJournal.DeltaMessage.request(requestorId, lastChangeSetTime);
+        String respondentId = values.readString();
+        // the record count is shifted by one, so that a missing list can be told apart from an empty one
+        int recordCount = values.readVarInt() - 1;
+        if (respondentId == null) {
+            return request;
+        }
+        List<JournalRecord> records = null;
+        if (recordCount >= 0) {
+            records = new ArrayList<>(recordCount);
+            for (int i = 0; i != recordCount; i++) {
+                long timeBasedKey = input.readLong();
+                ChangeSet changeSet = input.readBoolean() ? ChangeSetCodec.read(values) : (ChangeSet)values.readSerialized();
+                records.add(new JournalRecord(changeSet).withTimeBasedKey(timeBasedKey));
+            }
+        }
+        return ClusteredJournal.DeltaMessage.response(request, respondentId, records);
+    }
+}
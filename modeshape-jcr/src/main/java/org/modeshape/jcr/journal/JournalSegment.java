@@ -0,0 +1,166 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.journal;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.NavigableMap;
+import org.mapdb.BTreeKeySerializer;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.FileUtil;
+
+/**
+ * A segment of a {@link LocalJournal}, holding the records whose time-based keys were generated during a fixed window of time.
+ * Each segment is stored in its own folder, is only opened when its records are first accessed and is removed as a whole once
+ * all its records have expired.
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+final class JournalSegment {
+
+    private static final String RECORDS_FIELD = "records";
+
+    private final long startMillis;
+    private final File folder;
+    private final boolean asyncWritesEnabled;
+
+    private DB db;
+    private BTreeMap<Long, JournalRecord> records;
+    private boolean uncommittedChanges;
+    private boolean deleted;
+
+    protected JournalSegment( long startMillis,
+                              File folder,
+                              boolean asyncWritesEnabled ) {
+        this.startMillis = startMillis;
+        this.folder = folder;
+        this.asyncWritesEnabled = asyncWritesEnabled;
+    }
+
+    /**
+     * Returns the time at which the window of this segment starts.
+     *
+     * @return the number of milliseconds past epoch, in UTC
+     */
+    protected long startMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Returns the records of this segment, opening the segment if needed.
+     *
+     * @return a map of records keyed by their time-based key; never null
+     */
+    protected synchronized NavigableMap<Long, JournalRecord> records() {
+        if (deleted) {
+            // the segment was removed after it was looked up, so its records have all expired
+            return Collections.emptyNavigableMap();
+        }
+        open();
+        return records;
+    }
+
+    /**
+     * Adds a record to this segment, without committing it.
+     *
+     * @param record the record, which must have a time-based key; may not be null
+     */
+    protected synchronized void add( JournalRecord record ) {
+        open();
+        records.put(record.getTimeBasedKey(), record);
+        uncommittedChanges = true;
+    }
+
+    /**
+     * Removes all the records whose keys are smaller than the given key and commits the change. The space isn't reclaimed
+     * until the entire segment is removed.
+     *
+     * @param key the time-based key
+     */
+    protected synchronized void removeRecordsBefore( long key ) {
+        open();
+        NavigableMap<Long, JournalRecord> toRemove = records.headMap(key);
+        if (!toRemove.isEmpty()) {
+            toRemove.clear();
+            uncommittedChanges = true;
+            commit();
+        }
+    }
+
+    /**
+     * Commits the records which were added or removed since the last commit, if there are any.
+     */
+    protected synchronized void commit() {
+        if (uncommittedChanges && db != null) {
+            db.commit();
+            uncommittedChanges = false;
+        }
+    }
+
+    /**
+     * Commits and closes this segment, if it has been opened.
+     */
+    protected synchronized void close() {
+        if (db != null && !db.isClosed()) {
+            commit();
+            db.close();
+        }
+        db = null;
+        records = null;
+    }
+
+    /**
+     * Closes this segment and removes it from the disk.
+     */
+    protected synchronized void delete() {
+        deleted = true;
+        close();
+        FileUtil.delete(folder);
+    }
+
+    @SuppressWarnings( "rawtypes" )
+    private void open() {
+        if (db != null) {
+            return;
+        }
+        if (!folder.exists()) {
+            boolean folderCreated = folder.mkdirs();
+            assert folderCreated;
+        }
+        DBMaker dbMaker = DBMaker.newFileDB(new File(folder, RECORDS_FIELD))
+                                 .compressionEnable()
+                                 .checksumEnable()
+                                 .mmapFileEnableIfSupported()
+                                 .closeOnJvmShutdown();
+        if (asyncWritesEnabled) {
+            dbMaker.asyncWriteEnable();
+        }
+        db = dbMaker.make();
+        records = db.createTreeMap(RECORDS_FIELD)
+                    .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
+                    .counterEnable()
+                    .makeOrGet();
+    }
+
+    @Override
+    public String toString() {
+        return "JournalSegment[start=" + startMillis + ", folder=" + folder + "]";
+    }
+}
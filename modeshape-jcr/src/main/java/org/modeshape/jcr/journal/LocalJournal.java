@@ -19,12 +19,18 @@ package org.modeshape.jcr.journal;
 import java.io.File;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NoSuchElementException;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import javax.jcr.RepositoryException;
 import org.mapdb.Atomic;
@@ -32,8 +38,10 @@ import org.mapdb.BTreeKeySerializer;
 import org.mapdb.BTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
+import org.modeshape.common.annotation.GuardedBy;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.CheckArg;
+import org.modeshape.common.util.NamedThreadFactory;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.common.util.TimeBasedKeys;
 import org.modeshape.jcr.JcrI18n;
@@ -44,6 +52,19 @@ import org.modeshape.schematic.annotation.ThreadSafe;
 
 /**
  * An append only journal implementation which stores each {@link ChangeSet} (either local or remove) on the local FS.
+ * <p>
+ * The records are stored in {@link JournalSegment segments}, each of which holds the records created during a fixed window of
+ * time in its own file. Old records are removed by deleting the segments which only contain expired records, so the journal
+ * never has to be compacted, and searches only open the segments which can contain matching records.
+ * </p>
+ * <p>
+ * By default each change set is committed to disk before {@link #notify(ChangeSet)} returns. When a group commit latency is
+ * configured, the records of the change sets are instead buffered in memory and committed to disk in batches, by a background
+ * thread, at most that many milliseconds after they were received (or sooner, once {@value #MAX_RECORDS_PER_GROUP_COMMIT}
+ * records are buffered). This means that a save may complete before its journal record is durable: if the process crashes,
+ * the records received during the last latency window are lost. The buffered records are always visible to the searches
+ * made via this journal, and are committed when the journal is shut down.
+ * </p>
  *
  * @author Horia Chiorean (hchiorea@redhat.com)
  */
@@ -53,6 +74,8 @@ public class LocalJournal implements ChangeJournal {
 
     private static final int DEFAULT_MAX_TIME_TO_KEEP_FILES = -1;
     private static final String RECORDS_FIELD = "records";
+    private static final String JOURNAL_FIELD = "journal";
+    private static final String SEGMENTS_FOLDER = "segments";
     private static final String JOURNAL_ID_FIELD = "journalId";
     private static final TimeBasedKeys TIME_BASED_KEYS = TimeBasedKeys.create();
 
@@ -63,16 +86,35 @@ public class LocalJournal implements ChangeJournal {
      */
     private static final long DEFAULT_LOCAL_SEARCH_DELTA = TimeUnit.SECONDS.toMillis(1);
 
+    /**
+     * The default window of time covered by each segment.
+     */
+    protected static final long DEFAULT_SEGMENT_DURATION_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * The maximum number of records buffered by a group commit, after which they are committed without waiting for the latency
+     * to expire.
+     */
+    protected static final int MAX_RECORDS_PER_GROUP_COMMIT = 1000;
+
     private final String journalLocation;
     private final boolean asyncWritesEnabled;
     private final long maxTimeToKeepEntriesMillis;
+    private final long groupCommitMaxLatencyMillis;
+    private final long segmentDurationMillis;
 
-    private String journalId;
-    private DB journalDB;
     /**
-     * The records are a map of {@link org.modeshape.jcr.journal.JournalRecord} instances keyed by a time-based key.
+     * The segments of this journal, keyed by the time at which their window starts.
      */
-    private BTreeMap<Long, JournalRecord> records;
+    private final ConcurrentSkipListMap<Long, JournalSegment> segments = new ConcurrentSkipListMap<>();
+
+    @GuardedBy( "this" )
+    private final List<JournalRecord> pendingRecords = new ArrayList<>();
+    @GuardedBy( "this" )
+    private boolean groupCommitScheduled;
+    private ScheduledExecutorService groupCommitter;
+
+    private String journalId;
     private long searchTimeDelta;
     private volatile boolean stopped;
 
@@ -86,11 +128,39 @@ public class LocalJournal implements ChangeJournal {
     public LocalJournal( String journalLocation,
                          boolean asyncWritesEnabled,
                          int maxDaysToKeepEntries ) {
+        this(journalLocation, asyncWritesEnabled, maxDaysToKeepEntries, 0);
+    }
+
+    /**
+     * Creates a new journal instance, in stopped state.
+     *
+     * @param journalLocation the folder location on the FS where the entries should be saved. Must not be {@code null}
+     * @param asyncWritesEnabled flag which indicates if disk write should be asynchronous or not.
+     * @param maxDaysToKeepEntries the maximum number of days this journal should store entries on disk. A negative value or 0
+     * @param groupCommitMaxLatencyMillis the maximum number of milliseconds the records of the change sets can be buffered
+     * before being committed to disk. A negative value or 0 means each change set is committed as soon as it is received.
+     */
+    public LocalJournal( String journalLocation,
+                         boolean asyncWritesEnabled,
+                         int maxDaysToKeepEntries,
+                         long groupCommitMaxLatencyMillis ) {
+        this(journalLocation, asyncWritesEnabled, maxDaysToKeepEntries, groupCommitMaxLatencyMillis,
+             DEFAULT_SEGMENT_DURATION_MILLIS);
+    }
+
+    protected LocalJournal( String journalLocation,
+                            boolean asyncWritesEnabled,
+                            int maxDaysToKeepEntries,
+                            long groupCommitMaxLatencyMillis,
+                            long segmentDurationMillis ) {
         CheckArg.isNotNull(journalLocation, "journalLocation");
+        CheckArg.isPositive(segmentDurationMillis, "segmentDurationMillis");
 
         this.journalLocation = journalLocation;
         this.asyncWritesEnabled = asyncWritesEnabled;
         this.maxTimeToKeepEntriesMillis = TimeUnit.DAYS.toMillis(maxDaysToKeepEntries);
+        this.groupCommitMaxLatencyMillis = groupCommitMaxLatencyMillis;
+        this.segmentDurationMillis = segmentDurationMillis;
         this.stopped = true;
         this.searchTimeDelta = DEFAULT_LOCAL_SEARCH_DELTA;
     }
@@ -104,7 +174,6 @@ public class LocalJournal implements ChangeJournal {
         return !stopped;
     }
 
-    @SuppressWarnings( "rawtypes" )
     @Override
     public synchronized void start() throws RepositoryException {
         if (!stopped) {
@@ -117,52 +186,106 @@ public class LocalJournal implements ChangeJournal {
                 assert folderHierarchyCreated;
             }
 
-            /**
-             * TODO author=Horia Chiorean date=1/14/14 description=The following should be enabled when append only files are available
-            DBMaker dbMaker = DBMaker.newAppendFileDB(new File(journalFileLocation, RECORDS_FIELD))
-                                     .compressionEnable()
-                                     .checksumEnable()
-                                     .closeOnJvmShutdown();
-                                     
-            */
-            DBMaker dbMaker = DBMaker.newFileDB(new File(journalFileLocation, RECORDS_FIELD))
-                                     .compressionEnable()
-                                     .checksumEnable()
-                                     .mmapFileEnableIfSupported()
-                                     .closeOnJvmShutdown();
-                                     
-            if (asyncWritesEnabled) {
-                dbMaker.asyncWriteEnable();
+            File[] segmentFolders = new File(journalFileLocation, SEGMENTS_FOLDER).listFiles(File::isDirectory);
+            if (segmentFolders != null) {
+                for (File segmentFolder : segmentFolders) {
+                    try {
+                        long startMillis = Long.parseLong(segmentFolder.getName());
+                        segments.put(startMillis, new JournalSegment(startMillis, segmentFolder, asyncWritesEnabled));
+                    } catch (NumberFormatException e) {
+                        LOGGER.debug("Ignoring folder {0} which is not a journal segment", segmentFolder);
+                    }
+                }
             }
-            this.journalDB = dbMaker.make();
-            this.records = this.journalDB.createTreeMap(RECORDS_FIELD)
-                                         .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
-                                         .counterEnable()
-                                         .makeOrGet();
-            Atomic.String journalAtomic = this.journalDB.getAtomicString(JOURNAL_ID_FIELD);
-            //only write the value the first time
-            if (StringUtil.isBlank(journalAtomic.get())) {
-                journalAtomic.set("Journal_" + UUID.randomUUID().toString());
+            String legacyJournalId = migrateLegacyRecords(journalFileLocation);
+
+            DB journalDB = DBMaker.newFileDB(new File(journalFileLocation, JOURNAL_FIELD)).closeOnJvmShutdown().make();
+            try {
+                Atomic.String journalAtomic = journalDB.getAtomicString(JOURNAL_ID_FIELD);
+                //only write the value the first time
+                if (StringUtil.isBlank(journalAtomic.get())) {
+                    journalAtomic.set(legacyJournalId != null ? legacyJournalId : "Journal_" + UUID.randomUUID().toString());
+                    journalDB.commit();
+                }
+                this.journalId = journalAtomic.get();
+            } finally {
+                journalDB.close();
+            }
+            if (groupCommitMaxLatencyMillis > 0) {
+                NamedThreadFactory threadFactory = new NamedThreadFactory("modeshape-journal-commit");
+                this.groupCommitter = Executors.newSingleThreadScheduledExecutor(threadFactory);
             }
-            this.journalId = journalAtomic.get();
             this.stopped = false;
         } catch (Exception e) {
+            segments.values().forEach(JournalSegment::close);
+            segments.clear();
             throw new RepositoryException(JcrI18n.cannotStartJournal.text(), e);
         } 
     }
 
+    /**
+     * Moves the records stored by previous versions, which kept all the records in a single file, into segments. The files
+     * of the previous version are only removed once all their records were committed in the segments.
+     *
+     * @param journalFileLocation the location of the journal
+     * @return the identifier of the journal stored by the previous version, or null if there is no such journal
+     */
+    private String migrateLegacyRecords( File journalFileLocation ) {
+        File legacyFile = new File(journalFileLocation, RECORDS_FIELD);
+        if (!legacyFile.exists()) {
+            return null;
+        }
+        DB legacyDB = DBMaker.newFileDB(legacyFile)
+                             .compressionEnable()
+                             .checksumEnable()
+                             .make();
+        String legacyJournalId;
+        try {
+            BTreeMap<Long, JournalRecord> legacyRecords = legacyDB.createTreeMap(RECORDS_FIELD)
+                                                                  .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
+                                                                  .counterEnable()
+                                                                  .makeOrGet();
+            LOGGER.debug("Moving {0} journal records into segments", legacyRecords.size());
+            for (JournalRecord record : legacyRecords.values()) {
+                segmentFor(record.getTimeBasedKey()).add(record);
+            }
+            segments.values().forEach(JournalSegment::commit);
+            legacyJournalId = legacyDB.getAtomicString(JOURNAL_ID_FIELD).get();
+        } finally {
+            legacyDB.close();
+        }
+        // all the records are now in the segments, so the legacy files (the data file and its log files) can be removed
+        File[] legacyFiles = journalFileLocation.listFiles((dir, name) -> name.equals(RECORDS_FIELD) ||
+                                                                          name.startsWith(RECORDS_FIELD + "."));
+        if (legacyFiles != null) {
+            for (File file : legacyFiles) {
+                if (!file.delete()) {
+                    LOGGER.debug("Unable to remove the legacy journal file {0}", file);
+                }
+            }
+        }
+        return legacyJournalId;
+    }
+
     @Override
     public synchronized void shutdown() {
-        if (this.stopped || this.journalDB.isClosed()) {
+        if (this.stopped) {
             return;
         }
         
         try {
-            this.journalDB.commit();
-            this.journalDB.close();
+            if (groupCommitter != null) {
+                groupCommitter.shutdownNow();
+                groupCommitter = null;
+            }
+            writePendingRecords();
+            segments.values().forEach(JournalSegment::close);
+            pendingRecords.clear();
+            segments.clear();
         } catch (Exception e) {
             LOGGER.error(e, JcrI18n.cannotStopJournal);
         } finally {
+            this.groupCommitScheduled = false;
             this.stopped = true;
         }
     }
@@ -174,7 +297,11 @@ public class LocalJournal implements ChangeJournal {
         if (changeSet.isEmpty() || systemWorkspaceChanges) {
             return;
         }
-        addRecords(new JournalRecord(changeSet));
+        if (groupCommitMaxLatencyMillis > 0) {
+            bufferRecord(new JournalRecord(changeSet));
+        } else {
+            addRecords(new JournalRecord(changeSet));
+        }
     }
 
     @Override
@@ -183,35 +310,128 @@ public class LocalJournal implements ChangeJournal {
             return;
         }
         LOGGER.debug("Adding {0} records", records.length);
+        // the buffered records are committed together with these ones
+        writePendingRecords();
         for (JournalRecord record : records) {
-            if (record.getTimeBasedKey() < 0) {
-                //generate a unique timestamp only if there isn't one. In some scenarios (i.e. running in a cluster) we
-                //always want to keep the original TS because otherwise it would be impossible to have a correct order
-                //and therefore search
-                long createTimeMillisUTC = TIME_BASED_KEYS.nextKey();
-                record.withTimeBasedKey(createTimeMillisUTC);
+            withTimeBasedKey(record);
+            segmentFor(record.getTimeBasedKey()).add(record);
+        }
+        commitSegments();
+    }
+
+    private synchronized void bufferRecord( JournalRecord record ) {
+        if (stopped) {
+            return;
+        }
+        // the key is generated when the record is received, so the order of the records doesn't depend on when they're committed
+        pendingRecords.add(withTimeBasedKey(record));
+        if (pendingRecords.size() >= MAX_RECORDS_PER_GROUP_COMMIT) {
+            commitPendingRecords();
+        } else if (!groupCommitScheduled) {
+            try {
+                groupCommitter.schedule(this::scheduledCommit, groupCommitMaxLatencyMillis, TimeUnit.MILLISECONDS);
+                groupCommitScheduled = true;
+            } catch (RejectedExecutionException e) {
+                // the journal is being shut down, which will commit the record
             }
-            this.records.put(record.getTimeBasedKey(), record);
         }
-        this.journalDB.commit();
+    }
+
+    private synchronized void scheduledCommit() {
+        groupCommitScheduled = false;
+        if (stopped) {
+            return;
+        }
+        try {
+            commitPendingRecords();
+        } catch (RuntimeException e) {
+            LOGGER.error(e, JcrI18n.cannotCommitJournalRecords);
+        }
+    }
+
+    /**
+     * Commits to disk the records which have been buffered by a group commit, if there are any.
+     */
+    protected synchronized void commitPendingRecords() {
+        if (stopped || pendingRecords.isEmpty()) {
+            return;
+        }
+        LOGGER.debug("Committing {0} buffered records", pendingRecords.size());
+        writePendingRecords();
+        commitSegments();
+    }
+
+    /**
+     * Writes the buffered records in their segments, without committing them. The records are only removed from the buffer once
+     * they have been committed, so that they are written again by the next commit if this one fails.
+     */
+    @GuardedBy( "this" )
+    private void writePendingRecords() {
+        for (JournalRecord record : pendingRecords) {
+            segmentFor(record.getTimeBasedKey()).add(record);
+        }
+    }
+
+    @GuardedBy( "this" )
+    private void commitSegments() {
+        segments.values().forEach(JournalSegment::commit);
+        pendingRecords.clear();
+    }
+
+    @GuardedBy( "this" )
+    private JournalSegment segmentFor( long timeBasedKey ) {
+        long startMillis = segmentStartMillis(timeBasedKey);
+        JournalSegment segment = segments.get(startMillis);
+        if (segment == null) {
+            File folder = new File(new File(journalLocation, SEGMENTS_FOLDER), String.valueOf(startMillis));
+            segment = new JournalSegment(startMillis, folder, asyncWritesEnabled);
+            segments.put(startMillis, segment);
+        }
+        return segment;
+    }
+
+    private long segmentStartMillis( long timeBasedKey ) {
+        long millis = TIME_BASED_KEYS.getTimeGenerated(Math.max(timeBasedKey, 0));
+        return millis - (millis % segmentDurationMillis);
+    }
+
+    private static JournalRecord withTimeBasedKey( JournalRecord record ) {
+        if (record.getTimeBasedKey() < 0) {
+            //generate a unique timestamp only if there isn't one. In some scenarios (i.e. running in a cluster) we
+            //always want to keep the original TS because otherwise it would be impossible to have a correct order
+            //and therefore search
+            long createTimeMillisUTC = TIME_BASED_KEYS.nextKey();
+            record.withTimeBasedKey(createTimeMillisUTC);
+        }
+        return record;
     }
 
     @Override
-    public synchronized void removeOldRecords() {
+    public void removeOldRecords() {
         //perform cleanup
         removeRecordsOlderThan(System.currentTimeMillis() - this.maxTimeToKeepEntriesMillis);
     }
 
-    protected void removeRecordsOlderThan( long millisInUtc ) {
+    protected synchronized void removeRecordsOlderThan( long millisInUtc ) {
         if (millisInUtc <= 0 || stopped) {
             return;
         }
         long searchBound = TIME_BASED_KEYS.getCounterEndingAt(millisInUtc);
         LOGGER.debug("Removing records older than " + searchBound);
-        NavigableMap<Long, JournalRecord> toRemove = this.records.headMap(searchBound);
-        toRemove.clear();
-        journalDB.commit();
-        journalDB.compact();
+        commitPendingRecords();
+        // the segments are removed while holding the journal lock, so that they can't be reopened by a write meanwhile
+        NavigableMap<Long, JournalSegment> expiredSegments = segments.headMap(segmentStartMillis(searchBound), false);
+        for (Iterator<JournalSegment> iterator = expiredSegments.values().iterator(); iterator.hasNext();) {
+            JournalSegment segment = iterator.next();
+            iterator.remove();
+            LOGGER.debug("Removing expired journal segment {0}", segment);
+            segment.delete();
+        }
+        // the segment which contains the search bound may still contain newer records
+        Map.Entry<Long, JournalSegment> boundarySegment = segments.firstEntry();
+        if (boundarySegment != null && boundarySegment.getKey() <= millisInUtc) {
+            boundarySegment.getValue().removeRecordsBefore(searchBound);
+        }
     }
 
     protected String getJournalLocation() {
@@ -219,22 +439,35 @@ public class LocalJournal implements ChangeJournal {
     }
 
     @Override
-    public Records allRecords( boolean descendingOrder ) {
-        return recordsFrom(records, descendingOrder);
+    public synchronized Records allRecords( boolean descendingOrder ) {
+        commitPendingRecords();
+        List<NavigableMap<Long, JournalRecord>> content = new ArrayList<>(segments.size());
+        for (JournalSegment segment : segments.values()) {
+            content.add(segment.records());
+        }
+        return recordsFrom(content, descendingOrder);
     }
 
     @Override
-    public JournalRecord lastRecord() {
-        return this.records == null || this.records.isEmpty() ? null : this.records.lastEntry().getValue();
+    public synchronized JournalRecord lastRecord() {
+        commitPendingRecords();
+        for (JournalSegment segment : segments.descendingMap().values()) {
+            NavigableMap<Long, JournalRecord> records = segment.records();
+            if (!records.isEmpty()) {
+                return records.lastEntry().getValue();
+            }
+        }
+        return null;
     }
 
     @Override
-    public Records recordsNewerThan( LocalDateTime changeSetTime,
+    public synchronized Records recordsNewerThan( LocalDateTime changeSetTime,
                                      boolean inclusive,
                                      boolean descendingOrder ) {
         if (stopped) {
             return Records.EMPTY;
         }
+        commitPendingRecords();
 
         long changeSetMillisUTC = -1;
         long searchBound = -1;
@@ -245,35 +478,35 @@ public class LocalJournal implements ChangeJournal {
             searchBound = TIME_BASED_KEYS.getCounterStartingAt(changeSetMillisUTC - searchTimeDelta);
         }
 
-        NavigableMap<Long, JournalRecord> subMap = records.tailMap(searchBound, true);
-        if (subMap.isEmpty()) {
-            return Records.EMPTY;
-        }
         //process each of the records from the result and look at the timestamp of the changeset, so that we're sure we only include
         //the correct ones (we used a delta to make sure we get everything)
-        long startKeyInSubMap = -1;
-        for (Iterator<Long> timeBasedKeysIterator = subMap.keySet().iterator(); timeBasedKeysIterator.hasNext();) {
-            Long timeBasedKey = timeBasedKeysIterator.next();
-            JournalRecord record = subMap.get(timeBasedKey);
-            long recordChangeTimeMillisUTC = record.getChangeTimeMillis();
-            if (((recordChangeTimeMillisUTC == changeSetMillisUTC) && inclusive)
-                || recordChangeTimeMillisUTC > changeSetMillisUTC) {
-                startKeyInSubMap = timeBasedKey;
-                break;
+        List<NavigableMap<Long, JournalRecord>> content = new ArrayList<>();
+        for (NavigableMap<Long, JournalRecord> subMap : recordsFrom(searchBound)) {
+            if (!content.isEmpty()) {
+                // all the records from the following segments are newer
+                content.add(subMap);
+                continue;
+            }
+            for (Map.Entry<Long, JournalRecord> entry : subMap.entrySet()) {
+                long recordChangeTimeMillisUTC = entry.getValue().getChangeTimeMillis();
+                if (((recordChangeTimeMillisUTC == changeSetMillisUTC) && inclusive)
+                    || recordChangeTimeMillisUTC > changeSetMillisUTC) {
+                    content.add(subMap.tailMap(entry.getKey(), true));
+                    break;
+                }
             }
         }
-        return startKeyInSubMap != -1 ? recordsFrom(subMap.tailMap(startKeyInSubMap, true), descendingOrder) : Records.EMPTY;
+        return content.isEmpty() ? Records.EMPTY : recordsFrom(content, descendingOrder);
     }
 
     @Override
     public Iterator<NodeKey> changedNodesSince( final long timestamp ) {
         // we use a delta to make sure we get everything and we filter false positives later on
         long searchBound = TIME_BASED_KEYS.getCounterStartingAt(timestamp - searchTimeDelta);
-        Collection<JournalRecord> journalRecords = records.tailMap(searchBound, true).values();
-        if (journalRecords.isEmpty()) {
+        final Iterator<JournalRecord> recordsIterator = recordsFrom(segmentRecordsFrom(searchBound), false).iterator();
+        if (!recordsIterator.hasNext()) {
             return Collections.emptyListIterator();
         }
-        final Iterator<JournalRecord> recordsIterator = journalRecords.iterator();  
         return new Iterator<NodeKey>() {
             private Iterator<NodeKey> currentBatchOfKeys = null;
             
@@ -326,26 +559,63 @@ public class LocalJournal implements ChangeJournal {
         return this;
     }
 
-    private static Records recordsFrom( final NavigableMap<Long, JournalRecord> content, boolean descending ) {
-        final Iterator<JournalRecord> iterator = descending ? content.descendingMap().values().iterator() : 
-                                                              content.values().iterator();
+    /**
+     * Returns the records whose keys are greater than or equal to the given key, opening only the segments which can contain
+     * such records.
+     *
+     * @param searchBound the time-based key
+     * @return the records of each segment, in ascending order; never null
+     */
+    private synchronized List<NavigableMap<Long, JournalRecord>> segmentRecordsFrom( long searchBound ) {
+        commitPendingRecords();
+        return recordsFrom(searchBound);
+    }
+
+    @GuardedBy( "this" )
+    private List<NavigableMap<Long, JournalRecord>> recordsFrom( long searchBound ) {
+        List<NavigableMap<Long, JournalRecord>> result = new ArrayList<>();
+        for (JournalSegment segment : segments.tailMap(segmentStartMillis(searchBound), true).values()) {
+            NavigableMap<Long, JournalRecord> subMap = segment.records().tailMap(searchBound, true);
+            if (!subMap.isEmpty()) {
+                result.add(subMap);
+            }
+        }
+        return result;
+    }
+
+    private static Records recordsFrom( final List<NavigableMap<Long, JournalRecord>> content, final boolean descending ) {
         return new Records() {
             @Override
             public int size() {
-                return content.size();
+                int size = 0;
+                for (NavigableMap<Long, JournalRecord> records : content) {
+                    size += records.size();
+                }
+                return size;
             }
 
             @Override
             public Iterator<JournalRecord> iterator() {
+                final Iterator<NavigableMap<Long, JournalRecord>> segmentsIterator = descending ? reversed(content).iterator() :
+                                                                                                  content.iterator();
                 return new Iterator<JournalRecord>() {
+                    private Iterator<JournalRecord> current = Collections.emptyIterator();
+
                     @Override
                     public boolean hasNext() {
-                        return iterator.hasNext();
+                        while (!current.hasNext() && segmentsIterator.hasNext()) {
+                            NavigableMap<Long, JournalRecord> records = segmentsIterator.next();
+                            current = descending ? records.descendingMap().values().iterator() : records.values().iterator();
+                        }
+                        return current.hasNext();
                     }
 
                     @Override
                     public JournalRecord next() {
-                        return iterator.next();
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return current.next();
                     }
 
                     @Override
@@ -361,4 +631,10 @@ public class LocalJournal implements ChangeJournal {
             }
         };
     }
+
+    private static <T> List<T> reversed( List<T> list ) {
+        List<T> result = new ArrayList<>(list);
+        Collections.reverse(result);
+        return result;
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.jcr.cache.CachedNode.Properties;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.spi.index.IndexWriter;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * An {@link IndexWriter} which buffers the nodes that are added, and which writes each batch of nodes to one index provider after
+ * the other rather than writing each node to all the providers. The buffered nodes are written when the batch is full, and
+ * before any other operation is performed.
+ * <p>
+ * Each instance should be used by a single thread, and {@link #flush() flushed} when the thread is done with it.
+ * </p>
+ *
+ * @since 5.5
+ */
+@NotThreadSafe
+public class BatchingIndexWriter implements IndexWriter {
+
+    private final IndexWriter writer;
+    private final List<IndexWriter> providerWriters;
+    private final int batchSize;
+    private final List<NodeToAdd> batch;
+    private boolean indexesUpdated;
+
+    /**
+     * Create a writer which buffers the nodes that are added.
+     *
+     * @param writer the writer to the indexes; may not be null
+     * @param batchSize the maximum number of nodes which are buffered; must be positive
+     */
+    public BatchingIndexWriter( IndexWriter writer,
+                                int batchSize ) {
+        assert batchSize > 0;
+        this.writer = writer;
+        // a composite writer is split, so that each batch is written to each of its providers in turn ...
+        this.providerWriters = writer instanceof CompositeIndexWriter ? ((CompositeIndexWriter)writer).writers() :
+                               Collections.singletonList(writer);
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public boolean canBeSkipped() {
+        return writer.canBeSkipped();
+    }
+
+    @Override
+    public void clearAllIndexes() {
+        batch.clear();
+        writer.clearAllIndexes();
+    }
+
+    @Override
+    public boolean add( String workspace,
+                        NodeKey key,
+                        Path path,
+                        Name primaryType,
+                        Set<Name> mixinTypes,
+                        Properties properties ) {
+        batch.add(new NodeToAdd(workspace, key, path, primaryType, mixinTypes, properties));
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+        // whether the indexes were updated is only known when the batch is written ...
+        return false;
+    }
+
+    @Override
+    public boolean remove( String workspace,
+                           NodeKey key ) {
+        flush();
+        return writer.remove(workspace, key);
+    }
+
+    @Override
+    public void commit( String workspace ) {
+        flush();
+        writer.commit(workspace);
+    }
+
+    /**
+     * Write all the buffered nodes to the indexes.
+     *
+     * @return the number of nodes which were written
+     */
+    public int flush() {
+        int count = batch.size();
+        if (count == 0) {
+            return 0;
+        }
+        for (IndexWriter providerWriter : providerWriters) {
+            for (NodeToAdd node : batch) {
+                indexesUpdated |= providerWriter.add(node.workspace, node.key, node.path, node.primaryType, node.mixinTypes,
+                                                     node.properties);
+            }
+        }
+        batch.clear();
+        return count;
+    }
+
+    /**
+     * Determine whether at least one index was updated by the nodes written so far.
+     *
+     * @return true if at least one index was updated, or false otherwise
+     */
+    public boolean indexesUpdated() {
+        return indexesUpdated;
+    }
+
+    private static final class NodeToAdd {
+        private final String workspace;
+        private final NodeKey key;
+        private final Path path;
+        private final Name primaryType;
+        private final Set<Name> mixinTypes;
+        private final Properties properties;
+
+        protected NodeToAdd( String workspace,
+                             NodeKey key,
+                             Path path,
+                             Name primaryType,
+                             Set<Name> mixinTypes,
+                             Properties properties ) {
+            this.workspace = workspace;
+            this.key = key;
+            this.path = path;
+            this.primaryType = primaryType;
+            this.mixinTypes = mixinTypes;
+            this.properties = properties;
+        }
+    }
+}
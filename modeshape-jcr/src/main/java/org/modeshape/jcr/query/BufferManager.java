@@ -206,6 +206,15 @@ public class BufferManager implements Serializers, AutoCloseable {
          */
         QueueBufferMaker<T> useHeap( boolean useHeap );
 
+        /**
+         * Specify whether to store the buffer in a temporary file, which is deleted when the buffer is closed. A buffer stored in a
+         * file does not use the heap, regardless of {@link #useHeap(boolean)}.
+         * 
+         * @param useDisk true if the buffer's contents are to be stored in a temporary file, or false otherwise
+         * @return this maker instance; never null
+         */
+        QueueBufferMaker<T> useDisk( boolean useDisk );
+
         /**
          * Create the {@link DistinctBuffer} instance.
          * 
@@ -266,6 +275,15 @@ public class BufferManager implements Serializers, AutoCloseable {
          */
         SortingBufferMaker<SortType, RecordType> useHeap( boolean useHeap );
 
+        /**
+         * Specify whether to store the buffer in a temporary file, which is deleted when the buffer is closed. A buffer stored in a
+         * file does not use the heap, regardless of {@link #useHeap(boolean)}.
+         * 
+         * @param useDisk true if the buffer's contents are to be stored in a temporary file, or false otherwise
+         * @return this maker instance; never null
+         */
+        SortingBufferMaker<SortType, RecordType> useDisk( boolean useDisk );
+
         /**
          * Specify whether to keep track of the buffer size when adding value. Doing so may slow adds, but it will make returning
          * the size very quick. Adds may be faster if this is set to false, but asking the buffer for its size requires iterating
@@ -332,6 +350,13 @@ public class BufferManager implements Serializers, AutoCloseable {
         }
     };
 
+    private final static Supplier<DB> TEMP_FILE_DB_SUPPLIER = new Supplier<DB>() {
+        @Override
+        public DB get() {
+            return DBMaker.newTempFileDB().transactionDisable().deleteFilesAfterClose().make();
+        }
+    };
+
     private final Serializers serializers;
     private final DbHolder offheap;
     private final DbHolder onheap;
@@ -477,6 +502,12 @@ public class BufferManager implements Serializers, AutoCloseable {
         return useHeap ? onheap.get() : offheap.get();
     }
 
+    protected final DB db( boolean useHeap,
+                           boolean useDisk ) {
+        // each buffer stored on disk has its own file, so that the file can be removed as soon as the buffer is closed ...
+        return useDisk ? TEMP_FILE_DB_SUPPLIER.get() : db(useHeap);
+    }
+
     protected final void delete( String name,
                                  boolean onHeap ) {
         db(onHeap).delete(name);
@@ -485,16 +516,32 @@ public class BufferManager implements Serializers, AutoCloseable {
     protected abstract class CloseableBuffer implements Buffer {
         protected final String name;
         protected final boolean onHeap;
+        private final DB fileDb;
+        private boolean closed;
 
         protected CloseableBuffer( String name,
                                    boolean onHeap ) {
+            this(name, onHeap, null);
+        }
+
+        protected CloseableBuffer( String name,
+                                   boolean onHeap,
+                                   DB fileDb ) {
             this.name = name;
             this.onHeap = onHeap;
+            this.fileDb = fileDb;
         }
 
         @Override
         public void close() {
-            BufferManager.this.delete(name, onHeap);
+            if (closed) return;
+            closed = true;
+            if (fileDb != null) {
+                // the buffer is the only content of the temporary file ...
+                fileDb.close();
+            } else {
+                BufferManager.this.delete(name, onHeap);
+            }
         }
     }
 
@@ -504,8 +551,9 @@ public class BufferManager implements Serializers, AutoCloseable {
 
         protected CloseableQueueBuffer( String name,
                                         boolean onHeap,
+                                        DB fileDb,
                                         Map<Long, T> buffer ) {
-            super(name, onHeap);
+            super(name, onHeap, fileDb);
             this.buffer = buffer;
         }
 
@@ -596,8 +644,9 @@ public class BufferManager implements Serializers, AutoCloseable {
 
         protected CloseableSortingBuffer( String name,
                                           boolean onHeap,
+                                          DB fileDb,
                                           NavigableMap<K, V> buffer ) {
-            super(name, onHeap);
+            super(name, onHeap, fileDb);
             this.buffer = buffer;
         }
 
@@ -697,8 +746,9 @@ public class BufferManager implements Serializers, AutoCloseable {
 
         protected CloseableSortingBufferWithDuplicates( String name,
                                                         boolean onHeap,
+                                                        DB fileDb,
                                                         NavigableMap<UniqueKey<K>, V> buffer ) {
-            super(name, onHeap);
+            super(name, onHeap, fileDb);
             this.buffer = buffer;
         }
 
@@ -813,6 +863,7 @@ public class BufferManager implements Serializers, AutoCloseable {
     protected final class MakeOrderedBuffer<T> implements QueueBufferMaker<T> {
         private final String name;
         private boolean useHeap = true;
+        private boolean useDisk = false;
         private final Serializer<T> serializer;
 
         protected MakeOrderedBuffer( String name,
@@ -829,10 +880,17 @@ public class BufferManager implements Serializers, AutoCloseable {
             return this;
         }
 
+        @Override
+        public MakeOrderedBuffer<T> useDisk( boolean useDisk ) {
+            this.useDisk = useDisk;
+            return this;
+        }
+
         @Override
         public QueueBuffer<T> make() {
-            HTreeMap<Long, T> values = db(useHeap).createHashMap(name).valueSerializer(serializer).counterEnable().make();
-            return new CloseableQueueBuffer<T>(name, useHeap, values);
+            DB db = db(useHeap, useDisk);
+            HTreeMap<Long, T> values = db.createHashMap(name).valueSerializer(serializer).counterEnable().make();
+            return new CloseableQueueBuffer<T>(name, useHeap, useDisk ? db : null, values);
         }
     }
 
@@ -875,6 +933,7 @@ public class BufferManager implements Serializers, AutoCloseable {
         private final String name;
         private boolean useHeap = true;
         private boolean keepsize = false;
+        private boolean useDisk = false;
         private final BTreeKeySerializer<K> keySerializer;
         private final Serializer<V> valueSerializer;
 
@@ -898,12 +957,19 @@ public class BufferManager implements Serializers, AutoCloseable {
             return this;
         }
 
+        @Override
+        public SortingBufferMaker<K, V> useDisk( boolean useDisk ) {
+            this.useDisk = useDisk;
+            return this;
+        }
+
         @Override
         public SortingBuffer<K, V> make() {
-            BTreeMapMaker maker = db(useHeap).createTreeMap(name).keySerializer(keySerializer).valueSerializer(valueSerializer);
+            DB db = db(useHeap, useDisk);
+            BTreeMapMaker maker = db.createTreeMap(name).keySerializer(keySerializer).valueSerializer(valueSerializer);
             if (keepsize) maker = maker.counterEnable();
             NavigableMap<K, V> buffer = maker.make();
-            return new CloseableSortingBuffer<K, V>(name, useHeap, buffer);
+            return new CloseableSortingBuffer<K, V>(name, useHeap, useDisk ? db : null, buffer);
         }
     }
 
@@ -911,6 +977,7 @@ public class BufferManager implements Serializers, AutoCloseable {
         private final String name;
         private boolean useHeap = true;
         private boolean keepsize = false;
+        private boolean useDisk = false;
         private final Serializer<K> keySerializer;
         private final Serializer<V> valueSerializer;
         private final Comparator<K> keyComparator;
@@ -938,15 +1005,21 @@ public class BufferManager implements Serializers, AutoCloseable {
             return this;
         }
 
+        @Override
+        public SortingBufferMaker<K, V> useDisk( boolean useDisk ) {
+            this.useDisk = useDisk;
+            return this;
+        }
+
         @Override
         public SortingBuffer<K, V> make() {
             Comparator<UniqueKey<K>> comparator = this.keyComparator != null ? new UniqueKeyComparator<K>(keyComparator) : new ComparableUniqueKeyComparator<K>();
             BTreeKeySerializer<UniqueKey<K>> uniqueKeySerializer = new UniqueKeyBTreeSerializer<K>(keySerializer, comparator);
-            BTreeMapMaker maker = db(useHeap).createTreeMap(name).keySerializer(uniqueKeySerializer)
-                                             .valueSerializer(valueSerializer);
+            DB db = db(useHeap, useDisk);
+            BTreeMapMaker maker = db.createTreeMap(name).keySerializer(uniqueKeySerializer).valueSerializer(valueSerializer);
             if (keepsize) maker = maker.counterEnable();
             NavigableMap<UniqueKey<K>, V> buffer = maker.make();
-            return new CloseableSortingBufferWithDuplicates<K, V>(name, useHeap, buffer);
+            return new CloseableSortingBufferWithDuplicates<K, V>(name, useHeap, useDisk ? db : null, buffer);
         }
     }
 }
@@ -50,6 +50,15 @@ public class CompositeIndexWriter implements IndexWriter {
         this.writers = writers;
     }
 
+    /**
+     * Get the writers of the index providers to which this writer delegates.
+     *
+     * @return the writers; never null
+     */
+    List<IndexWriter> writers() {
+        return writers;
+    }
+
     @Override
     public void clearAllIndexes() {
         for (IndexWriter writer : writers) {
@@ -79,6 +79,11 @@ public class JcrQuery extends JcrAbstractQuery {
         this.hints.includeSystemContent = includeSystemContent;
     }
 
+    @Override
+    public void streaming( boolean streaming ) {
+        this.hints.streaming = streaming;
+    }
+
     protected QueryCommand query() {
         return query;
     }
@@ -122,12 +127,14 @@ public class JcrQuery extends JcrAbstractQuery {
 
         checkForProblems(result.getProblems());
         context.recordDuration(Math.abs(System.nanoTime() - start), TimeUnit.NANOSECONDS, statement, language);
+        // Streamed results are never buffered so that they can be restarted ...
+        boolean restartable = hints.restartable && !hints.streaming;
         if (Query.XPATH.equals(language)) {
-            return new XPathQueryResult(context, statement, result, hints.restartable, hints.rowsKeptInMemory);
+            return new XPathQueryResult(context, statement, result, restartable, hints.rowsKeptInMemory);
         } else if (Query.SQL.equals(language)) {
-            return new JcrSqlQueryResult(context, statement, result, hints.restartable, hints.rowsKeptInMemory);
+            return new JcrSqlQueryResult(context, statement, result, restartable, hints.rowsKeptInMemory);
         }
-        return new JcrQueryResult(context, statement, result, hints.restartable, hints.rowsKeptInMemory);
+        return new JcrQueryResult(context, statement, result, restartable, hints.rowsKeptInMemory);
     }
 
     @SuppressWarnings( "deprecation" )
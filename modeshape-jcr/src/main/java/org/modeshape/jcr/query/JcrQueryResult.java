@@ -74,6 +74,7 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
         if (rows.isEmpty()) {
             this.sequence = rows;
         } else if (!restartable) {
+            // the secure sequence doesn't know its size up front, so the rows are never counted before they are consumed ...
             this.sequence = new SecureSequence(rows, context);
         } else {
             String workspace = context.getWorkspaceName();
@@ -229,6 +230,7 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
         private NodeSequence sequence;
         private long position = 0L;
         private Batch currentBatch;
+        private boolean exhausted = false;
 
         protected QueryResultIterator( JcrQueryContext context,
                                        NodeSequence sequence ) {
@@ -242,6 +244,7 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
                 if (currentBatch.hasNext()) return true;
                 currentBatch = null;
             }
+            exhausted = true;
             return false;
         }
 
@@ -272,7 +275,13 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
 
         @Override
         public final long getSize() {
-            return sequence.getRowCount();
+            // restartable results buffer and count all their rows, while the other results only count the rows consumed ...
+            long size = sequence.getRowCount();
+            if (size < 0L && exhausted) {
+                // The number of rows wasn't known up front, but all of them have been consumed ...
+                return position;
+            }
+            return size;
         }
     }
 
@@ -649,6 +649,7 @@ public abstract class NodeSequence {
         return new NodeSequence() {
             private LimitBatch lastLimitBatch = null;
             protected long rowsRemaining = maxRows;
+            private boolean closed = false;
 
             @Override
             public long getRowCount() {
@@ -669,13 +670,13 @@ public abstract class NodeSequence {
 
             @Override
             public Batch nextBatch() {
-                if (rowsRemaining <= 0) return null;
+                if (rowsRemaining <= 0) return limitReached();
                 if (lastLimitBatch != null) {
                     long rowsUsed = lastLimitBatch.rowsUsed();
                     if (rowsUsed < rowsRemaining) {
                         rowsRemaining -= rowsUsed;
                     } else {
-                        return null; 
+                        return limitReached();
                     }
                 }
                 final Batch next = sequence.nextBatch();
@@ -700,9 +701,19 @@ public abstract class NodeSequence {
                 return lastLimitBatch;
             }
 
+            private Batch limitReached() {
+                // the callers don't always close the sequence once they've read all the rows, so don't let the original
+                // sequence hold its resources (e.g. threads) until then ...
+                close();
+                return null;
+            }
+
             @Override
             public void close() {
-                sequence.close();
+                if (!closed) {
+                    closed = true;
+                    sequence.close();
+                }
             }
 
             @Override
@@ -16,8 +16,11 @@
 
 package org.modeshape.jcr.query;
 
+import java.util.concurrent.ExecutorService;
 import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.RepositoryConfiguration;
+import org.modeshape.jcr.RepositoryStatistics;
+import org.modeshape.jcr.query.engine.QueryResultCache;
 import org.modeshape.jcr.query.optimize.Optimizer;
 import org.modeshape.jcr.query.optimize.RuleBasedOptimizer;
 import org.modeshape.jcr.query.plan.CanonicalPlanner;
@@ -29,11 +32,20 @@ import org.modeshape.jcr.spi.index.IndexManager;
  */
 public abstract class QueryEngineBuilder {
 
+    /**
+     * The number of queries which can scan the content with all their threads at the same time. Other queries scan with fewer
+     * threads, or sequentially.
+     */
+    private static final int MAX_CONCURRENT_PARALLEL_SCANS = 4;
+
     private RepositoryConfiguration config;
     private IndexManager indexManager;
     private ExecutionContext context;
     private Planner planner;
     private Optimizer optimizer;
+    private QueryPlanCache planCache;
+    private QueryResultCache resultCache;
+    private RepositoryStatistics statistics;
 
     public QueryEngineBuilder() {
     }
@@ -57,6 +69,21 @@ public abstract class QueryEngineBuilder {
         return this;
     }
 
+    public QueryEngineBuilder with( QueryPlanCache planCache ) {
+        this.planCache = planCache;
+        return this;
+    }
+
+    public QueryEngineBuilder with( QueryResultCache resultCache ) {
+        this.resultCache = resultCache;
+        return this;
+    }
+
+    public QueryEngineBuilder with( RepositoryStatistics statistics ) {
+        this.statistics = statistics;
+        return this;
+    }
+
     public abstract QueryEngine build();
 
     protected final RepositoryConfiguration config() {
@@ -83,6 +110,36 @@ public abstract class QueryEngineBuilder {
         return this.optimizer != null ? this.optimizer : defaultOptimizer();
     }
 
+    protected final QueryPlanCache planCache() {
+        return this.planCache;
+    }
+
+    protected final QueryResultCache resultCache() {
+        return this.resultCache;
+    }
+
+    protected final RepositoryStatistics statistics() {
+        return this.statistics;
+    }
+
+    protected final long memoryBudget() {
+        // without a configuration, the memory of the queries is not limited
+        return config != null ? config.getQuery().getMemoryBudgetInBytes() : 0L;
+    }
+
+    protected final int scanParallelism() {
+        return config != null ? config.getQuery().getScanParallelism() : 1;
+    }
+
+    protected final ExecutorService scanExecutor() {
+        int parallelism = scanParallelism();
+        if (parallelism < 2 || context == null) {
+            return null;
+        }
+        // the pool is shared by all the queries, each of which uses at most 'parallelism' of its threads ...
+        return context.getCachedTreadPool(config.getQuery().getThreadPoolName(), parallelism * MAX_CONCURRENT_PARALLEL_SCANS);
+    }
+
     protected Planner defaultPlanner() {
         return new CanonicalPlanner();
     }
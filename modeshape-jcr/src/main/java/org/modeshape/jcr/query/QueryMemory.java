@@ -0,0 +1,170 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.RepositoryStatistics;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+
+/**
+ * The accounting of the bytes used by the rows which a single query holds in memory buffers (e.g. the rows of the right side of
+ * a hash join), and of the bytes of the rows which were written to temporary files because the memory budget of the query was
+ * exceeded.
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+public final class QueryMemory {
+
+    private final long budget;
+    private final RepositoryStatistics statistics;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong peakBytes = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+
+    /**
+     * Create the memory accounting of a query.
+     *
+     * @param budget the maximum number of bytes of buffered rows which the query may hold in memory, or a non-positive value if
+     *        the memory is not limited
+     * @param statistics the statistics which should record the buffered and spilled bytes; may be null
+     */
+    public QueryMemory( long budget,
+                        RepositoryStatistics statistics ) {
+        this.budget = budget;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Get the maximum number of bytes of buffered rows which the query may hold in memory.
+     *
+     * @return the budget, or a non-positive value if the memory is not limited
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Determine whether the memory used by the query is limited.
+     *
+     * @return true if the query may hold only a limited number of bytes in memory, or false otherwise
+     */
+    public boolean isLimited() {
+        return budget > 0L;
+    }
+
+    /**
+     * Reserve memory for a number of bytes of buffered rows, but only if the budget of the query is not exceeded.
+     *
+     * @param bytes the number of bytes; may not be negative
+     * @return true if the memory was reserved, or false if the bytes should not be held in memory
+     */
+    public boolean tryReserve( long bytes ) {
+        assert bytes >= 0L;
+        while (true) {
+            long used = usedBytes.get();
+            if (isLimited() && used + bytes > budget) {
+                return false;
+            }
+            if (usedBytes.compareAndSet(used, used + bytes)) {
+                reserved(used + bytes, bytes);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserve memory for a number of bytes of buffered rows, even if the budget of the query is exceeded. This is used by the
+     * operations which cannot write their rows to temporary files.
+     *
+     * @param bytes the number of bytes; may not be negative
+     * @return true if the budget of the query is still respected, or false if it is exceeded
+     */
+    public boolean reserve( long bytes ) {
+        assert bytes >= 0L;
+        long used = usedBytes.addAndGet(bytes);
+        reserved(used, bytes);
+        return !isLimited() || used <= budget;
+    }
+
+    /**
+     * Release the memory previously reserved for buffered rows.
+     *
+     * @param bytes the number of bytes which are no longer held in memory; may not be negative
+     */
+    public void release( long bytes ) {
+        assert bytes >= 0L;
+        usedBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * Record that a number of bytes of rows were written to temporary files.
+     *
+     * @param bytes the number of bytes; may not be negative
+     */
+    public void spilled( long bytes ) {
+        assert bytes >= 0L;
+        spilledBytes.addAndGet(bytes);
+        if (statistics != null) {
+            statistics.increment(ValueMetric.QUERY_SPILLED_BYTES, bytes);
+        }
+    }
+
+    /**
+     * Get the number of bytes of buffered rows currently held in memory.
+     *
+     * @return the number of bytes
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Get the largest number of bytes of buffered rows which were held in memory at the same time.
+     *
+     * @return the number of bytes
+     */
+    public long getPeakBytes() {
+        return peakBytes.get();
+    }
+
+    /**
+     * Get the number of bytes of rows which were written to temporary files.
+     *
+     * @return the number of bytes
+     */
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    private void reserved( long used,
+                           long bytes ) {
+        long peak = peakBytes.get();
+        while (used > peak && !peakBytes.compareAndSet(peak, used)) {
+            peak = peakBytes.get();
+        }
+        if (statistics != null) {
+            statistics.increment(ValueMetric.QUERY_BUFFERED_BYTES, bytes);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "(memory used=" + usedBytes.get() + " peak=" + peakBytes.get() + " spilled=" + spilledBytes.get() + " budget="
+               + (isLimited() ? Long.toString(budget) : "unlimited") + ")";
+    }
+}
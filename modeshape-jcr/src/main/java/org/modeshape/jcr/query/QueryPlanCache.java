@@ -0,0 +1,302 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.NodeTypes;
+import org.modeshape.jcr.RepositoryIndexes;
+import org.modeshape.jcr.RepositoryStatistics;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.plan.PlanHints;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.validate.Schemata;
+import org.modeshape.jcr.value.NamespaceRegistry;
+import org.modeshape.jcr.value.basic.LocalNamespaceRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * A bounded, repository-wide cache of parsed query expressions and optimized query plans, which allows the queries that are
+ * created and executed repeatedly to skip the parsing, planning and optimization steps.
+ * <p>
+ * Parsed queries are keyed by their language and expression. Optimized plans are keyed by the query, the plan hints, the
+ * queried workspaces and the names and types of the values of the bind variables. The cached plans are
+ * {@link org.modeshape.jcr.query.optimize.Optimizer#prepare prepared} plans, which don't include the optimizations that depend
+ * on the values of the variables (e.g. the choice of indexes or the rewriting of range criteria): these are
+ * {@link org.modeshape.jcr.query.optimize.Optimizer#bind applied} to a copy of the cached plan each time the query is executed.
+ * Plans are also keyed by the snapshots of the schemata, node types and index definitions used to compute them, so that plans
+ * become stale as soon as any node types or index definitions are changed.
+ * </p>
+ * <p>
+ * Queries issued by sessions which have local namespace mappings are never cached, because the names used by these queries are
+ * resolved using session-specific prefixes. Plans for queries with subqueries are never cached either.
+ * </p>
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+public final class QueryPlanCache {
+
+    /**
+     * The default maximum number of parsed queries and of optimized plans held by a cache.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final Cache<ParsedQueryKey, QueryCommand> parsedQueries;
+    private final Cache<PlanKey, CachedPlan> plans;
+    private final RepositoryStatistics statistics;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize the maximum number of parsed queries and the maximum number of optimized plans held by the cache; must be
+     *        positive
+     * @param statistics the statistics which should record the plan cache hits and misses; may be null
+     */
+    public QueryPlanCache( int maxSize,
+                           RepositoryStatistics statistics ) {
+        CheckArg.isPositive(maxSize, "maxSize");
+        this.parsedQueries = Caffeine.newBuilder().maximumSize(maxSize).build();
+        this.plans = Caffeine.newBuilder().maximumSize(maxSize).build();
+        this.statistics = statistics;
+    }
+
+    /**
+     * Returns the query that was previously parsed from the given expression.
+     *
+     * @param language the language of the expression; may not be null
+     * @param expression the query expression; may not be null
+     * @param context the context of the session creating the query; may not be null
+     * @return the parsed query, or null if the expression isn't cached
+     */
+    public QueryCommand parsedQuery( String language,
+                                     String expression,
+                                     ExecutionContext context ) {
+        if (!isCacheable(context)) {
+            return null;
+        }
+        return parsedQueries.getIfPresent(new ParsedQueryKey(language, expression));
+    }
+
+    /**
+     * Caches a parsed query.
+     *
+     * @param language the language of the expression; may not be null
+     * @param expression the query expression; may not be null
+     * @param context the context of the session which created the query; may not be null
+     * @param query the parsed query; may not be null
+     */
+    public void putParsedQuery( String language,
+                                String expression,
+                                ExecutionContext context,
+                                QueryCommand query ) {
+        if (isCacheable(context)) {
+            parsedQueries.put(new ParsedQueryKey(language, expression), query);
+        }
+    }
+
+    /**
+     * Creates the key under which the prepared plan of a query is cached. This must be called before the query is planned,
+     * since planning updates the hints of the context.
+     *
+     * @param context the context in which the query is executed; may not be null
+     * @param query the query; may not be null
+     * @return the key, or null if the plan of the query cannot be cached
+     */
+    public PlanKey planKey( QueryContext context,
+                            QueryCommand query ) {
+        return isCacheable(context.getExecutionContext()) ? new PlanKey(context, query) : null;
+    }
+
+    /**
+     * Returns a copy of the prepared plan which was previously computed for a query in an equivalent context. When a plan is
+     * found, the hints of the context are updated with the hints computed while the plan was created and prepared.
+     *
+     * @param planKey the key returned by {@link #planKey(QueryContext, QueryCommand)}; may be null
+     * @param context the context in which the query is executed; may not be null
+     * @return a copy of the prepared plan which is owned by the caller and still has to be bound to the values of the variables,
+     *         or null if no plan is cached
+     */
+    public PlanNode preparedPlan( PlanKey planKey,
+                                  QueryContext context ) {
+        if (planKey == null) {
+            return null;
+        }
+        CachedPlan cached = plans.getIfPresent(planKey);
+        if (statistics != null) {
+            statistics.increment(cached != null ? ValueMetric.QUERY_PLAN_CACHE_HITS : ValueMetric.QUERY_PLAN_CACHE_MISSES);
+        }
+        if (cached == null) {
+            return null;
+        }
+        cached.copyHintsTo(context.getHints());
+        return cached.plan.clone();
+    }
+
+    /**
+     * Caches the prepared plan of a query, unless creating or preparing the plan produced problems, or the query has
+     * subqueries.
+     *
+     * @param planKey the key returned by {@link #planKey(QueryContext, QueryCommand)}; may be null
+     * @param context the context in which the plan was created and prepared; may not be null
+     * @param preparedPlan the plan returned by {@link org.modeshape.jcr.query.optimize.Optimizer#prepare}; may not be null
+     */
+    public void putPreparedPlan( PlanKey planKey,
+                                 QueryContext context,
+                                 PlanNode preparedPlan ) {
+        PlanHints hints = context.getHints();
+        if (planKey == null || hints.hasSubqueries || !context.getProblems().isEmpty()) {
+            return;
+        }
+        // store a copy, since the executed plan is owned by the query
+        plans.put(planKey, new CachedPlan(preparedPlan.clone(), hints.clone()));
+    }
+
+    /**
+     * Removes all the parsed queries and optimized plans from this cache.
+     */
+    public void clear() {
+        parsedQueries.invalidateAll();
+        plans.invalidateAll();
+    }
+
+    private static boolean isCacheable( ExecutionContext context ) {
+        NamespaceRegistry registry = context.getNamespaceRegistry();
+        return !(registry instanceof LocalNamespaceRegistry) || ((LocalNamespaceRegistry)registry).getLocalNamespaces().isEmpty();
+    }
+
+    @Immutable
+    private static final class ParsedQueryKey {
+        private final String language;
+        private final String expression;
+
+        protected ParsedQueryKey( String language,
+                                  String expression ) {
+            this.language = language;
+            this.expression = expression;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * language.hashCode() + expression.hashCode();
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof ParsedQueryKey) {
+                ParsedQueryKey that = (ParsedQueryKey)obj;
+                return this.language.equals(that.language) && this.expression.equals(that.expression);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The key of a prepared plan.
+     */
+    @Immutable
+    public static final class PlanKey {
+        private final QueryCommand query;
+        private final PlanHints hints;
+        private final Set<String> workspaceNames;
+        // the plans only depend on the types of the values of the variables, and not on the values themselves
+        private final Map<String, Class<?>> variableTypes;
+        // the schemata and the index definitions are immutable snapshots which are replaced whenever they change
+        private final Schemata schemata;
+        private final RepositoryIndexes indexDefinitions;
+        private final int nodeTypesVersion;
+        private final int hc;
+
+        private PlanKey( QueryContext context,
+                         QueryCommand query ) {
+            NodeTypes nodeTypes = context.getNodeTypes();
+            this.query = query;
+            this.hints = context.getHints().clone();
+            this.workspaceNames = new HashSet<>(context.getWorkspaceNames());
+            this.variableTypes = variableTypes(context.getVariables());
+            this.schemata = context.getSchemata();
+            this.indexDefinitions = context.getIndexDefinitions();
+            this.nodeTypesVersion = nodeTypes != null ? nodeTypes.getVersion() : -1;
+            this.hc = Objects.hash(query, hints, workspaceNames, variableTypes, nodeTypesVersion);
+        }
+
+        private static Map<String, Class<?>> variableTypes( Map<String, Object> variables ) {
+            if (variables == null) {
+                return null;
+            }
+            Map<String, Class<?>> types = new HashMap<>();
+            for (Map.Entry<String, Object> variable : variables.entrySet()) {
+                Object value = variable.getValue();
+                types.put(variable.getKey(), value != null ? value.getClass() : null);
+            }
+            return types;
+        }
+
+        @Override
+        public int hashCode() {
+            return hc;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof PlanKey) {
+                PlanKey that = (PlanKey)obj;
+                return this.hc == that.hc && this.schemata == that.schemata && this.indexDefinitions == that.indexDefinitions
+                       && this.nodeTypesVersion == that.nodeTypesVersion && this.query.equals(that.query)
+                       && this.hints.equals(that.hints) && this.workspaceNames.equals(that.workspaceNames)
+                       && Objects.equals(this.variableTypes, that.variableTypes);
+            }
+            return false;
+        }
+    }
+
+    @Immutable
+    private static final class CachedPlan {
+        private final PlanNode plan;
+        private final PlanHints hints;
+
+        protected CachedPlan( PlanNode plan,
+                              PlanHints hints ) {
+            this.plan = plan;
+            this.hints = hints;
+        }
+
+        protected void copyHintsTo( PlanHints target ) {
+            // these are the hints which are computed while planning and optimizing the query
+            target.hasCriteria = hints.hasCriteria;
+            target.hasView = hints.hasView;
+            target.hasJoin = hints.hasJoin;
+            target.hasSort = hints.hasSort;
+            target.hasSetQuery = hints.hasSetQuery;
+            target.hasLimit = hints.hasLimit;
+            target.hasOptionalJoin = hints.hasOptionalJoin;
+            target.hasFullTextSearch = hints.hasFullTextSearch;
+            target.hasSubqueries = hints.hasSubqueries;
+            target.isExistsQuery = hints.isExistsQuery;
+        }
+    }
+}
@@ -200,6 +200,8 @@ public interface QueryResults {
         private final long optimizationNanos;
         private final long resultFormulationNanos;
         private final long executionNanos;
+        private final long bufferedBytes;
+        private final long spilledBytes;
 
         public Statistics() {
             this(0L, 0L, 0L, 0L);
@@ -213,10 +215,21 @@ public interface QueryResults {
                            long optimizationNanos,
                            long resultFormulationNanos,
                            long executionNanos ) {
+            this(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos, 0L, 0L);
+        }
+
+        private Statistics( long planningNanos,
+                            long optimizationNanos,
+                            long resultFormulationNanos,
+                            long executionNanos,
+                            long bufferedBytes,
+                            long spilledBytes ) {
             this.planningNanos = planningNanos;
             this.optimizationNanos = optimizationNanos;
             this.resultFormulationNanos = resultFormulationNanos;
             this.executionNanos = executionNanos;
+            this.bufferedBytes = bufferedBytes;
+            this.spilledBytes = spilledBytes;
         }
 
         /**
@@ -281,6 +294,25 @@ public interface QueryResults {
             return planningNanos + optimizationNanos + resultFormulationNanos + executionNanos;
         }
 
+        /**
+         * Get the largest number of bytes of rows which the query held in memory buffers at the same time (e.g. the rows of the
+         * right side of a hash join or the rows being sorted).
+         * 
+         * @return the number of bytes; never negative
+         */
+        public long getBufferedBytes() {
+            return bufferedBytes;
+        }
+
+        /**
+         * Get the number of bytes of rows which the query wrote to temporary files because its memory budget was exceeded.
+         * 
+         * @return the number of bytes; never negative
+         */
+        public long getSpilledBytes() {
+            return spilledBytes;
+        }
+
         /**
          * Create a new statistics object that has the supplied planning time.
          * 
@@ -290,7 +322,8 @@ public interface QueryResults {
          */
         public Statistics withPlanningTime( long planningNanos ) {
             CheckArg.isNonNegative(planningNanos, "planningNanos");
-            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos);
+            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos, bufferedBytes,
+                                  spilledBytes);
         }
 
         /**
@@ -302,7 +335,8 @@ public interface QueryResults {
          */
         public Statistics withOptimizationTime( long optimizationNanos ) {
             CheckArg.isNonNegative(optimizationNanos, "optimizationNanos");
-            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos);
+            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos, bufferedBytes,
+                                  spilledBytes);
         }
 
         /**
@@ -314,7 +348,8 @@ public interface QueryResults {
          */
         public Statistics withResultsFormulationTime( long resultFormulationNanos ) {
             CheckArg.isNonNegative(resultFormulationNanos, "resultFormulationNanos");
-            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos);
+            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos, bufferedBytes,
+                                  spilledBytes);
         }
 
         /**
@@ -326,7 +361,8 @@ public interface QueryResults {
          */
         public Statistics withExecutionTime( long executionNanos ) {
             CheckArg.isNonNegative(executionNanos, "executionNanos");
-            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos);
+            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos, bufferedBytes,
+                                  spilledBytes);
         }
 
         /**
@@ -342,7 +378,8 @@ public interface QueryResults {
             CheckArg.isNonNegative(planning, "planning");
             CheckArg.isNotNull(unit, "unit");
             long planningNanos = TimeUnit.NANOSECONDS.convert(planning, unit);
-            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos);
+            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos, bufferedBytes,
+                                  spilledBytes);
         }
 
         /**
@@ -358,7 +395,8 @@ public interface QueryResults {
             CheckArg.isNonNegative(optimization, "optimization");
             CheckArg.isNotNull(unit, "unit");
             long optimizationNanos = TimeUnit.NANOSECONDS.convert(optimization, unit);
-            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos);
+            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos, bufferedBytes,
+                                  spilledBytes);
         }
 
         /**
@@ -374,7 +412,8 @@ public interface QueryResults {
             CheckArg.isNonNegative(resultFormulation, "resultFormulation");
             CheckArg.isNotNull(unit, "unit");
             long resultFormulationNanos = TimeUnit.NANOSECONDS.convert(resultFormulation, unit);
-            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos);
+            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos, bufferedBytes,
+                                  spilledBytes);
         }
 
         /**
@@ -390,7 +429,34 @@ public interface QueryResults {
             CheckArg.isNonNegative(execution, "execution");
             CheckArg.isNotNull(unit, "unit");
             long executionNanos = TimeUnit.NANOSECONDS.convert(execution, unit);
-            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos);
+            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos, bufferedBytes,
+                                  spilledBytes);
+        }
+
+        /**
+         * Create a new statistics object that has the supplied number of bytes of rows held in memory buffers.
+         * 
+         * @param bufferedBytes the largest number of bytes of rows which the query held in memory buffers at the same time
+         * @return the new statistics object; never null
+         * @throws IllegalArgumentException if the number of bytes is negative
+         */
+        public Statistics withBufferedBytes( long bufferedBytes ) {
+            CheckArg.isNonNegative(bufferedBytes, "bufferedBytes");
+            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos, bufferedBytes,
+                                  spilledBytes);
+        }
+
+        /**
+         * Create a new statistics object that has the supplied number of bytes of rows written to temporary files.
+         * 
+         * @param spilledBytes the number of bytes of rows which the query wrote to temporary files
+         * @return the new statistics object; never null
+         * @throws IllegalArgumentException if the number of bytes is negative
+         */
+        public Statistics withSpilledBytes( long spilledBytes ) {
+            CheckArg.isNonNegative(spilledBytes, "spilledBytes");
+            return new Statistics(planningNanos, optimizationNanos, resultFormulationNanos, executionNanos, bufferedBytes,
+                                  spilledBytes);
         }
 
         @Override
@@ -442,6 +508,24 @@ public interface QueryResults {
                 sb.append("exec=");
                 readable(executionNanos, sb);
             }
+            if (bufferedBytes != 0L) {
+                if (first) {
+                    first = false;
+                    sb.append(" (");
+                } else {
+                    sb.append(", ");
+                }
+                sb.append("buffered=").append(bufferedBytes).append(" bytes");
+            }
+            if (spilledBytes != 0L) {
+                if (first) {
+                    first = false;
+                    sb.append(" (");
+                } else {
+                    sb.append(", ");
+                }
+                sb.append("spilled=").append(spilledBytes).append(" bytes");
+            }
             if (!first) sb.append(')');
             return sb.toString();
         }
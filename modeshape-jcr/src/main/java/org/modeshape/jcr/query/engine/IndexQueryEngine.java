@@ -105,7 +105,7 @@ public class IndexQueryEngine extends ScanningQueryEngine {
                 };
             }
             // Finally create the query engine ...
-            return new IndexQueryEngine(context(), repositoryName(), planner(), optimizer, indexManager());
+            return new IndexQueryEngine(context(), repositoryName(), planner(), optimizer, indexManager(), settings());
         }
 
         @Override
@@ -157,8 +157,9 @@ public class IndexQueryEngine extends ScanningQueryEngine {
                                 String repositoryName,
                                 Planner planner,
                                 Optimizer optimizer,
-                                IndexManager indexManager ) {
-        super(context, repositoryName, planner, optimizer);
+                                IndexManager indexManager,
+                                Settings settings ) {
+        super(context, repositoryName, planner, optimizer, settings);
         this.indexManager = indexManager;
     }
 
@@ -0,0 +1,862 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.jcr.JcrLexicon;
+import org.modeshape.jcr.JcrNtLexicon;
+import org.modeshape.jcr.NodeTypes;
+import org.modeshape.jcr.RepositoryConfiguration;
+import org.modeshape.jcr.RepositoryStatistics;
+import org.modeshape.jcr.api.index.IndexDefinition;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.NodeCache;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.SessionCache;
+import org.modeshape.jcr.cache.change.AbstractNodeChange;
+import org.modeshape.jcr.cache.change.AbstractPropertyChange;
+import org.modeshape.jcr.cache.change.AbstractSequencingChange;
+import org.modeshape.jcr.cache.change.BinaryValueUsageChange;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.NodeMoved;
+import org.modeshape.jcr.cache.change.NodeRenamed;
+import org.modeshape.jcr.cache.change.NodeReordered;
+import org.modeshape.jcr.cache.change.RepositoryMetadataChanged;
+import org.modeshape.jcr.cache.change.WorkspaceAdded;
+import org.modeshape.jcr.cache.change.WorkspaceRemoved;
+import org.modeshape.jcr.query.NodeSequence;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.QueryPlanCache.PlanKey;
+import org.modeshape.jcr.query.engine.process.DelegatingSequence;
+import org.modeshape.jcr.query.model.AllNodes;
+import org.modeshape.jcr.query.model.ChildCount;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.FullTextSearch;
+import org.modeshape.jcr.query.model.NamedSelector;
+import org.modeshape.jcr.query.model.PropertyExistence;
+import org.modeshape.jcr.query.model.PropertyValue;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.model.ReferenceValue;
+import org.modeshape.jcr.query.model.Visitors;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.NameFactory;
+import org.modeshape.jcr.value.ValueFormatException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * A bounded, repository-wide cache of the keys of the nodes returned by read-only queries, which allows identical queries that
+ * are executed repeatedly against the same workspace to skip executing their plan (e.g. querying the indexes or scanning the
+ * workspace content).
+ * <p>
+ * Results are keyed by the {@link PlanKey key of the plan} and by the values of the bind variables: the key of the plan covers
+ * the query, the plan hints, the queried workspace, the types of the variables and the snapshots of the node types and index
+ * definitions. Only the keys and the
+ * scores of the nodes in each row are cached; the nodes themselves are always loaded from the node cache of the executing
+ * session, and the access permissions of each session are still applied to the cached rows by the
+ * {@link org.modeshape.jcr.query.JcrQueryResult}.
+ * </p>
+ * <p>
+ * Each cached result records the node types selected by the query and the properties used by its criteria, joins and
+ * orderings, and is {@link #invalidate(ChangeSet) invalidated} as soon as a change set adds, removes or changes a node of one of
+ * these types, or changes one of these properties on such a node. Changes which alter the paths of other nodes (moves, renames
+ * and reorderings) and change sets which carry only the keys of the changed nodes invalidate all the results of the workspace.
+ * Queries may also return the nodes of the system workspace (e.g. the version histories), so the results cached with the
+ * {@link org.modeshape.jcr.query.plan.PlanHints#includeSystemContent system content} are invalidated in the same way by the
+ * changes to the system workspace, whichever workspace they were cached for.
+ * </p>
+ * <p>
+ * Results are only cached for queries which target a single workspace, are issued by sessions without transient changes, have
+ * no subqueries and only use synchronous indexes, and only once all of their rows have been read. Results with more than
+ * {@link #MAX_ROWS} rows are never cached.
+ * </p>
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+public final class QueryResultCache {
+
+    /**
+     * The maximum number of rows of a single cached result.
+     */
+    public static final int MAX_ROWS = 10000;
+
+    private static final int BATCH_SIZE = 100;
+
+    private final Cache<ResultKey, CachedResult> results;
+    private final ConcurrentMap<String, AtomicLong> generationsByWorkspaceName = new ConcurrentHashMap<>();
+    private final RepositoryStatistics statistics;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize the maximum number of results held by the cache; must be positive
+     * @param statistics the statistics which should record the result cache hits and misses; may be null
+     */
+    public QueryResultCache( int maxSize,
+                             RepositoryStatistics statistics ) {
+        CheckArg.isPositive(maxSize, "maxSize");
+        this.results = Caffeine.newBuilder().maximumSize(maxSize).build();
+        this.statistics = statistics;
+    }
+
+    /**
+     * Determine whether the results of a query executed in the given context may be read from or stored in this cache.
+     *
+     * @param context the context in which the query is executed; may not be null
+     * @return true if the results may be cached, or false otherwise
+     */
+    public static boolean isCacheable( QueryContext context ) {
+        if (context.getHints().planOnly || context.getWorkspaceNames().size() != 1) {
+            return false;
+        }
+        NodeCache cache = context.getNodeCache(context.getWorkspaceNames().iterator().next());
+        // the results of sessions with transient changes may differ from those of all the other sessions ...
+        return !(cache instanceof SessionCache) || !((SessionCache)cache).hasChanges();
+    }
+
+    /**
+     * Get the number of change sets which have been applied to the cached results of a workspace. This must be called before
+     * the query is executed, and passed to {@link #recording} so that results computed while the workspace is changed are not
+     * cached.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @return the generation of the workspace
+     */
+    public long generation( String workspaceName ) {
+        return generationOf(workspaceName).get();
+    }
+
+    /**
+     * Returns the rows of a result which was previously cached for an identical query.
+     *
+     * @param planKey the key of the optimized plan of the query; may be null
+     * @param context the context in which the query is executed; may not be null
+     * @return the rows of the cached result, or null if no result is cached
+     */
+    public NodeSequence rows( PlanKey planKey,
+                              QueryContext context ) {
+        if (planKey == null || !isCacheable(context)) {
+            return null;
+        }
+        CachedResult cached = results.getIfPresent(new ResultKey(planKey, context.getVariables()));
+        if (statistics != null) {
+            statistics.increment(cached != null ? ValueMetric.QUERY_RESULT_CACHE_HITS : ValueMetric.QUERY_RESULT_CACHE_MISSES);
+        }
+        return cached != null ? new CachedRows(cached, context.getNodeCache(cached.workspaceName)) : null;
+    }
+
+    /**
+     * Wrap the rows of a query, so that the keys of the nodes of all the rows are cached once the rows are completely read.
+     *
+     * @param planKey the key of the optimized plan of the query; may be null
+     * @param context the context in which the query is executed; may not be null
+     * @param query the query; may not be null
+     * @param plan the optimized plan of the query; may not be null
+     * @param rows the rows of the query; may not be null
+     * @param generation the {@link #generation(String) generation} of the queried workspace before the query was executed
+     * @return the sequence of rows which should be returned by the query; never null
+     */
+    public NodeSequence recording( PlanKey planKey,
+                                   QueryContext context,
+                                   QueryCommand query,
+                                   PlanNode plan,
+                                   NodeSequence rows,
+                                   long generation ) {
+        if (planKey == null || !isCacheable(context) || context.getHints().hasSubqueries || context.getProblems().hasErrors()
+            || usesAsynchronousIndexes(context, plan)) {
+            return rows;
+        }
+        String workspaceName = context.getWorkspaceNames().iterator().next();
+        Set<Name> nodeTypeNames = nodeTypeNamesSelectedBy(query, context);
+        Set<Name> propertyNames = propertyNamesUsedBy(query, context);
+        boolean includesSystemContent = context.getHints().includeSystemContent;
+        ResultKey resultKey = new ResultKey(planKey, context.getVariables());
+        return new RecordingSequence(rows, resultKey, workspaceName, includesSystemContent, nodeTypeNames, propertyNames,
+                                     generation);
+    }
+
+    /**
+     * Removes the cached results which may be affected by the changes in the supplied change set.
+     *
+     * @param changeSet the change set; may not be null
+     */
+    public void invalidate( ChangeSet changeSet ) {
+        String workspaceName = changeSet.getWorkspaceName();
+        if (changeSet.isEmpty() || workspaceName == null) {
+            return;
+        }
+        boolean systemChange = isSystemWorkspace(workspaceName);
+        // prevent the queries which are being executed from caching their results ...
+        advanceGeneration(workspaceName);
+        if (!changeSet.iterator().hasNext()) {
+            // the change set only has the keys of the changed nodes (e.g. it was made by another member of the cluster) ...
+            invalidate(workspaceName);
+            return;
+        }
+        List<Name[]> nodeTypes = new ArrayList<>();
+        Set<Name> propertyNames = new HashSet<>();
+        boolean anyProperty = false;
+        for (Change change : changeSet) {
+            if (change instanceof NodeMoved || change instanceof NodeRenamed || change instanceof NodeReordered) {
+                // the paths of all the descendants or of the siblings of the node have changed ...
+                invalidate(workspaceName);
+                return;
+            } else if (change instanceof WorkspaceRemoved) {
+                invalidate(((WorkspaceRemoved)change).getWorkspaceName());
+            } else if (change instanceof AbstractSequencingChange || change instanceof BinaryValueUsageChange
+                       || change instanceof RepositoryMetadataChanged || change instanceof WorkspaceAdded) {
+                // these don't change the content of the workspace ...
+                continue;
+            } else if (change instanceof AbstractNodeChange) {
+                AbstractNodeChange nodeChange = (AbstractNodeChange)change;
+                Set<Name> mixinTypes = nodeChange.getMixinTypes();
+                Name[] types = new Name[mixinTypes.size() + 1];
+                types[0] = nodeChange.getPrimaryType();
+                System.arraycopy(mixinTypes.toArray(new Name[mixinTypes.size()]), 0, types, 1, mixinTypes.size());
+                if (change instanceof AbstractPropertyChange) {
+                    Name propertyName = ((AbstractPropertyChange)change).getProperty().getName();
+                    if (JcrLexicon.PRIMARY_TYPE.equals(propertyName) || JcrLexicon.MIXIN_TYPES.equals(propertyName)) {
+                        // the types of the node have changed, so any query may now (or no longer) select the node ...
+                        invalidate(workspaceName);
+                        return;
+                    }
+                    propertyNames.add(propertyName);
+                } else {
+                    // the node was added, removed or changed as a whole ...
+                    anyProperty = true;
+                }
+                nodeTypes.add(types);
+            } else {
+                invalidate(workspaceName);
+                return;
+            }
+        }
+        if (nodeTypes.isEmpty()) {
+            return;
+        }
+        for (Iterator<Map.Entry<ResultKey, CachedResult>> iter = results.asMap().entrySet().iterator(); iter.hasNext();) {
+            CachedResult cached = iter.next().getValue();
+            if ((cached.workspaceName.equals(workspaceName) || systemChange && cached.includesSystemContent)
+                && cached.isAffectedBy(nodeTypes, anyProperty ? null : propertyNames)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all the cached results of a workspace. If the workspace is the system workspace, the results of the other
+     * workspaces which include the system content are removed as well.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     */
+    public void invalidate( String workspaceName ) {
+        boolean systemChange = isSystemWorkspace(workspaceName);
+        advanceGeneration(workspaceName);
+        for (Iterator<CachedResult> iter = results.asMap().values().iterator(); iter.hasNext();) {
+            CachedResult cached = iter.next();
+            if (cached.workspaceName.equals(workspaceName) || systemChange && cached.includesSystemContent) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the approximate number of results held by this cache.
+     *
+     * @return the number of cached results
+     */
+    public long size() {
+        return results.estimatedSize();
+    }
+
+    /**
+     * Removes all the results from this cache.
+     */
+    public void clear() {
+        for (AtomicLong generation : generationsByWorkspaceName.values()) {
+            generation.incrementAndGet();
+        }
+        results.invalidateAll();
+    }
+
+    private void advanceGeneration( String workspaceName ) {
+        if (!isSystemWorkspace(workspaceName)) {
+            generationOf(workspaceName).incrementAndGet();
+            return;
+        }
+        // the queries of any workspace may include the system content ...
+        generationOf(workspaceName);
+        for (AtomicLong generation : generationsByWorkspaceName.values()) {
+            generation.incrementAndGet();
+        }
+    }
+
+    private static boolean isSystemWorkspace( String workspaceName ) {
+        return RepositoryConfiguration.SYSTEM_WORKSPACE_NAME.equals(workspaceName);
+    }
+
+    private AtomicLong generationOf( String workspaceName ) {
+        AtomicLong generation = generationsByWorkspaceName.get(workspaceName);
+        if (generation == null) {
+            AtomicLong newGeneration = new AtomicLong();
+            generation = generationsByWorkspaceName.putIfAbsent(workspaceName, newGeneration);
+            if (generation == null) {
+                generation = newGeneration;
+            }
+        }
+        return generation;
+    }
+
+    private void store( ResultKey resultKey,
+                        CachedResult result,
+                        long generation ) {
+        AtomicLong currentGeneration = generationOf(result.workspaceName);
+        if (currentGeneration.get() != generation) {
+            return;
+        }
+        results.put(resultKey, result);
+        if (currentGeneration.get() != generation) {
+            // the workspace was changed while the result was being cached ...
+            results.asMap().remove(resultKey, result);
+        }
+    }
+
+    private static boolean usesAsynchronousIndexes( QueryContext context,
+                                                    PlanNode plan ) {
+        // asynchronous indexes may not yet reflect the changes which invalidated the previous results ...
+        for (PlanNode index : plan.findAllAtOrBelow(Type.INDEX)) {
+            IndexPlan indexPlan = index.getProperty(Property.INDEX_SPECIFICATION, IndexPlan.class);
+            if (indexPlan == null || context.getIndexDefinitions() == null) {
+                continue;
+            }
+            IndexDefinition defn = context.getIndexDefinitions().getIndexDefinitions().get(indexPlan.getName());
+            if (defn != null && !defn.isSynchronous()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<Name> nodeTypeNamesSelectedBy( QueryCommand query,
+                                                      QueryContext context ) {
+        final NodeTypes nodeTypes = context.getNodeTypes();
+        final NameFactory names = context.getExecutionContext().getValueFactories().getNameFactory();
+        final Set<Name> nodeTypeNames = new HashSet<>();
+        final boolean[] anyNodeType = new boolean[] {nodeTypes == null};
+        Visitors.visitAll(query, new Visitors.AbstractVisitor() {
+            @Override
+            public void visit( AllNodes obj ) {
+                anyNodeType[0] = true;
+            }
+
+            @Override
+            public void visit( ChildCount obj ) {
+                // the number of children changes when children of any type are added or removed ...
+                anyNodeType[0] = true;
+            }
+
+            @Override
+            public void visit( NamedSelector obj ) {
+                if (anyNodeType[0]) {
+                    return;
+                }
+                Set<Name> subtypes = Collections.emptySet();
+                try {
+                    Name nodeTypeName = names.create(obj.getNodeTypeName());
+                    if (!JcrNtLexicon.BASE.equals(nodeTypeName)) {
+                        subtypes = nodeTypes.getAllSubtypes(nodeTypeName);
+                    }
+                } catch (ValueFormatException e) {
+                    // not a node type name ...
+                }
+                if (subtypes.isEmpty()) {
+                    // the selector is 'nt:base' or a view which may select nodes of any type ...
+                    anyNodeType[0] = true;
+                } else {
+                    nodeTypeNames.addAll(subtypes);
+                }
+            }
+        });
+        return anyNodeType[0] ? null : nodeTypeNames;
+    }
+
+    private static Set<Name> propertyNamesUsedBy( QueryCommand query,
+                                                  QueryContext context ) {
+        final NameFactory names = context.getExecutionContext().getValueFactories().getNameFactory();
+        final Set<Name> propertyNames = new HashSet<>();
+        final boolean[] anyProperty = new boolean[] {false};
+        Visitors.visitAll(query, new Visitors.AbstractVisitor() {
+            @Override
+            public void visit( PropertyValue obj ) {
+                add(obj.getPropertyName());
+            }
+
+            @Override
+            public void visit( PropertyExistence obj ) {
+                add(obj.getPropertyName());
+            }
+
+            @Override
+            public void visit( FullTextSearch obj ) {
+                add(obj.getPropertyName());
+            }
+
+            @Override
+            public void visit( ReferenceValue obj ) {
+                add(obj.getPropertyName());
+            }
+
+            @Override
+            public void visit( EquiJoinCondition obj ) {
+                add(obj.getProperty1Name());
+                add(obj.getProperty2Name());
+            }
+
+            private void add( String propertyName ) {
+                if (propertyName == null) {
+                    // e.g. a full-text search of all the properties ...
+                    anyProperty[0] = true;
+                    return;
+                }
+                try {
+                    propertyNames.add(names.create(propertyName));
+                } catch (ValueFormatException e) {
+                    anyProperty[0] = true;
+                }
+            }
+        });
+        return anyProperty[0] ? null : propertyNames;
+    }
+
+    /**
+     * The key of a cached result: the key of the plan of the query, which doesn't depend on the values of the variables, and
+     * a copy of these values.
+     */
+    @Immutable
+    private static final class ResultKey {
+        private final PlanKey planKey;
+        private final Map<String, Object> variables;
+
+        protected ResultKey( PlanKey planKey,
+                             Map<String, Object> variables ) {
+            this.planKey = planKey;
+            this.variables = variables != null ? new HashMap<>(variables) : null;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * planKey.hashCode() + Objects.hashCode(variables);
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof ResultKey) {
+                ResultKey that = (ResultKey)obj;
+                return this.planKey.equals(that.planKey) && Objects.equals(this.variables, that.variables);
+            }
+            return false;
+        }
+    }
+
+    @Immutable
+    private static final class CachedResult {
+        protected final String workspaceName;
+        protected final boolean includesSystemContent;
+        protected final int width;
+        protected final int rowCount;
+        protected final NodeKey[] keys;
+        protected final float[] scores;
+        // null if the query may select nodes of any type
+        private final Set<Name> nodeTypeNames;
+        // null if the query may use the values of any property
+        private final Set<Name> propertyNames;
+
+        protected CachedResult( String workspaceName,
+                                boolean includesSystemContent,
+                                int width,
+                                int rowCount,
+                                NodeKey[] keys,
+                                float[] scores,
+                                Set<Name> nodeTypeNames,
+                                Set<Name> propertyNames ) {
+            this.workspaceName = workspaceName;
+            this.includesSystemContent = includesSystemContent;
+            this.width = width;
+            this.rowCount = rowCount;
+            this.keys = keys;
+            this.scores = scores;
+            this.nodeTypeNames = nodeTypeNames;
+            this.propertyNames = propertyNames;
+        }
+
+        /**
+         * Determine whether changes to nodes of the given types may affect this result.
+         *
+         * @param changedNodeTypes the primary and mixin types of each changed node; may not be null
+         * @param changedPropertyNames the names of the changed properties, or null if nodes were added, removed or changed as a
+         *        whole
+         * @return true if this result may no longer be valid, or false otherwise
+         */
+        protected boolean isAffectedBy( List<Name[]> changedNodeTypes,
+                                        Set<Name> changedPropertyNames ) {
+            if (changedPropertyNames != null && propertyNames != null
+                && Collections.disjoint(changedPropertyNames, propertyNames)) {
+                // the values of the changed properties are only read from the nodes after the result is returned ...
+                return false;
+            }
+            if (nodeTypeNames == null) {
+                return true;
+            }
+            for (Name[] types : changedNodeTypes) {
+                for (Name type : types) {
+                    if (nodeTypeNames.contains(type)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A sequence that records the keys and the scores of the nodes in the rows of another sequence, and caches them once all
+     * the rows have been read.
+     */
+    private final class RecordingSequence extends DelegatingSequence {
+        private final ResultKey resultKey;
+        private final String workspaceName;
+        private final boolean includesSystemContent;
+        private final Set<Name> nodeTypeNames;
+        private final Set<Name> propertyNames;
+        private final long generation;
+        private final int width;
+        private NodeKey[] keys;
+        private float[] scores;
+        private int rowCount;
+        private boolean recording = true;
+        private Batch current;
+
+        protected RecordingSequence( NodeSequence delegate,
+                                     ResultKey resultKey,
+                                     String workspaceName,
+                                     boolean includesSystemContent,
+                                     Set<Name> nodeTypeNames,
+                                     Set<Name> propertyNames,
+                                     long generation ) {
+            super(delegate);
+            this.resultKey = resultKey;
+            this.workspaceName = workspaceName;
+            this.includesSystemContent = includesSystemContent;
+            this.nodeTypeNames = nodeTypeNames;
+            this.propertyNames = propertyNames;
+            this.generation = generation;
+            this.width = delegate.width();
+            int capacity = width * BATCH_SIZE;
+            this.keys = new NodeKey[capacity];
+            this.scores = new float[capacity];
+        }
+
+        @Override
+        public Batch nextBatch() {
+            if (current != null && current.hasNext()) {
+                // the rest of the previous batch was skipped ...
+                stopRecording();
+            }
+            final Batch batch = super.nextBatch();
+            current = batch;
+            if (batch == null) {
+                if (recording) {
+                    recording = false;
+                    int size = rowCount * width;
+                    store(resultKey, new CachedResult(workspaceName, includesSystemContent, width, rowCount,
+                                                    Arrays.copyOf(keys, size), Arrays.copyOf(scores, size), nodeTypeNames,
+                                                    propertyNames), generation);
+                    keys = null;
+                    scores = null;
+                }
+                return null;
+            }
+            if (!recording) {
+                return batch;
+            }
+            return new Batch() {
+                @Override
+                public int width() {
+                    return batch.width();
+                }
+
+                @Override
+                public long rowCount() {
+                    return batch.rowCount();
+                }
+
+                @Override
+                public boolean isEmpty() {
+                    return batch.isEmpty();
+                }
+
+                @Override
+                public String getWorkspaceName() {
+                    return batch.getWorkspaceName();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return batch.hasNext();
+                }
+
+                @Override
+                public void nextRow() {
+                    batch.nextRow();
+                    record(batch);
+                }
+
+                @Override
+                public CachedNode getNode() {
+                    return batch.getNode();
+                }
+
+                @Override
+                public CachedNode getNode( int index ) {
+                    return batch.getNode(index);
+                }
+
+                @Override
+                public float getScore() {
+                    return batch.getScore();
+                }
+
+                @Override
+                public float getScore( int index ) {
+                    return batch.getScore(index);
+                }
+
+                @Override
+                public String toString() {
+                    return batch.toString();
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            // the rows were not completely read ...
+            stopRecording();
+            super.close();
+        }
+
+        protected void record( Batch batch ) {
+            if (!recording) {
+                return;
+            }
+            if (rowCount == MAX_ROWS || !workspaceName.equals(batch.getWorkspaceName())) {
+                stopRecording();
+                return;
+            }
+            int offset = rowCount * width;
+            if (offset + width > keys.length) {
+                int capacity = Math.min(keys.length * 2, MAX_ROWS * width);
+                keys = Arrays.copyOf(keys, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            for (int i = 0; i != width; ++i) {
+                CachedNode node = batch.getNode(i);
+                keys[offset + i] = node != null ? node.getKey() : null;
+                scores[offset + i] = batch.getScore(i);
+            }
+            ++rowCount;
+        }
+
+        private void stopRecording() {
+            recording = false;
+            keys = null;
+            scores = null;
+        }
+
+        @Override
+        public String toString() {
+            return "(recording " + delegate + ")";
+        }
+    }
+
+    /**
+     * A sequence over the rows of a cached result, which loads the nodes from the node cache of the session executing the query.
+     */
+    private static final class CachedRows extends NodeSequence {
+        private final CachedResult result;
+        private final NodeCache cache;
+        private int nextRow;
+
+        protected CachedRows( CachedResult result,
+                              NodeCache cache ) {
+            this.result = result;
+            this.cache = cache;
+        }
+
+        @Override
+        public int width() {
+            return result.width;
+        }
+
+        @Override
+        public long getRowCount() {
+            // rows whose nodes no longer exist are skipped ...
+            return -1L;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return result.rowCount == 0;
+        }
+
+        @Override
+        public Batch nextBatch() {
+            if (nextRow >= result.rowCount) {
+                return null;
+            }
+            final int first = nextRow;
+            final int last = Math.min(first + BATCH_SIZE, result.rowCount);
+            nextRow = last;
+            return new Batch() {
+                private CachedNode[] nodes = new CachedNode[result.width];
+                private CachedNode[] nextNodes = new CachedNode[result.width];
+                private int row = first - 1;
+                private int next = -1;
+
+                @Override
+                public int width() {
+                    return result.width;
+                }
+
+                @Override
+                public long rowCount() {
+                    return -1L;
+                }
+
+                @Override
+                public boolean isEmpty() {
+                    return !hasNext();
+                }
+
+                @Override
+                public String getWorkspaceName() {
+                    return result.workspaceName;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    if (next < 0) {
+                        next = row + 1;
+                        while (next < last && !load(next)) {
+                            ++next;
+                        }
+                    }
+                    return next < last;
+                }
+
+                @Override
+                public void nextRow() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    row = next;
+                    next = -1;
+                    CachedNode[] loaded = nextNodes;
+                    nextNodes = nodes;
+                    nodes = loaded;
+                }
+
+                @Override
+                public CachedNode getNode() {
+                    return getNode(0);
+                }
+
+                @Override
+                public CachedNode getNode( int index ) {
+                    if (row < first) {
+                        throw new NoSuchElementException();
+                    }
+                    return nodes[index];
+                }
+
+                @Override
+                public float getScore() {
+                    return getScore(0);
+                }
+
+                @Override
+                public float getScore( int index ) {
+                    if (index < 0 || index >= result.width) {
+                        throw new IndexOutOfBoundsException();
+                    }
+                    return nodes[index] != null ? result.scores[row * result.width + index] : 0.0f;
+                }
+
+                private boolean load( int candidate ) {
+                    int offset = candidate * result.width;
+                    for (int i = 0; i != result.width; ++i) {
+                        NodeKey key = result.keys[offset + i];
+                        CachedNode node = key != null ? cache.getNode(key) : null;
+                        if (key != null && node == null) {
+                            // the node was removed after the result was cached ...
+                            return false;
+                        }
+                        nextNodes[i] = node;
+                    }
+                    return true;
+                }
+
+                @Override
+                public String toString() {
+                    return "(cached-batch rows=" + first + "-" + last + ")";
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            nextRow = result.rowCount;
+        }
+
+        @Override
+        public String toString() {
+            return "(cached-rows width=" + result.width + " rows=" + result.rowCount + ")";
+        }
+    }
+}
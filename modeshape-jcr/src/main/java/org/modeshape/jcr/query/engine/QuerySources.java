@@ -19,10 +19,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import javax.jcr.query.qom.Constraint;
 import javax.jcr.query.qom.JoinCondition;
 import org.modeshape.jcr.JcrLexicon;
@@ -37,6 +39,8 @@ import org.modeshape.jcr.cache.document.NodeCacheIterator;
 import org.modeshape.jcr.cache.document.NodeCacheIterator.NodeFilter;
 import org.modeshape.jcr.query.NodeSequence;
 import org.modeshape.jcr.query.NodeSequence.Batch;
+import org.modeshape.jcr.query.NodeSequence.RowFilter;
+import org.modeshape.jcr.query.engine.process.ParallelScanSequence;
 import org.modeshape.jcr.spi.index.Index;
 import org.modeshape.jcr.spi.index.IndexConstraints;
 import org.modeshape.jcr.spi.index.provider.Filter;
@@ -52,6 +56,17 @@ import org.modeshape.jcr.value.ValueFactories;
  */
 public class QuerySources {
 
+    /**
+     * The number of partitions per scanning thread into which the workspace content is split, so that threads which finish
+     * reading small partitions can continue with other partitions.
+     */
+    private static final int PARTITIONS_PER_SCAN_THREAD = 4;
+
+    /**
+     * The maximum number of partitions into which the workspace content is split.
+     */
+    private static final int MAX_SCAN_PARTITIONS = 1024;
+
     protected final RepositoryCache repo;
     protected final String workspaceName;
     protected final String systemWorkspaceName;
@@ -59,6 +74,8 @@ public class QuerySources {
     protected final NodeFilter queryableFilter;
     protected final NodeFilter queryableAndNonSystemFilter;
     protected final NodeTypes nodeTypes;
+    protected final ExecutorService scanExecutor;
+    protected final int scanParallelism;
 
     /**
      * Construct a new instance.
@@ -72,10 +89,33 @@ public class QuerySources {
                          final NodeTypes nodeTypes,
                          String workspaceName,
                          boolean includeSystemContent ) {
+        this(repository, nodeTypes, workspaceName, includeSystemContent, null, 1);
+    }
+
+    /**
+     * Construct a new instance which scans the workspace content using several threads at the same time.
+     *
+     * @param repository the repository cache; may not be null
+     * @param nodeTypes the node types cache; may not be null
+     * @param workspaceName the name of the main workspace to be queried; may not be null
+     * @param includeSystemContent true if the system content is to be included in the query results, or false otherwise
+     * @param scanExecutor the executor used to scan the workspace content; may be null if the content should be scanned by the
+     *        thread executing the query
+     * @param scanParallelism the maximum number of threads which scan the workspace content for one query; must be positive
+     */
+    public QuerySources( RepositoryCache repository,
+                         final NodeTypes nodeTypes,
+                         String workspaceName,
+                         boolean includeSystemContent,
+                         ExecutorService scanExecutor,
+                         int scanParallelism ) {
         assert repository != null;
         assert nodeTypes != null;
         assert workspaceName != null;
+        assert scanParallelism > 0;
         this.repo = repository;
+        this.scanExecutor = scanExecutor;
+        this.scanParallelism = scanParallelism;
         this.nodeTypes = nodeTypes;
         this.workspaceName = workspaceName;
         this.includeSystemContent = includeSystemContent;
@@ -144,6 +184,15 @@ public class QuerySources {
         return workspaceName;
     }
 
+    /**
+     * Determine whether the workspace content is scanned by several threads at the same time.
+     *
+     * @return true if {@link #allNodes(float, long, RowFilter)} scans the content in parallel, or false otherwise
+     */
+    public boolean scansInParallel() {
+        return scanExecutor != null && scanParallelism > 1;
+    }
+
     /**
      * Obtain a {@link NodeSequence} that returns all (queryable) nodes in the workspace, where each node is assigned the given
      * score.
@@ -163,6 +212,71 @@ public class QuerySources {
         return NodeSequence.withBatch(mainBatch);
     }
 
+    /**
+     * Obtain a {@link NodeSequence} that returns all (queryable) nodes in the workspace which satisfy the given filter, where
+     * each node is assigned the given score. If this instance {@link #scansInParallel() scans in parallel}, the workspace content
+     * is split into several partitions (the subtrees below the first levels of the workspace) which are read and filtered by
+     * several threads at the same time, and the nodes are returned in no particular order.
+     *
+     * @param score the score for each node
+     * @param nodeCount the number of nodes (or an estimate) that will be returned
+     * @param filter the filter that the nodes must satisfy; may be null if all the nodes should be returned
+     * @return the sequence of nodes; never null
+     */
+    public NodeSequence allNodes( float score,
+                                  long nodeCount,
+                                  RowFilter filter ) {
+        if (!scansInParallel()) {
+            return NodeSequence.filter(allNodes(score, nodeCount), filter);
+        }
+        NodeFilter nodeFilterForWorkspace = nodeFilterForWorkspace(workspaceName);
+        if (nodeFilterForWorkspace == null) return NodeSequence.emptySequence(1);
+        // the same shared nodes filter is used for all the partitions, so that the shared nodes still appear only once ...
+        NodeFilter compositeFilter = new CompositeNodeFilter(nodeFilterForWorkspace, sharedNodesFilter());
+        NodeCache cache = repo.getWorkspaceCache(workspaceName);
+
+        // Split the first levels of the workspace until there are enough subtrees for all the threads ...
+        List<NodeKey> splitNodes = new ArrayList<>();
+        List<NodeKey> subtrees = Collections.singletonList(cache.getRootKey());
+        int targetPartitions = Math.min(scanParallelism * PARTITIONS_PER_SCAN_THREAD, MAX_SCAN_PARTITIONS);
+        while (subtrees.size() < targetPartitions) {
+            // check the size of the next level before splitting, since the shared nodes filter records the nodes it sees ...
+            long childCount = 0L;
+            for (NodeKey key : subtrees) {
+                CachedNode node = cache.getNode(key);
+                if (node != null) childCount += node.getChildReferences(cache).size();
+            }
+            if (childCount == 0L || childCount > MAX_SCAN_PARTITIONS) break;
+            List<NodeKey> nextLevel = new ArrayList<>((int)childCount);
+            for (NodeKey key : subtrees) {
+                CachedNode node = cache.getNode(key);
+                if (node == null) continue;
+                // same as the NodeCacheIterator: the children of included nodes are always processed ...
+                if (compositeFilter.includeNode(node, cache)) {
+                    splitNodes.add(key);
+                } else if (!compositeFilter.continueProcessingChildren(node, cache)) {
+                    continue;
+                }
+                Iterator<NodeKey> children = node.getChildReferences(cache).getAllKeys();
+                while (children.hasNext()) {
+                    nextLevel.add(children.next());
+                }
+            }
+            subtrees = nextLevel;
+        }
+
+        List<Batch> partitions = new ArrayList<>(subtrees.size() + 1);
+        if (!splitNodes.isEmpty()) {
+            partitions.add(NodeSequence.batchOfKeys(splitNodes, score, workspaceName, repo));
+        }
+        for (NodeKey key : subtrees) {
+            NodeCacheIterator iter = new NodeCacheIterator(cache, key, compositeFilter);
+            partitions.add(NodeSequence.batchOfKeys(iter, -1L, score, workspaceName, repo));
+        }
+        return new ParallelScanSequence(workspaceName, partitions, scanExecutor, scanParallelism, filter, score,
+                                        ParallelScanSequence.DEFAULT_BATCH_SIZE);
+    }
+
     /**
      * Obtain a {@link NodeSequence} that returns the (queryable) node at the given path in the workspace, where the node is
      * assigned the given score.
@@ -477,19 +591,15 @@ public class QuerySources {
      */
     protected NodeFilter sharedNodesFilter() {
         return new NodeFilter() {
-            private final Set<NodeKey> shareableNodeKeys = new HashSet<>();
+            // the filter may be used by several threads scanning different partitions of the same workspace
+            private final Set<NodeKey> shareableNodeKeys = ConcurrentHashMap.newKeySet();
 
             @Override
             public boolean includeNode( CachedNode node,
                                         NodeCache cache ) {
                 if (nodeTypes.isShareable(node.getPrimaryType(cache), node.getMixinTypes(cache))) {
-                    NodeKey key = node.getKey();
-                    if (shareableNodeKeys.contains(key)) {
-                        return false;
-                    }
-                    // we're seeing the original shareable node, so we need to process it
-                    shareableNodeKeys.add(key);
-                    return true;
+                    // we only process the shareable node the first time we see it
+                    return shareableNodeKeys.add(node.getKey());
                 }
                 return true;
             }
@@ -20,6 +20,7 @@ import org.modeshape.common.collection.Problems;
 import org.modeshape.common.collection.SimpleProblems;
 import org.modeshape.jcr.cache.CachedNodeSupplier;
 import org.modeshape.jcr.query.NodeSequence;
+import org.modeshape.jcr.query.QueryMemory;
 import org.modeshape.jcr.query.model.Column;
 import org.modeshape.jcr.query.model.TypeSystem;
 
@@ -38,6 +39,7 @@ public class Results implements org.modeshape.jcr.query.QueryResults {
     private final Statistics statistics;
     private final String plan;
     private final CachedNodeSupplier cachedNodes;
+    private final QueryMemory memory;
 
     /**
      * Create an empty results object.
@@ -49,6 +51,7 @@ public class Results implements org.modeshape.jcr.query.QueryResults {
         this.plan = null;
         this.rows = NodeSequence.emptySequence(0);
         this.cachedNodes = null;
+        this.memory = null;
     }
 
     /**
@@ -67,6 +70,27 @@ public class Results implements org.modeshape.jcr.query.QueryResults {
                     CachedNodeSupplier cachedNodes,
                     Problems problems,
                     String plan ) {
+        this(columns, statistics, rows, cachedNodes, problems, plan, null);
+    }
+
+    /**
+     * Create a results object for the supplied context, command, and result columns and with the supplied tuples.
+     * 
+     * @param columns the definition of the query result columns
+     * @param statistics the statistics for this query; may not be null
+     * @param rows the sequence of rows; may not be null
+     * @param cachedNodes the supplier for obtaining cached nodes; may not be null
+     * @param problems the problems; may be null if there are no problems
+     * @param plan the text representation of the query plan, if the hints asked for it
+     * @param memory the accounting of the bytes buffered by the query while its rows are read; may be null
+     */
+    public Results( Columns columns,
+                    Statistics statistics,
+                    NodeSequence rows,
+                    CachedNodeSupplier cachedNodes,
+                    Problems problems,
+                    String plan,
+                    QueryMemory memory ) {
         assert columns != null;
         assert statistics != null;
         assert rows != null;
@@ -77,6 +101,7 @@ public class Results implements org.modeshape.jcr.query.QueryResults {
         this.plan = plan;
         this.rows = rows;
         this.cachedNodes = cachedNodes;
+        this.memory = memory;
     }
 
     @Override
@@ -126,7 +151,9 @@ public class Results implements org.modeshape.jcr.query.QueryResults {
 
     @Override
     public Statistics getStatistics() {
-        return statistics;
+        if (memory == null) return statistics;
+        // most rows are buffered lazily, while they are read ...
+        return statistics.withBufferedBytes(memory.getPeakBytes()).withSpilledBytes(memory.getSpilledBytes());
     }
 
     @Override
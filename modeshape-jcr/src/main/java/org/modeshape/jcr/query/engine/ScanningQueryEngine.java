@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 import javax.jcr.RepositoryException;
 import javax.jcr.Value;
@@ -34,6 +35,7 @@ import javax.jcr.query.qom.BindVariableValue;
 import javax.jcr.query.qom.StaticOperand;
 import org.modeshape.common.SystemFailureException;
 import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.annotation.NotThreadSafe;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.collection.ArrayListMultimap;
 import org.modeshape.common.collection.Multimap;
@@ -45,6 +47,7 @@ import org.modeshape.jcr.GraphI18n;
 import org.modeshape.jcr.JcrI18n;
 import org.modeshape.jcr.NodeTypes;
 import org.modeshape.jcr.RepositoryIndexes;
+import org.modeshape.jcr.RepositoryStatistics;
 import org.modeshape.jcr.api.query.QueryCancelledException;
 import org.modeshape.jcr.api.query.qom.Operator;
 import org.modeshape.jcr.cache.CachedNode;
@@ -62,6 +65,8 @@ import org.modeshape.jcr.query.PseudoColumns;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryEngine;
 import org.modeshape.jcr.query.QueryEngineBuilder;
+import org.modeshape.jcr.query.QueryMemory;
+import org.modeshape.jcr.query.QueryPlanCache;
 import org.modeshape.jcr.query.QueryResults;
 import org.modeshape.jcr.query.QueryResults.Columns;
 import org.modeshape.jcr.query.QueryResults.Statistics;
@@ -163,32 +168,146 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
 
         @Override
         public QueryEngine build() {
-            return new ScanningQueryEngine(context(), repositoryName(), planner(), optimizer());
+            return new ScanningQueryEngine(context(), repositoryName(), planner(), optimizer(), settings());
         }
 
         @Override
         protected Optimizer defaultOptimizer() {
             return new RuleBasedOptimizer();
         }
+
+        protected Settings settings() {
+            return new Settings().withPlanCache(planCache())
+                                 .withScanExecutor(scanExecutor(), scanParallelism())
+                                 .withMemoryBudget(memoryBudget())
+                                 .withStatistics(statistics())
+                                 .withResultCache(resultCache());
+        }
     }
 
     public static Builder builder() {
         return new Builder();
     }
 
+    /**
+     * The optional settings of a query engine. Each setting which isn't specified is left disabled.
+     */
+    @NotThreadSafe
+    public static final class Settings {
+        private QueryPlanCache planCache;
+        private ExecutorService scanExecutor;
+        private int scanParallelism = 1;
+        private long memoryBudget;
+        private RepositoryStatistics statistics;
+        private QueryResultCache resultCache;
+
+        /**
+         * Use a cache of parsed queries and optimized plans.
+         *
+         * @param planCache the plan cache; may be null if the plans should not be cached
+         * @return these settings; never null
+         */
+        public Settings withPlanCache( QueryPlanCache planCache ) {
+            this.planCache = planCache;
+            return this;
+        }
+
+        /**
+         * Scan the workspace content of each query with several threads.
+         *
+         * @param scanExecutor the executor used to scan the workspace content in parallel; may be null if the content is always
+         *        scanned by the thread executing the query
+         * @param scanParallelism the maximum number of threads that may scan the workspace content for a single query
+         * @return these settings; never null
+         */
+        public Settings withScanExecutor( ExecutorService scanExecutor,
+                                          int scanParallelism ) {
+            this.scanExecutor = scanExecutor;
+            this.scanParallelism = scanParallelism;
+            return this;
+        }
+
+        /**
+         * Limit the memory used by the rows which each query buffers.
+         *
+         * @param memoryBudget the maximum number of bytes of buffered rows that each query may keep in memory, or a non-positive
+         *        value if the memory of the queries is not limited
+         * @return these settings; never null
+         */
+        public Settings withMemoryBudget( long memoryBudget ) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * Record the bytes buffered by the queries in the repository statistics.
+         *
+         * @param statistics the repository statistics; may be null
+         * @return these settings; never null
+         */
+        public Settings withStatistics( RepositoryStatistics statistics ) {
+            this.statistics = statistics;
+            return this;
+        }
+
+        /**
+         * Use a cache of query results, which is only used together with a {@link #withPlanCache plan cache} whose keys are also
+         * the keys of the cached results.
+         *
+         * @param resultCache the result cache; may be null if the results should not be cached
+         * @return these settings; never null
+         */
+        public Settings withResultCache( QueryResultCache resultCache ) {
+            this.resultCache = resultCache;
+            return this;
+        }
+    }
+
     protected final String repositoryName;
     protected final Planner planner;
     protected final Optimizer optimizer;
+    protected final QueryPlanCache planCache;
+    protected final ExecutionContext context;
+    protected final ExecutorService scanExecutor;
+    protected final int scanParallelism;
+    protected final long memoryBudget;
+    protected final RepositoryStatistics statistics;
+    protected final QueryResultCache resultCache;
 
     public ScanningQueryEngine( ExecutionContext context,
                                 String repositoryName,
                                 Planner planner,
                                 Optimizer optimizer ) {
+        this(context, repositoryName, planner, optimizer, new Settings());
+    }
+
+    /**
+     * Create a new query engine.
+     *
+     * @param context the repository's execution context; may not be null
+     * @param repositoryName the name of the repository
+     * @param planner the planner; may not be null
+     * @param optimizer the optimizer; may not be null
+     * @param settings the optional settings of the engine; may not be null
+     */
+    public ScanningQueryEngine( ExecutionContext context,
+                                String repositoryName,
+                                Planner planner,
+                                Optimizer optimizer,
+                                Settings settings ) {
         assert planner != null;
         assert optimizer != null;
+        assert settings != null;
+        this.context = context;
         this.repositoryName = repositoryName;
         this.planner = planner;
         this.optimizer = optimizer;
+        this.planCache = settings.planCache;
+        this.scanExecutor = settings.scanExecutor;
+        this.scanParallelism = scanExecutor != null ? settings.scanParallelism : 1;
+        this.memoryBudget = settings.memoryBudget;
+        this.statistics = settings.statistics;
+        this.resultCache = planCache != null ? settings.resultCache : null;
     }
 
     /**
@@ -227,9 +346,13 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                          context.getWorkspaceNames(), repositoryName, query, context.id());
         }
 
+        // Reuse the prepared plan of an equivalent query, if there is one ...
+        QueryPlanCache.PlanKey planKey = planCache != null ? planCache.planKey(context, query) : null;
+        PlanNode cachedPlan = planCache != null ? planCache.preparedPlan(planKey, context) : null;
+
         // Create the canonical plan ...
         long start = System.nanoTime();
-        PlanNode plan = planner.createPlan(context, query);
+        PlanNode plan = cachedPlan != null ? cachedPlan : planner.createPlan(context, query);
         long duration = Math.abs(System.nanoTime() - start);
         Statistics stats = new Statistics(duration);
         final String workspaceName = context.getWorkspaceNames().iterator().next();
@@ -243,7 +366,18 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
         if (!context.getProblems().hasErrors()) {
             // Optimize the plan ...
             start = System.nanoTime();
-            PlanNode optimizedPlan = optimizer.optimize(context, plan);
+            PlanNode optimizedPlan;
+            if (planCache == null) {
+                optimizedPlan = optimizer.optimize(context, plan);
+            } else {
+                PlanNode preparedPlan = plan;
+                if (cachedPlan == null) {
+                    preparedPlan = optimizer.prepare(context, plan);
+                    planCache.putPreparedPlan(planKey, context, preparedPlan);
+                }
+                // the optimizations which depend on the values of the variables are applied each time ...
+                optimizedPlan = optimizer.bind(context, preparedPlan);
+            }
             duration = Math.abs(System.nanoTime() - start);
             stats = stats.withOptimizationTime(duration);
 
@@ -322,7 +456,7 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                     if (trace) {
                         LOGGER.trace("Start executing query {0}", context.id());
                     }
-                    QueryResults results = executeOptimizedQuery(context, query, stats, optimizedPlan);
+                    QueryResults results = executeOptimizedQuery(context, query, stats, optimizedPlan, planKey);
                     if (trace) {
                         LOGGER.trace("Stopped executing query {0}: {1}", context.id(), stats);
                     }
@@ -450,7 +584,9 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
 
     @Override
     public void shutdown() {
-        // nothing to do
+        if (scanExecutor != null) {
+            context.releaseThreadPool(scanExecutor);
+        }
     }
 
     @Override
@@ -466,7 +602,7 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                                             Map<String, Object> variables ) {
         return new ScanQueryContext(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata,
                                     indexDefns, nodeTypes, bufferManager, hints, null, variables,
-                                    new HashMap<PlanNode, Columns>());
+                                    new HashMap<PlanNode, Columns>(), new QueryMemory(memoryBudget, statistics));
     }
 
     /**
@@ -482,6 +618,25 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                                                   QueryCommand command,
                                                   Statistics statistics,
                                                   PlanNode plan ) {
+        return executeOptimizedQuery(context, command, statistics, plan, null);
+    }
+
+    /**
+     * Execute the optimized query defined by the supplied {@link PlanNode plan node}, reusing the result cached for an identical
+     * query if there is one.
+     *
+     * @param context the context in which the query is to be executed; may not be null
+     * @param command the original query; may not be null
+     * @param statistics the statistics for the current query execution
+     * @param plan the optimized plan for the query; may not be null
+     * @param planKey the key under which the plan of the query is cached; may be null if the results should not be cached
+     * @return the query results; never null but possibly empty
+     */
+    protected QueryResults executeOptimizedQuery( final ScanQueryContext context,
+                                                  QueryCommand command,
+                                                  Statistics statistics,
+                                                  PlanNode plan,
+                                                  QueryPlanCache.PlanKey planKey ) {
         long nanos = System.nanoTime();
         Columns columns = null;
         NodeSequence rows = null;
@@ -495,15 +650,24 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
             assert columns != null;
 
             boolean trace = LOGGER.isTraceEnabled();
+            NodeSequence cachedRows = resultCache != null ? resultCache.rows(planKey, context) : null;
             if (context.getHints().planOnly) {
                 if (trace) {
                     LOGGER.trace("Request for only query plan when executing query {0}", context.id());
                 }
                 rows = NodeSequence.emptySequence(columns.getColumns().size());
+            } else if (cachedRows != null) {
+                if (trace) {
+                    LOGGER.trace("Reusing the cached result when executing query {0}", context.id());
+                }
+                rows = cachedRows;
             } else {
+                long generation = resultCache != null ? resultCache.generation(workspaceName) : 0L;
                 boolean includeSystemContent = context.getHints().includeSystemContent;
                 final QuerySources sources = new QuerySources(context.getRepositoryCache(), context.getNodeTypes(),
-                                                              workspaceName, includeSystemContent);
+                                                              workspaceName, includeSystemContent,
+                                                              scansInParallel(context, workspaceName) ? scanExecutor : null,
+                                                              scanParallelism);
                 rows = createNodeSequence(command, context, plan, columns, sources);
                 long nanos2 = System.nanoTime();
                 statistics = statistics.withResultsFormulationTime(Math.abs(nanos2 - nanos));
@@ -512,6 +676,8 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                     // There must have been an error or was cancelled ...
                     assert context.getProblems().hasErrors() || context.isCancelled();
                     rows = NodeSequence.emptySequence(columns.getColumns().size());
+                } else if (resultCache != null) {
+                    rows = resultCache.recording(planKey, context, command, plan, rows, generation);
                 }
                 if (trace) {
                     LOGGER.trace("The execution function for {0}: {1}", context.id(), rows);
@@ -522,7 +688,7 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
         }
         final String planDesc = context.getHints().showPlan ? plan.getString() : null;
         CachedNodeSupplier cachedNodes = context.getNodeCache(workspaceName);
-        return new Results(columns, statistics, rows, cachedNodes, context.getProblems(), planDesc);
+        return new Results(columns, statistics, rows, cachedNodes, context.getProblems(), planDesc, context.getMemory());
     }
 
     /**
@@ -634,6 +800,7 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                         // rows = new NestedLoopJoinComponent(context, left, right, joinCondition, joinType);
                         // break;
                     case MERGE:
+                    case HASH:
                         if (joinCondition instanceof SameNodeJoinCondition) {
                             SameNodeJoinCondition condition = (SameNodeJoinCondition)joinCondition;
                             // check if the JOIN was not reversed by an optimization
@@ -755,8 +922,12 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                     if (!rightType.equals(commonType)) rightExtractor = RowExtractors.convert(rightExtractor, commonType);
                 }
 
+                QueryMemory memory = context.getMemory();
+                if (memory.isLimited()) {
+                    plan.setProperty(Property.JOIN_MEMORY_BUDGET, memory.getBudget());
+                }
                 rows = new HashJoinSequence(workspaceName, left, right, leftExtractor, rightExtractor, joinType,
-                                            context.getBufferManager(), cache, rangeProducer, pack, useHeap);
+                                            context.getBufferManager(), cache, rangeProducer, pack, useHeap, memory);
                 // For each Constraint object applied to the JOIN, simply create a SelectComponent on top ...
                 RowFilter filter = null;
                 List<Constraint> constraints = plan.getPropertyAsList(Property.JOIN_CONSTRAINTS, Constraint.class);
@@ -795,8 +966,27 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                 rows = createNodeSequence(originalQuery, context, child, columns, sources);
                 break;
             case SELECT:
-                // Create the sequence for the plan node under the SELECT ...
                 assert plan.getChildCount() == 1;
+                if (sources.scansInParallel() && (plan.getParent() == null || plan.getParent().getType() != Type.SELECT)) {
+                    // Apply the criteria of all the SELECT nodes directly above a source while the nodes are scanned ...
+                    PlanNode criteriaNode = plan;
+                    RowFilter criteriaFilter = null;
+                    while (criteriaNode.getType() == Type.SELECT) {
+                        Constraint criteria = criteriaNode.getProperty(Property.SELECT_CRITERIA, Constraint.class);
+                        RowFilter criteriaNodeFilter = createRowFilter(criteria, context, columns, sources);
+                        if (criteriaNodeFilter != null) {
+                            criteriaFilter = criteriaFilter == null ? criteriaNodeFilter : NodeSequence.requireBoth(
+                                    criteriaNodeFilter, criteriaFilter);
+                        }
+                        criteriaNode = criteriaNode.getFirstChild();
+                    }
+                    if (criteriaNode.getType() == Type.SOURCE) {
+                        rows = createNodeSequenceForSource(originalQuery, context, criteriaNode, columns, sources,
+                                                           criteriaFilter);
+                        break;
+                    }
+                }
+                // Create the sequence for the plan node under the SELECT ...
                 rows = createNodeSequence(originalQuery, context, plan.getFirstChild(), columns, sources);
                 Constraint constraint = plan.getProperty(Property.SELECT_CRITERIA, Constraint.class);
                 filter = createRowFilter(constraint, context, columns, sources);
@@ -923,7 +1113,7 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                         // Now create the sorting sequence ...
                         if (sortExtractor != null) {
                             rows = new SortingSequence(workspaceName, rows, sortExtractor, bufferManager, cache, pack, useHeap,
-                                                       allowDuplicates, nullOrder);
+                                                       allowDuplicates, nullOrder, firstRowsNeeded(plan), context.getMemory());
                         }
                     }
                 }
@@ -938,6 +1128,22 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
         return rows;
     }
 
+    /**
+     * Determine the number of first rows of a SORT node which are needed by the LIMIT node directly above it.
+     *
+     * @param sortNode the {@link Type#SORT} plan node; may not be null
+     * @return the number of rows, or 0 if all the rows are needed or if too many rows are needed to keep them in memory
+     */
+    protected int firstRowsNeeded( PlanNode sortNode ) {
+        PlanNode parent = sortNode.getParent();
+        if (parent == null || parent.getType() != Type.LIMIT) return 0;
+        Integer rowLimit = parent.getProperty(Property.LIMIT_COUNT, Integer.class);
+        if (rowLimit == null) return 0;
+        Integer offset = parent.getProperty(Property.LIMIT_OFFSET, Integer.class);
+        long firstRows = rowLimit.longValue() + (offset != null ? offset.longValue() : 0L);
+        return firstRows > 0L && firstRows <= SortingSequence.MAX_TOP_N_ROWS ? (int)firstRows : 0;
+    }
+
     /**
      * Create a node sequence for the given source.
      * 
@@ -953,6 +1159,28 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                                                         PlanNode sourceNode,
                                                         Columns columns,
                                                         QuerySources sources ) {
+        return createNodeSequenceForSource(originalQuery, context, sourceNode, columns, sources, null);
+    }
+
+    /**
+     * Create a node sequence for the given source, containing only the nodes which satisfy the supplied filter. When no index
+     * can be used, the filter is applied while the workspace content is {@link QuerySources#allNodes(float, long, RowFilter)
+     * scanned}.
+     *
+     * @param originalQuery the original query command; may not be null
+     * @param context the context in which the query is to be executed; may not be null
+     * @param sourceNode the {@link Type#SOURCE} plan node for one part of a query; may not be null
+     * @param columns the result column definition; may not be null
+     * @param sources the query sources for the repository; may not be null
+     * @param filter the filter for the nodes of the source; may be null if all the nodes should be returned
+     * @return the sequence of results; null only if the type of plan is not understood
+     */
+    protected NodeSequence createNodeSequenceForSource( QueryCommand originalQuery,
+                                                        QueryContext context,
+                                                        PlanNode sourceNode,
+                                                        Columns columns,
+                                                        QuerySources sources,
+                                                        RowFilter filter ) {
         // The indexes should already be in the correct order, from lowest cost to highest cost ...
         for (PlanNode indexNode : sourceNode.getChildren()) {
             if (indexNode.getType() != Type.INDEX) continue;
@@ -961,7 +1189,7 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
             if (sequence != null) {
                 // Mark the index as being used ...
                 indexNode.setProperty(Property.INDEX_USED, Boolean.TRUE);
-                return sequence;
+                return NodeSequence.filter(sequence, filter);
             }
             // Otherwise, keep looking for an index ...
             LOGGER.debug("Skipping disabled index '{0}' from provider '{1}' in workspace(s) {2} for query: {3}", index.getName(),
@@ -969,7 +1197,22 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
         }
 
         // Grab all of the nodes ...
-        return sources.allNodes(1.0f, -1);
+        return sources.allNodes(1.0f, -1, filter);
+    }
+
+    /**
+     * Determine whether the workspace content can be scanned in parallel for the supplied query. Only the nodes which have been
+     * persisted can be scanned in parallel, since the session-specific node caches used by some queries cannot be shared between
+     * threads.
+     *
+     * @param context the context in which the query is to be executed; may not be null
+     * @param workspaceName the name of the queried workspace; may not be null
+     * @return true if the content can be scanned in parallel, or false if it must be scanned by the calling thread
+     */
+    protected boolean scansInParallel( QueryContext context,
+                                       String workspaceName ) {
+        return scanExecutor != null && context.getNodeCache(workspaceName) == context.getRepositoryCache().getWorkspaceCache(
+                                                                                                                 workspaceName);
     }
 
     /**
@@ -3031,6 +3274,7 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
     static class ScanQueryContext extends QueryContext {
 
         protected final Map<PlanNode, Columns> columnsByPlanNode;
+        protected final QueryMemory memory;
 
         protected ScanQueryContext( ExecutionContext context,
                                     RepositoryCache repositoryCache,
@@ -3043,10 +3287,21 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                                     PlanHints hints,
                                     Problems problems,
                                     Map<String, Object> variables,
-                                    Map<PlanNode, Columns> columnsByPlanNode ) {
+                                    Map<PlanNode, Columns> columnsByPlanNode,
+                                    QueryMemory memory ) {
             super(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata, indexDefns, nodeTypes,
                   bufferManager, hints, problems, variables);
             this.columnsByPlanNode = columnsByPlanNode;
+            this.memory = memory;
+        }
+
+        /**
+         * Get the accounting of the memory used by the buffered rows of this query.
+         *
+         * @return the memory accounting; never null
+         */
+        public QueryMemory getMemory() {
+            return memory;
         }
 
         /**
@@ -3073,25 +3328,29 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
         @Override
         public ScanQueryContext with( Map<String, Object> variables ) {
             return new ScanQueryContext(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata,
-                                        indexDefns, nodeTypes, bufferManager, hints, problems, variables, columnsByPlanNode);
+                                        indexDefns, nodeTypes, bufferManager, hints, problems, variables, columnsByPlanNode,
+                                        memory);
         }
 
         @Override
         public ScanQueryContext with( PlanHints hints ) {
             return new ScanQueryContext(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata,
-                                        indexDefns, nodeTypes, bufferManager, hints, problems, variables, columnsByPlanNode);
+                                        indexDefns, nodeTypes, bufferManager, hints, problems, variables, columnsByPlanNode,
+                                        memory);
         }
 
         @Override
         public ScanQueryContext with( Problems problems ) {
             return new ScanQueryContext(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata,
-                                        indexDefns, nodeTypes, bufferManager, hints, problems, variables, columnsByPlanNode);
+                                        indexDefns, nodeTypes, bufferManager, hints, problems, variables, columnsByPlanNode,
+                                        memory);
         }
 
         @Override
         public ScanQueryContext with( Schemata schemata ) {
             return new ScanQueryContext(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata,
-                                        indexDefns, nodeTypes, bufferManager, hints, problems, variables, columnsByPlanNode);
+                                        indexDefns, nodeTypes, bufferManager, hints, problems, variables, columnsByPlanNode,
+                                        memory);
         }
     }
 }
@@ -320,6 +320,22 @@ public class BufferedRows {
         return new MultiNodeRowSerializer(nodeCache, width);
     }
 
+    /**
+     * Compute the number of bytes used to serialize the supplied row, which is the number of bytes of memory used by the row when
+     * it is stored in a buffer.
+     *
+     * @param row the row; may not be null
+     * @return the number of bytes
+     */
+    public static long serializedSize( RowAccessor row ) {
+        long size = 0L;
+        for (int i = 0; i != row.width(); ++i) {
+            // the key is written as modified UTF-8 (2 bytes of length, and 1 byte for each ASCII character) and the score as a float
+            size += 2 + serializeNodeKey(row.getNode(i)).length() + 4;
+        }
+        return size;
+    }
+
     protected static String serializeNodeKey( CachedNode node ) {
         return node != null ? node.getKey().toString() : "";
     }
@@ -15,6 +15,7 @@
  */
 package org.modeshape.jcr.query.engine.process;
 
+import java.math.BigDecimal;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -26,9 +27,13 @@ import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.CachedNodeSupplier;
 import org.modeshape.jcr.query.BufferManager;
 import org.modeshape.jcr.query.BufferManager.DistinctBuffer;
+import org.modeshape.jcr.query.BufferManager.QueueBuffer;
+import org.modeshape.jcr.query.BufferManager.SortingBuffer;
 import org.modeshape.jcr.query.NodeSequence;
+import org.modeshape.jcr.query.QueryMemory;
 import org.modeshape.jcr.query.RowExtractors.ExtractFromRow;
 import org.modeshape.jcr.query.engine.process.BufferedRows.BufferedRow;
+import org.modeshape.jcr.query.engine.process.BufferedRows.BufferedRowFactory;
 import org.modeshape.jcr.query.model.JoinType;
 import org.modeshape.jcr.query.model.TypeSystem.TypeFactory;
 
@@ -36,17 +41,35 @@ import org.modeshape.jcr.query.model.TypeSystem.TypeFactory;
  * A {@link NodeSequence} implementation that performs an equijoin of two delegate sequences. The hash-join algorithm loads all
  * values on the right side into a buffer that hashes the right join condition value of each row. Then, it iterates through all
  * tuples on the left side and finds which of the values on the right have a matching join condition value.
+ * <p>
+ * When the bytes of the rows on the right side exceed the memory budget of the query, the inner equijoins become hybrid hash
+ * joins: the right rows which no longer fit in memory are partitioned by the hash of their join condition value into temporary
+ * files, the left rows are matched with the right rows kept in memory and are also written to the files of their partitions,
+ * and finally each pair of partitions is joined in turn. The rows of such joins are not returned in the order of the left rows.
+ * Other joins keep all the right rows in a single buffer, whose bytes are only accounted.
+ * </p>
  *
  * @author Randall Hauch (rhauch@redhat.com)
  */
 @NotThreadSafe
 public class HashJoinSequence extends JoinSequence {
 
+    /**
+     * The number of partitions into which the right and left rows are written once the memory budget is exceeded.
+     */
+    protected static final int SPILL_PARTITIONS = 16;
+
     protected final DistinctBuffer<Object> rightMatchedRowKeys;
     protected final DistinctBuffer<BufferedRow> rightRowsWithNullKey;
     protected final RangeProducer<Object> rangeProducer;
+    protected final QueryMemory memory;
+    private final BufferManager bufferMgr;
+    private final boolean useHeap;
+    private final BufferedRowFactory<? extends BufferedRow> leftRowFactory;
+    private long reservedBytes;
+    private boolean budgetExceeded;
+    private Partition[] partitions;
 
-    @SuppressWarnings( "unchecked" )
     public HashJoinSequence( String workspaceName,
                              NodeSequence left,
                              NodeSequence right,
@@ -58,8 +81,46 @@ public class HashJoinSequence extends JoinSequence {
                              RangeProducer<?> rangeProducer,
                              boolean pack,
                              boolean useHeap ) {
+        this(workspaceName, left, right, leftExtractor, rightExtractor, joinType, bufferMgr, nodeCache, rangeProducer, pack,
+             useHeap, null);
+    }
+
+    /**
+     * Create a hash join which respects the memory budget of the query.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @param left the left side of the join; may not be null
+     * @param right the right side of the join, whose rows are buffered; may not be null
+     * @param leftExtractor the extractor of the join condition value of the left rows; may not be null
+     * @param rightExtractor the extractor of the join condition value of the right rows; may not be null
+     * @param joinType the type of join; may not be null
+     * @param bufferMgr the manager of the buffers; may not be null
+     * @param nodeCache the cache used to find the nodes of the buffered rows; may not be null
+     * @param rangeProducer the producer of the ranges of right values matching each left value; may be null if the left and
+     *        right values must be equal
+     * @param pack true if the buffer keys should be packed, or false otherwise
+     * @param useHeap true if the right rows kept in memory should be stored on the heap, or false otherwise
+     * @param memory the memory accounting of the query; may be null if the memory used by the join is not limited
+     */
+    @SuppressWarnings( "unchecked" )
+    public HashJoinSequence( String workspaceName,
+                             NodeSequence left,
+                             NodeSequence right,
+                             ExtractFromRow leftExtractor,
+                             ExtractFromRow rightExtractor,
+                             JoinType joinType,
+                             BufferManager bufferMgr,
+                             CachedNodeSupplier nodeCache,
+                             RangeProducer<?> rangeProducer,
+                             boolean pack,
+                             boolean useHeap,
+                             QueryMemory memory ) {
         super(workspaceName, left, right, leftExtractor, rightExtractor, joinType, bufferMgr, nodeCache, pack, useHeap, true);
         this.rangeProducer = (RangeProducer<Object>)rangeProducer;
+        this.memory = memory;
+        this.bufferMgr = bufferMgr;
+        this.useHeap = useHeap;
+        this.leftRowFactory = BufferedRows.serializer(nodeCache, leftWidth);
         if (useNonMatchingRightRows()) {
             TypeFactory<?> keyType = rightExtractor.getType();
             Serializer<?> keySerializer = bufferMgr.serializerFor(keyType);
@@ -76,7 +137,7 @@ public class HashJoinSequence extends JoinSequence {
     @Override
     protected BatchFactory initialize() {
         // Load all of the right sequence into the buffer ...
-        int firstBatchSize = loadAll(delegate, extractor, rightRowsWithNullKey);
+        long firstBatchSize = canSpill() ? loadWithinBudget() : loadAll(delegate, extractor, rightRowsWithNullKey);
         if (firstBatchSize == 0) {
             // No rows were found on the right, so see if we need to return any nodes ...
             switch (joinType) {
@@ -103,11 +164,117 @@ public class HashJoinSequence extends JoinSequence {
             case LEFT_OUTER:
             case INNER:
             default:
+                if (partitions != null) {
+                    // Some of the right rows didn't fit in memory and were partitioned ...
+                    return new HybridHashJoinBatchFactory();
+                }
                 // We always try to match left and right rows, but possibly also include unmatched right rows ...
                 return rangeProducer != null ? new HashJoinRangeBatchFactory() : new HashJoinBatchFactory();
         }
     }
 
+    /**
+     * Determine whether the right rows which exceed the memory budget of the query can be partitioned. This is only possible for
+     * inner equijoins, since the left rows of other joins would have to be matched with all the right rows at once.
+     *
+     * @return true if the right rows can be partitioned, or false otherwise
+     */
+    protected boolean canSpill() {
+        return memory != null && memory.isLimited() && joinType == JoinType.INNER && rangeProducer == null;
+    }
+
+    @Override
+    protected BufferedRow createRow( Batch currentRow ) {
+        BufferedRow row = super.createRow(currentRow);
+        if (memory != null) {
+            // these rows are always kept in memory, so they are only accounted ...
+            long size = BufferedRows.serializedSize(row);
+            reservedBytes += size;
+            if (!memory.reserve(size) && !budgetExceeded) {
+                budgetExceeded = true;
+                logger.debug("The rows of {0} exceed the memory budget of the query: {1}", this, memory);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Load the right rows into the buffer until the memory budget of the query is exceeded, and then write the remaining right
+     * rows into the partitions.
+     *
+     * @return the number of right rows which can match left rows
+     */
+    protected long loadWithinBudget() {
+        long rowCount = 0L;
+        Batch batch = delegate.nextBatch();
+        while (batch != null) {
+            while (batch.hasNext()) {
+                batch.nextRow();
+                Object value = extractor.getValueInRow(batch);
+                if (value == null) {
+                    // a NULL value never matches any left row of an inner join ...
+                    continue;
+                }
+                ++rowCount;
+                BufferedRow row = rowFactory.createRow(batch);
+                long size = BufferedRows.serializedSize(row);
+                Object[] values = value instanceof Object[] ? (Object[])value : new Object[] {value};
+                if (partitions == null && memory.tryReserve(size * values.length)) {
+                    reservedBytes += size * values.length;
+                    for (Object v : values) {
+                        if (v != null) buffer.put(v, row);
+                    }
+                    continue;
+                }
+                if (partitions == null) {
+                    logger.debug("Partitioning the right rows of {0}, which exceed the memory budget of the query: {1}", this,
+                                 memory);
+                    partitions = new Partition[SPILL_PARTITIONS];
+                }
+                // write the row into the partition of each of its values ...
+                int partitionMask = partitionMaskOf(values);
+                for (int p = 0; p != SPILL_PARTITIONS; ++p) {
+                    if ((partitionMask & (1 << p)) == 0) continue;
+                    if (partitions[p] == null) partitions[p] = new Partition();
+                    partitions[p].addRight(row, size);
+                }
+            }
+            batch = delegate.nextBatch();
+        }
+        return rowCount;
+    }
+
+    protected static int partitionOf( Object value ) {
+        // decimals which are equal may have different scales and therefore different hash codes ...
+        int hash = value instanceof BigDecimal ? ((BigDecimal)value).stripTrailingZeros().hashCode() : value.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % SPILL_PARTITIONS;
+    }
+
+    protected static int partitionMaskOf( Object[] values ) {
+        int mask = 0;
+        for (Object value : values) {
+            if (value != null) mask |= 1 << partitionOf(value);
+        }
+        return mask;
+    }
+
+    @SuppressWarnings( {"unchecked", "rawtypes"} )
+    private SortingBuffer<Object, BufferedRow> createPartitionTable( boolean inMemory ) {
+        TypeFactory<?> keyType = extractor.getType();
+        Serializer<? extends Comparable> keySerializer = (Serializer<? extends Comparable<?>>)bufferMgr.serializerFor(keyType);
+        return bufferMgr.createSortingWithDuplicatesBuffer(keySerializer, keyType.getComparator(),
+                                                           (BufferedRowFactory<BufferedRow>)rowFactory).keepSize(true)
+                        .useHeap(useHeap).useDisk(!inMemory).make();
+    }
+
+    private void releaseMemory() {
+        if (memory != null && reservedBytes != 0L) {
+            memory.release(reservedBytes);
+            reservedBytes = 0L;
+        }
+    }
+
     protected Iterator<BufferedRow> allRightRows() {
         if (rightRowsWithNullKey != null) {
             return SequentialIterator.create(rightRowsWithNullKey.iterator(), buffer.ascending());
@@ -125,8 +292,17 @@ public class HashJoinSequence extends JoinSequence {
                     rightMatchedRowKeys.close();
                 }
             } finally {
-                if (rightRowsWithNullKey != null) {
-                    rightRowsWithNullKey.close();
+                try {
+                    if (rightRowsWithNullKey != null) {
+                        rightRowsWithNullKey.close();
+                    }
+                } finally {
+                    if (partitions != null) {
+                        for (Partition partition : partitions) {
+                            if (partition != null) partition.close();
+                        }
+                    }
+                    releaseMemory();
                 }
             }
         }
@@ -135,7 +311,239 @@ public class HashJoinSequence extends JoinSequence {
     @Override
     public String toString() {
         return "(hash-join width=" + width() + " " + joinType + " left=" + left + ", right=" + delegate + ", on " + leftExtractor
-               + "=" + extractor + " )";
+               + "=" + extractor + (memory != null ? " " + memory : "") + (partitions != null ? " partitioned" : "") + " )";
+    }
+
+    /**
+     * The right and left rows whose join condition values have the same hash, written into temporary files.
+     */
+    protected final class Partition {
+        private QueueBuffer<BufferedRow> rightRows;
+        private QueueBuffer<BufferedRow> leftRows;
+        private long rightBytes;
+        private SortingBuffer<Object, BufferedRow> table;
+        private long tableBytes;
+
+        @SuppressWarnings( "unchecked" )
+        protected void addRight( BufferedRow row,
+                                 long size ) {
+            if (rightRows == null) {
+                Serializer<BufferedRow> serializer = (Serializer<BufferedRow>)rowFactory;
+                rightRows = bufferMgr.createQueueBuffer(serializer).useDisk(true).make();
+            }
+            rightRows.append(row);
+            rightBytes += size;
+            memory.spilled(size);
+        }
+
+        @SuppressWarnings( "unchecked" )
+        protected void addLeft( Batch leftRow ) {
+            if (leftRows == null) {
+                Serializer<BufferedRow> serializer = (Serializer<BufferedRow>)leftRowFactory;
+                leftRows = bufferMgr.createQueueBuffer(serializer).useDisk(true).make();
+            }
+            BufferedRow row = leftRowFactory.createRow(leftRow);
+            leftRows.append(row);
+            memory.spilled(BufferedRows.serializedSize(row));
+        }
+
+        protected boolean hasLeftRows() {
+            return leftRows != null;
+        }
+
+        protected SortingBuffer<Object, BufferedRow> loadTable( int partitionIndex ) {
+            // the table is kept in memory only if the partition fits in the memory budget of the query ...
+            boolean inMemory = memory.tryReserve(rightBytes);
+            tableBytes = inMemory ? rightBytes : 0L;
+            table = createPartitionTable(inMemory);
+            for (BufferedRow row : rightRows) {
+                Object value = extractor.getValueInRow(row);
+                Object[] values = value instanceof Object[] ? (Object[])value : new Object[] {value};
+                for (Object v : values) {
+                    // only the values in this partition are used, since the row is also in the partitions of its other values
+                    if (v != null && partitionOf(v) == partitionIndex) table.put(v, row);
+                }
+            }
+            return table;
+        }
+
+        protected Iterator<BufferedRow> leftRows() {
+            return leftRows.iterator();
+        }
+
+        protected void close() {
+            try {
+                if (table != null) {
+                    table.close();
+                    memory.release(tableBytes);
+                    table = null;
+                }
+            } finally {
+                try {
+                    if (rightRows != null) rightRows.close();
+                } finally {
+                    if (leftRows != null) leftRows.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A {@link BatchFactory} for hybrid hash joins, which first matches the left rows with the right rows kept in memory, and
+     * then matches the left and right rows of each partition.
+     */
+    protected class HybridHashJoinBatchFactory implements BatchFactory {
+        private boolean leftRowsRead;
+        private int partitionIndex = -1;
+        private Iterator<BufferedRow> partitionLeftRows;
+
+        @Override
+        public Batch nextBatch() {
+            if (!leftRowsRead) {
+                Batch leftBatch = findNextNonEmptyLeftBatch();
+                if (leftBatch != null) {
+                    currentLeft = null; // reset ...
+                    return new SpillingHashJoinBatch(leftBatch);
+                }
+                // All of the left rows were read, so the right rows in memory are no longer needed ...
+                leftRowsRead = true;
+                buffer.close();
+                releaseMemory();
+            }
+            while (true) {
+                if (partitionLeftRows != null && partitionLeftRows.hasNext()) {
+                    return new PartitionJoinBatch(new PartitionRowsBatch(partitionLeftRows, batchSize), partitionIndex);
+                }
+                if (partitionIndex >= 0 && partitions[partitionIndex] != null) {
+                    // We're done with this partition ...
+                    partitions[partitionIndex].close();
+                    partitions[partitionIndex] = null;
+                }
+                partitionLeftRows = null;
+                if (++partitionIndex == SPILL_PARTITIONS) return null; // we're done!
+                Partition partition = partitions[partitionIndex];
+                if (partition == null || !partition.hasLeftRows()) {
+                    // Without left rows (or right rows), nothing in this partition matches ...
+                    continue;
+                }
+                partition.loadTable(partitionIndex);
+                partitionLeftRows = partition.leftRows();
+            }
+        }
+    }
+
+    /**
+     * A batch that matches the left rows with the right rows kept in memory, and writes each left row into the partitions of its
+     * values which have right rows.
+     */
+    protected class SpillingHashJoinBatch extends HashJoinBatch {
+        protected SpillingHashJoinBatch( Batch currentLeft ) {
+            super(currentLeft);
+        }
+
+        @Override
+        protected void leftRowRead( Batch leftRow,
+                                    Object leftValue ) {
+            if (leftValue == null) return;
+            Object[] values = leftValue instanceof Object[] ? (Object[])leftValue : new Object[] {leftValue};
+            int partitionMask = partitionMaskOf(values);
+            for (int p = 0; p != SPILL_PARTITIONS; ++p) {
+                if ((partitionMask & (1 << p)) != 0 && partitions[p] != null) {
+                    partitions[p].addLeft(leftRow);
+                }
+            }
+        }
+    }
+
+    /**
+     * A batch that matches the left rows of a partition with the right rows of the same partition.
+     */
+    protected class PartitionJoinBatch extends HashJoinBatch {
+        private final int partitionIndex;
+        private final SortingBuffer<Object, BufferedRow> table;
+
+        protected PartitionJoinBatch( Batch currentLeft,
+                                      int partitionIndex ) {
+            super(currentLeft);
+            this.partitionIndex = partitionIndex;
+            this.table = partitions[partitionIndex].table;
+        }
+
+        @Override
+        protected Iterator<BufferedRow> getRightRowsFor( Object leftValue ) {
+            if (leftValue == null || partitionOf(leftValue) != partitionIndex) {
+                // The matches of the values in other partitions are found when those partitions are joined ...
+                return null;
+            }
+            return table.getAll(leftValue);
+        }
+    }
+
+    /**
+     * A batch over some of the left rows of a partition.
+     */
+    protected class PartitionRowsBatch implements Batch {
+        private final Iterator<BufferedRow> rows;
+        private final int maxSize;
+        private BufferedRow current;
+        private int count = 0;
+
+        protected PartitionRowsBatch( Iterator<BufferedRow> rows,
+                                      int maxSize ) {
+            this.rows = rows;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int width() {
+            return leftWidth;
+        }
+
+        @Override
+        public String getWorkspaceName() {
+            return workspaceName;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        public long rowCount() {
+            return -1; // don't really know how many ...
+        }
+
+        @Override
+        public boolean hasNext() {
+            return count < maxSize && rows.hasNext();
+        }
+
+        @Override
+        public void nextRow() {
+            current = rows.next();
+            ++count;
+        }
+
+        @Override
+        public CachedNode getNode() {
+            return current.getNode();
+        }
+
+        @Override
+        public CachedNode getNode( int index ) {
+            return current.getNode(index);
+        }
+
+        @Override
+        public float getScore() {
+            return current.getScore();
+        }
+
+        @Override
+        public float getScore( int index ) {
+            return current.getScore(index);
+        }
     }
 
     protected class HashJoinBatchFactory implements BatchFactory {
@@ -215,6 +623,7 @@ public class HashJoinSequence extends JoinSequence {
             while (currentLeft.hasNext()) {
                 currentLeft.nextRow();
                 Object matchingValue = leftExtractor.getValueInRow(currentLeft);
+                leftRowRead(currentLeft, matchingValue);
                 rightMatchingRows = getAllRightRowsFor(matchingValue);
                 if (rightMatchingRows != null && rightMatchingRows.hasNext()) {
                     // Found a match which will be recorded when we go through the right matching rows...
@@ -255,6 +664,11 @@ public class HashJoinSequence extends JoinSequence {
             return buffer.getAll(leftValue);
         }
 
+        protected void leftRowRead( Batch leftRow,
+                                    Object leftValue ) {
+            // nothing to do by default
+        }
+
         protected void recordRightRowsMatched( Object rightKey ) {
             if (rightMatchedRowKeys != null) {
                 // We only record the non-null values, since NULL never matches and they will always be unmatched ...
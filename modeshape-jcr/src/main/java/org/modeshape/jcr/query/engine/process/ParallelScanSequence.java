@@ -0,0 +1,280 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.engine.process;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.modeshape.common.SystemFailureException;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.query.NodeSequence;
+
+/**
+ * A {@link NodeSequence} that reads several partitions of single-width batches at the same time, using a limited number of
+ * threads from an {@link ExecutorService}. Each thread applies the {@link RowFilter} to the rows of a partition and hands over the
+ * rows which satisfy the filter in small batches, which are returned by this sequence in the order in which they are completed.
+ * The order of the rows is therefore not preserved.
+ * <p>
+ * The partitions are only read when the first batch of this sequence is requested. The number of completed batches waiting to be
+ * consumed is bounded, so the threads stop reading partitions while the consumer is slower, and stop completely once this sequence
+ * is {@link #close() closed}. A consumer which stops reading without closing this sequence doesn't hold the threads for long:
+ * when a batch cannot be handed over within {@value #HAND_OVER_TIMEOUT_MILLIS} milliseconds, the threads stop and leave the rows
+ * they haven't handed over to the thread of the consumer, which reads them (and the remaining partitions) sequentially if it
+ * resumes.
+ * </p>
+ *
+ * @since 5.5
+ */
+public class ParallelScanSequence extends NodeSequence {
+
+    /**
+     * The default maximum number of rows in each batch returned by this sequence.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final long OFFER_TIMEOUT_MILLIS = 100L;
+    private static final long HAND_OVER_TIMEOUT_MILLIS = 10000L;
+
+    private final String workspaceName;
+    private final Queue<Batch> partitions;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final RowFilter filter;
+    private final float score;
+    private final int batchSize;
+    private final long handOverTimeoutMillis;
+    private final BlockingQueue<Batch> completed;
+    // the filtered rows which were left by the threads when they stopped because the consumer wasn't reading
+    private final Queue<Batch> leftovers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger runningWorkers = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean closed;
+    private volatile boolean workersStopped;
+    private boolean started;
+    private boolean sequential;
+    private boolean finished;
+
+    /**
+     * Create a new sequence.
+     *
+     * @param workspaceName the name of the workspace in which all the nodes exist; may not be null
+     * @param partitions the single-width batches which can be read independently of each other; may not be null
+     * @param executor the executor whose threads read the partitions; may not be null
+     * @param parallelism the maximum number of partitions which are read at the same time; must be positive
+     * @param filter the filter that the rows must satisfy; may be null if all the rows should be returned
+     * @param score the score of all the rows
+     * @param batchSize the maximum number of rows in each batch returned by this sequence; must be positive
+     */
+    public ParallelScanSequence( String workspaceName,
+                                 Collection<Batch> partitions,
+                                 ExecutorService executor,
+                                 int parallelism,
+                                 RowFilter filter,
+                                 float score,
+                                 int batchSize ) {
+        this(workspaceName, partitions, executor, parallelism, filter, score, batchSize, HAND_OVER_TIMEOUT_MILLIS);
+    }
+
+    protected ParallelScanSequence( String workspaceName,
+                                    Collection<Batch> partitions,
+                                    ExecutorService executor,
+                                    int parallelism,
+                                    RowFilter filter,
+                                    float score,
+                                    int batchSize,
+                                    long handOverTimeoutMillis ) {
+        assert parallelism > 0;
+        assert batchSize > 0;
+        this.workspaceName = workspaceName;
+        this.partitions = new ConcurrentLinkedQueue<>(partitions);
+        this.executor = executor;
+        this.parallelism = Math.min(parallelism, Math.max(partitions.size(), 1));
+        this.filter = filter;
+        this.score = score;
+        this.batchSize = batchSize;
+        this.handOverTimeoutMillis = handOverTimeoutMillis;
+        this.completed = new ArrayBlockingQueue<>(this.parallelism * 4);
+    }
+
+    @Override
+    public int width() {
+        return 1;
+    }
+
+    @Override
+    public long getRowCount() {
+        return -1L;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return partitions.isEmpty() && !started;
+    }
+
+    @Override
+    public Batch nextBatch() {
+        if (finished) {
+            return null;
+        }
+        if (!started) {
+            started = true;
+            start();
+        }
+        if (sequential) {
+            return nextSequentialBatch();
+        }
+        try {
+            while (true) {
+                Batch batch = completed.poll(OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    return batch;
+                }
+                if (runningWorkers.get() == 0 && completed.isEmpty()) {
+                    // all the workers have finished and all their batches were consumed ...
+                    rethrowFailure();
+                    // so read whatever they left, if they were stopped ...
+                    sequential = true;
+                    return nextSequentialBatch();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        finished = true;
+        completed.clear();
+    }
+
+    private void start() {
+        for (int i = 0; i != parallelism; ++i) {
+            runningWorkers.incrementAndGet();
+            try {
+                executor.execute(this::readPartitions);
+            } catch (RejectedExecutionException e) {
+                runningWorkers.decrementAndGet();
+                // the executor is shutting down, so any partitions not read by the started threads are read by this thread ...
+                sequential = i == 0;
+                return;
+            }
+        }
+    }
+
+    private Batch nextSequentialBatch() {
+        Batch leftover;
+        while ((leftover = leftovers.poll()) != null) {
+            if (leftover.hasNext()) {
+                return leftover;
+            }
+        }
+        Batch partition;
+        while ((partition = partitions.poll()) != null) {
+            Batch filtered = NodeSequence.batchFilteredWith(partition, filter);
+            if (filtered.hasNext()) {
+                return filtered;
+            }
+        }
+        finished = true;
+        return null;
+    }
+
+    private void readPartitions() {
+        try {
+            Batch partition;
+            while (!closed && !workersStopped && (partition = partitions.poll()) != null) {
+                Batch filtered = NodeSequence.batchFilteredWith(partition, filter);
+                List<CachedNode> nodes = new ArrayList<>(batchSize);
+                while (!closed && filtered.hasNext()) {
+                    filtered.nextRow();
+                    nodes.add(filtered.getNode());
+                    if (nodes.size() == batchSize) {
+                        if (!handOver(nodes, filtered)) {
+                            return;
+                        }
+                        nodes = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!nodes.isEmpty() && !handOver(nodes, filtered)) {
+                    return;
+                }
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+            closed = true;
+        } finally {
+            runningWorkers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Hand over a batch of filtered rows to the consumer, waiting for a limited time if the consumer is slower.
+     *
+     * @param nodes the filtered rows; may not be null
+     * @param rest the rest of the filtered partition from which the rows were read; may not be null
+     * @return true if the thread should continue reading, or false if it should stop
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private boolean handOver( List<CachedNode> nodes,
+                              Batch rest ) throws InterruptedException {
+        Batch batch = NodeSequence.batchOf(nodes, score, workspaceName);
+        long deadline = System.currentTimeMillis() + handOverTimeoutMillis;
+        while (!closed) {
+            if (completed.offer(batch, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                // the consumer isn't reading anymore, so don't keep the thread (and make the other threads stop as well) ...
+                leftovers.add(batch);
+                leftovers.add(rest);
+                workersStopped = true;
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void rethrowFailure() {
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException)t;
+        }
+        if (t instanceof Error) {
+            throw (Error)t;
+        }
+        if (t != null) {
+            throw new SystemFailureException(t);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "(parallel-scan width=1 parallelism=" + parallelism + " filter=" + filter + ")";
+    }
+}
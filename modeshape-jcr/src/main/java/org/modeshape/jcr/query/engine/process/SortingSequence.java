@@ -15,28 +15,66 @@
  */
 package org.modeshape.jcr.query.engine.process;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import org.mapdb.Serializer;
 import org.modeshape.common.collection.SequentialIterator;
 import org.modeshape.jcr.cache.CachedNodeSupplier;
 import org.modeshape.jcr.query.BufferManager;
 import org.modeshape.jcr.query.BufferManager.DistinctBuffer;
+import org.modeshape.jcr.query.BufferManager.QueueBuffer;
 import org.modeshape.jcr.query.NodeSequence;
+import org.modeshape.jcr.query.QueryMemory;
 import org.modeshape.jcr.query.RowExtractors.ExtractFromRow;
 import org.modeshape.jcr.query.engine.process.BufferedRows.BufferedRow;
 import org.modeshape.jcr.query.model.NullOrder;
 
 /**
+ * A {@link NodeSequence} that returns the rows of its delegate in ascending order of the extracted key.
+ * <p>
+ * When only the first rows are needed (e.g., because of a LIMIT above the sort), only those rows are kept in memory while the
+ * delegate is read. When the memory of the query is limited, the rows are sorted in memory until the budget is exceeded, after
+ * which the sorted rows are written into a temporary file as a run; the runs are then merged as the rows are returned.
+ * Otherwise, all the rows are placed in a single sorting buffer.
+ * </p>
+ *
  * @author Randall Hauch (rhauch@redhat.com)
  */
 public class SortingSequence extends BufferingSequence {
 
+    /**
+     * The largest number of first rows which are sorted in memory; if more rows are needed, all the rows are sorted.
+     */
+    public static final int MAX_TOP_N_ROWS = 10000;
+
+    /**
+     * The estimated number of bytes used by the key and the bookkeeping of each row sorted in memory.
+     */
+    private static final long ENTRY_BYTES = 64L;
+
     private final DistinctBuffer<BufferedRow> rowsWithNullKey;
     private final NullOrder nullOrder;
+    private final BufferManager bufferMgr;
+    private final boolean allowDuplicates;
+    private final int topN;
+    private final QueryMemory memory;
+    private final Comparator<SortEntry> comparator;
+    private final List<QueueBuffer<SortEntry>> runs = new ArrayList<>();
+    private List<SortEntry> sortedEntries;
+    private long sortedRowCount = -1L;
+    private long reservedBytes;
     private Iterator<BufferedRow> bufferedRows;
     private int batchSize = 0;
 
-    @SuppressWarnings( {"unchecked"} )
     public SortingSequence( String workspaceName,
                             NodeSequence delegate,
                             ExtractFromRow extractor,
@@ -46,8 +84,46 @@ public class SortingSequence extends BufferingSequence {
                             boolean useHeap,
                             boolean allowDuplicates,
                             NullOrder nullOrder ) {
+        this(workspaceName, delegate, extractor, bufferMgr, nodeCache, pack, useHeap, allowDuplicates, nullOrder, 0, null);
+    }
+
+    /**
+     * Create a sorting sequence.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @param delegate the sequence whose rows are sorted; may not be null
+     * @param extractor the extractor of the key of the rows; may not be null
+     * @param bufferMgr the manager of the buffers; may not be null
+     * @param nodeCache the cache used to find the nodes of the buffered rows; may not be null
+     * @param pack true if the buffer keys should be packed, or false otherwise
+     * @param useHeap true if the buffered rows should be stored on the heap, or false otherwise
+     * @param allowDuplicates true if several rows may have the same key, or false if only one row should be returned for each
+     *        key
+     * @param nullOrder the position of the rows with a null key; may be null if the keys are never null
+     * @param topN the number of first rows which are needed, or 0 if all the rows are needed
+     * @param memory the memory accounting of the query; may be null if the memory used by the sort is not limited
+     */
+    @SuppressWarnings( {"unchecked"} )
+    public SortingSequence( String workspaceName,
+                            NodeSequence delegate,
+                            ExtractFromRow extractor,
+                            BufferManager bufferMgr,
+                            CachedNodeSupplier nodeCache,
+                            boolean pack,
+                            boolean useHeap,
+                            boolean allowDuplicates,
+                            NullOrder nullOrder,
+                            int topN,
+                            QueryMemory memory ) {
         super(workspaceName, delegate, extractor, bufferMgr, nodeCache, pack, useHeap, allowDuplicates);
+        assert topN >= 0;
         this.nullOrder = nullOrder;
+        this.bufferMgr = bufferMgr;
+        this.allowDuplicates = allowDuplicates;
+        this.topN = topN;
+        this.memory = memory;
+        this.comparator = entryComparator((Comparator<Object>)extractor.getType().getComparator(),
+                                          nullOrder != NullOrder.NULLS_LAST);
         // Create the buffer into which we'll place the rows with null keys ...
         Serializer<BufferedRow> rowSerializer = (Serializer<BufferedRow>)BufferedRows.serializer(nodeCache, width);
         rowsWithNullKey = bufferMgr.createDistinctBuffer(rowSerializer).keepSize(true).useHeap(useHeap).make();
@@ -58,7 +134,12 @@ public class SortingSequence extends BufferingSequence {
         if (bufferedRows == null) {
             bufferedRows = initialize();
         }
-        return super.rowCount() + rowsWithNullKey.size();
+        return rowCount() + rowsWithNullKey.size();
+    }
+
+    @Override
+    protected long rowCount() {
+        return sortedRowCount >= 0L ? sortedRowCount : super.rowCount();
     }
 
     @Override
@@ -82,36 +163,325 @@ public class SortingSequence extends BufferingSequence {
      * @return the iterator over the buffered rows in this sequence; may be null if this sequence is empty
      */
     protected Iterator<BufferedRow> initialize() {
+        if (topN > 0 && allowDuplicates) {
+            // Only the first rows are needed, so keep only those ...
+            return loadFirstRows();
+        }
+        if (memory != null && memory.isLimited() && allowDuplicates) {
+            // Sort the rows in runs which fit in memory ...
+            return loadRuns();
+        }
         // Load everthing into the buffer ...
         batchSize = loadAll(delegate, extractor, rowsWithNullKey);
         remainingRowCount.set(buffer.size() + rowsWithNullKey.size());
         // We always return the buffered rows in ascending order of the extracted key ...
+        return withRowsWithNullKey(buffer.ascending());
+    }
+
+    protected Iterator<BufferedRow> withRowsWithNullKey( Iterator<BufferedRow> sortedRows ) {
         if (rowsWithNullKey.isEmpty()) {
-            return buffer.ascending();
+            return sortedRows;
         }
         // Return the rows with NULL first ...
         assert nullOrder != null;
         switch (nullOrder) {
             case NULLS_FIRST:
-                return SequentialIterator.create(rowsWithNullKey.iterator(), buffer.ascending());
+                return SequentialIterator.create(rowsWithNullKey.iterator(), sortedRows);
             case NULLS_LAST:
-                return SequentialIterator.create(buffer.ascending(), rowsWithNullKey.iterator());
+                return SequentialIterator.create(sortedRows, rowsWithNullKey.iterator());
         }
         assert false;
         return null;
     }
 
+    /**
+     * Read all the rows of the delegate, but keep in memory only the {@link #topN first rows}.
+     *
+     * @return the iterator over the first rows in ascending order; never null
+     */
+    protected Iterator<BufferedRow> loadFirstRows() {
+        // The head of the queue is the last of the first rows found so far ...
+        PriorityQueue<SortEntry> firstEntries = new PriorityQueue<>(Math.min(topN, 1024) + 1,
+                                                                    Collections.reverseOrder(comparator));
+        long sequence = 0L;
+        Batch batch = delegate.nextBatch();
+        boolean firstBatchCounted = false;
+        while (batch != null) {
+            while (batch.hasNext()) {
+                batch.nextRow();
+                Object value = extractor.getValueInRow(batch);
+                BufferedRow row = null;
+                for (Object v : valuesOf(value)) {
+                    if (firstEntries.size() == topN && compareKeys(v, firstEntries.peek().key) >= 0) {
+                        // This row is not one of the first rows (the rows found earlier win the ties) ...
+                        continue;
+                    }
+                    if (firstEntries.size() == topN) firstEntries.poll();
+                    if (row == null) row = createRow(batch);
+                    firstEntries.add(new SortEntry(v, sequence++, row));
+                }
+                if (!firstBatchCounted) {
+                    ++batchSize;
+                }
+            }
+            firstBatchCounted = batchSize != 0;
+            batch = delegate.nextBatch();
+        }
+        sortedEntries = new ArrayList<>(firstEntries);
+        Collections.sort(sortedEntries, comparator);
+        sortedRowCount = sortedEntries.size();
+        remainingRowCount.set(sortedRowCount);
+        return rowsOf(sortedEntries.iterator());
+    }
+
+    /**
+     * Read all the rows of the delegate, sorting them in memory until the memory budget of the query is exceeded and then
+     * writing the sorted rows into a new run.
+     *
+     * @return the iterator over all the rows in ascending order; never null
+     */
+    protected Iterator<BufferedRow> loadRuns() {
+        List<SortEntry> entries = new ArrayList<>();
+        long sequence = 0L;
+        Batch batch = delegate.nextBatch();
+        boolean firstBatchCounted = false;
+        while (batch != null) {
+            while (batch.hasNext()) {
+                batch.nextRow();
+                Object value = extractor.getValueInRow(batch);
+                if (value == null) {
+                    rowsWithNullKey.addIfAbsent(createRow(batch));
+                } else {
+                    BufferedRow row = createRow(batch);
+                    long bytes = BufferedRows.serializedSize(row) + ENTRY_BYTES;
+                    for (Object v : valuesOf(value)) {
+                        if (v == null) continue;
+                        if (!memory.tryReserve(bytes)) {
+                            writeRun(entries);
+                            // the other operators of the query may still use the budget, but each run needs some rows ...
+                            if (!memory.tryReserve(bytes)) memory.reserve(bytes);
+                        }
+                        reservedBytes += bytes;
+                        entries.add(new SortEntry(v, sequence++, row));
+                    }
+                }
+                if (!firstBatchCounted) {
+                    ++batchSize;
+                }
+            }
+            firstBatchCounted = batchSize != 0;
+            batch = delegate.nextBatch();
+        }
+        sortedRowCount = sequence;
+        remainingRowCount.set(sortedRowCount + rowsWithNullKey.size());
+        Collections.sort(entries, comparator);
+        if (runs.isEmpty()) {
+            // All the rows fit in memory ...
+            sortedEntries = entries;
+            return withRowsWithNullKey(rowsOf(entries.iterator()));
+        }
+        writeRun(entries);
+        logger.debug("Merging {0} runs of sorted rows in {1}: {2}", runs.size(), this, memory);
+        List<Iterator<SortEntry>> sortedRuns = new ArrayList<>(runs.size());
+        for (QueueBuffer<SortEntry> run : runs) {
+            sortedRuns.add(run.iterator());
+        }
+        return withRowsWithNullKey(merge(sortedRuns));
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private void writeRun( List<SortEntry> entries ) {
+        if (entries.isEmpty()) return;
+        Collections.sort(entries, comparator);
+        Serializer<Object> keySerializer = (Serializer<Object>)bufferMgr.serializerFor(extractor.getType());
+        SortEntrySerializer serializer = new SortEntrySerializer(keySerializer, (Serializer<BufferedRow>)rowFactory);
+        QueueBuffer<SortEntry> run = bufferMgr.createQueueBuffer(serializer).useDisk(true).make();
+        runs.add(run);
+        for (SortEntry entry : entries) {
+            run.append(entry);
+        }
+        entries.clear();
+        memory.spilled(reservedBytes);
+        memory.release(reservedBytes);
+        reservedBytes = 0L;
+    }
+
+    private Iterator<BufferedRow> merge( List<Iterator<SortEntry>> sortedRuns ) {
+        // The head of the queue is the run whose next row is the first of all the remaining rows ...
+        final PriorityQueue<RunCursor> cursors = new PriorityQueue<>(sortedRuns.size(), new Comparator<RunCursor>() {
+            @Override
+            public int compare( RunCursor cursor1,
+                                RunCursor cursor2 ) {
+                return comparator.compare(cursor1.current, cursor2.current);
+            }
+        });
+        for (Iterator<SortEntry> run : sortedRuns) {
+            if (run.hasNext()) cursors.add(new RunCursor(run));
+        }
+        return new Iterator<BufferedRow>() {
+            @Override
+            public boolean hasNext() {
+                return !cursors.isEmpty();
+            }
+
+            @Override
+            public BufferedRow next() {
+                RunCursor cursor = cursors.poll();
+                if (cursor == null) throw new NoSuchElementException();
+                BufferedRow row = cursor.current.row;
+                if (cursor.advance()) cursors.add(cursor);
+                return row;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static Iterator<BufferedRow> rowsOf( final Iterator<SortEntry> entries ) {
+        return new Iterator<BufferedRow>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public BufferedRow next() {
+                return entries.next().row;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static Object[] valuesOf( Object value ) {
+        return value instanceof Object[] ? (Object[])value : new Object[] {value};
+    }
+
+    private int compareKeys( Object key1,
+                             Object key2 ) {
+        return comparator.compare(new SortEntry(key1, 0L, null), new SortEntry(key2, 0L, null));
+    }
+
+    private static Comparator<SortEntry> entryComparator( final Comparator<Object> keyComparator,
+                                                          final boolean nullsFirst ) {
+        return new Comparator<SortEntry>() {
+            @Override
+            public int compare( SortEntry entry1,
+                                SortEntry entry2 ) {
+                int diff = 0;
+                if (entry1.key == null) {
+                    diff = entry2.key == null ? 0 : (nullsFirst ? -1 : 1);
+                } else if (entry2.key == null) {
+                    diff = nullsFirst ? 1 : -1;
+                } else {
+                    diff = keyComparator.compare(entry1.key, entry2.key);
+                }
+                // The rows with the same key are returned in the order in which they were read ...
+                return diff != 0 ? diff : Long.compare(entry1.sequence, entry2.sequence);
+            }
+        };
+    }
+
     @Override
     public void close() {
         try {
             super.close();
         } finally {
-            rowsWithNullKey.close();
+            try {
+                rowsWithNullKey.close();
+            } finally {
+                for (QueueBuffer<SortEntry> run : runs) {
+                    run.close();
+                }
+                runs.clear();
+                sortedEntries = null;
+                if (memory != null && reservedBytes != 0L) {
+                    memory.release(reservedBytes);
+                    reservedBytes = 0L;
+                }
+            }
         }
     }
 
     @Override
     public String toString() {
-        return "(sorting-sequence width=" + width() + " order=" + extractor + " " + delegate + ")";
+        return "(sorting-sequence width=" + width() + " order=" + extractor + (topN > 0 ? " first=" + topN : "")
+               + (runs.isEmpty() ? "" : " runs=" + runs.size()) + " " + delegate + ")";
+    }
+
+    /**
+     * A row with one of its keys, and the position in which it was read.
+     */
+    protected static final class SortEntry {
+        protected final Object key;
+        protected final long sequence;
+        protected final BufferedRow row;
+
+        protected SortEntry( Object key,
+                             long sequence,
+                             BufferedRow row ) {
+            this.key = key;
+            this.sequence = sequence;
+            this.row = row;
+        }
+    }
+
+    protected static final class SortEntrySerializer implements Serializer<SortEntry>, Serializable {
+        private static final long serialVersionUID = 1L;
+        private final transient Serializer<Object> keySerializer;
+        private final transient Serializer<BufferedRow> rowSerializer;
+
+        protected SortEntrySerializer( Serializer<Object> keySerializer,
+                                       Serializer<BufferedRow> rowSerializer ) {
+            this.keySerializer = keySerializer;
+            this.rowSerializer = rowSerializer;
+        }
+
+        @Override
+        public void serialize( DataOutput out,
+                               SortEntry value ) throws IOException {
+            keySerializer.serialize(out, value.key);
+            out.writeLong(value.sequence);
+            rowSerializer.serialize(out, value.row);
+        }
+
+        @Override
+        public SortEntry deserialize( DataInput in,
+                                      int available ) throws IOException {
+            Object key = keySerializer.deserialize(in, available);
+            long sequence = in.readLong();
+            BufferedRow row = rowSerializer.deserialize(in, available);
+            return new SortEntry(key, sequence, row);
+        }
+
+        @Override
+        public int fixedSize() {
+            return -1; // not fixed size
+        }
+    }
+
+    /**
+     * The position within a run being merged.
+     */
+    private static final class RunCursor {
+        private final Iterator<SortEntry> entries;
+        protected SortEntry current;
+
+        protected RunCursor( Iterator<SortEntry> entries ) {
+            this.entries = entries;
+            this.current = entries.next();
+        }
+
+        protected boolean advance() {
+            if (!entries.hasNext()) return false;
+            current = entries.next();
+            return true;
+        }
     }
 }
@@ -0,0 +1,529 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.engine.IndexPlan;
+import org.modeshape.jcr.query.model.ChildNodeJoinCondition;
+import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.DescendantNodeJoinCondition;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.SameNodeJoinCondition;
+import org.modeshape.jcr.query.model.SelectorName;
+import org.modeshape.jcr.query.model.Visitors;
+import org.modeshape.jcr.query.plan.JoinAlgorithm;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+
+/**
+ * An {@link OptimizerRule optimizer rule} that uses the cardinality estimates of the indexes chosen for each source to reorder
+ * the inner joins of queries with 3 or more selectors, and to choose the algorithm of each join. This rule must run after the
+ * {@link AddIndexes indexes} have been added to the plan and {@link OrderIndexesByCost ordered by cost}.
+ * <p>
+ * Each tree of adjacent INNER JOIN nodes is treated as a single multi-way join of its non-join inputs, whose join conditions
+ * connect all these inputs. The rule enumerates the left-deep join trees over these inputs (exhaustively for a reasonable
+ * number of inputs, and greedily otherwise), estimates the number of rows produced by each join from the cardinalities of its
+ * inputs and the type of its condition, and replaces the original tree only when the cheapest left-deep tree is cheaper. For
+ * example, this tree:
+ *
+ * <pre>
+ *              JOIN
+ *             /    \
+ *          JOIN     C (1,000 rows)
+ *         /    \
+ *  A (100,000)  B (10,000)
+ * </pre>
+ *
+ * might be replaced with this tree, so that the large input is only joined with the result of the smaller join:
+ *
+ * <pre>
+ *              JOIN
+ *             /    \
+ *          JOIN     A (100,000)
+ *         /    \
+ *   B (10,000)  C (1,000)
+ * </pre>
+ *
+ * </p>
+ * <p>
+ * Joins are executed by buffering their right side and probing it with each row from the left, so the smaller input of each
+ * join is placed on the right side and the join is labeled with the {@link JoinAlgorithm#HASH hash} algorithm. The only
+ * exception are the joins with a {@link DescendantNodeJoinCondition}, which must have the ancestors on the left side and which
+ * are labeled with the {@link JoinAlgorithm#NESTED_LOOP nested-loop} algorithm, since each ancestor is used to find a range of
+ * descendants. Any additional constraints on the joins are applied on top of the new root join.
+ * </p>
+ * <p>
+ * Plans are left unchanged when none of the inputs has an index with a known cardinality, when any of the joins depends on the
+ * results of a subquery, or when the join conditions cannot be attributed to the inputs.
+ * </p>
+ *
+ * @since 5.5
+ */
+@Immutable
+public class CostBasedJoinOrder implements OptimizerRule {
+
+    public static final CostBasedJoinOrder INSTANCE = new CostBasedJoinOrder();
+
+    /**
+     * The minimum number of inputs of a multi-way join which is reordered by this rule.
+     */
+    protected static final int MIN_INPUTS = 3;
+
+    /**
+     * The maximum number of inputs for which all the left-deep join trees are enumerated; larger multi-way joins are ordered
+     * greedily.
+     */
+    protected static final int MAX_ENUMERATED_INPUTS = 10;
+
+    /**
+     * The factor by which the cardinality of an input without an estimate is assumed to exceed the largest known cardinality.
+     */
+    protected static final double UNKNOWN_CARDINALITY_FACTOR = 10.0d;
+
+    @Override
+    public PlanNode execute( QueryContext context,
+                             PlanNode plan,
+                             LinkedList<OptimizerRule> ruleStack ) {
+        for (PlanNode join : plan.findAllAtOrBelow(Type.JOIN)) {
+            if (!isInnerJoin(join) || isInnerJoin(join.getParent()) || join.getParent() == null && join != plan) {
+                // not the root of a multi-way join, or it was already replaced ...
+                continue;
+            }
+            PlanNode newJoin = reorder(join);
+            if (newJoin != null) {
+                if (join == plan) {
+                    plan = newJoin;
+                } else {
+                    join.getParent().replaceChild(join, newJoin);
+                }
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Compute the cheapest left-deep join tree for the multi-way join rooted at the supplied node.
+     *
+     * @param root the root of the multi-way join; may not be null
+     * @return the new root of the multi-way join, or null if the multi-way join should not be changed
+     */
+    protected PlanNode reorder( PlanNode root ) {
+        List<PlanNode> inputs = new ArrayList<>();
+        List<PlanNode> joins = new ArrayList<>();
+        if (!collect(root, inputs, joins) || inputs.size() < MIN_INPUTS || inputs.size() >= Long.SIZE) {
+            return null;
+        }
+        int n = inputs.size();
+        double[] cardinalities = cardinalities(inputs);
+        if (cardinalities == null) {
+            return null;
+        }
+
+        // Find the pair of inputs connected by each join condition ...
+        List<Edge> edges = new ArrayList<>(joins.size());
+        for (PlanNode join : joins) {
+            JoinCondition condition = join.getProperty(Property.JOIN_CONDITION, JoinCondition.class);
+            Edge edge = condition != null ? edge(condition, inputs) : null;
+            if (edge == null) {
+                return null;
+            }
+            edges.add(edge);
+        }
+
+        Estimate original = estimate(root, inputs, cardinalities);
+        int[] order = n <= MAX_ENUMERATED_INPUTS ? enumerate(n, edges, cardinalities) : greedy(n, edges, cardinalities);
+        if (order == null) {
+            return null;
+        }
+        double[] best = leftDeepEstimate(order, edges, cardinalities);
+        if (original == null || best[1] >= original.cost) {
+            // the order of the query is already the best ...
+            return null;
+        }
+
+        // Collect all the constraints, which will be applied after all the joins ...
+        List<Constraint> constraints = new LinkedList<>();
+        for (PlanNode join : joins) {
+            List<Constraint> joinConstraints = join.getPropertyAsList(Property.JOIN_CONSTRAINTS, Constraint.class);
+            if (joinConstraints != null) {
+                constraints.addAll(joinConstraints);
+            }
+        }
+        for (PlanNode input : inputs) {
+            input.removeFromParent();
+        }
+        return build(order, inputs, edges, cardinalities, constraints);
+    }
+
+    private static boolean isInnerJoin( PlanNode node ) {
+        return node != null && node.getType() == Type.JOIN && node.getChildCount() == 2
+               && node.getProperty(Property.JOIN_TYPE, JoinType.class) == JoinType.INNER
+               && !node.hasBooleanProperty(Property.IS_DEPENDENT);
+    }
+
+    private static boolean collect( PlanNode join,
+                                    List<PlanNode> inputs,
+                                    List<PlanNode> joins ) {
+        joins.add(join);
+        for (PlanNode child : join) {
+            if (isInnerJoin(child)) {
+                if (!collect(child, inputs, joins)) return false;
+            } else if (child.getType() == Type.JOIN && child.hasBooleanProperty(Property.IS_DEPENDENT)) {
+                return false;
+            } else {
+                inputs.add(child);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine the cardinality of each input, using the estimate of the best index of the input's only source.
+     *
+     * @param inputs the inputs of the multi-way join; may not be null
+     * @return the cardinalities, or null if none of the inputs has a known cardinality
+     */
+    protected double[] cardinalities( List<PlanNode> inputs ) {
+        double[] cardinalities = new double[inputs.size()];
+        double maxKnown = -1.0d;
+        for (int i = 0; i != cardinalities.length; ++i) {
+            cardinalities[i] = -1.0d;
+            List<PlanNode> sources = inputs.get(i).findAllAtOrBelow(Type.SOURCE);
+            if (sources.size() != 1) continue;
+            for (PlanNode child : sources.get(0)) {
+                if (child.getType() != Type.INDEX) continue;
+                // the indexes are ordered by cost, so the first one will be used ...
+                IndexPlan index = child.getProperty(Property.INDEX_SPECIFICATION, IndexPlan.class);
+                if (index != null && index.getCardinalityEstimate() != Long.MAX_VALUE) {
+                    cardinalities[i] = index.getCardinalityEstimate();
+                    maxKnown = Math.max(maxKnown, cardinalities[i]);
+                }
+                break;
+            }
+        }
+        if (maxKnown < 0.0d) {
+            return null;
+        }
+        double unknown = Math.max(maxKnown, 1.0d) * UNKNOWN_CARDINALITY_FACTOR;
+        for (int i = 0; i != cardinalities.length; ++i) {
+            if (cardinalities[i] < 0.0d) {
+                cardinalities[i] = unknown;
+            }
+        }
+        return cardinalities;
+    }
+
+    private static Edge edge( JoinCondition condition,
+                              List<PlanNode> inputs ) {
+        SelectorName selector1;
+        SelectorName selector2;
+        if (condition instanceof DescendantNodeJoinCondition) {
+            DescendantNodeJoinCondition descendant = (DescendantNodeJoinCondition)condition;
+            selector1 = descendant.ancestorSelectorName();
+            selector2 = descendant.descendantSelectorName();
+        } else if (condition instanceof ChildNodeJoinCondition) {
+            ChildNodeJoinCondition child = (ChildNodeJoinCondition)condition;
+            selector1 = child.parentSelectorName();
+            selector2 = child.childSelectorName();
+        } else {
+            Set<SelectorName> selectors = Visitors.getSelectorsReferencedBy(condition);
+            if (selectors.size() != 2) return null;
+            List<SelectorName> names = new ArrayList<>(selectors);
+            selector1 = names.get(0);
+            selector2 = names.get(1);
+        }
+        int input1 = inputWith(selector1, inputs);
+        int input2 = inputWith(selector2, inputs);
+        if (input1 < 0 || input2 < 0 || input1 == input2) return null;
+        return new Edge(condition, input1, input2);
+    }
+
+    private static int inputWith( SelectorName selector,
+                                  List<PlanNode> inputs ) {
+        for (int i = 0; i != inputs.size(); ++i) {
+            if (inputs.get(i).getSelectors().contains(selector)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Estimate the number of rows produced by a join.
+     *
+     * @param edge the join condition; may not be null
+     * @param leftHasFirst true if the left side contains the first input of the join condition
+     * @param left the estimated number of rows of the left side
+     * @param right the estimated number of rows of the right side
+     * @return the estimated number of rows produced by the join
+     */
+    protected double joinCardinality( Edge edge,
+                                      boolean leftHasFirst,
+                                      double left,
+                                      double right ) {
+        if (edge.condition instanceof SameNodeJoinCondition) {
+            // each row matches at most one row on the other side ...
+            return Math.min(left, right);
+        }
+        if (edge.condition instanceof ChildNodeJoinCondition || edge.condition instanceof DescendantNodeJoinCondition) {
+            // each child has exactly one parent, and descendants rarely have many ancestors in the same query ...
+            return leftHasFirst ? right : left;
+        }
+        return Math.max(left, right);
+    }
+
+    /**
+     * Estimate the cost of a join, which is proportional to the number of rows read from both sides and produced by the join.
+     *
+     * @param left the estimated number of rows of the left side
+     * @param right the estimated number of rows of the right side
+     * @param output the estimated number of rows produced by the join
+     * @return the estimated cost
+     */
+    protected double joinCost( double left,
+                               double right,
+                               double output ) {
+        return left + right + output;
+    }
+
+    private Estimate estimate( PlanNode node,
+                               List<PlanNode> inputs,
+                               double[] cardinalities ) {
+        int index = inputs.indexOf(node);
+        if (index >= 0) {
+            return new Estimate(cardinalities[index], 0.0d);
+        }
+        Estimate left = estimate(node.getFirstChild(), inputs, cardinalities);
+        Estimate right = estimate(node.getLastChild(), inputs, cardinalities);
+        if (left == null || right == null) return null;
+        Edge edge = edge(node.getProperty(Property.JOIN_CONDITION, JoinCondition.class), inputs);
+        if (edge == null) return null;
+        boolean leftHasFirst = node.getFirstChild() == inputs.get(edge.input1)
+                               || node.getFirstChild().isAbove(inputs.get(edge.input1));
+        double output = joinCardinality(edge, leftHasFirst, left.cardinality, right.cardinality);
+        return new Estimate(output, left.cost + right.cost + joinCost(left.cardinality, right.cardinality, output));
+    }
+
+    /**
+     * Enumerate all the connected left-deep join orders, using dynamic programming over the subsets of inputs.
+     */
+    private int[] enumerate( int n,
+                             List<Edge> edges,
+                             double[] cardinalities ) {
+        int subsets = 1 << n;
+        double[] cost = new double[subsets];
+        double[] rows = new double[subsets];
+        int[] last = new int[subsets];
+        for (int s = 0; s != subsets; ++s) {
+            cost[s] = Double.MAX_VALUE;
+            last[s] = -1;
+        }
+        for (int i = 0; i != n; ++i) {
+            cost[1 << i] = 0.0d;
+            rows[1 << i] = cardinalities[i];
+            last[1 << i] = i;
+        }
+        for (int s = 1; s != subsets; ++s) {
+            if (Integer.bitCount(s) < 2) continue;
+            for (int i = 0; i != n; ++i) {
+                int rest = s & ~(1 << i);
+                if ((s & (1 << i)) == 0 || last[rest] < 0) continue;
+                Edge edge = connecting(edges, rest, i);
+                if (edge == null) continue;
+                double[] step = step(edge, rest, i, rows[rest], cardinalities[i]);
+                double total = cost[rest] + step[1];
+                if (total < cost[s]) {
+                    cost[s] = total;
+                    rows[s] = step[0];
+                    last[s] = i;
+                }
+            }
+        }
+        int all = subsets - 1;
+        if (last[all] < 0) return null;
+        int[] order = new int[n];
+        for (int s = all, pos = n - 1; pos >= 0; --pos) {
+            order[pos] = last[s];
+            s &= ~(1 << last[s]);
+        }
+        return order;
+    }
+
+    /**
+     * Build a left-deep join order by starting with the smallest input and repeatedly adding the connected input that produces
+     * the fewest rows.
+     */
+    private int[] greedy( int n,
+                          List<Edge> edges,
+                          double[] cardinalities ) {
+        int[] order = new int[n];
+        boolean[] used = new boolean[n];
+        int first = 0;
+        for (int i = 1; i != n; ++i) {
+            if (cardinalities[i] < cardinalities[first]) first = i;
+        }
+        order[0] = first;
+        used[first] = true;
+        double rows = cardinalities[first];
+        long joined = 1L << first;
+        for (int pos = 1; pos != n; ++pos) {
+            int next = -1;
+            double nextRows = Double.MAX_VALUE;
+            for (int i = 0; i != n; ++i) {
+                if (used[i]) continue;
+                Edge edge = connecting(edges, joined, i);
+                if (edge == null) continue;
+                double output = step(edge, joined, i, rows, cardinalities[i])[0];
+                if (output < nextRows) {
+                    next = i;
+                    nextRows = output;
+                }
+            }
+            if (next < 0) return null;
+            order[pos] = next;
+            used[next] = true;
+            rows = nextRows;
+            joined |= 1L << next;
+        }
+        return order;
+    }
+
+    private double[] leftDeepEstimate( int[] order,
+                                       List<Edge> edges,
+                                       double[] cardinalities ) {
+        long joined = 1L << order[0];
+        double rows = cardinalities[order[0]];
+        double cost = 0.0d;
+        for (int pos = 1; pos != order.length; ++pos) {
+            int next = order[pos];
+            double[] step = step(connecting(edges, joined, next), joined, next, rows, cardinalities[next]);
+            rows = step[0];
+            cost += step[1];
+            joined |= 1L << next;
+        }
+        return new double[] {rows, cost};
+    }
+
+    /**
+     * Estimate the rows and the cost of joining the supplied input to the result of joining the inputs in the supplied set.
+     *
+     * @return a two-element array with the estimated rows and cost
+     */
+    private double[] step( Edge edge,
+                           long joined,
+                           int next,
+                           double joinedRows,
+                           double nextRows ) {
+        boolean joinedHasFirst = (joined & (1L << edge.input1)) != 0;
+        double output = joinCardinality(edge, joinedHasFirst, joinedRows, nextRows);
+        return new double[] {output, joinCost(joinedRows, nextRows, output)};
+    }
+
+    private static Edge connecting( List<Edge> edges,
+                                    long joined,
+                                    int next ) {
+        for (Edge edge : edges) {
+            if (edge.input1 == next && (joined & (1L << edge.input2)) != 0) return edge;
+            if (edge.input2 == next && (joined & (1L << edge.input1)) != 0) return edge;
+        }
+        return null;
+    }
+
+    private PlanNode build( int[] order,
+                            List<PlanNode> inputs,
+                            List<Edge> edges,
+                            double[] cardinalities,
+                            List<Constraint> constraints ) {
+        PlanNode result = inputs.get(order[0]);
+        long joined = 1L << order[0];
+        double rows = cardinalities[order[0]];
+        for (int pos = 1; pos != order.length; ++pos) {
+            int next = order[pos];
+            PlanNode input = inputs.get(next);
+            Edge edge = connecting(edges, joined, next);
+            boolean joinedHasFirst = (joined & (1L << edge.input1)) != 0;
+
+            PlanNode join = new PlanNode(Type.JOIN);
+            join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
+            join.setProperty(Property.JOIN_CONDITION, edge.condition);
+            boolean joinedOnLeft;
+            if (edge.condition instanceof DescendantNodeJoinCondition) {
+                // the ancestors must be on the left ...
+                joinedOnLeft = joinedHasFirst;
+                join.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.NESTED_LOOP);
+            } else {
+                // the right side is buffered, so it should be the smaller one ...
+                joinedOnLeft = cardinalities[next] <= rows;
+                join.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.HASH);
+            }
+            PlanNode left = joinedOnLeft ? result : input;
+            PlanNode right = joinedOnLeft ? input : result;
+            join.addLastChild(left);
+            join.addLastChild(right);
+            join.addSelectors(left.getSelectors());
+            join.addSelectors(right.getSelectors());
+
+            rows = joinCardinality(edge, joinedHasFirst, rows, cardinalities[next]);
+            joined |= 1L << next;
+            result = join;
+        }
+        if (!constraints.isEmpty()) {
+            result.setProperty(Property.JOIN_CONSTRAINTS, constraints);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * A join condition that connects two inputs of a multi-way join.
+     */
+    @Immutable
+    protected static final class Edge {
+        protected final JoinCondition condition;
+        /** The input which contains the ancestor, the parent, or the first selector of the condition */
+        protected final int input1;
+        protected final int input2;
+
+        protected Edge( JoinCondition condition,
+                        int input1,
+                        int input2 ) {
+            this.condition = condition;
+            this.input1 = input1;
+            this.input2 = input2;
+        }
+    }
+
+    @Immutable
+    private static final class Estimate {
+        private final double cardinality;
+        private final double cost;
+
+        protected Estimate( double cardinality,
+                            double cost ) {
+            this.cardinality = cardinality;
+            this.cost = cost;
+        }
+    }
+}
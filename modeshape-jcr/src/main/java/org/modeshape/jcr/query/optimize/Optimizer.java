@@ -33,4 +33,33 @@ public interface Optimizer {
     PlanNode optimize( QueryContext context,
                        PlanNode plan );
 
+    /**
+     * Optimize the supplied query plan, except for the optimizations which depend on the values of the bind variables. The
+     * resulting plan can be reused for any values of the bind variables, by passing a copy of it to {@link #bind}. By default,
+     * this fully optimizes the plan, so optimizers whose optimizations depend on the values of the variables must override both
+     * methods.
+     *
+     * @param context the context in which the query is being optimized
+     * @param plan the query plan to be optimized
+     * @return the optimized query plan which doesn't depend on the values of the bind variables; never null
+     * @see #bind(QueryContext, PlanNode)
+     */
+    default PlanNode prepare( QueryContext context,
+                              PlanNode plan ) {
+        return optimize(context, plan);
+    }
+
+    /**
+     * Apply to a plan returned by {@link #prepare} the optimizations which depend on the values of the bind variables of the
+     * supplied context.
+     *
+     * @param context the context in which the query is being optimized, which holds the values of the variables
+     * @param preparedPlan the plan returned by {@link #prepare}
+     * @return the optimized query plan; never null
+     */
+    default PlanNode bind( QueryContext context,
+                           PlanNode preparedPlan ) {
+        return preparedPlan;
+    }
+
 }
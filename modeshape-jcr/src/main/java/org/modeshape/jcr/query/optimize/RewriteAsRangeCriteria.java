@@ -58,7 +58,19 @@ public class RewriteAsRangeCriteria implements OptimizerRule {
         }
     };
 
-    public static final RewriteAsRangeCriteria INSTANCE = new RewriteAsRangeCriteria();
+    public static final RewriteAsRangeCriteria INSTANCE = new RewriteAsRangeCriteria(false);
+
+    /**
+     * The instance of this rule which only rewrites the constraints that compare the dynamic operand with literal values, and
+     * which can therefore be applied before the values of the bind variables are known.
+     */
+    public static final RewriteAsRangeCriteria LITERALS_ONLY = new RewriteAsRangeCriteria(true);
+
+    private final boolean literalsOnly;
+
+    protected RewriteAsRangeCriteria( boolean literalsOnly ) {
+        this.literalsOnly = literalsOnly;
+    }
 
     @Override
     public PlanNode execute( QueryContext context,
@@ -102,6 +114,11 @@ public class RewriteAsRangeCriteria implements OptimizerRule {
                         else assert selectors.equals(select.getSelectors());
                     }
 
+                    if (literalsOnly && !allLiterals(rangeConstraints)) {
+                        // the constraints can't be merged until the values of the variables are known ...
+                        continue;
+                    }
+
                     // Attempt to merge the constraints ...
                     Constraint merged = rewrite(context, rangeConstraints);
                     if (merged == CONFLICTING_CONSTRAINT) {
@@ -157,6 +174,15 @@ public class RewriteAsRangeCriteria implements OptimizerRule {
         return getClass().getSimpleName();
     }
 
+    private static boolean allLiterals( List<Comparison> comparisons ) {
+        for (Comparison comparison : comparisons) {
+            if (!(comparison.getOperand2() instanceof Literal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Rewrite the supplied comparisons, returning the new constraint and nulling in the supplied list those comparisons that were
      * rewritten (and leaving those that were not rewritten)
@@ -36,9 +36,28 @@ public class RuleBasedOptimizer implements Optimizer {
     @Override
     public PlanNode optimize( QueryContext context,
                               PlanNode plan ) {
+        return bind(context, prepare(context, plan));
+    }
+
+    @Override
+    public PlanNode prepare( QueryContext context,
+                             PlanNode plan ) {
         LinkedList<OptimizerRule> rules = new LinkedList<OptimizerRule>();
         populateRuleStack(rules, context.getHints());
+        return execute(context, plan, rules);
+    }
 
+    @Override
+    public PlanNode bind( QueryContext context,
+                          PlanNode preparedPlan ) {
+        LinkedList<OptimizerRule> rules = new LinkedList<OptimizerRule>();
+        populateBindingRuleStack(rules, context.getHints());
+        return execute(context, preparedPlan, rules);
+    }
+
+    private PlanNode execute( QueryContext context,
+                              PlanNode plan,
+                              LinkedList<OptimizerRule> rules ) {
         Problems problems = context.getProblems();
         while (rules.peek() != null && !problems.hasErrors()) {
             OptimizerRule nextRule = rules.poll();
@@ -51,7 +70,8 @@ public class RuleBasedOptimizer implements Optimizer {
     }
 
     /**
-     * Method that is used to create the initial rule stack. This method can be overridden by subclasses
+     * Method that is used to create the initial rule stack, with the rules which don't depend on the values of the bind
+     * variables. This method can be overridden by subclasses
      * 
      * @param ruleStack the stack where the rules should be placed; never null
      * @param hints the plan hints
@@ -63,7 +83,7 @@ public class RuleBasedOptimizer implements Optimizer {
         if (hints.hasSubqueries) {
             ruleStack.addFirst(RaiseVariableName.INSTANCE);
         }
-        ruleStack.addFirst(RewriteAsRangeCriteria.INSTANCE);
+        ruleStack.addFirst(RewriteAsRangeCriteria.LITERALS_ONLY);
         if (hints.hasJoin) {
             ruleStack.addFirst(AddJoinConditionColumnsToSources.INSTANCE);
             ruleStack.addFirst(ChooseJoinAlgorithm.USE_ONLY_NESTED_JOIN_ALGORITHM);
@@ -80,9 +100,26 @@ public class RuleBasedOptimizer implements Optimizer {
             ruleStack.addFirst(ReplaceViews.INSTANCE);
         }
         ruleStack.addFirst(RewritePseudoColumns.INSTANCE);
+    }
+
+    /**
+     * Method that is used to create the stack of rules which depend on the values of the bind variables, and which are applied
+     * to the plan each time the query is executed. This method can be overridden by subclasses
+     * 
+     * @param ruleStack the stack where the rules should be placed; never null
+     * @param hints the plan hints
+     */
+    protected void populateBindingRuleStack( LinkedList<OptimizerRule> ruleStack,
+                                             PlanHints hints ) {
+        // The range criteria which use variables can only be rewritten once their values are known ...
+        ruleStack.addLast(RewriteAsRangeCriteria.INSTANCE);
         // Add indexes determination last ...
         populateIndexingRules(ruleStack, hints);
         ruleStack.addLast(OrderIndexesByCost.INSTANCE);
+        if (hints.hasJoin) {
+            // Reordering the joins requires the cardinality estimates of the indexes ...
+            ruleStack.addLast(CostBasedJoinOrder.INSTANCE);
+        }
     }
 
     /**
@@ -21,5 +21,10 @@ package org.modeshape.jcr.query.plan;
 public enum JoinAlgorithm {
     // PARTITIONED_SORT,
     NESTED_LOOP,
-    MERGE
+    MERGE,
+    /**
+     * Buffers all the rows of the right side of the join and probes them with each row of the left side, so the right side
+     * should be the smaller one.
+     */
+    HASH
 }
@@ -106,6 +106,12 @@ public final class PlanHints implements Serializable, Cloneable {
      */
     public int rowsKeptInMemory = 200;
 
+    /**
+     * Flag indicating whether the results are streamed to the client. Streamed results are never {@link #restartable}, the rows
+     * are computed only as they are consumed, and the number of rows is computed only once all of them have been consumed.
+     */
+    public boolean streaming = false;
+
     public PlanHints() {
     }
 
@@ -129,6 +135,7 @@ public final class PlanHints implements Serializable, Cloneable {
         sb.append(", useSessionContent=").append(useSessionContent);
         sb.append(", restartable=").append(restartable);
         sb.append(", rowsKeptInMemory=").append(rowsKeptInMemory);
+        sb.append(", streaming=").append(streaming);
         sb.append('}');
         return sb.toString();
     }
@@ -154,6 +161,32 @@ public final class PlanHints implements Serializable, Cloneable {
         clone.qualifyExpandedColumnNames = this.qualifyExpandedColumnNames;
         clone.restartable = this.restartable;
         clone.rowsKeptInMemory = this.rowsKeptInMemory;
+        clone.streaming = this.streaming;
         return clone;
     }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if (obj == this) return true;
+        if (obj instanceof PlanHints) {
+            PlanHints that = (PlanHints)obj;
+            return this.hasCriteria == that.hasCriteria && this.hasView == that.hasView && this.hasJoin == that.hasJoin
+                   && this.hasSort == that.hasSort && this.hasSetQuery == that.hasSetQuery && this.hasLimit == that.hasLimit
+                   && this.hasOptionalJoin == that.hasOptionalJoin && this.hasFullTextSearch == that.hasFullTextSearch
+                   && this.hasSubqueries == that.hasSubqueries && this.isExistsQuery == that.isExistsQuery
+                   && this.showPlan == that.showPlan && this.planOnly == that.planOnly
+                   && this.validateColumnExistance == that.validateColumnExistance
+                   && this.includeSystemContent == that.includeSystemContent
+                   && this.useSessionContent == that.useSessionContent
+                   && this.qualifyExpandedColumnNames == that.qualifyExpandedColumnNames
+                   && this.restartable == that.restartable && this.rowsKeptInMemory == that.rowsKeptInMemory
+                   && this.streaming == that.streaming;
+        }
+        return false;
+    }
 }
@@ -207,6 +207,12 @@ public final class PlanNode implements Iterable<PlanNode>, Readable, Cloneable,
         INDEX_SPECIFICATION,
         /** Flag specifying whether the index has been used in the query. Value is a {@link Boolean} value. */
         INDEX_USED,
+
+        /**
+         * For JOIN nodes, the maximum number of bytes of buffered rows the join may keep in memory before writing rows to
+         * temporary files. Value is a {@link Long}.
+         */
+        JOIN_MEMORY_BUDGET,
     }
 
     public static interface Operation {
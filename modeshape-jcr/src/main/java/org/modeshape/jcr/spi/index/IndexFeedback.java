@@ -32,6 +32,14 @@ public interface IndexFeedback {
         void beforeIndexing();
 
         void afterIndexing();
+
+        /**
+         * Called before {@link #afterIndexing()}, only if the content was scanned and reindexed without errors and the changes
+         * were committed.
+         */
+        default void indexingCompleted() {
+            // nothing by default
+        }
         
         IndexWriter writer();
     }
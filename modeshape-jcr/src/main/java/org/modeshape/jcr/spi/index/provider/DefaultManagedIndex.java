@@ -118,4 +118,9 @@ public final class DefaultManagedIndex implements ManagedIndex {
         return index.requiresReindexing();
     }
 
+    @Override
+    public void reindexingCompleted() {
+        index.reindexingCompleted();
+    }
+
 }
@@ -1105,6 +1105,11 @@ public abstract class IndexProvider {
                 managedIndex.enable(false);
             }
 
+            @Override
+            public void indexingCompleted() {
+                managedIndex.reindexingCompleted();
+            }
+
             @SuppressWarnings( "synthetic-access" )
             @Override
             public void afterIndexing() {
@@ -30,6 +30,15 @@ public interface Reindexable {
      */
     boolean requiresReindexing();
 
+    /**
+     * Signal that all of the content to which this index applies was scanned and reindexed without errors, and that the changes
+     * were committed. An index which was rebuilt after {@link #requiresReindexing()} returned true can use this to record that it
+     * is complete; it is not called if the reindexing fails or is interrupted.
+     */
+    default void reindexingCompleted() {
+        // nothing by default
+    }
+
     /**
      * Remove all of the index entries from the index. This is typically called prior to reindexing.
      */
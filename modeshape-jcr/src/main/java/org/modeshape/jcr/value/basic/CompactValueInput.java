@@ -0,0 +1,335 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.value.basic;
+
+import static org.modeshape.jcr.value.basic.CompactValueOutput.PATH_ABSOLUTE;
+import static org.modeshape.jcr.value.basic.CompactValueOutput.PATH_IDENTIFIER;
+import static org.modeshape.jcr.value.basic.CompactValueOutput.PATH_ROOT;
+import static org.modeshape.jcr.value.basic.CompactValueOutput.PROPERTY_EMPTY;
+import static org.modeshape.jcr.value.basic.CompactValueOutput.PROPERTY_SINGLE;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Property;
+
+/**
+ * Reads the keys, names, paths and properties written by a {@link CompactValueOutput}.
+ * <p>
+ * An instance should be used to read a single message, since the tables are never cleared.
+ * </p>
+ *
+ * @since 5.5
+ */
+@NotThreadSafe
+public final class CompactValueInput {
+
+    private final DataInput input;
+    private final List<String> strings = new ArrayList<>();
+    private final List<NodeKey> keys = new ArrayList<>();
+
+    /**
+     * Creates a new instance which reads from the given input.
+     *
+     * @param input a {@link DataInput} instance; may not be null
+     */
+    public CompactValueInput( DataInput input ) {
+        this.input = input;
+    }
+
+    /**
+     * Returns the input from which this instance reads.
+     *
+     * @return a {@link DataInput} instance; never null
+     */
+    public DataInput input() {
+        return input;
+    }
+
+    /**
+     * Reads an integer written by {@link CompactValueOutput#writeVarInt(int)}.
+     *
+     * @return the value
+     * @throws IOException if the value cannot be read
+     */
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = input.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Reads a string written by {@link CompactValueOutput#writeString(String)}.
+     *
+     * @return the string; may be null
+     * @throws IOException if the value cannot be read
+     */
+    public String readString() throws IOException {
+        int header = readVarInt();
+        if (header == 0) {
+            return null;
+        }
+        if (header == 1) {
+            String value = readText();
+            strings.add(value);
+            return value;
+        }
+        return strings.get(header - 2);
+    }
+
+    /**
+     * Reads a string written by {@link CompactValueOutput#writeText(String)}.
+     *
+     * @return the string; never null
+     * @throws IOException if the value cannot be read
+     */
+    public String readText() throws IOException {
+        byte[] bytes = new byte[readVarInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a map written by {@link CompactValueOutput#writeStringMap(Map)}.
+     *
+     * @return the map; never null
+     * @throws IOException if the map cannot be read
+     */
+    public Map<String, String> readStringMap() throws IOException {
+        int size = readVarInt();
+        if (size == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> map = new HashMap<>(size);
+        for (int i = 0; i != size; i++) {
+            map.put(readString(), readString());
+        }
+        return map;
+    }
+
+    /**
+     * Reads a node key written by {@link CompactValueOutput#writeNodeKey(NodeKey)}.
+     *
+     * @return the key; may be null
+     * @throws IOException if the key cannot be read
+     */
+    public NodeKey readNodeKey() throws IOException {
+        int header = readVarInt();
+        if (header == 0) {
+            return null;
+        }
+        if (header > 1) {
+            return keys.get(header - 2);
+        }
+        String prefix = readString();
+        String identifier = input.readBoolean() ? new UUID(input.readLong(), input.readLong()).toString() : readText();
+        NodeKey key = new NodeKey(prefix + identifier);
+        keys.add(key);
+        return key;
+    }
+
+    /**
+     * Reads a set of node keys written by {@link CompactValueOutput#writeNodeKeys(Set)}.
+     *
+     * @return the keys; never null
+     * @throws IOException if the keys cannot be read
+     */
+    public Set<NodeKey> readNodeKeys() throws IOException {
+        int size = readVarInt();
+        Set<NodeKey> result = new HashSet<>(size);
+        for (int i = 0; i != size; i++) {
+            result.add(readNodeKey());
+        }
+        return result;
+    }
+
+    /**
+     * Reads a name written by {@link CompactValueOutput#writeName(Name)}.
+     *
+     * @return the name; may be null
+     * @throws IOException if the name cannot be read
+     */
+    public Name readName() throws IOException {
+        return input.readBoolean() ? new BasicName(readString(), readString()) : null;
+    }
+
+    /**
+     * Reads a set of names written by {@link CompactValueOutput#writeNames(Set)}.
+     *
+     * @return the names; never null
+     * @throws IOException if the names cannot be read
+     */
+    public Set<Name> readNames() throws IOException {
+        int size = readVarInt();
+        if (size == 0) {
+            return Collections.emptySet();
+        }
+        Set<Name> result = new HashSet<>(size);
+        for (int i = 0; i != size; i++) {
+            result.add(readName());
+        }
+        return result;
+    }
+
+    /**
+     * Reads a path segment written by {@link CompactValueOutput#writeSegment(Path.Segment)}.
+     *
+     * @return the segment; never null
+     * @throws IOException if the segment cannot be read
+     */
+    public Path.Segment readSegment() throws IOException {
+        int header = readVarInt();
+        Name name = readName();
+        if ((header & 1) != 0) {
+            return new IdentifierPathSegment(name);
+        }
+        return new BasicPathSegment(name, header >>> 1);
+    }
+
+    /**
+     * Reads a path written by {@link CompactValueOutput#writePath(Path)}.
+     *
+     * @return the path; may be null
+     * @throws IOException if the path cannot be read
+     */
+    public Path readPath() throws IOException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        byte kind = input.readByte();
+        if (kind == PATH_ROOT) {
+            return RootPath.INSTANCE;
+        }
+        if (kind == PATH_IDENTIFIER) {
+            return new IdentifierPath(new IdentifierPathSegment(readName()));
+        }
+        int size = readVarInt();
+        List<Path.Segment> segments = new ArrayList<>(size);
+        for (int i = 0; i != size; i++) {
+            segments.add(readSegment());
+        }
+        return new BasicPath(segments, kind == PATH_ABSOLUTE);
+    }
+
+    /**
+     * Reads a property written by {@link CompactValueOutput#writeProperty(Property)}.
+     *
+     * @return the property; may be null
+     * @throws IOException if the property cannot be read
+     */
+    public Property readProperty() throws IOException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        Name name = readName();
+        byte kind = input.readByte();
+        if (kind == PROPERTY_EMPTY) {
+            return new BasicEmptyProperty(name);
+        }
+        if (kind == PROPERTY_SINGLE) {
+            return new BasicSingleValueProperty(name, readValue());
+        }
+        int size = readVarInt();
+        List<Object> values = new ArrayList<>(size);
+        for (int i = 0; i != size; i++) {
+            values.add(readValue());
+        }
+        return new BasicMultiValueProperty(name, values);
+    }
+
+    /**
+     * Reads a value written by {@link CompactValueOutput#writeValue(Object)}.
+     *
+     * @return the value; may be null
+     * @throws IOException if the value cannot be read
+     */
+    public Object readValue() throws IOException {
+        int type = input.readByte();
+        switch (type) {
+            case CompactValueOutput.VALUE_NULL:
+                return null;
+            case CompactValueOutput.VALUE_STRING:
+                return readText();
+            case CompactValueOutput.VALUE_LONG:
+                return input.readLong();
+            case CompactValueOutput.VALUE_DOUBLE:
+                return input.readDouble();
+            case CompactValueOutput.VALUE_BOOLEAN:
+                return input.readBoolean();
+            case CompactValueOutput.VALUE_DECIMAL:
+                return new BigDecimal(readText());
+            case CompactValueOutput.VALUE_DATE:
+                Instant instant = Instant.ofEpochSecond(input.readLong(), readVarInt());
+                return new ModeShapeDateTime(ZonedDateTime.ofInstant(instant, ZoneId.of(readString())));
+            case CompactValueOutput.VALUE_NAME:
+                return readName();
+            case CompactValueOutput.VALUE_PATH:
+                return readPath();
+            case CompactValueOutput.VALUE_NODE_KEY_REFERENCE:
+                NodeKey key = readNodeKey();
+                byte flags = input.readByte();
+                return new NodeKeyReference(key, (flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0);
+            case CompactValueOutput.VALUE_STRING_REFERENCE:
+                return new StringReference(readText(), input.readBoolean());
+            case CompactValueOutput.VALUE_URI:
+                return URI.create(readText());
+            case CompactValueOutput.VALUE_SERIALIZED:
+                return readSerialized();
+            default:
+                throw new IOException("Unknown value type: " + type);
+        }
+    }
+
+    /**
+     * Reads an object written by {@link CompactValueOutput#writeSerialized(java.io.Serializable)}.
+     *
+     * @return the object; may be null
+     * @throws IOException if the object cannot be read
+     */
+    public Object readSerialized() throws IOException {
+        byte[] bytes = new byte[readVarInt()];
+        input.readFully(bytes);
+        try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return stream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.value.basic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.jcr.api.value.DateTime;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Property;
+
+/**
+ * Writes keys, names, paths and properties using a compact binary format, which can be read back via a
+ * {@link CompactValueInput}. Strings which are expected to repeat (e.g. namespaces, local names and node key prefixes) as well
+ * as node keys are written only once per output, and later occurrences are written as indexes in a table. Values for which there
+ * isn't a dedicated format are written using Java serialization.
+ * <p>
+ * An instance should be used to write a single message, since the tables are never cleared.
+ * </p>
+ *
+ * @since 5.5
+ */
+@NotThreadSafe
+public final class CompactValueOutput {
+
+    static final int VALUE_NULL = 0;
+    static final int VALUE_STRING = 1;
+    static final int VALUE_LONG = 2;
+    static final int VALUE_DOUBLE = 3;
+    static final int VALUE_BOOLEAN = 4;
+    static final int VALUE_DECIMAL = 5;
+    static final int VALUE_DATE = 6;
+    static final int VALUE_NAME = 7;
+    static final int VALUE_PATH = 8;
+    static final int VALUE_NODE_KEY_REFERENCE = 9;
+    static final int VALUE_STRING_REFERENCE = 10;
+    static final int VALUE_URI = 11;
+    static final int VALUE_SERIALIZED = 127;
+
+    static final int PATH_ROOT = 0;
+    static final int PATH_IDENTIFIER = 1;
+    static final int PATH_ABSOLUTE = 2;
+    static final int PATH_RELATIVE = 3;
+
+    static final int PROPERTY_EMPTY = 0;
+    static final int PROPERTY_SINGLE = 1;
+    static final int PROPERTY_MULTIPLE = 2;
+
+    private final DataOutput output;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final Map<NodeKey, Integer> keys = new HashMap<>();
+
+    /**
+     * Creates a new instance which writes to the given output.
+     *
+     * @param output a {@link DataOutput} instance; may not be null
+     */
+    public CompactValueOutput( DataOutput output ) {
+        this.output = output;
+    }
+
+    /**
+     * Returns the output to which this instance writes.
+     *
+     * @return a {@link DataOutput} instance; never null
+     */
+    public DataOutput output() {
+        return output;
+    }
+
+    /**
+     * Writes a non-negative integer using between 1 and 5 bytes, depending on its value.
+     *
+     * @param value the value; must not be negative
+     * @throws IOException if the value cannot be written
+     */
+    public void writeVarInt( int value ) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    /**
+     * Writes a string which is expected to occur more than once in the same output; only the first occurrence is written in
+     * full.
+     *
+     * @param value the string; may be null
+     * @throws IOException if the value cannot be written
+     */
+    public void writeString( String value ) throws IOException {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeVarInt(index + 2);
+            return;
+        }
+        strings.put(value, strings.size());
+        writeVarInt(1);
+        writeText(value);
+    }
+
+    /**
+     * Writes a string which isn't expected to repeat, without any length limitation.
+     *
+     * @param value the string; may not be null
+     * @throws IOException if the value cannot be written
+     */
+    public void writeText( String value ) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Writes a map of strings.
+     *
+     * @param map the map; may be null
+     * @throws IOException if the map cannot be written
+     */
+    public void writeStringMap( Map<String, String> map ) throws IOException {
+        writeVarInt(map != null ? map.size() : 0);
+        if (map != null) {
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes a node key. The prefix of the key is written via {@link #writeString(String)} and identifiers which are UUIDs are
+     * written as 16 bytes.
+     *
+     * @param key the key; may be null
+     * @throws IOException if the key cannot be written
+     */
+    public void writeNodeKey( NodeKey key ) throws IOException {
+        if (key == null) {
+            writeVarInt(0);
+            return;
+        }
+        Integer index = keys.get(key);
+        if (index != null) {
+            writeVarInt(index + 2);
+            return;
+        }
+        keys.put(key, keys.size());
+        writeVarInt(1);
+        writeString(key.getSourceKey() + key.getWorkspaceKey());
+        String identifier = key.getIdentifier();
+        UUID uuid = uuidOrNull(identifier);
+        output.writeBoolean(uuid != null);
+        if (uuid != null) {
+            output.writeLong(uuid.getMostSignificantBits());
+            output.writeLong(uuid.getLeastSignificantBits());
+        } else {
+            writeText(identifier);
+        }
+    }
+
+    /**
+     * Writes a set of node keys.
+     *
+     * @param keys the keys; may not be null
+     * @throws IOException if the keys cannot be written
+     */
+    public void writeNodeKeys( Set<NodeKey> keys ) throws IOException {
+        writeVarInt(keys.size());
+        for (NodeKey key : keys) {
+            writeNodeKey(key);
+        }
+    }
+
+    /**
+     * Writes a name.
+     *
+     * @param name the name; may be null
+     * @throws IOException if the name cannot be written
+     */
+    public void writeName( Name name ) throws IOException {
+        output.writeBoolean(name != null);
+        if (name != null) {
+            writeString(name.getNamespaceUri());
+            writeString(name.getLocalName());
+        }
+    }
+
+    /**
+     * Writes a set of names.
+     *
+     * @param names the names; may be null
+     * @throws IOException if the names cannot be written
+     */
+    public void writeNames( Set<Name> names ) throws IOException {
+        writeVarInt(names != null ? names.size() : 0);
+        if (names != null) {
+            for (Name name : names) {
+                writeName(name);
+            }
+        }
+    }
+
+    /**
+     * Writes a path segment.
+     *
+     * @param segment the segment; may not be null
+     * @throws IOException if the segment cannot be written
+     */
+    public void writeSegment( Path.Segment segment ) throws IOException {
+        // the lowest bit marks identifier segments, the others hold the SNS index
+        writeVarInt((segment.getIndex() << 1) | (segment.isIdentifier() ? 1 : 0));
+        writeName(segment.getName());
+    }
+
+    /**
+     * Writes a path.
+     *
+     * @param path the path; may be null
+     * @throws IOException if the path cannot be written
+     */
+    public void writePath( Path path ) throws IOException {
+        output.writeBoolean(path != null);
+        if (path == null) {
+            return;
+        }
+        if (path.isRoot()) {
+            output.writeByte(PATH_ROOT);
+        } else if (path.isIdentifier()) {
+            output.writeByte(PATH_IDENTIFIER);
+            writeName(path.getLastSegment().getName());
+        } else {
+            output.writeByte(path.isAbsolute() ? PATH_ABSOLUTE : PATH_RELATIVE);
+            List<Path.Segment> segments = path.getSegmentsList();
+            writeVarInt(segments.size());
+            for (Path.Segment segment : segments) {
+                writeSegment(segment);
+            }
+        }
+    }
+
+    /**
+     * Writes a property together with its values.
+     *
+     * @param property the property; may be null
+     * @throws IOException if the property cannot be written
+     */
+    public void writeProperty( Property property ) throws IOException {
+        output.writeBoolean(property != null);
+        if (property == null) {
+            return;
+        }
+        writeName(property.getName());
+        if (property.isEmpty()) {
+            output.writeByte(PROPERTY_EMPTY);
+        } else if (property.isSingle()) {
+            output.writeByte(PROPERTY_SINGLE);
+            writeValue(property.getFirstValue());
+        } else {
+            output.writeByte(PROPERTY_MULTIPLE);
+            Object[] values = property.getValuesAsArray();
+            writeVarInt(values.length);
+            for (Object value : values) {
+                writeValue(value);
+            }
+        }
+    }
+
+    /**
+     * Writes a property value.
+     *
+     * @param value the value; may be null
+     * @throws IOException if the value cannot be written
+     */
+    public void writeValue( Object value ) throws IOException {
+        if (value == null) {
+            output.writeByte(VALUE_NULL);
+        } else if (value instanceof String) {
+            output.writeByte(VALUE_STRING);
+            writeText((String)value);
+        } else if (value instanceof Long) {
+            output.writeByte(VALUE_LONG);
+            output.writeLong((Long)value);
+        } else if (value instanceof Double) {
+            output.writeByte(VALUE_DOUBLE);
+            output.writeDouble((Double)value);
+        } else if (value instanceof Boolean) {
+            output.writeByte(VALUE_BOOLEAN);
+            output.writeBoolean((Boolean)value);
+        } else if (value instanceof BigDecimal) {
+            output.writeByte(VALUE_DECIMAL);
+            writeText(value.toString());
+        } else if (value instanceof ModeShapeDateTime) {
+            output.writeByte(VALUE_DATE);
+            ZonedDateTime dateTime = ((DateTime)value).toZonedDateTime();
+            output.writeLong(dateTime.toEpochSecond());
+            writeVarInt(dateTime.getNano());
+            writeString(dateTime.getZone().getId());
+        } else if (value instanceof Name) {
+            output.writeByte(VALUE_NAME);
+            writeName((Name)value);
+        } else if (value instanceof Path) {
+            output.writeByte(VALUE_PATH);
+            writePath((Path)value);
+        } else if (value.getClass() == NodeKeyReference.class) {
+            NodeKeyReference reference = (NodeKeyReference)value;
+            output.writeByte(VALUE_NODE_KEY_REFERENCE);
+            writeNodeKey(reference.getNodeKey());
+            output.writeByte((reference.isWeak() ? 1 : 0) | (reference.isForeign() ? 2 : 0) | (reference.isSimple() ? 4 : 0));
+        } else if (value.getClass() == StringReference.class) {
+            StringReference reference = (StringReference)value;
+            output.writeByte(VALUE_STRING_REFERENCE);
+            writeText(reference.getString());
+            output.writeBoolean(reference.isWeak());
+        } else if (value instanceof URI) {
+            output.writeByte(VALUE_URI);
+            writeText(value.toString());
+        } else {
+            output.writeByte(VALUE_SERIALIZED);
+            writeSerialized((Serializable)value);
+        }
+    }
+
+    /**
+     * Writes an object using Java serialization.
+     *
+     * @param value the object; may be null
+     * @throws IOException if the object cannot be written
+     */
+    public void writeSerialized( Serializable value ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+            stream.writeObject(value);
+        }
+        writeVarInt(bytes.size());
+        output.write(bytes.toByteArray());
+    }
+
+    private static UUID uuidOrNull( String identifier ) {
+        if (!NodeKey.isValidRandomIdentifier(identifier)) {
+            return null;
+        }
+        UUID uuid = UUID.fromString(identifier);
+        // only use the binary form if the identifier can be restored exactly
+        return uuid.toString().equals(identifier) ? uuid : null;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jmx;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Value holder which exposes {@link org.modeshape.jcr.ReindexingProgress} to JMX.
+ *
+ * @since 5.5
+ */
+public class ReindexingData {
+
+    private final boolean running;
+    private final long reindexedNodes;
+    private final int subtrees;
+    private final int completedSubtrees;
+    private final long elapsedSeconds;
+    private final long estimatedRemainingSeconds;
+
+    /**
+     * @param running whether the content is being reindexed
+     * @param reindexedNodes the number of nodes written to the indexes
+     * @param subtrees the number of subtrees which have to be reindexed
+     * @param completedSubtrees the number of subtrees which are completely reindexed
+     * @param elapsedSeconds the time elapsed since the reindexing was started, in seconds
+     * @param estimatedRemainingSeconds the estimated time until the reindexing is completed, in seconds, or -1 if unknown
+     */
+    @ConstructorProperties( {"running", "reindexedNodes", "subtrees", "completedSubtrees", "elapsedSeconds",
+        "estimatedRemainingSeconds"} )
+    public ReindexingData( boolean running,
+                           long reindexedNodes,
+                           int subtrees,
+                           int completedSubtrees,
+                           long elapsedSeconds,
+                           long estimatedRemainingSeconds ) {
+        this.running = running;
+        this.reindexedNodes = reindexedNodes;
+        this.subtrees = subtrees;
+        this.completedSubtrees = completedSubtrees;
+        this.elapsedSeconds = elapsedSeconds;
+        this.estimatedRemainingSeconds = estimatedRemainingSeconds;
+    }
+
+    /**
+     * @return true if the content is being reindexed, or false otherwise
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the number of nodes written to the indexes
+     */
+    public long getReindexedNodes() {
+        return reindexedNodes;
+    }
+
+    /**
+     * @return the number of subtrees which have to be reindexed
+     */
+    public int getSubtrees() {
+        return subtrees;
+    }
+
+    /**
+     * @return the number of subtrees which are completely reindexed
+     */
+    public int getCompletedSubtrees() {
+        return completedSubtrees;
+    }
+
+    /**
+     * @return the time elapsed since the reindexing was started, in seconds
+     */
+    public long getElapsedSeconds() {
+        return elapsedSeconds;
+    }
+
+    /**
+     * @return the estimated time until the reindexing is completed, in seconds; -1 if it cannot be estimated
+     */
+    public long getEstimatedRemainingSeconds() {
+        return estimatedRemainingSeconds;
+    }
+}
@@ -29,6 +29,7 @@ import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.ReindexingProgress;
 import org.modeshape.jcr.api.monitor.DurationActivity;
 import org.modeshape.jcr.api.monitor.DurationMetric;
 import org.modeshape.jcr.api.monitor.History;
@@ -47,6 +48,7 @@ public class RepositoryStatisticsBean implements RepositoryStatisticsMXBean {
     private static final Logger LOGGER = Logger.getLogger(RepositoryStatisticsBean.class);
 
     private final RepositoryMonitor monitor;
+    private final ReindexingProgress reindexingProgress;
     private final String repositoryName;
 
     /**
@@ -55,7 +57,19 @@ public class RepositoryStatisticsBean implements RepositoryStatisticsMXBean {
      */
     public RepositoryStatisticsBean( RepositoryMonitor monitor,
                                      String repositoryName ) {
+        this(monitor, null, repositoryName);
+    }
+
+    /**
+     * @param monitor an active {@link RepositoryMonitor} instance which will be used for getting repository statistics
+     * @param reindexingProgress the progress of the reindexing operations of the repository; may be null
+     * @param repositoryName a non-null String, the name of the repository.
+     */
+    public RepositoryStatisticsBean( RepositoryMonitor monitor,
+                                     ReindexingProgress reindexingProgress,
+                                     String repositoryName ) {
         this.monitor = monitor;
+        this.reindexingProgress = reindexingProgress;
         this.repositoryName = repositoryName;
     }
 
@@ -125,6 +139,17 @@ public class RepositoryStatisticsBean implements RepositoryStatisticsMXBean {
         return result;
     }
 
+    @Override
+    public ReindexingData getReindexingProgress() {
+        if (reindexingProgress == null) {
+            return new ReindexingData(false, 0L, 0, 0, 0L, -1L);
+        }
+        return new ReindexingData(reindexingProgress.isRunning(), reindexingProgress.getReindexedNodeCount(),
+                                  reindexingProgress.getSubtreeCount(), reindexingProgress.getCompletedSubtreeCount(),
+                                  reindexingProgress.getElapsedTime(TimeUnit.SECONDS),
+                                  reindexingProgress.getEstimatedRemainingTime(TimeUnit.SECONDS));
+    }
+
     @Override
     public HistoricalData getValues( ValueMetric metric,
                                      Window windowInTime ) throws MBeanException {
@@ -63,6 +63,17 @@ public interface RepositoryStatisticsMXBean {
     @Details( "A list of enums which represent the available time intervals that should be used as operation parameters" )
     List<EnumDescription> getTimeWindows();
 
+    /**
+     * Get the progress of the operations which reindex the content of the repository, together with the estimated time until
+     * they are completed.
+     *
+     * @return the progress of the current reindexing operations, or of the last ones if the content is not being reindexed;
+     *         never null
+     * @see org.modeshape.jcr.RepositoryStatistics#reindexingProgress()
+     */
+    @Details( "The progress and the estimated remaining time of the operations which reindex the repository content" )
+    ReindexingData getReindexingProgress();
+
     /**
      * Get the statistics for the specified value metric during the given window in time.
      * 
@@ -94,6 +94,7 @@ import org.modeshape.common.FixFor;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.jcr.ValidateQuery.Predicate;
 import org.modeshape.jcr.ValidateQuery.ValidationBuilder;
+import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.api.query.QueryManager;
 import org.modeshape.jcr.api.query.qom.Limit;
 import org.modeshape.jcr.api.query.qom.QueryObjectModelFactory;
@@ -703,6 +704,31 @@ public class JcrQueryManagerTest extends MultiUseAbstractTest {
         validateQuery().rowCount(4).validate(query, query.execute());
     }
 
+    @Test
+    public void shouldReuseCachedQueryPlansForOtherValuesOfTheSameVariables() throws RepositoryException {
+        RepositoryStatistics statistics = repository.getRepositoryStatistics();
+        long hits = statistics.incrementsSinceStart(ValueMetric.QUERY_PLAN_CACHE_HITS);
+        long misses = statistics.incrementsSinceStart(ValueMetric.QUERY_PLAN_CACHE_MISSES);
+
+        String sql = "SELECT [jcr:path] FROM [car:Car] WHERE [car:maker] = $maker";
+        String[] makers = {"Toyota", "Land Rover", "Toyota", "Infiniti", "Land Rover"};
+        int[] rowCounts = {3, 2, 3, 1, 2};
+        for (int i = 0; i != makers.length; i++) {
+            // the expression is planned only the first time, and the plan is bound to the value of each execution ...
+            Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+            query.bindValue("maker", session.getValueFactory().createValue(makers[i]));
+            validateQuery().rowCount(rowCounts[i]).validate(query, query.execute());
+        }
+        assertThat(statistics.incrementsSinceStart(ValueMetric.QUERY_PLAN_CACHE_MISSES) - misses, is(1L));
+        assertThat(statistics.incrementsSinceStart(ValueMetric.QUERY_PLAN_CACHE_HITS) - hits, is(4L));
+
+        // a value of another type requires another plan ...
+        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        query.bindValue("maker", session.getValueFactory().createValue(1L));
+        validateQuery().rowCount(0).validate(query, query.execute());
+        assertThat(statistics.incrementsSinceStart(ValueMetric.QUERY_PLAN_CACHE_MISSES) - misses, is(2L));
+    }
+
     @FixFor("MODE-2499")
     @Test
     public void shouldThrowExceptionWhenXPathSyntaxNotValid() throws RepositoryException {
@@ -5073,6 +5099,29 @@ public class JcrQueryManagerTest extends MultiUseAbstractTest {
         validateQuery().rowCount(totalNodeCount).noWarnings().validate(query, result);
     }
 
+    @Test
+    public void shouldStreamQueryResultsWhenRequested() throws RepositoryException {
+        String sql = "SELECT [car:model] FROM [car:Car] WHERE [car:model] IS NOT NULL ORDER BY [car:model]";
+        org.modeshape.jcr.api.query.Query query = (org.modeshape.jcr.api.query.Query)session.getWorkspace().getQueryManager()
+                                                                                           .createQuery(sql, Query.JCR_SQL2);
+        query.streaming(true);
+        QueryResult result = query.execute();
+        RowIterator rows = result.getRows();
+        long count = 0L;
+        while (rows.hasNext()) {
+            rows.nextRow();
+            ++count;
+        }
+        assertThat(count, is(13L));
+        assertThat(rows.getSize(), is(13L));
+        try {
+            result.getRows();
+            fail("Streamed results should not be restartable");
+        } catch (RepositoryException e) {
+            // expected
+        }
+    }
+
     private void registerNodeType( String typeName ) throws RepositoryException {
         NodeTypeManager nodeTypeManager = session.getWorkspace().getNodeTypeManager();
 
@@ -0,0 +1,157 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.query.Query;
+import org.junit.Test;
+import org.modeshape.common.util.FileUtil;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.schematic.document.Json;
+
+/**
+ * Tests the reindexing of the workspace content by several threads, using a {@link ParallelReindexing} and saving the progress in
+ * {@link ReindexingCheckpoints}.
+ */
+public class ParallelReindexingTest extends SingleUseAbstractTest {
+
+    private static final String DIRECTORY = "target/parallel_reindexing";
+    private static final String CHECKPOINTS_DIRECTORY = DIRECTORY + "/checkpoints";
+
+    @Override
+    public void beforeEach() throws Exception {
+        FileUtil.delete(DIRECTORY);
+        super.beforeEach();
+    }
+
+    @Override
+    protected RepositoryConfiguration createRepositoryConfiguration( String repositoryName ) throws Exception {
+        String config = "{ 'name' : '" + repositoryName + "', "
+                        + "'indexProviders' : { 'local' : { 'classname' : 'org.modeshape.jcr.index.local.LocalIndexProvider', "
+                        + "'directory' : '" + DIRECTORY + "/indexes' } }, "
+                        + "'indexes' : { 'colors' : { 'kind' : 'value', 'provider' : 'local', 'nodeType' : 'nt:unstructured', "
+                        + "'columns' : 'color(STRING)' } }, "
+                        + "'reindexing' : { 'async' : false, 'parallelism' : 3, 'batchSize' : 7, "
+                        + "'checkpointLocation' : '" + CHECKPOINTS_DIRECTORY + "' } }";
+        return new RepositoryConfiguration(Json.read(config), repositoryName);
+    }
+
+    @Test
+    public void shouldReindexAllTheContentInParallelAndReportTheProgress() throws Exception {
+        for (int i = 0; i != 4; i++) {
+            Node folder = session.getRootNode().addNode("folder" + i);
+            for (int j = 0; j != 30; j++) {
+                folder.addNode("node" + j).setProperty("color", j % 2 == 0 ? "red" : "blue");
+            }
+        }
+        session.save();
+
+        session.getWorkspace().reindex();
+
+        ReindexingProgress progress = repository.runningState().statistics().reindexingProgress();
+        assertFalse(progress.isRunning());
+        assertTrue(progress.getReindexedNodeCount() >= 124L);
+        assertTrue(progress.getSubtreeCount() > 0);
+        assertEquals(progress.getSubtreeCount(), progress.getCompletedSubtreeCount());
+        assertEquals(-1L, progress.getEstimatedRemainingTime(TimeUnit.MILLISECONDS));
+        assertEquals(60L, countNodes("SELECT * FROM [nt:unstructured] WHERE [color] = 'red'"));
+
+        // the checkpoint of the completed reindexing is removed ...
+        String[] checkpoints = new File(CHECKPOINTS_DIRECTORY).list();
+        assertTrue(checkpoints == null || checkpoints.length == 0);
+    }
+
+    @Test
+    public void shouldReindexSeveralWorkspacesAtTheSameTime() throws Exception {
+        // there are more concurrent reindexing operations than threads in the pool which runs them ...
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i != 6; i++) {
+            String workspaceName = "workspace" + i;
+            session.getWorkspace().createWorkspace(workspaceName);
+            JcrSession workspaceSession = repository.login(workspaceName);
+            for (int j = 0; j != 10; j++) {
+                workspaceSession.getRootNode().addNode("folder" + j).addNode("node").setProperty("color", "red");
+            }
+            workspaceSession.save();
+            results.add(workspaceSession.getWorkspace().reindexAsync());
+        }
+        for (Future<Boolean> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        assertEquals(10L, countNodes("SELECT * FROM [nt:unstructured] WHERE [color] = 'red'", repository.login("workspace0")));
+    }
+
+    @Test
+    public void shouldResumeOnlyTheSubtreesWhichWereNotCompletedWithTheSameIndexes() throws Exception {
+        ReindexingCheckpoints checkpoints = new ReindexingCheckpoints(new File(CHECKPOINTS_DIRECTORY), REPO_NAME);
+        NodeKey top = new NodeKey("source1worksp1top");
+        NodeKey first = new NodeKey("source1worksp1first");
+        NodeKey second = new NodeKey("source1worksp1second");
+
+        ReindexingCheckpoints.Checkpoint checkpoint = checkpoints.open("default", top, true, "indexes", false);
+        // the same content cannot be checkpointed twice at the same time ...
+        assertNull(checkpoints.open("default", top, true, "indexes", true));
+        checkpoint.completed(first);
+        checkpoint.save(checkpoint.completedSubtrees());
+        checkpoint.completed(second);
+        checkpoint.interrupted();
+
+        assertEquals(1, checkpoints.interrupted().size());
+        ReindexingCheckpoints.Interrupted interrupted = checkpoints.interrupted().get(0);
+        assertEquals("default", interrupted.workspaceName());
+        assertEquals(top, interrupted.startKey());
+        assertTrue(interrupted.includeSystemContent());
+
+        // only the subtrees which were saved are resumed ...
+        checkpoint = checkpoints.open("default", top, true, "indexes", true);
+        assertEquals(Collections.singleton(first), checkpoint.completedSubtrees());
+        assertTrue(checkpoint.isResumed(first));
+        assertFalse(checkpoint.isResumed(second));
+        checkpoint.interrupted();
+
+        // nothing is resumed when the indexes are different ...
+        checkpoint = checkpoints.open("default", top, true, "otherIndexes", true);
+        assertFalse(checkpoint.isResumed(first));
+        checkpoint.finished();
+        assertTrue(checkpoints.interrupted().isEmpty());
+    }
+
+    private long countNodes( String sql ) throws Exception {
+        return countNodes(sql, session);
+    }
+
+    private long countNodes( String sql,
+                             JcrSession querySession ) throws Exception {
+        Query query = querySession.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        long count = 0L;
+        for (NodeIterator nodes = query.execute().getNodes(); nodes.hasNext();) {
+            nodes.nextNode();
+            ++count;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr;
+
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.jcr.Credentials;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.query.Query;
+import javax.jcr.security.AccessControlList;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+import org.junit.Test;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.query.engine.QueryResultCache;
+import org.modeshape.jcr.security.AuthenticationProvider;
+import org.modeshape.jcr.security.SecurityContext;
+import org.modeshape.jcr.security.SimplePrincipal;
+import org.modeshape.schematic.document.Json;
+
+/**
+ * Tests the caching of query results by a repository using a {@link QueryResultCache}.
+ */
+public class QueryResultCacheTest extends SingleUseAbstractTest {
+
+    private static final String QUERY = "SELECT [jcr:path] FROM [nt:unstructured] WHERE [color] = 'red' ORDER BY [jcr:path]";
+
+    @Override
+    protected RepositoryConfiguration createRepositoryConfiguration( String repositoryName ) throws Exception {
+        String config = "{ 'name' : '" + repositoryName + "', 'query' : { 'resultCacheSize' : 10 }, "
+                        + "'security' : { 'providers' : [ { 'classname' : '" + UserSecurityProvider.class.getName() + "' } ] } }";
+        return new RepositoryConfiguration(Json.read(config), repositoryName);
+    }
+
+    @Test
+    public void shouldReuseTheCachedResultOfIdenticalQueries() throws Exception {
+        addNode("a", "nt:unstructured", "red");
+        addNode("b", "nt:unstructured", "blue");
+        session.save();
+
+        long hits = cacheHits();
+        assertEquals(Arrays.asList("/a"), paths(QUERY));
+        assertEquals(1L, resultCache().size());
+        assertEquals(hits, cacheHits());
+        assertEquals(Arrays.asList("/a"), paths(QUERY));
+        assertEquals(1L, resultCache().size());
+        assertEquals(hits + 1, cacheHits());
+    }
+
+    @Test
+    public void shouldApplyThePermissionsOfEachSessionToTheCachedResult() throws Exception {
+        addNode("a", "nt:unstructured", "red");
+        addNode("b", "nt:unstructured", "red");
+        AccessControlManager acm = session.getAccessControlManager();
+        AccessControlList acl = acl("/b");
+        acl.addAccessControlEntry(SimplePrincipal.newInstance("alice"),
+                                  new Privilege[] {acm.privilegeFromName(Privilege.JCR_ALL)});
+        acm.setPolicy("/b", acl);
+        session.save();
+
+        long hits = cacheHits();
+        assertEquals(Arrays.asList("/a", "/b"), paths(QUERY, "alice"));
+        assertEquals(1L, resultCache().size());
+        assertEquals(hits, cacheHits());
+
+        // the result cached for 'alice' is reused, but 'bob' may not read '/b' ...
+        assertEquals(Arrays.asList("/a"), paths(QUERY, "bob"));
+        assertEquals(hits + 1, cacheHits());
+    }
+
+    @Test
+    public void shouldInvalidateTheCachedResultWhenNodesOfTheQueriedTypeAreAdded() throws Exception {
+        addNode("a", "nt:unstructured", "red");
+        session.save();
+        assertEquals(Arrays.asList("/a"), paths(QUERY));
+
+        addNode("c", "nt:unstructured", "red");
+        session.save();
+        assertEquals(0L, resultCache().size());
+        assertEquals(Arrays.asList("/a", "/c"), paths(QUERY));
+    }
+
+    @Test
+    public void shouldInvalidateTheCachedResultWhenPropertiesUsedByTheQueryChange() throws Exception {
+        Node a = addNode("a", "nt:unstructured", "red");
+        session.save();
+        assertEquals(Arrays.asList("/a"), paths(QUERY));
+
+        a.setProperty("color", "blue");
+        session.save();
+        assertEquals(0L, resultCache().size());
+        assertEquals(Collections.<String>emptyList(), paths(QUERY));
+    }
+
+    @Test
+    public void shouldKeepTheCachedResultWhenUnrelatedNodesOrPropertiesChange() throws Exception {
+        Node a = addNode("a", "nt:unstructured", "red");
+        session.save();
+        assertEquals(Arrays.asList("/a"), paths(QUERY));
+
+        session.getRootNode().addNode("folder", "nt:folder");
+        session.save();
+        assertEquals(1L, resultCache().size());
+
+        a.setProperty("size", 10L);
+        session.save();
+        assertEquals(1L, resultCache().size());
+        assertEquals(Arrays.asList("/a"), paths(QUERY));
+    }
+
+    @Test
+    public void shouldNotCacheTheResultsOfSessionsWithTransientChanges() throws Exception {
+        addNode("a", "nt:unstructured", "red");
+        session.save();
+        addNode("b", "nt:unstructured", "blue");
+
+        paths(QUERY);
+        assertEquals(0L, resultCache().size());
+    }
+
+    @Test
+    public void shouldInvalidateTheCachedResultWhenTheIncludedSystemContentChanges() throws Exception {
+        Node a = session.getRootNode().addNode("a", "nt:unstructured");
+        a.addMixin("mix:versionable");
+        session.save();
+        String versions = "SELECT [jcr:path] FROM [nt:version] ORDER BY [jcr:path]";
+        // the root version of '/a' ...
+        assertEquals(1, paths(versions).size());
+        assertEquals(1L, resultCache().size());
+
+        // the version is added to the system workspace, but the result was cached for the 'default' workspace ...
+        session.getWorkspace().getVersionManager().checkin("/a");
+        assertEquals(0L, resultCache().size());
+        assertEquals(2, paths(versions).size());
+    }
+
+    private Node addNode( String name,
+                          String primaryType,
+                          String color ) throws Exception {
+        Node node = session.getRootNode().addNode(name, primaryType);
+        node.setProperty("color", color);
+        return node;
+    }
+
+    private List<String> paths( String sql ) throws Exception {
+        return paths(sql, session);
+    }
+
+    private List<String> paths( String sql,
+                                String userName ) throws Exception {
+        Session userSession = repository.login(new SimpleCredentials(userName, userName.toCharArray()));
+        try {
+            return paths(sql, userSession);
+        } finally {
+            userSession.logout();
+        }
+    }
+
+    private List<String> paths( String sql,
+                                Session session ) throws Exception {
+        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        List<String> paths = new ArrayList<>();
+        for (NodeIterator nodes = query.execute().getNodes(); nodes.hasNext();) {
+            paths.add(nodes.nextNode().getPath());
+        }
+        return paths;
+    }
+
+    private QueryResultCache resultCache() {
+        return repository.runningState().queryManager().resultCache();
+    }
+
+    private long cacheHits() {
+        return repository.getRepositoryStatistics().incrementsSinceStart(ValueMetric.QUERY_RESULT_CACHE_HITS);
+    }
+
+    /**
+     * Authenticates {@link SimpleCredentials} as the user with the same name, who has the admin role but no other roles, so
+     * that the access control lists which name a different user don't apply to it.
+     */
+    public static class UserSecurityProvider implements AuthenticationProvider {
+        @Override
+        public ExecutionContext authenticate( Credentials credentials,
+                                              String repositoryName,
+                                              String workspaceName,
+                                              ExecutionContext repositoryContext,
+                                              Map<String, Object> sessionAttributes ) {
+            if (!(credentials instanceof SimpleCredentials)) {
+                return null;
+            }
+            final String userName = ((SimpleCredentials)credentials).getUserID();
+            return repositoryContext.with(new SecurityContext() {
+                @Override
+                public boolean isAnonymous() {
+                    return false;
+                }
+
+                @Override
+                public String getUserName() {
+                    return userName;
+                }
+
+                @Override
+                public boolean hasRole( String roleName ) {
+                    return roleName.startsWith(ModeShapeRoles.ADMIN);
+                }
+
+                @Override
+                public void logout() {
+                }
+            });
+        }
+    }
+}
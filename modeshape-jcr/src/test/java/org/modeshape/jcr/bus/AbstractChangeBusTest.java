@@ -22,8 +22,10 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -357,6 +359,29 @@ public abstract class AbstractChangeBusTest {
         }
     }
 
+    protected static class KeysChangeSet extends TestChangeSet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Set<NodeKey> keys;
+
+        protected KeysChangeSet( String workspaceName,
+                                 NodeKey... keys ) {
+            super(workspaceName);
+            this.keys = new HashSet<>(Arrays.asList(keys));
+        }
+
+        @Override
+        public Set<NodeKey> changedNodes() {
+            return keys;
+        }
+
+        @Override
+        public String getProcessKey() {
+            return "process";
+        }
+    }
+
     protected static class TestListener implements ChangeSetListener {
         private final ConcurrentLinkedDeque<TestChangeSet> receivedChangeSet;
         private final long timeoutMillis;
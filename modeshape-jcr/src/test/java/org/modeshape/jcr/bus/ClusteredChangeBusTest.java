@@ -16,19 +16,31 @@
 
 package org.modeshape.jcr.bus;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.modeshape.jcr.ClusteringHelper;
+import org.modeshape.jcr.RepositoryConfiguration;
+import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.change.ChangeSet;
 import org.modeshape.jcr.cache.change.ChangeSetListener;
 import org.modeshape.jcr.clustering.ClusteringService;
+import org.modeshape.jcr.clustering.MessageConsumer;
 
 /**
  * Unit test for {@link ClusteredChangeBus}
@@ -137,6 +149,105 @@ public class ClusteredChangeBusTest extends AbstractChangeBusTest {
         listener3.assertNoEvents();
     }
     
+    @Test
+    public void shouldOnlySendChangedNodeKeysToBusesWhichDontRequireChanges() throws Exception {
+        ClusteredChangeBus sender = startNewBus(0);
+        TestListener localListener = new TestListener(2);
+        sender.register(localListener);
+        EvictingListener listener1 = new EvictingListener();
+        EvictingListener listener2 = new EvictingListener();
+        startNewBus(1).register(listener1);
+        startNewBus(2).register(listener2);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (sender.otherMembersRequireChanges()) {
+            assertTrue("The other buses never announced their interest", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        NodeKey root = new NodeKey("source1works1-root");
+        NodeKey key1 = root.withRandomId();
+        NodeKey key2 = root.withRandomId();
+        NodeKey key3 = root.withRandomId();
+        ChangeSet changeSet1 = new KeysChangeSet("ws1", key1, key2);
+        ChangeSet changeSet2 = new KeysChangeSet("ws1", key2, key3);
+        sender.notify(changeSet1);
+        sender.notify(changeSet2);
+
+        // the local listener should get the full changes, and the remote ones only the keys
+        localListener.assertExpectedEvents(changeSet1, changeSet2);
+        listener1.assertEvicted(key1, key2, key3);
+        listener2.assertEvicted(key1, key2, key3);
+    }
+
+    @Test
+    public void shouldProcessLocalChangesInTheSameOrderAsTheSystemChanges() throws Exception {
+        ClusteredChangeBus sender = startNewBus(0);
+        TestListener localListener = new TestListener(4);
+        sender.register(localListener);
+        startNewBus(1).register(new EvictingListener());
+        startNewBus(2).register(new EvictingListener());
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (sender.otherMembersRequireChanges()) {
+            assertTrue("The other buses never announced their interest", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        // the system changes are always sent in full, while the others are only sent as keys ...
+        NodeKey root = new NodeKey("source1works1-root");
+        ChangeSet changeSet1 = new KeysChangeSet("ws1", root.withRandomId());
+        ChangeSet changeSet2 = new TestChangeSet(RepositoryConfiguration.SYSTEM_WORKSPACE_NAME);
+        ChangeSet changeSet3 = new KeysChangeSet("ws1", root.withRandomId());
+        ChangeSet changeSet4 = new TestChangeSet(RepositoryConfiguration.SYSTEM_WORKSPACE_NAME);
+        sender.notify(changeSet1);
+        sender.notify(changeSet2);
+        sender.notify(changeSet3);
+        sender.notify(changeSet4);
+
+        localListener.assertExpectedEvents(changeSet1, changeSet2, changeSet3, changeSet4);
+        assertEquals(Arrays.asList(changeSet1, changeSet2, changeSet3, changeSet4), localListener.getObservedChangeSet());
+    }
+
+    @Test
+    public void shouldAskForTheFullChangesWhichWereOnlySentAsKeys() throws Exception {
+        ClusteredChangeBus sender = startNewBus(0);
+        ClusteredChangeBus receiver = startNewBus(1);
+        receiver.register(new EvictingListener());
+        startNewBus(2).register(new EvictingListener());
+        List<NodeKeysInvalidation> invalidations = new CopyOnWriteArrayList<>();
+        clusteringServices.get(1).addConsumer(new MessageConsumer<NodeKeysInvalidation>(NodeKeysInvalidation.class) {
+            @Override
+            public void consume( NodeKeysInvalidation invalidation ) {
+                invalidations.add(invalidation);
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (sender.otherMembersRequireChanges()) {
+            assertTrue("The other buses never announced their interest", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        ChangeSet changeSet = new KeysChangeSet("ws1", new NodeKey("source1works1-root").withRandomId());
+        sender.notify(changeSet);
+        while (invalidations.isEmpty()) {
+            assertTrue("The keys were never sent", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        // a listener which requires the full changes is registered while the keys are delivered ...
+        List<ChangeSet> received = new CopyOnWriteArrayList<>();
+        receiver.register(received::add);
+        receiver.consumeInvalidation(invalidations.get(0));
+
+        // it should not see the keys, but only the full changes which the receiver asks the sender for
+        deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (received.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList(changeSet), received);
+    }
+
     private ClusteredChangeBus startNewBus(int clusteringServiceIdx) throws Exception {
         ChangeBus internalBus = new RepositoryChangeBus("repo", executorService);
         ClusteredChangeBus bus = new ClusteredChangeBus(internalBus, clusteringServices.get(clusteringServiceIdx));
@@ -151,4 +262,32 @@ public class ClusteredChangeBusTest extends AbstractChangeBusTest {
             bus.register(listeners[i]);
         }
     }
+
+    protected static class EvictingListener implements ChangeSetListener {
+        private final Set<NodeKey> evictedKeys = ConcurrentHashMap.newKeySet();
+        private volatile boolean receivedFullChanges;
+
+        @Override
+        public void notify( ChangeSet changeSet ) {
+            if (changeSet instanceof TestChangeSet) {
+                receivedFullChanges = true;
+            }
+            evictedKeys.addAll(changeSet.changedNodes());
+        }
+
+        @Override
+        public boolean requiresRemoteChanges() {
+            return false;
+        }
+
+        protected void assertEvicted( NodeKey... keys ) throws InterruptedException {
+            Set<NodeKey> expected = new HashSet<>(Arrays.asList(keys));
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (!evictedKeys.containsAll(expected) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(expected, evictedKeys);
+            assertFalse("Full changes should not be sent", receivedFullChanges);
+        }
+    }
 }
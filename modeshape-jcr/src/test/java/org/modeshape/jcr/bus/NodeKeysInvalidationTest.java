@@ -0,0 +1,136 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.bus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.Test;
+import org.modeshape.jcr.bus.AbstractChangeBusTest.KeysChangeSet;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.ChangeSet;
+
+/**
+ * Unit test for {@link NodeKeysInvalidation}.
+ */
+public class NodeKeysInvalidationTest {
+
+    private static final NodeKey ROOT = new NodeKey("source1works1-root");
+
+    @Test
+    public void shouldCoalesceKeysPerWorkspace() throws Exception {
+        NodeKey key1 = ROOT.withRandomId();
+        NodeKey key2 = ROOT.withRandomId();
+        NodeKey key3 = ROOT.withRandomId();
+
+        NodeKeysInvalidation invalidation = new NodeKeysInvalidation("bus", 1L);
+        invalidation.add(new KeysChangeSet("ws1", key1, key2));
+        invalidation.add(new KeysChangeSet("ws1", key2, key3));
+        invalidation.add(new KeysChangeSet("ws2", key1));
+        invalidation.add(new KeysChangeSet("ws3"));
+        assertEquals(4, invalidation.keyCount());
+
+        Collection<ChangeSet> changeSets = invalidation.changeSets();
+        assertEquals(2, changeSets.size());
+        Iterator<ChangeSet> iterator = changeSets.iterator();
+        assertEquals(keys(key1, key2, key3), iterator.next().changedNodes());
+        assertEquals(keys(key1), iterator.next().changedNodes());
+    }
+
+    @Test
+    public void shouldWriteAndReadKeys() throws Exception {
+        Set<NodeKey> keys = new HashSet<>();
+        for (int i = 0; i != 1000; i++) {
+            keys.add(ROOT.withRandomId());
+        }
+        keys.add(ROOT.withId("custom-identifier"));
+        keys.add(ROOT.withId(UUID.randomUUID().toString().toUpperCase()));
+        keys.add(new NodeKey("source2works2-" + UUID.randomUUID()));
+
+        NodeKeysInvalidation invalidation = new NodeKeysInvalidation("bus", 1L);
+        invalidation.add(new KeysChangeSet("ws1", keys.toArray(new NodeKey[keys.size()])));
+        byte[] bytes = write(invalidation);
+        // the keys should take less than half the space they take when written by Java serialization
+        assertTrue(bytes.length < write(new HashSet<>(keys)).length / 2);
+
+        NodeKeysInvalidation read = (NodeKeysInvalidation)new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+        assertEquals("bus", read.senderId());
+        assertEquals(1L, read.sequence());
+        assertEquals(keys.size(), read.keyCount());
+        ChangeSet changeSet = read.changeSets().iterator().next();
+        assertEquals(keys, changeSet.changedNodes());
+        assertEquals("ws1", changeSet.getWorkspaceName());
+        assertEquals("process", changeSet.getProcessKey());
+        assertNull(changeSet.getRepositoryKey());
+        assertEquals(keys.size(), changeSet.size());
+        assertFalse(changeSet.isEmpty());
+        assertTrue(!changeSet.iterator().hasNext());
+    }
+
+    @Test
+    public void shouldKeepTheOldestInterestVersionsKnownForAllTheChangeSets() throws Exception {
+        NodeKeysInvalidation invalidation = new NodeKeysInvalidation("bus", 1L);
+        invalidation.add(new KeysChangeSet("ws1", ROOT.withRandomId()));
+        invalidation.recordInterestVersions(versions("bus1", 2L, "bus2", 1L));
+        invalidation.add(new KeysChangeSet("ws1", ROOT.withRandomId()));
+        invalidation.recordInterestVersions(versions("bus1", 3L, "bus3", 1L));
+
+        NodeKeysInvalidation read = (NodeKeysInvalidation)new ObjectInputStream(
+                new ByteArrayInputStream(write(invalidation))).readObject();
+        assertEquals(2L, read.interestVersionOf("bus1"));
+        assertEquals(0L, read.interestVersionOf("bus2"));
+        assertEquals(0L, read.interestVersionOf("bus3"));
+        assertEquals(2, read.keyCount());
+        assertTrue(NodeKeysInvalidation.hasOnlyKeys(read.changeSets().iterator().next()));
+        assertFalse(NodeKeysInvalidation.hasOnlyKeys(new KeysChangeSet("ws1", ROOT.withRandomId())));
+    }
+
+    private Map<String, Long> versions( String busId1,
+                                        long version1,
+                                        String busId2,
+                                        long version2 ) {
+        Map<String, Long> versions = new HashMap<>();
+        versions.put(busId1, version1);
+        versions.put(busId2, version2);
+        return versions;
+    }
+
+    private byte[] write( Serializable object ) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Set<NodeKey> keys( NodeKey... keys ) {
+        return new HashSet<>(Arrays.asList(keys));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.modeshape.jcr.cache.document.DocumentSizeWeigher;
+import org.modeshape.jcr.cache.document.LazyCachedNode;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.internal.document.BasicArray;
+import org.modeshape.schematic.internal.document.BasicDocument;
+
+/**
+ * Unit test for {@link SharedNodeCache}.
+ */
+public class SharedNodeCacheTest {
+
+    private static final NodeKey KEY1 = new NodeKey("source1works1-childA");
+    private static final NodeKey KEY2 = new NodeKey("source1works1-childB");
+
+    @Test
+    public void shouldIsolateWorkspaces() {
+        SharedNodeCache cache = new SharedNodeCache(1024 * 1024, (key, node) -> 1, (key, node, cause) -> {});
+        ConcurrentMap<NodeKey, CachedNode> ws1 = cache.forWorkspace("ws1");
+        ConcurrentMap<NodeKey, CachedNode> ws2 = cache.forWorkspace("ws2");
+
+        CachedNode node1 = node(KEY1, 1);
+        CachedNode node2 = node(KEY1, 1);
+        assertNull(ws1.putIfAbsent(KEY1, node1));
+        assertNull(ws2.putIfAbsent(KEY1, node2));
+        ws1.put(KEY2, node(KEY2, 1));
+        assertSame(node1, ws1.get(KEY1));
+        assertSame(node2, ws2.get(KEY1));
+        assertEquals(2, ws1.size());
+        assertEquals(1, ws2.size());
+
+        assertEquals(2, ws1.entrySet().stream().count());
+
+        ws1.clear();
+        assertNull(ws1.get(KEY1));
+        assertNull(ws1.get(KEY2));
+        assertTrue(ws1.isEmpty());
+        assertSame(node2, ws2.get(KEY1));
+        assertEquals(1, ws2.size());
+
+        assertSame(node2, ws2.remove(KEY1));
+        assertTrue(ws2.isEmpty());
+    }
+
+    @Test
+    public void shouldEvictLargeNodesBasedOnWeight() {
+        AtomicInteger evictions = new AtomicInteger();
+        DocumentSizeWeigher weigher = new DocumentSizeWeigher();
+        CachedNode small = node(KEY1, 1);
+        CachedNode large = node(KEY2, 10000);
+        int smallWeight = weigher.weigh(KEY1, small);
+        int largeWeight = weigher.weigh(KEY2, large);
+        assertTrue(largeWeight > 100 * smallWeight);
+
+        SharedNodeCache cache = new SharedNodeCache(largeWeight, weigher, (key, node, cause) -> {
+            if (cause.wasEvicted()) {
+                evictions.incrementAndGet();
+            }
+        });
+        ConcurrentMap<NodeKey, CachedNode> ws = cache.forWorkspace("ws");
+        ws.put(KEY1, small);
+        ws.put(KEY2, large);
+        assertTrue(cache.sizeInBytes() <= largeWeight);
+        assertEquals(1, evictions.get());
+        assertEquals(1, ws.size());
+
+        cache.clear();
+        assertEquals(0, cache.sizeInBytes());
+    }
+
+    private CachedNode node( NodeKey key, int childCount ) {
+        BasicArray children = new BasicArray();
+        for (int i = 0; i < childCount; i++) {
+            children.addValue(new BasicDocument("key", key.withId("child" + i).toString(), "name", "child" + i));
+        }
+        Document document = new BasicDocument("key", key.toString(), "children", children);
+        return new LazyCachedNode(key, document);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.cache.change;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.value.BinaryKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Property;
+
+/**
+ * Unit test for {@link ChangeSetCodec}.
+ */
+public class ChangeSetCodecTest {
+
+    private static final NodeKey ROOT = new NodeKey("source1works1-root");
+
+    private ExecutionContext context;
+    private ChangeSetCodec codec;
+
+    @Before
+    public void beforeEach() {
+        context = new ExecutionContext();
+        codec = new ChangeSetCodec();
+    }
+
+    @Test
+    public void shouldWriteAndReadAllChangeTypes() throws Exception {
+        RecordingChanges changes = new RecordingChanges("session", "process", "repository", "ws", "journal");
+        NodeKey parent = ROOT.withRandomId();
+        NodeKey child = ROOT.withRandomId();
+        Set<Name> mixins = Collections.singleton(name("mix:referenceable"));
+        Map<Name, Property> properties = new HashMap<>();
+        properties.put(name("jcr:title"), property("jcr:title", "title"));
+        properties.put(name("longs"), property("longs", 1L, 2L, 3L));
+        properties.put(name("date"), property("date", context.getValueFactories().getDateFactory().create()));
+        properties.put(name("ref"), property("ref", context.getValueFactories().getReferenceFactory().create(parent, false)));
+        properties.put(name("path"), property("path", path("/a/b[2]")));
+        properties.put(name("empty"), context.getPropertyFactory().create(name("empty")));
+
+        changes.workspaceAdded("ws2");
+        changes.workspaceRemoved("ws3");
+        changes.repositoryMetadataChanged();
+        changes.nodeCreated(child, parent, path("/a/child"), name("nt:unstructured"), mixins, properties);
+        changes.nodeChanged(child, path("/a/child"), name("nt:unstructured"), mixins);
+        changes.nodeMoved(child, name("nt:unstructured"), mixins, parent, ROOT, path("/a/child"), path("/child"));
+        changes.nodeRenamed(child, path("/a/child2"), path("/a/child").getLastSegment(), name("nt:unstructured"), mixins);
+        changes.nodeReordered(child, name("nt:unstructured"), mixins, parent, path("/a/child[2]"), path("/a/child[1]"), null,
+                              Collections.singletonMap(parent, Collections.singletonMap(path("/a/child[1]"),
+                                                                                        path("/a/child[2]"))));
+        changes.nodeRemoved(child, parent, path("/a/child"), name("nt:unstructured"), mixins, name("nt:folder"),
+                            Collections.<Name>emptySet());
+        changes.nodeSequenced(parent, path("/a"), name("nt:file"), mixins, child, path("/a/child"), "/out", "user", "/a",
+                              "sequencer");
+        changes.nodeSequencingFailure(parent, path("/a"), name("nt:file"), mixins, "/out", "user", "/a", "sequencer",
+                                      new IllegalStateException("failed"));
+        changes.propertyAdded(child, name("nt:unstructured"), mixins, path("/a/child"), property("p", "v1"));
+        changes.propertyChanged(child, name("nt:unstructured"), mixins, path("/a/child"), property("p", "v2"),
+                                property("p", "v1"));
+        changes.propertyRemoved(child, name("nt:unstructured"), mixins, path("/a/child"), property("p", "v2"));
+        changes.binaryValueUsed(new BinaryKey("abcdef0123456789"));
+        changes.binaryValueNoLongerUsed(new BinaryKey("0123456789abcdef"));
+        changes.setChangedNodes(new HashSet<>(Arrays.asList(parent, child)));
+        changes.freeze("user", Collections.singletonMap("key", "value"), context.getValueFactories().getDateFactory().create());
+
+        RecordingChanges read = decode(encode(changes));
+        assertEquals(changes.getUUID(), read.getUUID());
+        assertEquals(changes.getSessionId(), read.getSessionId());
+        assertEquals(changes.getProcessKey(), read.getProcessKey());
+        assertEquals(changes.getRepositoryKey(), read.getRepositoryKey());
+        assertEquals(changes.getWorkspaceName(), read.getWorkspaceName());
+        assertEquals(changes.getJournalId(), read.getJournalId());
+        assertEquals(changes.getUserId(), read.getUserId());
+        assertEquals(changes.getUserData(), read.getUserData());
+        assertEquals(changes.getTimestamp(), read.getTimestamp());
+        assertEquals(changes.changedNodes(), read.changedNodes());
+        assertEquals(changes.usedBinaries(), read.usedBinaries());
+        assertEquals(changes.unusedBinaries(), read.unusedBinaries());
+        assertEquals(changes.size(), read.size());
+
+        Iterator<Change> readChanges = read.iterator();
+        for (Change change : changes) {
+            Change readChange = readChanges.next();
+            assertEquals(change.getClass(), readChange.getClass());
+            assertEquals(change.toString(), readChange.toString());
+            if (change instanceof AbstractNodeChange) {
+                AbstractNodeChange nodeChange = (AbstractNodeChange)change;
+                AbstractNodeChange readNodeChange = (AbstractNodeChange)readChange;
+                assertEquals(nodeChange.getKey(), readNodeChange.getKey());
+                assertEquals(nodeChange.getPath(), readNodeChange.getPath());
+                assertEquals(nodeChange.getPrimaryType(), readNodeChange.getPrimaryType());
+                assertEquals(nodeChange.getMixinTypes(), readNodeChange.getMixinTypes());
+            }
+            if (change instanceof NodeAdded) {
+                assertEquals(((NodeAdded)change).getProperties(), ((NodeAdded)readChange).getProperties());
+            } else if (change instanceof PropertyChanged) {
+                assertEquals(((PropertyChanged)change).getOldProperty(), ((PropertyChanged)readChange).getOldProperty());
+            } else if (change instanceof NodeReordered) {
+                assertEquals(((NodeReordered)change).getSnsPathChangesByNodeKey(),
+                             ((NodeReordered)readChange).getSnsPathChangesByNodeKey());
+            }
+        }
+    }
+
+    @Test
+    public void shouldWriteChangesMoreCompactlyThanJavaSerialization() throws Exception {
+        RecordingChanges changes = changesWithAddedNodes(1000);
+        byte[] encoded = encode(changes);
+        // the codec should take less than a third of the space taken by Java serialization
+        assertTrue(encoded.length < serialize(changes).length / 3);
+        assertEquals(changes.size(), decode(encoded).size());
+    }
+
+    @Test
+    @Ignore( "This is a perf test" )
+    public void shouldEncodeAndDecodeFasterThanJavaSerialization() throws Exception {
+        RecordingChanges changes = changesWithAddedNodes(100);
+        int iterations = 20000;
+        for (int i = 0; i != iterations; i++) {
+            decode(encode(changes));
+            deserialize(serialize(changes));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i != iterations; i++) {
+            decode(encode(changes));
+        }
+        long codecNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i != iterations; i++) {
+            deserialize(serialize(changes));
+        }
+        long serializationNanos = System.nanoTime() - start;
+
+        System.out.println("Codec: " + encode(changes).length + " bytes, " + TimeUnit.NANOSECONDS.toMillis(codecNanos)
+                           + " millis; Java serialization: " + serialize(changes).length + " bytes, "
+                           + TimeUnit.NANOSECONDS.toMillis(serializationNanos) + " millis");
+    }
+
+    private RecordingChanges changesWithAddedNodes( int count ) {
+        RecordingChanges changes = new RecordingChanges("session", "process", "repository", "ws", "journal");
+        NodeKey parent = ROOT.withRandomId();
+        Set<NodeKey> keys = new HashSet<>();
+        for (int i = 0; i != count; i++) {
+            NodeKey key = ROOT.withRandomId();
+            keys.add(key);
+            Map<Name, Property> properties = new HashMap<>();
+            properties.put(name("jcr:primaryType"), property("jcr:primaryType", name("nt:unstructured")));
+            properties.put(name("jcr:title"), property("jcr:title", "title " + i));
+            properties.put(name("count"), property("count", (long)i));
+            changes.nodeCreated(key, parent, path("/parent/child[" + (i + 1) + "]"), name("nt:unstructured"),
+                                Collections.<Name>emptySet(), properties);
+        }
+        changes.setChangedNodes(keys);
+        changes.freeze("user", null, context.getValueFactories().getDateFactory().create());
+        return changes;
+    }
+
+    private byte[] encode( RecordingChanges changes ) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            codec.encode(changes, output);
+        }
+        return bytes.toByteArray();
+    }
+
+    private RecordingChanges decode( byte[] bytes ) throws Exception {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return codec.decode(input);
+        }
+    }
+
+    private byte[] serialize( RecordingChanges changes ) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(changes);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Object deserialize( byte[] bytes ) throws Exception {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return input.readObject();
+        }
+    }
+
+    private Name name( String name ) {
+        return context.getValueFactories().getNameFactory().create(name);
+    }
+
+    private Path path( String path ) {
+        return context.getValueFactories().getPathFactory().create(path);
+    }
+
+    private Property property( String name,
+                               Object... values ) {
+        if (values.length == 1) {
+            return context.getPropertyFactory().create(name(name), values[0]);
+        }
+        return context.getPropertyFactory().create(name(name), values);
+    }
+}
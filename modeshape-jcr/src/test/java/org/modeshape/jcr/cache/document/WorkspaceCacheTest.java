@@ -15,10 +15,16 @@
  */
 package org.modeshape.jcr.cache.document;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import org.junit.Test;
 import org.modeshape.jcr.bus.RepositoryChangeBus;
 import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.NodeCache;
@@ -51,4 +57,20 @@ public class WorkspaceCacheTest extends AbstractNodeCacheTest {
             executor.shutdownNow();
         }
     }
+
+    @Test
+    public void shouldLoadSeveralNodesAtOnce() {
+        WorkspaceCache workspaceCache = (WorkspaceCache)cache;
+        NodeKey childA = new NodeKey("source1works1-childA");
+        NodeKey childB = new NodeKey("source1works1-childB");
+        NodeKey missing = new NodeKey("source1works1-missing");
+        CachedNode cachedChildA = workspaceCache.getNode(childA);
+
+        Map<NodeKey, CachedNode> nodes = workspaceCache.getNodes(Arrays.asList(childA, childB, missing));
+        assertThat(nodes.size(), is(2));
+        assertThat(nodes.get(childA), is(sameInstance(cachedChildA)));
+        assertThat(nodes.get(childB).getKey(), is(childB));
+        // the loaded nodes are cached ...
+        assertThat(workspaceCache.getNode(childB), is(sameInstance(nodes.get(childB))));
+    }
 }
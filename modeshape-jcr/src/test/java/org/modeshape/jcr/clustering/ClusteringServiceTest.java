@@ -16,10 +16,15 @@
 
 package org.modeshape.jcr.clustering;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -114,6 +119,56 @@ public class ClusteringServiceTest {
         consumer22.assertAllPayloadsConsumed();
     }
 
+    @Test
+    public void shouldBroadcastMessagesWrittenByCodecs() throws Exception {
+        ClusteringService service1 = cluster.get(0);
+        ClusteringService service2 = cluster.get(2);
+        service1.addCodec(new UUIDCodec());
+        service2.addCodec(new UUIDCodec());
+        // adding the same codec again should have no effect
+        service2.addCodec(new UUIDCodec());
+
+        UUID uuid = UUID.randomUUID();
+        CountDownLatch latch = new CountDownLatch(1);
+        service2.addConsumer(new MessageConsumer<UUID>(UUID.class) {
+            @Override
+            public void consume( UUID payload ) {
+                assertEquals(uuid, payload);
+                latch.countDown();
+            }
+        });
+        service1.sendMessage(uuid);
+        assertTrue("Message not received", latch.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldNotAllowDifferentCodecsWithTheSameId() throws Exception {
+        ClusteringService service = cluster.get(1);
+        service.addCodec(new UUIDCodec());
+        service.addCodec(new MessageCodec<String>() {
+            @Override
+            public byte id() {
+                return UUIDCodec.ID;
+            }
+
+            @Override
+            public Class<String> payloadType() {
+                return String.class;
+            }
+
+            @Override
+            public void encode( String payload,
+                                DataOutput output ) throws IOException {
+                output.writeUTF(payload);
+            }
+
+            @Override
+            public String decode( DataInput input ) throws IOException {
+                return input.readUTF();
+            }
+        });
+    }
+
     private ClusteringService startForked(ClusteringService mainService) {
         ClusteringService service = ClusteringService.startForked(mainService.getChannel());
         cluster.add(service);
@@ -140,4 +195,30 @@ public class ClusteringServiceTest {
             assertTrue("Not all payloads received", payloadsLatch.await(1, TimeUnit.SECONDS));
         }
     }
+
+    protected static class UUIDCodec implements MessageCodec<UUID> {
+        protected static final byte ID = 100;
+
+        @Override
+        public byte id() {
+            return ID;
+        }
+
+        @Override
+        public Class<UUID> payloadType() {
+            return UUID.class;
+        }
+
+        @Override
+        public void encode( UUID payload,
+                            DataOutput output ) throws IOException {
+            output.writeLong(payload.getMostSignificantBits());
+            output.writeLong(payload.getLeastSignificantBits());
+        }
+
+        @Override
+        public UUID decode( DataInput input ) throws IOException {
+            return new UUID(input.readLong(), input.readLong());
+        }
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.journal;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link LocalJournal} which buffers the records and commits them in batches.
+ */
+public class GroupCommitLocalJournalTest extends LocalJournalTest {
+
+    @Override
+    protected ChangeJournal journal() throws Exception {
+        return new LocalJournal("target/local_journal", false, -1, 50);
+    }
+
+    @Test
+    public void shouldCommitBufferedRecordsWhenShuttingDown() throws Exception {
+        int initialRecordCount = journal.allRecords(false).size();
+        int recordCount = LocalJournal.MAX_RECORDS_PER_GROUP_COMMIT + 10;
+        for (int i = 0; i < recordCount; i++) {
+            journal.notify(TestChangeSet.create("j4", 1));
+        }
+        journal.shutdown();
+        journal.start();
+        assertEquals(initialRecordCount + recordCount, journal.allRecords(false).size());
+    }
+
+    @Test
+    public void shouldReturnBufferedRecords() throws Exception {
+        int initialRecordCount = journal.allRecords(false).size();
+        journal.notify(TestChangeSet.create("j4", 1));
+        journal.notify(TestChangeSet.create("j4", 2));
+        assertEquals("j4", journal.lastRecord().getJournalId());
+        assertEquals(initialRecordCount + 2, journal.allRecords(false).size());
+    }
+}
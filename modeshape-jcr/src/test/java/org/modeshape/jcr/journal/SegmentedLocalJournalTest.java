@@ -0,0 +1,119 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.Iterator;
+import org.junit.Test;
+import org.mapdb.BTreeKeySerializer;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.modeshape.common.util.FileUtil;
+import org.modeshape.common.util.TimeBasedKeys;
+
+/**
+ * Unit test for {@link LocalJournal} which stores the records in many small segments.
+ */
+public class SegmentedLocalJournalTest extends LocalJournalTest {
+
+    private static final long SEGMENT_DURATION_MILLIS = 5;
+
+    @Override
+    protected ChangeJournal journal() throws Exception {
+        return new LocalJournal("target/local_journal", false, -1, 0, SEGMENT_DURATION_MILLIS);
+    }
+
+    @Test
+    public void shouldDeleteExpiredSegments() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            journal.notify(TestChangeSet.create("j1", 1));
+            Thread.sleep(SEGMENT_DURATION_MILLIS);
+        }
+        int segmentCount = segmentFolders().length;
+        assertTrue(segmentCount > 1);
+
+        Thread.sleep(SEGMENT_DURATION_MILLIS);
+        localJournal().removeRecordsOlderThan(System.currentTimeMillis());
+        assertTrue(segmentFolders().length <= 1);
+        assertTrue(journal.allRecords(false).isEmpty());
+
+        journal.notify(TestChangeSet.create("j4", 2));
+        assertEquals(1, journal.allRecords(false).size());
+    }
+
+    @Test
+    public void shouldReturnRecordsFromAllSegmentsInOrder() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            journal.notify(TestChangeSet.create("j1", 1));
+            Thread.sleep(1);
+        }
+        assertOrdered(journal.allRecords(false).iterator(), false);
+        assertOrdered(journal.allRecords(true).iterator(), true);
+    }
+
+    @Test
+    @SuppressWarnings( "rawtypes" )
+    public void shouldMoveRecordsFromSingleFileJournal() throws Exception {
+        journal.shutdown();
+        FileUtil.delete("target/local_journal");
+        File journalFolder = new File("target/local_journal");
+        assertTrue(journalFolder.mkdirs());
+
+        TimeBasedKeys keys = TimeBasedKeys.create();
+        DBMaker dbMaker = DBMaker.newFileDB(new File(journalFolder, "records")).compressionEnable().checksumEnable();
+        DB legacyDB = dbMaker.make();
+        BTreeMap<Long, JournalRecord> records = legacyDB.createTreeMap("records")
+                                                        .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
+                                                        .counterEnable()
+                                                        .makeOrGet();
+        for (int i = 0; i < 5; i++) {
+            JournalRecord record = new JournalRecord(TestChangeSet.create("j1", 1)).withTimeBasedKey(keys.nextKey());
+            records.put(record.getTimeBasedKey(), record);
+        }
+        legacyDB.getAtomicString("journalId").set("legacyJournal");
+        legacyDB.commit();
+        legacyDB.close();
+
+        journal.start();
+        assertEquals("legacyJournal", journal.journalId());
+        assertEquals(5, journal.allRecords(false).size());
+        assertFalse(new File(journalFolder, "records").exists());
+
+        journal.shutdown();
+        journal.start();
+        assertEquals("legacyJournal", journal.journalId());
+        assertEquals(5, journal.allRecords(false).size());
+    }
+
+    private File[] segmentFolders() {
+        File[] folders = new File(localJournal().getJournalLocation(), "segments").listFiles(File::isDirectory);
+        return folders != null ? folders : new File[0];
+    }
+
+    private void assertOrdered( Iterator<JournalRecord> records,
+                                boolean descending ) {
+        long previousKey = descending ? Long.MAX_VALUE : -1;
+        while (records.hasNext()) {
+            long key = records.next().getTimeBasedKey();
+            assertTrue(descending ? key < previousKey : key > previousKey);
+            previousKey = key;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.RowIterator;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.query.QueryResults.Columns;
+import org.modeshape.jcr.query.engine.ScanningQueryEngine;
+import org.modeshape.jcr.query.model.Column;
+import org.modeshape.jcr.query.model.SelectorName;
+
+public class JcrQueryResultTest {
+
+    private static final String QUERY = "SELECT [jcr:primaryType] FROM [nt:unstructured]";
+    private static final int BATCH_COUNT = 3;
+    private static final int BATCH_SIZE = 2;
+
+    private JcrQueryContext context;
+    private QueryResults results;
+    private AtomicInteger batchesRead;
+    private AtomicBoolean counted;
+
+    @Before
+    public void beforeEach() {
+        context = mock(JcrQueryContext.class);
+        when(context.canRead(any(CachedNode.class))).thenReturn(true);
+        batchesRead = new AtomicInteger();
+        counted = new AtomicBoolean();
+        SelectorName tableName = new SelectorName("nt:unstructured");
+        List<Column> columns = Arrays.asList(new Column(tableName, "jcr:primaryType", "jcr:primaryType"));
+        Columns resultColumns = new ScanningQueryEngine.ResultColumns(columns, Arrays.asList("STRING"), true, null);
+        results = mock(QueryResults.class);
+        when(results.getColumns()).thenReturn(resultColumns);
+        when(results.getRows()).thenReturn(new BatchCountingSequence());
+    }
+
+    @Test
+    public void shouldNotCountTheStreamedRowsBeforeReturningTheFirstRow() throws RepositoryException {
+        JcrQueryResult result = new JcrQueryResult(context, QUERY, results, false, 200);
+        RowIterator rows = result.getRows();
+        rows.getSize();
+        assertThat(rows.hasNext(), is(true));
+        rows.nextRow();
+        // only the rows of the first batch were computed ...
+        assertThat(batchesRead.get(), is(1));
+        assertThat(counted.get(), is(false));
+
+        long count = 1L;
+        while (rows.hasNext()) {
+            rows.nextRow();
+            ++count;
+        }
+        assertThat(count, is((long)BATCH_COUNT * BATCH_SIZE));
+        assertThat(rows.getSize(), is(count));
+        assertThat(counted.get(), is(false));
+    }
+
+    /**
+     * A sequence which records the batches that are read and whether its rows are counted up front.
+     */
+    protected class BatchCountingSequence extends NodeSequence {
+        @Override
+        public int width() {
+            return 1;
+        }
+
+        @Override
+        public long getRowCount() {
+            counted.set(true);
+            return BATCH_COUNT * BATCH_SIZE;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        public Batch nextBatch() {
+            if (batchesRead.get() == BATCH_COUNT) return null;
+            batchesRead.incrementAndGet();
+            List<CachedNode> nodes = Arrays.asList(mock(CachedNode.class), mock(CachedNode.class));
+            return NodeSequence.batchOf(nodes, 1.0f, "default");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.query.AbstractNodeSequenceTest;
 import org.modeshape.jcr.query.BufferManager;
 import org.modeshape.jcr.query.NodeSequence.RowAccessor;
+import org.modeshape.jcr.query.QueryMemory;
 import org.modeshape.jcr.query.RowExtractors;
 import org.modeshape.jcr.query.RowExtractors.ExtractFromRow;
 import org.modeshape.jcr.query.engine.process.JoinSequence.RangeProducer;
@@ -268,6 +269,31 @@ public class HashJoinSequenceTest extends AbstractNodeSequenceTest {
                                             RowExtractors.extractPath(1, cache, types), nodeCount * nodeCount));
     }
 
+    @Test
+    public void shouldInnerJoinParentToChildWhenRowsExceedTheMemoryBudget() {
+        boolean useHeap = false;
+        boolean pack = false;
+        JoinType joinType = JoinType.INNER;
+        ExtractFromRow leftExtractor = RowExtractors.extractNodeKey(0, cache, types);
+        ExtractFromRow rightExtractor = RowExtractors.extractParentNodeKey(0, cache, types);
+        long expectedRowCount = countRows(new HashJoinSequence(workspaceName(), allNodes(), allNodes(), leftExtractor,
+                                                               rightExtractor, joinType, bufferMgr, cache, null, pack, useHeap));
+        // Only a few of the right rows fit in memory ...
+        QueryMemory memory = new QueryMemory(500L, null);
+        HashJoinSequence join = new HashJoinSequence(workspaceName(), allNodes(), allNodes(), leftExtractor, rightExtractor,
+                                                     joinType, bufferMgr, cache, null, pack, useHeap, memory);
+        // Verify the join ...
+        assertRowsSatisfy(join,
+                          leftInnerJoinVerifier(RowExtractors.extractPath(0, cache, types),
+                                                RowExtractors.extractParentPath(1, cache, types)));
+        assertThat(memory.getSpilledBytes() > 0L, is(true));
+        assertThat(memory.getPeakBytes() <= memory.getBudget(), is(true));
+        assertThat(memory.getUsedBytes(), is(0L));
+        join = new HashJoinSequence(workspaceName(), allNodes(), allNodes(), leftExtractor, rightExtractor, joinType, bufferMgr,
+                                    cache, null, pack, useHeap, new QueryMemory(500L, null));
+        assertThat(countRows(join), is(expectedRowCount));
+    }
+
     protected Verifier leftInnerJoinVerifier( final ExtractFromRow leftExtractor,
                                               final ExtractFromRow rightExtractor ) {
         return new Verifier() {
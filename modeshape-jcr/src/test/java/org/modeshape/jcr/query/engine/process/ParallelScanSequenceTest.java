@@ -0,0 +1,173 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.engine.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.query.AbstractNodeSequenceTest;
+import org.modeshape.jcr.query.NodeSequence;
+import org.modeshape.jcr.query.NodeSequence.Batch;
+import org.modeshape.jcr.query.NodeSequence.RowFilter;
+
+/**
+ * Unit test for {@link ParallelScanSequence}.
+ */
+public class ParallelScanSequenceTest extends AbstractNodeSequenceTest {
+
+    private ExecutorService scanExecutor;
+
+    @Override
+    @Before
+    public void beforeEach() {
+        super.beforeEach();
+        scanExecutor = Executors.newFixedThreadPool(3);
+    }
+
+    @Override
+    @After
+    public void afterEach() {
+        scanExecutor.shutdownNow();
+        super.afterEach();
+    }
+
+    @Test
+    public void shouldReturnAllTheRowsOfAllPartitions() {
+        NodeSequence sequence = new ParallelScanSequence(workspaceName(), partitions(7), scanExecutor, 3, null, 1.0f, 5);
+        assertEquals(keysOf(allNodes()), keysOf(sequence));
+    }
+
+    @Test
+    public void shouldReturnOnlyTheRowsWhichSatisfyTheFilter() {
+        String workspaceKey = cache.getRootKey().getWorkspaceKey();
+        RowFilter filter = rowFilterOfNodesWithKeysHavingWorkspaceKey(0, workspaceKey);
+        NodeSequence sequence = new ParallelScanSequence(workspaceName(), partitions(7), scanExecutor, 3, filter, 1.0f, 5);
+        Set<NodeKey> keys = keysOf(sequence);
+        assertEquals(keysOf(NodeSequence.filter(allNodes(), filter)), keys);
+        for (NodeKey key : keys) {
+            assertTrue(key.getWorkspaceKey().equals(workspaceKey));
+        }
+    }
+
+    @Test
+    public void shouldReadThePartitionsOnTheCallingThreadWhenTheExecutorIsShutDown() {
+        scanExecutor.shutdown();
+        NodeSequence sequence = new ParallelScanSequence(workspaceName(), partitions(7), scanExecutor, 3, null, 1.0f, 5);
+        assertEquals(keysOf(allNodes()), keysOf(sequence));
+    }
+
+    @Test
+    public void shouldReturnNoRowsWhenThereAreNoPartitions() {
+        NodeSequence sequence = new ParallelScanSequence(workspaceName(), new ArrayList<Batch>(), scanExecutor, 3, null, 1.0f,
+                                                         5);
+        assertTrue(sequence.isEmpty());
+        assertEquals(0L, countRows(sequence));
+    }
+
+    @Test
+    public void shouldReleaseTheThreadsWhenTheConsumerStopsReadingAndReturnTheRemainingRowsIfItResumes() throws Exception {
+        // a single thread hands over single-row batches, so it waits for the consumer after a few of them ...
+        NodeSequence sequence = new ParallelScanSequence(workspaceName(), partitions(3), scanExecutor, 1, null, 1.0f, 1, 50L);
+        Set<NodeKey> keys = new HashSet<>();
+        addKeys(sequence.nextBatch(), keys);
+        // the consumer doesn't read (or close) the sequence for a while ...
+        waitUntilNoThreadIsActive();
+
+        Batch batch;
+        while ((batch = sequence.nextBatch()) != null) {
+            addKeys(batch, keys);
+        }
+        assertEquals(keysOf(allNodes()), keys);
+    }
+
+    @Test
+    public void shouldReleaseTheThreadsOnceTheLimitIsReached() throws Exception {
+        NodeSequence sequence = NodeSequence.limit(new ParallelScanSequence(workspaceName(), partitions(3), scanExecutor, 1, null,
+                                                                            1.0f, 1), 2L);
+        long count = 0L;
+        Batch batch;
+        while ((batch = sequence.nextBatch()) != null) {
+            while (batch.hasNext()) {
+                batch.nextRow();
+                ++count;
+            }
+        }
+        assertEquals(2L, count);
+        // the limited sequence isn't closed ...
+        waitUntilNoThreadIsActive();
+    }
+
+    private void waitUntilNoThreadIsActive() throws InterruptedException {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor)scanExecutor;
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (executor.getActiveCount() > 0) {
+            assertTrue("The scanning threads are still active", System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    private static void addKeys( Batch batch,
+                                 Set<NodeKey> keys ) {
+        while (batch.hasNext()) {
+            batch.nextRow();
+            CachedNode node = batch.getNode();
+            assertTrue("Duplicate row for " + node.getKey(), keys.add(node.getKey()));
+        }
+    }
+
+    private List<Batch> partitions( int sizeOfPartitions ) {
+        List<Batch> partitions = new ArrayList<>();
+        Iterator<NodeKey> keys = cache.getAllNodeKeys();
+        while (keys.hasNext()) {
+            List<NodeKey> partition = new ArrayList<>();
+            while (keys.hasNext() && partition.size() != sizeOfPartitions) {
+                partition.add(keys.next());
+            }
+            partitions.add(NodeSequence.batchOfKeys(partition.iterator(), partition.size(), 1.0f, workspaceName(), cache));
+        }
+        return partitions;
+    }
+
+    private Set<NodeKey> keysOf( NodeSequence sequence ) {
+        Set<NodeKey> keys = new HashSet<>();
+        try {
+            Batch batch = null;
+            while ((batch = sequence.nextBatch()) != null) {
+                while (batch.hasNext()) {
+                    batch.nextRow();
+                    CachedNode node = batch.getNode();
+                    assertTrue("Duplicate row for " + node.getKey(), keys.add(node.getKey()));
+                }
+            }
+        } finally {
+            sequence.close();
+        }
+        return keys;
+    }
+}
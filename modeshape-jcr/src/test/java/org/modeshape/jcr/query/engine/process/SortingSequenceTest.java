@@ -29,6 +29,7 @@ import org.modeshape.jcr.query.AbstractNodeSequenceTest;
 import org.modeshape.jcr.query.BufferManager;
 import org.modeshape.jcr.query.NodeSequence;
 import org.modeshape.jcr.query.NodeSequence.Batch;
+import org.modeshape.jcr.query.QueryMemory;
 import org.modeshape.jcr.query.RowExtractors;
 import org.modeshape.jcr.query.RowExtractors.ExtractFromRow;
 import org.modeshape.jcr.query.model.NullOrder;
@@ -123,6 +124,66 @@ public class SortingSequenceTest extends AbstractNodeSequenceTest {
         assertSorted(sorted, extractor);
     }
 
+    @Test
+    public void shouldReturnOnlyTheFirstSortedRows() {
+        boolean useHeap = false;
+        boolean pack = false;
+        boolean allowDups = true;
+        ExtractFromRow extractor = RowExtractors.extractPath(0, cache, types);
+        SortingSequence allSorted = new SortingSequence(workspaceName(), allNodes(), extractor, bufferMgr, cache, pack, useHeap,
+                                                        allowDups, NullOrder.NULLS_LAST);
+        List<Object> allValues = valuesIn(allSorted, extractor);
+        int firstRows = 5;
+        SortingSequence sorted = new SortingSequence(workspaceName(), allNodes(), extractor, bufferMgr, cache, pack, useHeap,
+                                                     allowDups, NullOrder.NULLS_LAST, firstRows, null);
+        assertThat(sorted.getRowCount(), is((long)firstRows));
+        assertThat(valuesIn(sorted, extractor), is(allValues.subList(0, firstRows)));
+    }
+
+    @Test
+    public void shouldSortRowsInRunsWhenTheyExceedTheMemoryBudget() {
+        boolean useHeap = false;
+        boolean pack = false;
+        boolean allowDups = true;
+        ExtractFromRow extractor = RowExtractors.extractPath(0, cache, types);
+        QueryMemory memory = new QueryMemory(1000L, null);
+        SortingSequence sorted = new SortingSequence(workspaceName(), allNodes(), extractor, bufferMgr, cache, pack, useHeap,
+                                                     allowDups, NullOrder.NULLS_LAST, 0, memory);
+        assertThat(sorted.getRowCount(), is(countRows(allNodes())));
+        assertSorted(sorted, extractor);
+        assertThat(memory.getSpilledBytes() > 0L, is(true));
+        assertThat(memory.getUsedBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldSortSequenceWithNullSortValuesInRuns() {
+        boolean useHeap = false;
+        boolean pack = false;
+        boolean allowDups = true;
+        ExtractFromRow extractor = RowExtractors.extractPropertyValue(name("propC"), 0, cache, types.getStringFactory());
+        SortingSequence sorted = new SortingSequence(workspaceName(), allNodes(), extractor, bufferMgr, cache, pack, useHeap,
+                                                     allowDups, NullOrder.NULLS_LAST, 0, new QueryMemory(1000L, null));
+        assertThat(sorted.getRowCount(), is(countRows(allNodes())));
+        assertSorted(sorted, extractor);
+    }
+
+    protected List<Object> valuesIn( NodeSequence sequence,
+                                     ExtractFromRow extractor ) {
+        List<Object> values = new ArrayList<Object>();
+        try {
+            Batch batch = null;
+            while ((batch = sequence.nextBatch()) != null) {
+                while (batch.hasNext()) {
+                    batch.nextRow();
+                    values.add(extractor.getValueInRow(batch));
+                }
+            }
+        } finally {
+            sequence.close();
+        }
+        return values;
+    }
+
     protected void assertSorted( NodeSequence sequence,
                                  ExtractFromRow extractor ) {
         List<Object> values = new ArrayList<Object>();
@@ -0,0 +1,178 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import java.util.Collections;
+import java.util.LinkedList;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.NodeTypes;
+import org.modeshape.jcr.RepositoryIndexes;
+import org.modeshape.jcr.api.query.qom.Operator;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.AbstractQueryTest;
+import org.modeshape.jcr.query.BufferManager;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.engine.IndexPlan;
+import org.modeshape.jcr.query.model.Comparison;
+import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.DescendantNodeJoinCondition;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.Literal;
+import org.modeshape.jcr.query.model.PropertyValue;
+import org.modeshape.jcr.query.plan.JoinAlgorithm;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.query.validate.Schemata;
+
+/**
+ * Unit test for {@link CostBasedJoinOrder}.
+ */
+public class CostBasedJoinOrderTest extends AbstractQueryTest {
+
+    private CostBasedJoinOrder rule;
+    private QueryContext context;
+
+    @Before
+    public void beforeEach() {
+        context = new QueryContext(new ExecutionContext(), mock(RepositoryCache.class), Collections.singleton("workspace"),
+                                   mock(Schemata.class), mock(RepositoryIndexes.class), mock(NodeTypes.class),
+                                   mock(BufferManager.class));
+        rule = CostBasedJoinOrder.INSTANCE;
+    }
+
+    @Test
+    public void shouldJoinTheSmallestInputsFirst() {
+        PlanNode a = access("A", 100000L);
+        PlanNode b = access("B", 10000L);
+        PlanNode c = access("C", 1000L);
+        PlanNode lower = join(a, b, equiJoin("A", "B"));
+        Constraint constraint = new Comparison(new PropertyValue(selector("A"), "p"), Operator.EQUAL_TO, new Literal("value"));
+        lower.setProperty(Property.JOIN_CONSTRAINTS, new LinkedList<>(Collections.singletonList(constraint)));
+        PlanNode upper = join(lower, c, equiJoin("B", "C"));
+        PlanNode project = new PlanNode(Type.PROJECT, selector("A"), selector("B"), selector("C"));
+        project.addLastChild(upper);
+
+        PlanNode result = rule.execute(context, project, new LinkedList<OptimizerRule>());
+        assertThat(result, is(sameInstance(project)));
+        PlanNode root = project.getFirstChild();
+        assertThat(root.getType(), is(Type.JOIN));
+        assertSelectors(root, "A", "B", "C");
+        assertThat(root.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.HASH));
+        assertThat(root.getPropertyAsList(Property.JOIN_CONSTRAINTS, Constraint.class), is(Collections.singletonList(constraint)));
+        // the largest input probes the result of joining the smaller inputs ...
+        assertThat(root.getFirstChild(), is(sameInstance(a)));
+        PlanNode inner = root.getLastChild();
+        assertThat(inner.getType(), is(Type.JOIN));
+        assertSelectors(inner, "B", "C");
+        assertChildren(inner, b, c);
+        assertThat(inner.getProperty(Property.JOIN_TYPE, JoinType.class), is(JoinType.INNER));
+        assertThat(inner.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.HASH));
+    }
+
+    @Test
+    public void shouldKeepAncestorsOnTheLeftOfDescendantJoins() {
+        PlanNode a = access("A", 100000L);
+        PlanNode b = access("B", 10000L);
+        PlanNode c = access("C", 10L);
+        PlanNode lower = join(a, b, equiJoin("A", "B"));
+        JoinCondition descendantCondition = new DescendantNodeJoinCondition(selector("C"), selector("B"));
+        PlanNode upper = join(lower, c, descendantCondition);
+
+        PlanNode root = rule.execute(context, upper, new LinkedList<OptimizerRule>());
+        assertThat(root.getFirstChild(), is(sameInstance(a)));
+        PlanNode inner = root.getLastChild();
+        assertChildren(inner, c, b);
+        assertThat(inner.getProperty(Property.JOIN_CONDITION, JoinCondition.class), is(sameInstance(descendantCondition)));
+        assertThat(inner.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.NESTED_LOOP));
+    }
+
+    @Test
+    public void shouldNotChangeJoinsWithoutCardinalityEstimates() {
+        PlanNode a = access("A", Long.MAX_VALUE);
+        PlanNode b = access("B", Long.MAX_VALUE);
+        PlanNode c = access("C", Long.MAX_VALUE);
+        PlanNode lower = join(a, b, equiJoin("A", "B"));
+        PlanNode upper = join(lower, c, equiJoin("B", "C"));
+
+        PlanNode result = rule.execute(context, upper, new LinkedList<OptimizerRule>());
+        assertThat(result, is(sameInstance(upper)));
+        assertChildren(upper, lower, c);
+        assertChildren(lower, a, b);
+    }
+
+    @Test
+    public void shouldNotChangeJoinsAlreadyInTheBestOrder() {
+        PlanNode a = access("A", 100000L);
+        PlanNode b = access("B", 10000L);
+        PlanNode c = access("C", 1000L);
+        PlanNode lower = join(b, c, equiJoin("B", "C"));
+        PlanNode upper = join(a, lower, equiJoin("A", "B"));
+
+        PlanNode result = rule.execute(context, upper, new LinkedList<OptimizerRule>());
+        assertThat(result, is(sameInstance(upper)));
+        assertChildren(upper, a, lower);
+        assertChildren(lower, b, c);
+    }
+
+    @Test
+    public void shouldNotChangeJoinsOfTwoSelectors() {
+        PlanNode a = access("A", 10L);
+        PlanNode b = access("B", 100000L);
+        PlanNode join = join(a, b, equiJoin("A", "B"));
+
+        PlanNode result = rule.execute(context, join, new LinkedList<OptimizerRule>());
+        assertThat(result, is(sameInstance(join)));
+        assertChildren(join, a, b);
+    }
+
+    private PlanNode access( String selectorName,
+                             long cardinality ) {
+        PlanNode access = new PlanNode(Type.ACCESS, selector(selectorName));
+        PlanNode source = new PlanNode(Type.SOURCE, access, selector(selectorName));
+        PlanNode index = new PlanNode(Type.INDEX, source, selector(selectorName));
+        index.setProperty(Property.INDEX_SPECIFICATION, new IndexPlan("index" + selectorName, "workspace", "provider", null,
+                                                                        null, 1, cardinality, null, null));
+        return access;
+    }
+
+    private PlanNode join( PlanNode left,
+                           PlanNode right,
+                           JoinCondition condition ) {
+        PlanNode join = new PlanNode(Type.JOIN);
+        join.addLastChild(left);
+        join.addLastChild(right);
+        join.addSelectors(left.getSelectors());
+        join.addSelectors(right.getSelectors());
+        join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
+        join.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.NESTED_LOOP);
+        join.setProperty(Property.JOIN_CONDITION, condition);
+        return join;
+    }
+
+    private JoinCondition equiJoin( String selector1,
+                                    String selector2 ) {
+        return new EquiJoinCondition(selector(selector1), "p", selector(selector2), "p");
+    }
+}
@@ -33,6 +33,7 @@ import org.modeshape.jcr.query.AbstractQueryTest;
 import org.modeshape.jcr.query.BufferManager;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.model.Between;
+import org.modeshape.jcr.query.model.BindVariableName;
 import org.modeshape.jcr.query.model.Comparison;
 import org.modeshape.jcr.query.model.Literal;
 import org.modeshape.jcr.query.model.PropertyValue;
@@ -401,6 +402,37 @@ public class RewriteAsRangeCriteriaTest extends AbstractQueryTest {
         assertThat(access.getProperty(Property.ACCESS_NO_RESULTS, Boolean.class), is(true));
     }
 
+    @Test
+    public void shouldOnlyRewriteComparisonsWithVariablesOnceTheValuesAreKnown() {
+        PlanNode access = new PlanNode(Type.ACCESS, selector("t1"));
+        PlanNode project = new PlanNode(Type.PROJECT, access, selector("t1"));
+        PlanNode select1 = new PlanNode(Type.SELECT, project, selector("t1"));
+        PlanNode select2 = new PlanNode(Type.SELECT, select1, selector("t1"));
+        PlanNode source = new PlanNode(Type.SOURCE, select2, selector("t1"));
+        source.setProperty(Property.SOURCE_NAME, selector("t1"));
+        select1.setProperty(Property.SELECT_CRITERIA, new Comparison(new PropertyValue(selector("t1"), "c1"), Operator.LESS_THAN,
+                                                                     new BindVariableName("upper")));
+        select2.setProperty(Property.SELECT_CRITERIA, new Comparison(new PropertyValue(selector("t1"), "c1"),
+                                                                     Operator.GREATER_THAN, new Literal(1L)));
+        context.getVariables().put("upper", 3L);
+
+        // The plan must not depend on the value of the variable until it's bound ...
+        rules.clear();
+        rules.add(RewriteAsRangeCriteria.LITERALS_ONLY);
+        PlanNode result = executeRules(access);
+        assertThat(result, is(sameInstance(access)));
+        assertChildren(access, project);
+        assertChildren(project, select1);
+        assertChildren(select1, select2);
+
+        rules.add(RewriteAsRangeCriteria.INSTANCE);
+        result = executeRules(access);
+        print(result);
+        Between between = project.getFirstChild().getProperty(Property.SELECT_CRITERIA, Between.class);
+        assertThat(between.getLowerBound(), is(select2.getProperty(Property.SELECT_CRITERIA, Comparison.class).getOperand2()));
+        assertThat(between.getUpperBound(), is(select1.getProperty(Property.SELECT_CRITERIA, Comparison.class).getOperand2()));
+    }
+
     protected PlanNode executeRules( PlanNode node ) {
         while (!rules.isEmpty()) {
             OptimizerRule rule = rules.poll();
@@ -53,7 +53,7 @@ public class RepositoryStatisticsMXBeanTest extends SingleUseAbstractTest {
         MBeanInfo mBeanInfo = SERVER.getMBeanInfo(mBeanName);
 
         assertNotNull(mBeanInfo);
-        assertEquals(3, mBeanInfo.getAttributes().length);
+        assertEquals(4, mBeanInfo.getAttributes().length);
         assertEquals(3, mBeanInfo.getOperations().length);
     }
 
@@ -67,6 +67,11 @@ public class RepositoryStatisticsMXBeanTest extends SingleUseAbstractTest {
 
         CompositeData[] windows =  (CompositeData[])SERVER.getAttribute(mBeanName, "TimeWindows");
         assertEquals(windows.length, RepositoryMonitor.ALL_WINDOWS.size());
+
+        CompositeData reindexing = (CompositeData)SERVER.getAttribute(mBeanName, "ReindexingProgress");
+        assertTrue(reindexing.containsKey("running"));
+        assertTrue(reindexing.containsKey("reindexedNodes"));
+        assertTrue(reindexing.containsKey("estimatedRemainingSeconds"));
     }
 
     @Test
@@ -125,6 +125,10 @@ public class LocalRepositoryDelegate extends AbstractRepositoryDelegate {
         // Create the query ...
 
         final Query jcrQuery = getLocalSession().getSession().getWorkspace().getQueryManager().createQuery(query, language);
+        if (jcrQuery instanceof org.modeshape.jcr.api.query.Query) {
+            // the result sets are forward-only, so the rows can be returned as soon as they are found ...
+            ((org.modeshape.jcr.api.query.Query)jcrQuery).streaming(true);
+        }
         return jcrQuery.execute();
     }
 
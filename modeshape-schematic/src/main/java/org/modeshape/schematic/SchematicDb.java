@@ -15,8 +15,15 @@
  */
 package org.modeshape.schematic;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.modeshape.schematic.annotation.RequiresTransaction;
 import org.modeshape.schematic.document.Document;
 import org.modeshape.schematic.document.EditableDocument;
@@ -52,6 +59,64 @@ public interface SchematicDb extends TransactionListener, Lifecycle, Lockable {
      * @return a {@link List} instance, never {@code null}
      */
     List<String> keys();
+
+    /**
+     * Returns a stream over all the keys present in the DB. Unlike {@link #keys()}, implementations should not hold all the
+     * keys in memory at the same time but fetch them lazily as the stream is consumed.
+     * <p>
+     * The returned stream may hold on to resources (e.g. DB connections or cursors) so it should always be closed after 
+     * it is used, ideally via a try-with-resources block. 
+     * If this method is called within an existing transaction, it should take into account the transient transactional context
+     * (i.e. any local but not yet committed changes)
+     * </p>
+     *
+     * @return a {@link Stream} instance, never {@code null}
+     */
+    default Stream<String> streamKeys() {
+        return keys().stream();
+    }
+
+    /**
+     * Returns a stream over all the entries present in the DB, which are loaded lazily in batches of the given size as the 
+     * stream is consumed.
+     * <p>
+     * The returned stream may hold on to resources (e.g. DB connections or cursors) so it should always be closed after 
+     * it is used, ideally via a try-with-resources block.
+     * If this method is called within an existing transaction, it should take into account the transient transactional context
+     * (i.e. any local but not yet committed changes)
+     * </p>
+     *
+     * @param batchSize the number of entries which should be loaded at once; must be positive
+     * @return a {@link Stream} of {@link SchematicEntry} instances, never {@code null}
+     */
+    default Stream<SchematicEntry> scan( int batchSize ) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+        Stream<String> keys = streamKeys();
+        Iterator<String> keysIterator = keys.iterator();
+        Iterator<List<String>> batches = new Iterator<List<String>>() {
+            @Override
+            public boolean hasNext() {
+                return keysIterator.hasNext();
+            }
+
+            @Override
+            public List<String> next() {
+                if (!keysIterator.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<String> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && keysIterator.hasNext()) {
+                    batch.add(keysIterator.next());
+                }
+                return batch;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batches, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .flatMap(batch -> load(batch).stream())
+                            .onClose(keys::close);
+    }
     
     /**
      * Get the document with the supplied key. This will represent the full {@link SchematicEntry} document if one exists. 
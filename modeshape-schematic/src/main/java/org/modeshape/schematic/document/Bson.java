@@ -30,6 +30,7 @@ import java.util.SimpleTimeZone;
 import java.util.regex.Pattern;
 import org.modeshape.schematic.internal.document.BsonReader;
 import org.modeshape.schematic.internal.document.BsonWriter;
+import org.modeshape.schematic.internal.document.LazyDocument;
 
 /**
  * A utility class for working with BSON documents.
@@ -201,6 +202,17 @@ public class Bson {
         return SHARED_READER.read(input);
     }
 
+    /**
+     * Create a read-only {@link Document} which is backed by the supplied binary BSON representation and which only decodes
+     * its fields when they are accessed. The array must not be modified afterwards.
+     * 
+     * @param bytes the BSON bytes of a document; may not be null
+     * @return the lazily-decoded {@link Document} representation
+     */
+    public static Document readLazily( byte[] bytes ) {
+        return new LazyDocument(bytes);
+    }
+
     /**
      * Get the {@link Type} constant that describes the type of value for the given field name.
      * 
@@ -48,7 +48,7 @@ public class ClearOperation extends ArrayOperation {
         MutableArray array = mutableParent(delegate);
         if (!array.isEmpty()) {
             removedValues = new ArrayList<>(array);
-            array.clear();
+            array.removeAll();
         } else {
             removedValues = Collections.emptyList();
         }
@@ -60,7 +60,7 @@ public class RemoveAtIndexOperation extends ArrayOperation {
     @Override
     public void replay( MutableDocument delegate ) {
         MutableArray array = mutableParent(delegate);
-        actualValue = array.remove(index);
+        actualValue = array.removeValue(index);
     }
 
     @Override
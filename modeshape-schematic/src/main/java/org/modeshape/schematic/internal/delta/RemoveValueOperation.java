@@ -61,7 +61,9 @@ public class RemoveValueOperation extends ArrayOperation {
     public void replay( MutableDocument delegate ) {
         MutableArray array = mutableParent(delegate);
         actualIndex = array.indexOf(value);
-        array.remove(actualIndex);
+        if (actualIndex > -1) {
+            array.removeValue(actualIndex);
+        }
     }
 
     @Override
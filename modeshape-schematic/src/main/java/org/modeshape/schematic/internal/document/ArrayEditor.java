@@ -598,6 +598,12 @@ public class ArrayEditor implements EditableArray {
         if (doc instanceof MutableArray) {
             return createEditableArray((MutableArray)doc, index, factory);
         }
+        if (doc instanceof LazyDocument) {
+            // read-only documents are replaced with an equivalent mutable copy the first time they're edited
+            MutableDocument copy = ((LazyDocument)doc).clone();
+            array.setValue(index, copy);
+            doc = copy;
+        }
         assert doc instanceof MutableDocument;
         return createEditableDocument((MutableDocument)doc, index, factory);
     }
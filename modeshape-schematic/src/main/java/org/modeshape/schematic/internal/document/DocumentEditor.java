@@ -625,6 +625,12 @@ public class DocumentEditor implements EditableDocument {
         if (doc instanceof MutableArray) {
             return createEditableArray((MutableArray)doc, fieldName, factory);
         }
+        if (doc instanceof LazyDocument) {
+            // read-only documents are replaced with an equivalent mutable copy the first time they're edited
+            MutableDocument copy = ((LazyDocument)doc).clone();
+            document.put(fieldName, copy);
+            doc = copy;
+        }
         assert doc instanceof MutableDocument;
         return createEditableDocument((MutableDocument)doc, fieldName, factory);
     }
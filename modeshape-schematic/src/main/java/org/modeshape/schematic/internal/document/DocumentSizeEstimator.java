@@ -0,0 +1,95 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.schematic.internal.document;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.UUID;
+import org.modeshape.schematic.document.Binary;
+import org.modeshape.schematic.document.Document;
+
+/**
+ * Utility which estimates the amount of heap memory retained by a {@link Document} and all its values.
+ * <p>
+ * The estimates assume a 64-bit JVM with compressed references and are meant to be used for weighing documents against each
+ * other (e.g. in size-bounded caches), not as an exact measurement.
+ * </p>
+ *
+ * @since 5.5
+ */
+public final class DocumentSizeEstimator {
+
+    private static final long OBJECT_OVERHEAD = 16;
+    private static final long REFERENCE_SIZE = 8;
+    private static final long STRING_OVERHEAD = 40;
+    private static final long MAP_OVERHEAD = 56;
+    private static final long MAP_ENTRY_OVERHEAD = 40;
+    private static final long LIST_OVERHEAD = 40;
+
+    private DocumentSizeEstimator() {
+    }
+
+    /**
+     * Estimates the number of bytes retained by the given value.
+     *
+     * @param value a value which may be a {@link Document}, an array or any of the other values supported by documents; may
+     * be {@code null}
+     * @return the estimated number of bytes; never negative
+     */
+    public static long estimateSize( Object value ) {
+        value = Utility.unwrap(value);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return STRING_OVERHEAD + 2L * ((String) value).length();
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return OBJECT_OVERHEAD + REFERENCE_SIZE;
+        }
+        if (value instanceof Collection) {
+            Collection<?> values = (Collection<?>) value;
+            long size = LIST_OVERHEAD + REFERENCE_SIZE * values.size();
+            for (Object item : values) {
+                size += estimateSize(item);
+            }
+            return size;
+        }
+        if (value instanceof LazyDocument) {
+            // don't decode the document just to weigh it; account for the bytes and for the values which may be decoded
+            return MAP_OVERHEAD + 2L * ((LazyDocument) value).byteLength();
+        }
+        if (value instanceof Document) {
+            Document document = (Document) value;
+            long size = MAP_OVERHEAD;
+            for (Document.Field field : document.fields()) {
+                size += MAP_ENTRY_OVERHEAD + estimateSize(field.getName()) + estimateSize(field.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Binary) {
+            return OBJECT_OVERHEAD + LIST_OVERHEAD + ((Binary) value).length();
+        }
+        if (value instanceof Date) {
+            return OBJECT_OVERHEAD + REFERENCE_SIZE;
+        }
+        if (value instanceof UUID) {
+            return OBJECT_OVERHEAD + 2 * REFERENCE_SIZE;
+        }
+        // everything else (symbols, patterns, codes etc) is rare enough so just use a rough estimate
+        return OBJECT_OVERHEAD + estimateSize(value.toString());
+    }
+}
@@ -0,0 +1,684 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.schematic.internal.document;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import org.modeshape.schematic.annotation.ThreadSafe;
+import org.modeshape.schematic.document.Array;
+import org.modeshape.schematic.document.Binary;
+import org.modeshape.schematic.document.Bson;
+import org.modeshape.schematic.document.Code;
+import org.modeshape.schematic.document.CodeWithScope;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.document.EditableDocument;
+import org.modeshape.schematic.document.Editor;
+import org.modeshape.schematic.document.Json;
+import org.modeshape.schematic.document.MaxKey;
+import org.modeshape.schematic.document.MinKey;
+import org.modeshape.schematic.document.Null;
+import org.modeshape.schematic.document.ObjectId;
+import org.modeshape.schematic.document.Symbol;
+import org.modeshape.schematic.internal.io.BsonDataInput;
+import org.modeshape.schematic.internal.schema.DocumentTransformer.PropertiesTransformer;
+import org.modeshape.schematic.internal.schema.DocumentTransformer.SystemPropertiesTransformer;
+
+/**
+ * A read-only {@link Document} which is backed directly by its BSON representation and which only decodes the values of its
+ * fields when they are first accessed.
+ * <p>
+ * The offsets of the top-level fields are indexed the first time any field is accessed, by skipping over the values without
+ * decoding them. Nested documents are themselves exposed as {@link LazyDocument} instances which share the same byte array,
+ * so reading a document and accessing only a few of its (possibly nested) fields does not require the rest of the content to
+ * be decoded. Arrays are decoded eagerly when they are first accessed.
+ * </p>
+ * <p>
+ * Since instances cannot be changed, {@link #clone()} and {@link #edit(boolean)} always return a fully decoded
+ * {@link BasicDocument} copy; {@link #editable()} is not supported. The backing array must not be modified once it has been
+ * passed to an instance.
+ * </p>
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+public final class LazyDocument implements Document {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Marker for decoded values which are {@code null}, since those can't be stored in a {@link ConcurrentMap}
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private transient volatile Index index;
+    private transient ConcurrentMap<String, Object> values;
+
+    /**
+     * Creates a new document which is backed by the given BSON bytes.
+     *
+     * @param bytes the BSON representation of a document, as produced by {@link Bson#write(Object)}; may not be null
+     */
+    public LazyDocument( byte[] bytes ) {
+        this(bytes, 0);
+    }
+
+    private LazyDocument( byte[] bytes,
+                          int offset ) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = readInt(bytes, offset);
+        if (length < 5 || offset + length > bytes.length) {
+            throw new IllegalArgumentException("Invalid BSON document length: " + length);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the BSON representation of this document.
+     *
+     * @return the number of bytes
+     */
+    public int byteLength() {
+        return length;
+    }
+
+    /**
+     * Returns a copy of the BSON representation of this document.
+     *
+     * @return the BSON bytes; never null
+     */
+    public byte[] toBson() {
+        byte[] result = new byte[length];
+        System.arraycopy(bytes, offset, result, 0, length);
+        return result;
+    }
+
+    protected byte[] bytes() {
+        return bytes;
+    }
+
+    protected int offset() {
+        return offset;
+    }
+
+    @Override
+    public Object get( String name ) {
+        Index index = index();
+        Integer position = index.positions.get(name);
+        if (position == null) {
+            return null;
+        }
+        Object value = values.get(name);
+        if (value == null) {
+            value = decode(index.types[position], index.valueOffsets[position]);
+            Object existing = values.putIfAbsent(name, value == null ? NULL_VALUE : value);
+            if (existing != null) {
+                value = existing;
+            }
+        }
+        return value == NULL_VALUE ? null : value;
+    }
+
+    @Override
+    public Boolean getBoolean( String name ) {
+        Object value = get(name);
+        return (value instanceof Boolean) ? (Boolean)value : null;
+    }
+
+    @Override
+    public boolean getBoolean( String name,
+                               boolean defaultValue ) {
+        Object value = get(name);
+        return (value instanceof Boolean) ? (Boolean)value : defaultValue;
+    }
+
+    @Override
+    public Integer getInteger( String name ) {
+        Object value = get(name);
+        return (value instanceof Integer) ? (Integer)value : null;
+    }
+
+    @Override
+    public int getInteger( String name,
+                           int defaultValue ) {
+        Object value = get(name);
+        return (value instanceof Integer) ? (Integer)value : defaultValue;
+    }
+
+    @Override
+    public Long getLong( String name ) {
+        Object value = get(name);
+        if (value instanceof Long) return (Long)value;
+        if (value instanceof Integer) return ((Integer)value).longValue();
+        return null;
+    }
+
+    @Override
+    public long getLong( String name,
+                         long defaultValue ) {
+        Object value = get(name);
+        if (value instanceof Long) return (Long)value;
+        if (value instanceof Integer) return ((Integer)value).longValue();
+        return defaultValue;
+    }
+
+    @Override
+    public Double getDouble( String name ) {
+        Object value = get(name);
+        return (value instanceof Double) ? (Double)value : null;
+    }
+
+    @Override
+    public double getDouble( String name,
+                             double defaultValue ) {
+        Object value = get(name);
+        return (value instanceof Double) ? (Double)value : defaultValue;
+    }
+
+    @Override
+    public Number getNumber( String name ) {
+        Object value = get(name);
+        return (value instanceof Number) ? (Number)value : null;
+    }
+
+    @Override
+    public Number getNumber( String name,
+                             Number defaultValue ) {
+        Object value = get(name);
+        return (value instanceof Number) ? (Number)value : defaultValue;
+    }
+
+    @Override
+    public Date getDate( String name ) {
+        Object value = get(name);
+        return (value instanceof Date) ? (Date)value : null;
+    }
+
+    @Override
+    public String getString( String name ) {
+        return getString(name, null);
+    }
+
+    @Override
+    public String getString( String name,
+                             String defaultValue ) {
+        Object value = get(name);
+        if (value instanceof String) {
+            return (String)value;
+        }
+        if (value instanceof Symbol) {
+            return ((Symbol)value).getSymbol();
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public List<?> getArray( String name ) {
+        Object value = get(name);
+        return (value instanceof List) ? (List<?>)value : null;
+    }
+
+    @Override
+    public Document getDocument( String name ) {
+        Object value = get(name);
+        return (value instanceof Document) ? (Document)value : null;
+    }
+
+    @Override
+    public boolean isNull( String name ) {
+        return get(name) instanceof Null;
+    }
+
+    @Override
+    public boolean isNullOrMissing( String name ) {
+        return Null.matches(get(name));
+    }
+
+    @Override
+    public MaxKey getMaxKey( String name ) {
+        Object value = get(name);
+        return (value instanceof MaxKey) ? (MaxKey)value : null;
+    }
+
+    @Override
+    public MinKey getMinKey( String name ) {
+        Object value = get(name);
+        return (value instanceof MinKey) ? (MinKey)value : null;
+    }
+
+    @Override
+    public Code getCode( String name ) {
+        Object value = get(name);
+        return (value instanceof Code) ? (Code)value : null;
+    }
+
+    @Override
+    public CodeWithScope getCodeWithScope( String name ) {
+        Object value = get(name);
+        return (value instanceof CodeWithScope) ? (CodeWithScope)value : null;
+    }
+
+    @Override
+    public ObjectId getObjectId( String name ) {
+        Object value = get(name);
+        return (value instanceof ObjectId) ? (ObjectId)value : null;
+    }
+
+    @Override
+    public Binary getBinary( String name ) {
+        Object value = get(name);
+        return (value instanceof Binary) ? (Binary)value : null;
+    }
+
+    @Override
+    public Symbol getSymbol( String name ) {
+        Object value = get(name);
+        if (value instanceof Symbol) {
+            return (Symbol)value;
+        }
+        if (value instanceof String) {
+            return new Symbol((String)value);
+        }
+        return null;
+    }
+
+    @Override
+    public Pattern getPattern( String name ) {
+        Object value = get(name);
+        return (value instanceof Pattern) ? (Pattern)value : null;
+    }
+
+    @Override
+    public UUID getUuid( String name ) {
+        return getUuid(name, null);
+    }
+
+    @Override
+    public UUID getUuid( String name,
+                         UUID defaultValue ) {
+        Object value = get(name);
+        if (value instanceof UUID) {
+            return (UUID)value;
+        }
+        if (value instanceof String) {
+            try {
+                return UUID.fromString((String)value);
+            } catch (IllegalArgumentException e) {
+                // do nothing ...
+            }
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public int getType( String name ) {
+        return Bson.getTypeForValue(get(name));
+    }
+
+    @Override
+    public Map<String, ?> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (String name : index().names) {
+            result.put(name, get(name));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public Iterable<Field> fields() {
+        return () -> new Iterator<Field>() {
+            private final String[] names = index().names;
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < names.length;
+            }
+
+            @Override
+            public Field next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String name = names[next++];
+                return new ImmutableField(name, get(name));
+            }
+        };
+    }
+
+    @Override
+    public boolean containsField( String name ) {
+        return index().positions.containsKey(name);
+    }
+
+    @Override
+    public boolean containsAll( Document document ) {
+        if (document == null) {
+            return true;
+        }
+        for (Field field : document.fields()) {
+            if (!BsonUtils.valuesAreEqual(get(field.getName()), field.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        Set<String> result = new LinkedHashSet<>();
+        Collections.addAll(result, index().names);
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public int size() {
+        return index().names.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public MutableDocument clone() {
+        BasicDocument clone = new BasicDocument(size());
+        for (Field field : fields()) {
+            Object value = field.getValue();
+            if (value instanceof Array) {
+                value = ((Array)value).clone();
+            } else if (value instanceof Document) {
+                value = ((Document)value).clone();
+            } // every other kind of value is immutable
+            clone.put(field.getName(), value);
+        }
+        return clone;
+    }
+
+    @Override
+    public Document with( Map<String, Object> changedFields ) {
+        return clone().with(changedFields);
+    }
+
+    @Override
+    public Document with( String fieldName,
+                          Object value ) {
+        return clone().with(fieldName, value);
+    }
+
+    @Override
+    public Document with( ValueTransformer transformer ) {
+        boolean transformed = false;
+        BasicDocument clone = new BasicDocument(size());
+        for (Field field : fields()) {
+            String name = field.getName();
+            Object oldValue = field.getValue();
+            Object newValue = oldValue instanceof Document ? ((Document)oldValue).with(transformer) : transformer.transform(name,
+                                                                                                                            oldValue);
+            if (newValue != oldValue) transformed = true;
+            clone.put(name, newValue);
+        }
+        return transformed ? clone : this;
+    }
+
+    @Override
+    public Document withVariablesReplaced( Properties properties ) {
+        return with(new PropertiesTransformer(properties));
+    }
+
+    @Override
+    public Document withVariablesReplacedWithSystemProperties() {
+        return with(new SystemPropertiesTransformer());
+    }
+
+    @Override
+    public Editor edit( boolean clone ) {
+        if (!clone) {
+            throw new UnsupportedOperationException("Lazy documents are read-only and can only be edited as a clone");
+        }
+        return clone().edit(false);
+    }
+
+    @Override
+    public EditableDocument editable() {
+        throw new UnsupportedOperationException("Lazy documents are read-only and can only be edited as a clone");
+    }
+
+    @Override
+    public int hashCode() {
+        // the same as the hash code of a BasicDocument with the same fields
+        int hashCode = 0;
+        for (Field field : fields()) {
+            hashCode += Objects.hashCode(field.getName()) ^ Objects.hashCode(field.getValue());
+        }
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof LazyDocument) {
+            LazyDocument that = (LazyDocument)obj;
+            if (this.length == that.length && rangeEquals(this.bytes, this.offset, that.bytes, that.offset, length)) {
+                return true;
+            }
+        }
+        if (obj instanceof Iterable || !(obj instanceof Document)) {
+            return false;
+        }
+        Document that = (Document)obj;
+        if (this.size() != that.size()) {
+            return false;
+        }
+        for (Field thisField : fields()) {
+            if (!BsonUtils.valuesAreEqual(thisField.getValue(), that.get(thisField.getName()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return Json.write(this);
+    }
+
+    private Object writeReplace() {
+        // serialize the decoded form, so that the backing array (which may be shared with a parent) is never written
+        return clone();
+    }
+
+    private Index index() {
+        Index result = index;
+        if (result == null) {
+            synchronized (this) {
+                result = index;
+                if (result == null) {
+                    values = new ConcurrentHashMap<>();
+                    result = new Index(bytes, offset, length);
+                    index = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private Object decode( byte type,
+                           int valueOffset ) {
+        if (type == Bson.Type.DOCUMENT) {
+            // share the same bytes, so that the nested document is decoded lazily as well
+            return new LazyDocument(bytes, valueOffset);
+        }
+        ByteArrayInputStream stream = new ByteArrayInputStream(bytes, valueOffset, offset + length - valueOffset);
+        BsonReader.Reader reader = new BsonReader.Reader(new BsonDataInput(new DataInputStream(stream)),
+                                                         BsonReader.VALUE_FACTORY);
+        try {
+            return reader.readValue(type);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot decode the BSON value of type " + type + " at offset " + valueOffset, e);
+        }
+    }
+
+    private static boolean rangeEquals( byte[] a,
+                                        int aOffset,
+                                        byte[] b,
+                                        int bOffset,
+                                        int length ) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readInt( byte[] bytes,
+                                int offset ) {
+        // BSON integers are little-endian
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16
+               | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * The names, types and value offsets of the top-level fields of a document.
+     */
+    private static final class Index {
+        private final String[] names;
+        private final byte[] types;
+        private final int[] valueOffsets;
+        private final Map<String, Integer> positions;
+
+        private Index( byte[] bytes,
+                       int offset,
+                       int length ) {
+            int end = offset + length - 1; // the last byte is the document terminator
+            int position = offset + 4;
+            int count = 0;
+            String[] names = new String[8];
+            byte[] types = new byte[8];
+            int[] valueOffsets = new int[8];
+            Map<String, Integer> positions = new HashMap<>();
+            while (position < end) {
+                byte type = bytes[position++];
+                if (type == Bson.END_OF_DOCUMENT) {
+                    break;
+                }
+                int nameEnd = cStringEnd(bytes, position, end);
+                String name = new String(bytes, position, nameEnd - position, StandardCharsets.UTF_8);
+                position = nameEnd + 1;
+                if (count == names.length) {
+                    names = Arrays.copyOf(names, count * 2);
+                    types = Arrays.copyOf(types, count * 2);
+                    valueOffsets = Arrays.copyOf(valueOffsets, count * 2);
+                }
+                Integer existing = positions.get(name);
+                if (existing != null) {
+                    // the same as a map, the last value wins
+                    types[existing] = type;
+                    valueOffsets[existing] = position;
+                } else {
+                    positions.put(name, count);
+                    names[count] = name;
+                    types[count] = type;
+                    valueOffsets[count] = position;
+                    ++count;
+                }
+                position += valueLength(bytes, type, position, end);
+            }
+            this.names = Arrays.copyOf(names, count);
+            this.types = Arrays.copyOf(types, count);
+            this.valueOffsets = Arrays.copyOf(valueOffsets, count);
+            this.positions = positions;
+        }
+
+        private static int valueLength( byte[] bytes,
+                                        byte type,
+                                        int position,
+                                        int end ) {
+            switch (type) {
+                case Bson.Type.DOCUMENT:
+                case Bson.Type.ARRAY:
+                case Bson.Type.JAVASCRIPT_WITH_SCOPE:
+                    // the length includes the int32 itself
+                    return readInt(bytes, position);
+                case Bson.Type.STRING:
+                case Bson.Type.SYMBOL:
+                case Bson.Type.JAVASCRIPT:
+                    return 4 + readInt(bytes, position);
+                case Bson.Type.BINARY:
+                    return 4 + 1 + readInt(bytes, position);
+                case Bson.Type.BOOLEAN:
+                    return 1;
+                case Bson.Type.INT32:
+                    return 4;
+                case Bson.Type.DOUBLE:
+                case Bson.Type.DATETIME:
+                case Bson.Type.INT64:
+                case Bson.Type.TIMESTAMP:
+                    return 8;
+                case Bson.Type.OBJECTID:
+                    return 12;
+                case Bson.Type.REGEX:
+                    int patternEnd = cStringEnd(bytes, position, end);
+                    return cStringEnd(bytes, patternEnd + 1, end) + 1 - position;
+                case Bson.Type.NULL:
+                case Bson.Type.UNDEFINED:
+                case Bson.Type.DBPOINTER:
+                case Bson.Type.MAXKEY:
+                case Bson.Type.MINKEY:
+                    // the reader doesn't consume anything for these types
+                    return 0;
+                default:
+                    throw new IllegalArgumentException("Unknown BSON type: " + type);
+            }
+        }
+
+        private static int cStringEnd( byte[] bytes,
+                                       int position,
+                                       int end ) {
+            for (int i = position; i < end; i++) {
+                if (bytes[i] == Bson.END_OF_STRING) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Unterminated BSON string at offset " + position);
+        }
+    }
+}
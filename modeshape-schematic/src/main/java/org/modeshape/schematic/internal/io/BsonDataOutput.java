@@ -111,7 +111,7 @@ public class BsonDataOutput implements DataOutput {
         updateSize(position + length);
         ByteBuffer buffer = getBufferFor(position);
         int index = position % bufferSize;
-        for (int i = offset; i != length; ++i) {
+        for (int i = offset, end = offset + length; i != end; ++i) {
             byte b = value[i];
             if (index == bufferSize) {
                 // We have to use the next buffer ...
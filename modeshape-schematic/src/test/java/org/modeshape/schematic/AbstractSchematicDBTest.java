@@ -33,6 +33,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -200,6 +201,39 @@ public abstract class AbstractSchematicDBTest {
         assertTrue(db.keys().isEmpty());
     }
 
+    @Test
+    public void shouldStreamKeysAndEntries() throws Exception {
+        List<SchematicEntry> entries = randomEntries(25);
+        simulateTransaction(() -> {
+            entries.forEach(entry -> db.put(entry.id(), entry.content()));
+            return null;
+        });
+        Set<String> expectedIds = entries.stream().map(SchematicEntry::id).collect(Collectors.toCollection(TreeSet::new));
+        try (Stream<String> keys = db.streamKeys()) {
+            assertTrue(keys.collect(Collectors.toSet()).containsAll(expectedIds));
+        }
+        try (Stream<SchematicEntry> scanned = db.scan(7)) {
+            List<SchematicEntry> matching = scanned.filter(entry -> expectedIds.contains(entry.id()))
+                                                   .collect(Collectors.toList());
+            assertEquals(expectedIds.size(), matching.size());
+            matching.forEach(entry -> assertEquals(DEFAULT_CONTENT, entry.content()));
+        }
+
+        // check that the local changes of a transaction are taken into account
+        String removedId = entries.get(0).id();
+        String newId = UUID.randomUUID().toString();
+        simulateTransaction(() -> {
+            db.remove(removedId);
+            db.put(newId, DEFAULT_CONTENT);
+            try (Stream<String> keys = db.streamKeys()) {
+                Set<String> keysInTx = keys.collect(Collectors.toSet());
+                assertFalse(keysInTx.contains(removedId));
+                assertTrue(keysInTx.contains(newId));
+            }
+            return null;
+        });
+    }
+
     @Test
     public void shouldIsolateChangesWithinTransaction() throws Exception {
         SchematicEntry entry1 = SchematicEntry.create(UUID.randomUUID().toString(), DEFAULT_CONTENT);
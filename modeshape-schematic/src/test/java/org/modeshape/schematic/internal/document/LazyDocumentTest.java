@@ -0,0 +1,139 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.schematic.internal.document;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.schematic.document.Bson;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.document.EditableDocument;
+import org.modeshape.schematic.document.Json;
+import org.modeshape.schematic.document.Null;
+
+/**
+ * Unit test for {@link LazyDocument}.
+ */
+public class LazyDocumentTest {
+
+    private BasicDocument doc;
+    private byte[] bytes;
+
+    @Before
+    public void beforeTest() throws Exception {
+        doc = new BasicDocument();
+        doc.put("string", "value");
+        doc.put("int", 1);
+        doc.put("long", Long.MAX_VALUE);
+        doc.put("double", 1.5d);
+        doc.put("boolean", true);
+        doc.put("date", new Date());
+        doc.put("uuid", UUID.randomUUID());
+        doc.put("null", Null.getInstance());
+        doc.put("nested", new BasicDocument("key1", "value1", "key2", new BasicDocument("key3", 3)));
+        doc.put("array", new BasicArray("v1", "v2", new BasicDocument("v3-key", "v3-value")));
+        doc.put("last", "last value");
+        bytes = Bson.write(doc);
+    }
+
+    @Test
+    public void shouldReadAllValues() throws Exception {
+        Document lazy = Bson.readLazily(bytes);
+        assertTrue(lazy instanceof LazyDocument);
+        assertEquals(doc.size(), lazy.size());
+        assertEquals(doc.keySet(), lazy.keySet());
+        assertEquals("value", lazy.getString("string"));
+        assertEquals(1, (int)lazy.getInteger("int"));
+        assertEquals(Long.MAX_VALUE, (long)lazy.getLong("long"));
+        assertEquals(1.5d, lazy.getDouble("double"), 0d);
+        assertTrue(lazy.getBoolean("boolean"));
+        assertEquals(doc.getDate("date"), lazy.getDate("date"));
+        assertEquals(doc.getUuid("uuid"), lazy.getUuid("uuid"));
+        assertTrue(lazy.isNull("null"));
+        assertEquals(3, (int)lazy.getDocument("nested").getDocument("key2").getInteger("key3"));
+        assertEquals(Arrays.asList("v1", "v2", new BasicDocument("v3-key", "v3-value")), lazy.getArray("array"));
+        assertEquals("last value", lazy.getString("last"));
+        assertNull(lazy.get("missing"));
+        assertFalse(lazy.containsField("missing"));
+    }
+
+    @Test
+    public void shouldExposeNestedDocumentsLazily() throws Exception {
+        Document lazy = Bson.readLazily(bytes);
+        Document nested = lazy.getDocument("nested");
+        assertTrue(nested instanceof LazyDocument);
+        assertTrue(nested.getDocument("key2") instanceof LazyDocument);
+        // the same instance should be returned each time
+        assertTrue(nested == lazy.getDocument("nested"));
+    }
+
+    @Test
+    public void shouldBeEqualToDecodedDocument() throws Exception {
+        Document lazy = Bson.readLazily(bytes);
+        Document decoded = Bson.read(new ByteArrayInputStream(bytes));
+        assertEquals(decoded, lazy);
+        assertEquals(lazy, decoded);
+        assertEquals(decoded.getDocument("nested").hashCode(), lazy.getDocument("nested").hashCode());
+        assertEquals(Json.write(decoded), Json.write(lazy));
+        assertEquals(lazy, Bson.readLazily(bytes));
+    }
+
+    @Test
+    public void shouldWriteBytesWithoutDecoding() throws Exception {
+        Document lazy = Bson.readLazily(bytes);
+        assertArrayEquals(bytes, Bson.write(lazy));
+        assertArrayEquals(Bson.write(doc.getDocument("nested")), Bson.write(lazy.getDocument("nested")));
+        // documents containing lazy documents should be written the same as before
+        assertArrayEquals(Bson.write(new BasicDocument("content", doc)),
+                          Bson.write(new BasicDocument("content", lazy)));
+    }
+
+    @Test
+    public void shouldCloneIntoMutableDocument() throws Exception {
+        Document lazy = Bson.readLazily(bytes);
+        MutableDocument clone = (MutableDocument)lazy.clone();
+        assertTrue(clone instanceof BasicDocument);
+        assertTrue(clone.getDocument("nested") instanceof BasicDocument);
+        assertEquals(doc, clone);
+
+        EditableDocument editor = lazy.edit(true);
+        editor.getDocument("nested").setString("key1", "changed");
+        assertEquals("changed", editor.getDocument("nested").getString("key1"));
+        assertEquals("value1", lazy.getDocument("nested").getString("key1"));
+    }
+
+    @Test
+    public void shouldEditNestedLazyDocuments() throws Exception {
+        BasicDocument parent = new BasicDocument("content", Bson.readLazily(bytes));
+        EditableDocument editor = parent.editable();
+        editor.getDocument("content").getDocument("nested").setNumber("key4", 4);
+        assertEquals(4, (int)parent.getDocument("content").getDocument("nested").getInteger("key4"));
+        assertTrue(parent.getDocument("content") instanceof BasicDocument);
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void shouldNotAllowEditingInPlace() throws Exception {
+        Bson.readLazily(bytes).editable();
+    }
+}
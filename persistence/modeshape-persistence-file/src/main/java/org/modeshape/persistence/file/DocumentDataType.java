@@ -0,0 +1,132 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.persistence.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.mvstore.type.ObjectDataType;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.schematic.document.Bson;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.internal.document.DocumentSizeEstimator;
+
+/**
+ * MV Store {@link DataType} which stores {@link Document} instances in their BSON form, instead of relying on Java
+ * serialization.
+ * <p>
+ * Any other type of value is delegated to H2's {@link ObjectDataType}. Since documents are prefixed with a tag which is never
+ * used by {@link ObjectDataType}, this type is able to read any value previously written by {@link ObjectDataType}
+ * (including Java-serialized documents), which is what allows existing stores to be opened and migrated.
+ * </p>
+ * <p>
+ * Documents are read as read-only, lazily decoded documents (see {@link Bson#readLazily(byte[])}); documents which are
+ * written back without having been changed are copied in their BSON form, without being decoded.
+ * </p>
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+public final class DocumentDataType implements DataType {
+
+    /**
+     * The tag which marks a BSON document; all the tags used by {@link ObjectDataType} are positive.
+     */
+    private static final byte DOCUMENT = (byte) 0xFF;
+
+    private final ObjectDataType delegate = new ObjectDataType();
+
+    @Override
+    public int compare( Object a, Object b ) {
+        if (a == b) {
+            return 0;
+        }
+        if (a instanceof Document && b instanceof Document) {
+            // documents are never used as keys, so this is only used to check values for equality
+            if (a.equals(b)) {
+                return 0;
+            }
+            return compareBytes(toBson(a), toBson(b));
+        }
+        return delegate.compare(a, b);
+    }
+
+    @Override
+    public int getMemory( Object obj ) {
+        if (obj instanceof Document) {
+            return (int) Math.min(Integer.MAX_VALUE, DocumentSizeEstimator.estimateSize(obj));
+        }
+        return delegate.getMemory(obj);
+    }
+
+    @Override
+    public void write( WriteBuffer buff, Object obj ) {
+        if (obj instanceof Document) {
+            byte[] bytes = toBson(obj);
+            buff.put(DOCUMENT).putVarInt(bytes.length).put(bytes);
+        } else {
+            delegate.write(buff, obj);
+        }
+    }
+
+    @Override
+    public void write( WriteBuffer buff, Object[] obj, int len, boolean key ) {
+        for (int i = 0; i < len; i++) {
+            write(buff, obj[i]);
+        }
+    }
+
+    @Override
+    public Object read( ByteBuffer buff ) {
+        if (buff.get(buff.position()) != DOCUMENT) {
+            // not written by us, so it's something ObjectDataType knows how to read
+            return delegate.read(buff);
+        }
+        buff.get();
+        byte[] bytes = new byte[DataUtils.readVarInt(buff)];
+        buff.get(bytes);
+        // the fields are only decoded when accessed, since most reads only look at a small part of each document
+        return Bson.readLazily(bytes);
+    }
+
+    @Override
+    public void read( ByteBuffer buff, Object[] obj, int len, boolean key ) {
+        for (int i = 0; i < len; i++) {
+            obj[i] = read(buff);
+        }
+    }
+
+    private byte[] toBson( Object document ) {
+        try {
+            return Bson.write(document);
+        } catch (IOException e) {
+            throw new FileProviderException(e);
+        }
+    }
+
+    private int compareBytes( byte[] a, byte[] b ) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int comp = Byte.compare(a[i], b[i]);
+            if (comp != 0) {
+                return comp;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+}
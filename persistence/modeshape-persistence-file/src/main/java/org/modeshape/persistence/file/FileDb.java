@@ -21,13 +21,19 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.db.TransactionStore;
+import org.h2.mvstore.type.StringDataType;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.FileUtil;
 import org.modeshape.common.util.StringUtil;
@@ -35,6 +41,7 @@ import org.modeshape.schematic.SchematicDb;
 import org.modeshape.schematic.SchematicEntry;
 import org.modeshape.schematic.document.Document;
 import org.modeshape.schematic.document.EditableDocument;
+import org.modeshape.schematic.internal.document.MutableDocument;
 
 /**
  * {@link SchematicDb} implementation which uses H2's MV Store to store data in memory or on disk.
@@ -47,7 +54,10 @@ public class FileDb implements SchematicDb {
     
     private final static String FILENAME = "modeshape.repository";
     private final static ThreadLocal<String> ACTIVE_TX_ID = new ThreadLocal<>();
-    private final static String REPOSITORY_CONTENT = "modeshape_data";
+    private final static String REPOSITORY_CONTENT = "modeshape_documents";
+    private final static String LEGACY_REPOSITORY_CONTENT = "modeshape_data";
+    private final static DocumentDataType DOCUMENT_TYPE = new DocumentDataType();
+    private final static int MIGRATION_BATCH_SIZE = 1000;
 
     private final boolean compress;
     private final String path;
@@ -89,6 +99,27 @@ public class FileDb implements SchematicDb {
         return keys;
     }
 
+    @Override
+    public Stream<String> streamKeys() {
+        // the map of the active tx (if any) already contains the committed data plus any of the local changes
+        TransactionStore.TransactionMap<String, Document> txContent = transactionalContent(false);
+        TransactionStore.TransactionMap<String, Document> actualContent = txContent != null ? txContent : persistedContent;
+        // MV store cursors iterate the keys lazily, page by page
+        Iterator<String> keys = actualContent.keyIterator(actualContent.firstKey());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(keys, Spliterator.ORDERED | Spliterator.NONNULL |
+                                                                              Spliterator.DISTINCT), false);
+    }
+
+    @Override
+    public Stream<SchematicEntry> scan( int batchSize ) {
+        TransactionStore.TransactionMap<String, Document> txContent = transactionalContent(false);
+        TransactionStore.TransactionMap<String, Document> actualContent = txContent != null ? txContent : persistedContent;
+        // each document is read directly from the store, so there's nothing to gain from batching
+        return streamKeys().map(actualContent::get)
+                           .filter(Objects::nonNull)
+                           .map(SchematicEntry::fromDocument);
+    }
+
     @Override
     public Document get( String key ) {
         LOGGER.debug("reading {0}", key);
@@ -145,6 +176,10 @@ public class FileDb implements SchematicDb {
             if (!txContent.trySet(key, existingTxDoc, true)) {
                 throw new FileProviderException("cannot write new value for the first time");
             }
+        } else if (!(SchematicEntry.content(existingTxDoc) instanceof MutableDocument)) {
+            // the value was written by this transaction but has been read back from the store in its read-only form
+            existingTxDoc = existingTxDoc.clone();
+            txContent.put(key, existingTxDoc);
         }
         
         return SchematicEntry.content(existingTxDoc).editable();
@@ -198,11 +233,47 @@ public class FileDb implements SchematicDb {
             builder.fileName(path + "/" + FILENAME);
         }
         this.store = builder.open();
-        this.txStore = new TransactionStore(store);
+        // the store's data type is used for the undo log, so it has to understand documents as well
+        this.txStore = new TransactionStore(store, DOCUMENT_TYPE);
         this.txStore.init();
+        migrateLegacyContent();
         // start a new transaction (which has READ_COMMITTED isolation) which will give us the view of the latest persisted data
         TransactionStore.Transaction tx = this.txStore.begin();
-        this.persistedContent = tx.openMap(REPOSITORY_CONTENT);
+        this.persistedContent = openContent(tx);
+    }
+
+    private TransactionStore.TransactionMap<String, Document> openContent( TransactionStore.Transaction tx ) {
+        return tx.openMap(REPOSITORY_CONTENT, StringDataType.INSTANCE, DOCUMENT_TYPE);
+    }
+
+    private void migrateLegacyContent() {
+        if (!store.hasMap(LEGACY_REPOSITORY_CONTENT)) {
+            return;
+        }
+        // older versions stored Java-serialized documents in a different map, so copy everything to the new map
+        // and only remove the old map at the end; if this is interrupted, it will simply be performed again on the next start 
+        LOGGER.debug("Migrating the content of '{0}' to the BSON format...", id());
+        TransactionStore.Transaction readTx = txStore.begin();
+        // the legacy map used H2's default data types, which can also be read by our data type
+        TransactionStore.TransactionMap<String, Document> legacyContent = readTx.openMap(LEGACY_REPOSITORY_CONTENT);
+        TransactionStore.Transaction writeTx = txStore.begin();
+        TransactionStore.TransactionMap<String, Document> content = openContent(writeTx);
+        int count = 0;
+        for (Iterator<String> keys = legacyContent.keyIterator(legacyContent.firstKey()); keys.hasNext(); ) {
+            String key = keys.next();
+            content.put(key, legacyContent.get(key));
+            if (++count % MIGRATION_BATCH_SIZE == 0) {
+                // commit in batches to keep the undo log small
+                writeTx.commit();
+                writeTx = txStore.begin();
+                content = openContent(writeTx);
+            }
+        }
+        writeTx.commit();
+        readTx.commit();
+        store.removeMap(store.openMap(LEGACY_REPOSITORY_CONTENT));
+        store.commit();
+        LOGGER.debug("Migrated {0} documents of '{1}'", count, id());
     }
 
     @Override
@@ -222,7 +293,7 @@ public class FileDb implements SchematicDb {
                     "'" + id  + "'");
         }
         ACTIVE_TX_ID.set(id);
-        this.transactionalContentById.putIfAbsent(id, this.txStore.begin().openMap(REPOSITORY_CONTENT));
+        this.transactionalContentById.putIfAbsent(id, openContent(this.txStore.begin()));
     }
 
     @Override
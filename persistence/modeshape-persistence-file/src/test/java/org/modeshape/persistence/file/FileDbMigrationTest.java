@@ -0,0 +1,104 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.persistence.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.db.TransactionStore;
+import org.h2.mvstore.type.ObjectDataType;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.common.util.FileUtil;
+import org.modeshape.schematic.SchematicEntry;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.internal.document.BasicDocument;
+
+/**
+ * Unit test for the BSON encoding used by {@link FileDb} and for the migration of stores which were written with Java
+ * serialization.
+ */
+public class FileDbMigrationTest {
+
+    private static final String PATH = "target/fs_migration_test";
+
+    @Before
+    public void before() {
+        FileUtil.delete(PATH);
+    }
+
+    @Test
+    public void shouldReadBsonAndLegacyValues() throws Exception {
+        DocumentDataType dataType = new DocumentDataType();
+        Document document = new BasicDocument("name", "value", "nested", new BasicDocument("number", 1));
+
+        WriteBuffer buffer = new WriteBuffer();
+        dataType.write(buffer, document);
+        dataType.write(buffer, "key");
+        // a value written by a previous version, which should still be readable
+        new ObjectDataType().write(buffer, document);
+
+        ByteBuffer readBuffer = buffer.getBuffer();
+        readBuffer.flip();
+        assertEquals(document, dataType.read(readBuffer));
+        assertEquals("key", dataType.read(readBuffer));
+        assertEquals(document, dataType.read(readBuffer));
+        assertFalse(readBuffer.hasRemaining());
+    }
+
+    @Test
+    public void shouldMigrateLegacyStore() throws Exception {
+        int count = 2500;
+        String[] ids = new String[count];
+        // write a store in the format used by previous versions
+        new File(PATH).mkdirs();
+        MVStore legacyStore = new MVStore.Builder().fileName(PATH + "/modeshape.repository").autoCommitDisabled().open();
+        TransactionStore legacyTxStore = new TransactionStore(legacyStore);
+        legacyTxStore.init();
+        TransactionStore.Transaction tx = legacyTxStore.begin();
+        TransactionStore.TransactionMap<String, Document> legacyContent = tx.openMap("modeshape_data");
+        for (int i = 0; i < count; i++) {
+            ids[i] = UUID.randomUUID().toString();
+            legacyContent.put(ids[i], SchematicEntry.create(ids[i], new BasicDocument("index", i)).source());
+        }
+        tx.commit();
+        legacyStore.close();
+
+        FileDb db = FileDb.onDisk(false, PATH);
+        db.start();
+        try {
+            assertEquals(count, db.keys().size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, (int) db.getEntry(ids[i]).content().getInteger("index"));
+            }
+        } finally {
+            db.stop();
+        }
+
+        MVStore store = new MVStore.Builder().fileName(PATH + "/modeshape.repository").readOnly().open();
+        try {
+            assertFalse(store.hasMap("modeshape_data"));
+            assertTrue(store.hasMap("modeshape_documents"));
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -59,4 +59,32 @@ public class DB2Statements extends DefaultStatements {
             throw e;
         }
     }
+
+    @Override
+    public Void createDeltaTable( Connection connection ) throws SQLException {
+        try {
+            return super.createDeltaTable(connection);
+        } catch (SQLException e) {
+            int errorCode = e.getErrorCode();
+            if (IGNORABLE_ERROR_CODES.contains(errorCode)) {
+                logger.debug(e, "Ignoring DB2 SQL exception for database {0} with error code {1}", tableName(), errorCode);
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Void dropDeltaTable( Connection connection ) throws SQLException {
+        try {
+            return super.dropDeltaTable(connection);
+        } catch (SQLException e) {
+            int errorCode = e.getErrorCode();
+            if (IGNORABLE_ERROR_CODES.contains(errorCode)) {
+                logger.debug(e, "Ignoring DB2 SQL exception for database {0} with error code {1}", tableName(), errorCode);
+                return null;
+            }
+            throw e;
+        }
+    }
 }
@@ -23,13 +23,21 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import org.modeshape.common.annotation.NotThreadSafe;
@@ -88,6 +96,36 @@ public class DefaultStatements implements Statements {
         return null;
     }
     
+    @Override
+    public Void createDeltaTable( Connection connection ) throws SQLException {
+        logTableInfo("Creating delta table for {0}...");
+        try (PreparedStatement createStmt = connection.prepareStatement(statements.get(CREATE_DELTA_TABLE))) {
+            if (createStmt.executeUpdate() > 0) {
+                logTableInfo("Delta table for {0} created");
+            } else {
+                logTableInfo("Delta table for {0} already exists");
+            }
+        } catch (SQLException e) {
+            processSQLException(CREATE_DELTA_TABLE, e);
+        }
+        return null;
+    }
+
+    @Override
+    public Void dropDeltaTable( Connection connection ) throws SQLException {
+        logTableInfo("Dropping delta table for {0}...");
+        try (PreparedStatement dropStmt = connection.prepareStatement(statements.get(DELETE_DELTA_TABLE))) {
+            if (dropStmt.executeUpdate() > 0) {
+                logTableInfo("Delta table for {0} dropped");
+            } else {
+                logTableInfo("Delta table for {0} does not exist");
+            }
+        } catch (SQLException e) {
+            processSQLException(DELETE_DELTA_TABLE, e);
+        }
+        return null;
+    }
+
     protected void processSQLException(String statementId, SQLException e) throws SQLException {
         // by default we just rethrow the exception as-is, but certain subclasses may want different handling
         throw e;
@@ -108,11 +146,50 @@ public class DefaultStatements implements Statements {
         }
     }
 
+    @Override
+    public Stream<String> streamAllIds( Connection connection ) throws SQLException {
+        logTableInfo("Streaming all ids from {0}");
+        return streamResults(connection, statements.get(GET_ALL_IDS), config.fetchSize(), rs -> rs.getString(1));
+    }
+
+    @Override
+    public <R> Stream<R> streamAll( Connection connection, int fetchSize, Function<Document, R> parser ) throws SQLException {
+        logTableInfo("Streaming all content from {0}");
+        return streamResults(connection, statements.get(GET_ALL_CONTENT), fetchSize,
+                             rs -> parser.apply(readDocument(rs.getBinaryStream(1))));
+    }
+
+    private <R> Stream<R> streamResults( Connection connection, String sql, int fetchSize, RowReader<R> reader )
+            throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        final ResultSet rs;
+        try {
+            ps.setFetchSize(fetchSize);
+            rs = ps.executeQuery();
+        } catch (SQLException e) {
+            ps.close();
+            throw e;
+        }
+        ResultSetIterator<R> iterator = new ResultSetIterator<>(rs, reader);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .onClose(() -> {
+                                try {
+                                    rs.close();
+                                    ps.close();
+                                } catch (SQLException e) {
+                                    throw new RelationalProviderException(e);
+                                }
+                            });
+    }
+
     @Override
     public Document getById( Connection connection, String id ) throws SQLException {
         if (logger.isDebugEnabled()) {
             logger.debug("Searching for entry by id {0} in {1}", id, tableName());
         }
+        if (config.persistDeltas()) {
+            return getByIdWithDeltas(connection, id);
+        }
         try (PreparedStatement ps = connection.prepareStatement(statements.get(GET_BY_ID))) {
             ps.setString(1, id);
             try (ResultSet rs = ps.executeQuery()) {
@@ -123,6 +200,27 @@ public class DefaultStatements implements Statements {
             }
         }
     }
+
+    private Document getByIdWithDeltas( Connection connection, String id ) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(statements.get(GET_BY_ID_WITH_DELTAS))) {
+            ps.setString(1, id);
+            ps.setString(2, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                // the base document always comes first (sequence 0) followed by the deltas in the order they were appended
+                Document document = null;
+                while (rs.next()) {
+                    int sequence = rs.getInt(1);
+                    Document content = readDocument(rs.getBinaryStream(2));
+                    if (sequence == 0) {
+                        document = content;
+                    } else if (document != null) {
+                        DocumentDeltas.apply(document, content);
+                    }
+                }
+                return document;
+            }
+        }
+    }
     
     @Override
     public <R> List<R> load(Connection connection, Collection<String> ids, Function<Document, R> parser) throws SQLException {
@@ -132,6 +230,9 @@ public class DefaultStatements implements Statements {
         if (ids.isEmpty()) {
             return new ArrayList<>();
         }
+        if (config.persistDeltas()) {
+            return loadWithDeltas(connection, ids, parser);
+        }
         String getMultipleStatement = statements.get(GET_MULTIPLE);
         String formattedStatement = formatStatementWithMultipleParams(getMultipleStatement, ids.size());
         try (PreparedStatement ps = connection.prepareStatement(formattedStatement)) {
@@ -151,6 +252,89 @@ public class DefaultStatements implements Statements {
         }
     }
 
+    private <R> List<R> loadWithDeltas( Connection connection, Collection<String> ids, Function<Document, R> parser )
+            throws SQLException {
+        String formattedStatement = formatStatementWithMultipleParams(statements.get(GET_MULTIPLE_WITH_DELTAS), ids.size());
+        try (PreparedStatement ps = connection.prepareStatement(formattedStatement)) {
+            // the ids are used twice: once for the base documents and once for the deltas
+            int paramIdx = 1;
+            for (String id : ids) {
+                ps.setString(paramIdx++, id);
+            }
+            for (String id : ids) {
+                ps.setString(paramIdx++, id);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                List<R> results = new ArrayList<>();
+                String currentId = null;
+                Document currentDocument = null;
+                while (rs.next()) {
+                    String id = rs.getString(1);
+                    if (!id.equals(currentId)) {
+                        if (currentDocument != null) {
+                            results.add(parser.apply(currentDocument));
+                        }
+                        currentId = id;
+                        currentDocument = null;
+                    }
+                    int sequence = rs.getInt(2);
+                    Document content = readDocument(rs.getBinaryStream(3));
+                    if (sequence == 0) {
+                        currentDocument = content;
+                    } else if (currentDocument != null) {
+                        DocumentDeltas.apply(currentDocument, content);
+                    }
+                }
+                if (currentDocument != null) {
+                    results.add(parser.apply(currentDocument));
+                }
+                return results;
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Integer> lastDeltaSequences( Connection connection, Collection<String> ids ) throws SQLException {
+        Map<String, Integer> result = new HashMap<>();
+        if (ids.isEmpty()) {
+            return result;
+        }
+        String formattedStatement = formatStatementWithMultipleParams(statements.get(LAST_DELTA_SEQUENCES), ids.size());
+        try (PreparedStatement ps = connection.prepareStatement(formattedStatement)) {
+            int paramIdx = 1;
+            for (String id : ids) {
+                ps.setString(paramIdx++, id);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    result.put(rs.getString(1), rs.getInt(2));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Timestamp> lastChanged( Connection connection, Collection<String> ids ) throws SQLException {
+        Map<String, Timestamp> result = new HashMap<>();
+        if (ids.isEmpty()) {
+            return result;
+        }
+        String formattedStatement = formatStatementWithMultipleParams(statements.get(GET_LAST_CHANGED), ids.size());
+        try (PreparedStatement ps = connection.prepareStatement(formattedStatement)) {
+            int paramIdx = 1;
+            for (String id : ids) {
+                ps.setString(paramIdx++, id);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    result.put(rs.getString(1), rs.getTimestamp(2));
+                }
+            }
+        }
+        return result;
+    }
+
     private String formatStatementWithMultipleParams(String statement, int paramCount) {
         String multipleSelectionClause = statements.get(MULTIPLE_SELECTION);
         
@@ -239,6 +423,11 @@ public class DefaultStatements implements Statements {
         try (PreparedStatement ps = connection.prepareStatement(statements.get(REMOVE_ALL_CONTENT))) {
             ps.executeUpdate();
         }
+        if (config.persistDeltas()) {
+            try (PreparedStatement ps = connection.prepareStatement(statements.get(REMOVE_ALL_DELTAS))) {
+                ps.executeUpdate();
+            }
+        }
         return null;
     }
     
@@ -276,6 +465,54 @@ public class DefaultStatements implements Statements {
         }
     }    
 
+    @FunctionalInterface
+    private interface RowReader<R> {
+        R read( ResultSet rs ) throws SQLException;
+    }
+
+    @NotThreadSafe
+    private static final class ResultSetIterator<R> implements Iterator<R> {
+        private final ResultSet rs;
+        private final RowReader<R> reader;
+        private R next;
+        private boolean exhausted;
+
+        private ResultSetIterator( ResultSet rs, RowReader<R> reader ) {
+            this.rs = rs;
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (exhausted) {
+                return false;
+            }
+            try {
+                if (rs.next()) {
+                    next = reader.read(rs);
+                    return true;
+                }
+                exhausted = true;
+                return false;
+            } catch (SQLException e) {
+                throw new RelationalProviderException(e);
+            }
+        }
+
+        @Override
+        public R next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            R result = next;
+            next = null;
+            return result;
+        }
+    }
+
     @NotThreadSafe
     protected class DefaultBatchUpdate implements BatchUpdate{
         private final Connection connection;
@@ -356,5 +593,55 @@ public class DefaultStatements implements Statements {
                 remove.executeUpdate();
             }             
         }
+
+        @Override
+        public void appendDeltas( Map<String, Document> deltasById, Map<String, Integer> sequencesById ) throws SQLException {
+            if (deltasById.isEmpty()) {
+                return;
+            }
+            String sql = statements.get(INSERT_DELTA);
+            try (PreparedStatement insert = connection.prepareStatement(sql)) {
+                for (Map.Entry<String, Document> entry : deltasById.entrySet()) {
+                    String id = entry.getKey();
+                    int sequence = sequencesById.get(id);
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("adding delta {0} for {1}", sequence, id);
+                    }
+                    insert.setString(1, id);
+                    insert.setInt(2, sequence);
+                    insert.setBytes(3, writeDocument(entry.getValue()));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            // the base row is not rewritten, so make sure its timestamp reflects the change (used for cache revalidation)
+            List<String> ids = new ArrayList<>(deltasById.keySet());
+            String touchStatement = formatStatementWithMultipleParams(statements.get(TOUCH_CONTENT), ids.size());
+            try (PreparedStatement touch = connection.prepareStatement(touchStatement)) {
+                int paramIdx = 1;
+                for (String id : ids) {
+                    touch.setString(paramIdx++, id);
+                }
+                touch.executeUpdate();
+            }
+        }
+
+        @Override
+        public void removeDeltas( List<String> ids ) throws SQLException {
+            if (ids.isEmpty()) {
+                return;
+            }
+            String formattedStatement = formatStatementWithMultipleParams(statements.get(REMOVE_DELTAS), ids.size());
+            if (logger.isDebugEnabled()) {
+                logger.debug("running statement: {0}", formattedStatement);
+            }
+            try (PreparedStatement remove = connection.prepareStatement(formattedStatement)) {
+                int paramIdx = 1;
+                for (String id : ids) {
+                    remove.setString(paramIdx++, id);
+                }
+                remove.executeUpdate();
+            }
+        }
     }
 }
@@ -0,0 +1,186 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.persistence.relational;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.internal.document.DocumentSizeEstimator;
+
+/**
+ * A bounded, LRU cache of documents which is shared by all the threads reading from a {@link RelationalDb} outside of a
+ * transaction. The cache is bounded by the estimated number of bytes retained by the cached documents and not by the number
+ * of entries.
+ * <p>
+ * Each entry is stored together with the value of the {@code LAST_CHANGED} column which was read from the DB at the time the
+ * document was loaded, so that entries can be revalidated cheaply by comparing timestamps instead of reading the full
+ * content. Entries are also invalidated explicitly each time a transaction which changed them is committed.
+ * </p>
+ * <p>
+ * Documents are mutable and the cached instances are shared by all threads, so the cache stores and returns copies of the
+ * documents; callers may freely change the documents they get.
+ * </p>
+ *
+ * @since 5.5
+ */
+@ThreadSafe
+public final class DocumentCache {
+
+    private final long maxSizeInBytes;
+    private final long revalidationIntervalNanos;
+    private final LinkedHashMap<String, CachedDocument> entries;
+    private long sizeInBytes;
+    private long generation;
+
+    protected DocumentCache( long maxSizeInBytes, long revalidationIntervalMillis ) {
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.revalidationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(revalidationIntervalMillis);
+        // use access order so that the first entry is always the least recently used
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns a cached document only if it has been validated against the DB within the configured revalidation interval. If
+     * the interval is 0, no document is returned and each cache hit must be {@link #revalidate revalidated}.
+     *
+     * @param key the key of the document; may not be null
+     * @return a copy of the cached document or {@code null} if there is no such document or if it needs revalidation
+     */
+    protected synchronized Document getIfValid( String key ) {
+        CachedDocument cached = entries.get(key);
+        if (cached == null || System.nanoTime() - cached.validatedAt >= revalidationIntervalNanos) {
+            return null;
+        }
+        return cached.document.clone();
+    }
+
+    /**
+     * Returns a cached document if the timestamp with which it was stored matches the given timestamp. If it doesn't, the
+     * cached document is considered stale and is removed.
+     *
+     * @param key the key of the document; may not be null
+     * @param lastChanged the value of the {@code LAST_CHANGED} column currently stored in the DB; may be null if the document
+     * does not exist anymore
+     * @return a copy of the cached document or {@code null} if there is no such document or if it is stale
+     */
+    protected synchronized Document revalidate( String key, Timestamp lastChanged ) {
+        CachedDocument cached = entries.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (!cached.lastChanged.equals(lastChanged)) {
+            remove(key);
+            return null;
+        }
+        cached.validatedAt = System.nanoTime();
+        return cached.document.clone();
+    }
+
+    /**
+     * Returns the current generation of this cache, which changes each time entries are invalidated. The generation should be
+     * read <b>before</b> loading documents from the DB and passed to {@link #put(String, Document, Timestamp, long)}, so that
+     * documents which were read concurrently with a commit are not cached.
+     *
+     * @return the generation of the cache
+     */
+    protected synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Stores a copy of a document in the cache, evicting the least recently used documents if the maximum size is exceeded.
+     *
+     * @param key the key of the document; may not be null
+     * @param document the document; may not be null
+     * @param lastChanged the value of the {@code LAST_CHANGED} column read before reading the document; may not be null
+     * @param generation the {@link #generation() generation} of the cache read before reading the document
+     */
+    protected synchronized void put( String key, Document document, Timestamp lastChanged, long generation ) {
+        if (generation != this.generation) {
+            // some entries were invalidated meanwhile, so we can't be sure the document is current
+            return;
+        }
+        long size = DocumentSizeEstimator.estimateSize(document);
+        if (size > maxSizeInBytes) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new CachedDocument(document.clone(), lastChanged, size));
+        sizeInBytes += size;
+        for (Iterator<CachedDocument> iterator = entries.values().iterator(); sizeInBytes > maxSizeInBytes && iterator.hasNext(); ) {
+            sizeInBytes -= iterator.next().size;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes the given keys from the cache.
+     *
+     * @param keys a {@link Collection} of keys; may not be null
+     */
+    protected synchronized void invalidate( Collection<String> keys ) {
+        ++generation;
+        keys.forEach(this::remove);
+    }
+
+    /**
+     * Removes all the entries from the cache.
+     */
+    protected synchronized void clear() {
+        ++generation;
+        entries.clear();
+        sizeInBytes = 0;
+    }
+
+    /**
+     * Returns the estimated number of bytes currently held by this cache.
+     *
+     * @return the number of bytes
+     */
+    protected synchronized long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    private void remove( String key ) {
+        CachedDocument removed = entries.remove(key);
+        if (removed != null) {
+            sizeInBytes -= removed.size;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DocumentCache[entries=" + entries.size() + ", size=" + sizeInBytes + "/" + maxSizeInBytes + " bytes]";
+    }
+
+    private static final class CachedDocument {
+        private final Document document;
+        private final Timestamp lastChanged;
+        private final long size;
+        private long validatedAt;
+
+        private CachedDocument( Document document, Timestamp lastChanged, long size ) {
+            this.document = document;
+            this.lastChanged = lastChanged;
+            this.size = size;
+            this.validatedAt = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.persistence.relational;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.document.Path;
+import org.modeshape.schematic.internal.delta.AddValueIfAbsentOperation;
+import org.modeshape.schematic.internal.delta.AddValueOperation;
+import org.modeshape.schematic.internal.delta.ClearOperation;
+import org.modeshape.schematic.internal.delta.Operation;
+import org.modeshape.schematic.internal.delta.PutIfAbsentOperation;
+import org.modeshape.schematic.internal.delta.PutOperation;
+import org.modeshape.schematic.internal.delta.RemoveAllValuesOperation;
+import org.modeshape.schematic.internal.delta.RemoveAtIndexOperation;
+import org.modeshape.schematic.internal.delta.RemoveOperation;
+import org.modeshape.schematic.internal.delta.RemoveValueOperation;
+import org.modeshape.schematic.internal.delta.RetainAllValuesOperation;
+import org.modeshape.schematic.internal.delta.SetValueOperation;
+import org.modeshape.schematic.internal.document.BasicArray;
+import org.modeshape.schematic.internal.document.BasicDocument;
+import org.modeshape.schematic.internal.document.MutableDocument;
+import org.modeshape.schematic.internal.document.Paths;
+
+/**
+ * Utility which converts the {@link Operation operations} recorded while editing a document into a {@link Document} that
+ * can be stored in the delta table and which replays such stored deltas on top of a base document.
+ *
+ * @since 5.5
+ */
+public final class DocumentDeltas {
+
+    private static final String OPERATIONS = "ops";
+    private static final String TYPE = "type";
+    private static final String PATH = "path";
+    private static final String FIELD = "field";
+    private static final String VALUE = "value";
+    private static final String INDEX = "index";
+
+    private static final String PUT = "put";
+    private static final String PUT_IF_ABSENT = "putIfAbsent";
+    private static final String REMOVE = "remove";
+    private static final String ADD_VALUE = "add";
+    private static final String ADD_VALUE_IF_ABSENT = "addIfAbsent";
+    private static final String SET_VALUE = "set";
+    private static final String REMOVE_VALUE = "removeValue";
+    private static final String REMOVE_AT_INDEX = "removeAt";
+    private static final String REMOVE_ALL_VALUES = "removeAll";
+    private static final String RETAIN_ALL_VALUES = "retainAll";
+    private static final String CLEAR = "clear";
+
+    private DocumentDeltas() {
+    }
+
+    /**
+     * Converts a list of operations into a delta document.
+     *
+     * @param operations a {@link List} of {@link Operation} instances, may not be null
+     * @return a {@link Document} instance or {@code null} if any of the operations cannot be represented as a delta, in which
+     * case the full document should be written instead.
+     */
+    protected static Document toDocument( List<Operation> operations ) {
+        BasicArray encoded = new BasicArray(operations.size());
+        for (Operation operation : operations) {
+            BasicDocument encodedOperation = encode(operation);
+            if (encodedOperation == null) {
+                return null;
+            }
+            encoded.addValue(encodedOperation);
+        }
+        return new BasicDocument(OPERATIONS, encoded);
+    }
+
+    /**
+     * Replays the operations from a delta document on top of the given base document.
+     *
+     * @param base the document on which to replay the operations; may not be null
+     * @param delta a delta {@link Document} previously created via {@link #toDocument(List)}; may not be null
+     * @throws RelationalProviderException if the delta document contains an unknown operation
+     */
+    protected static void apply( Document base, Document delta ) {
+        MutableDocument target = (MutableDocument) base;
+        List<?> operations = delta.getArray(OPERATIONS);
+        if (operations == null) {
+            return;
+        }
+        for (Object operation : operations) {
+            decode((Document) operation).replay(target);
+        }
+    }
+
+    private static BasicDocument encode( Operation operation ) {
+        BasicDocument result = new BasicDocument();
+        result.put(PATH, encodePath(operation.getParentPath()));
+        if (operation instanceof PutOperation) {
+            PutOperation put = (PutOperation) operation;
+            result.put(TYPE, PUT);
+            result.put(FIELD, put.getFieldName());
+            result.put(VALUE, put.getNewValue());
+        } else if (operation instanceof PutIfAbsentOperation) {
+            PutIfAbsentOperation put = (PutIfAbsentOperation) operation;
+            result.put(TYPE, PUT_IF_ABSENT);
+            result.put(FIELD, put.getFieldName());
+            result.put(VALUE, put.getNewValue());
+        } else if (operation instanceof RemoveOperation) {
+            result.put(TYPE, REMOVE);
+            result.put(FIELD, ((RemoveOperation) operation).getFieldName());
+        } else if (operation instanceof AddValueIfAbsentOperation) {
+            // must be checked before AddValueOperation because of inheritance
+            result.put(TYPE, ADD_VALUE_IF_ABSENT);
+            result.put(VALUE, ((AddValueIfAbsentOperation) operation).getValue());
+        } else if (operation instanceof AddValueOperation) {
+            AddValueOperation add = (AddValueOperation) operation;
+            result.put(TYPE, ADD_VALUE);
+            result.put(VALUE, add.getValue());
+            result.put(INDEX, add.getIndex());
+        } else if (operation instanceof SetValueOperation) {
+            SetValueOperation set = (SetValueOperation) operation;
+            result.put(TYPE, SET_VALUE);
+            result.put(VALUE, set.getValue());
+            result.put(INDEX, set.getIndex());
+        } else if (operation instanceof RemoveValueOperation) {
+            result.put(TYPE, REMOVE_VALUE);
+            result.put(VALUE, ((RemoveValueOperation) operation).getRemovedValue());
+        } else if (operation instanceof RemoveAtIndexOperation) {
+            result.put(TYPE, REMOVE_AT_INDEX);
+            result.put(INDEX, ((RemoveAtIndexOperation) operation).getIndex());
+        } else if (operation instanceof RemoveAllValuesOperation) {
+            result.put(TYPE, REMOVE_ALL_VALUES);
+            result.put(VALUE, encodeValues(((RemoveAllValuesOperation) operation).getValuesToRemove()));
+        } else if (operation instanceof RetainAllValuesOperation) {
+            result.put(TYPE, RETAIN_ALL_VALUES);
+            result.put(VALUE, encodeValues(((RetainAllValuesOperation) operation).getRetainedValues()));
+        } else if (operation instanceof ClearOperation) {
+            result.put(TYPE, CLEAR);
+        } else {
+            return null;
+        }
+        return result;
+    }
+
+    private static Operation decode( Document operation ) {
+        Path path = decodePath(operation.getArray(PATH));
+        String type = operation.getString(TYPE);
+        switch (type) {
+            case PUT:
+                return new PutOperation(path, operation.getString(FIELD), null, operation.get(VALUE));
+            case PUT_IF_ABSENT:
+                return new PutIfAbsentOperation(path, operation.getString(FIELD), operation.get(VALUE));
+            case REMOVE:
+                return new RemoveOperation(path, operation.getString(FIELD), null);
+            case ADD_VALUE_IF_ABSENT:
+                return new AddValueIfAbsentOperation(path, operation.get(VALUE));
+            case ADD_VALUE: {
+                int index = operation.getInteger(INDEX);
+                return index < 0 ? new AddValueOperation(path, operation.get(VALUE)) :
+                       new AddValueOperation(path, operation.get(VALUE), index);
+            }
+            case SET_VALUE:
+                return new SetValueOperation(path, operation.get(VALUE), operation.getInteger(INDEX));
+            case REMOVE_VALUE:
+                return new RemoveValueOperation(path, operation.get(VALUE));
+            case REMOVE_AT_INDEX:
+                return new RemoveAtIndexOperation(path, operation.getInteger(INDEX));
+            case REMOVE_ALL_VALUES:
+                return new RemoveAllValuesOperation(path, (Collection<?>) operation.getArray(VALUE));
+            case RETAIN_ALL_VALUES:
+                return new RetainAllValuesOperation(path, (Collection<?>) operation.getArray(VALUE));
+            case CLEAR:
+                return new ClearOperation(path);
+            default:
+                throw new RelationalProviderException(RelationalProviderI18n.unknownDeltaOperation, type);
+        }
+    }
+
+    private static BasicArray encodePath( Path path ) {
+        BasicArray result = new BasicArray(path.size());
+        for (String segment : path) {
+            result.addValue(segment);
+        }
+        return result;
+    }
+
+    private static BasicArray encodeValues( Collection<?> values ) {
+        BasicArray result = new BasicArray(values.size());
+        values.forEach(result::addValue);
+        return result;
+    }
+
+    private static Path decodePath( List<?> segments ) {
+        if (segments == null || segments.isEmpty()) {
+            return Paths.rootPath();
+        }
+        List<String> fieldNames = new ArrayList<>(segments.size());
+        for (Object segment : segments) {
+            fieldNames.add(segment.toString());
+        }
+        return Paths.path(fieldNames);
+    }
+}
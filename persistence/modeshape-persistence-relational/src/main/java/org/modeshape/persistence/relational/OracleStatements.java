@@ -33,9 +33,9 @@ public class OracleStatements extends DefaultStatements {
     @Override
     protected void processSQLException(String statementId, SQLException e) throws SQLException {
         int errorCode = e.getErrorCode();
-        if (errorCode == 955 && CREATE_TABLE.equals(statementId)) {
+        if (errorCode == 955 && (CREATE_TABLE.equals(statementId) || CREATE_DELTA_TABLE.equals(statementId))) {
             logTableInfo("Table {0} already exists");         
-        } else if (errorCode == 942 && DELETE_TABLE.equals(statementId)) {
+        } else if (errorCode == 942 && (DELETE_TABLE.equals(statementId) || DELETE_DELTA_TABLE.equals(statementId))) {
             logTableInfo("Table {0} does not exist");            
         } else {
             throw e;
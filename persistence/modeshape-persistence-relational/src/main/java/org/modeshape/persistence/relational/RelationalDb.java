@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -28,18 +29,29 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.modeshape.common.database.DatabaseType;
 import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.NamedThreadFactory;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.schematic.SchematicDb;
 import org.modeshape.schematic.SchematicEntry;
 import org.modeshape.schematic.document.Document;
 import org.modeshape.schematic.document.EditableDocument;
+import org.modeshape.schematic.internal.delta.Operation;
+import org.modeshape.schematic.internal.document.IncrementalDocumentEditor;
+import org.modeshape.schematic.internal.document.MutableDocument;
 
 /**
  * {@link SchematicDb} implementation which stores data in Relational databases.
@@ -56,6 +68,8 @@ public class RelationalDb implements SchematicDb {
     private final RelationalDbConfig config;
     private final Statements statements;
     private final TransactionalCaches transactionalCaches;
+    private final DocumentCache documentCache;
+    private volatile ExecutorService loadExecutor;
 
     protected RelationalDb(Document configDoc) {
         this.connectionsByTxId = new ConcurrentHashMap<>();
@@ -65,6 +79,9 @@ public class RelationalDb implements SchematicDb {
         DatabaseType dbType = dsManager.dbType();
         this.statements = createStatements(dbType);
         this.transactionalCaches = new TransactionalCaches();
+        this.documentCache = config.cacheSizeInBytes() > 0 ?
+                             new DocumentCache(config.cacheSizeInBytes(), config.cacheRevalidationIntervalInMillis()) :
+                             null;
     }
 
     private Statements createStatements(DatabaseType dbType) {
@@ -91,6 +108,14 @@ public class RelationalDb implements SchematicDb {
     public void start() {
         if (config.createOnStart()) {
             runWithConnection(statements::createTable, false);
+            if (config.persistDeltas()) {
+                runWithConnection(statements::createDeltaTable, false);
+            }
+        }
+        if (config.loadParallelism() > 1) {
+            // the thread calling 'load' always loads one of the batches itself
+            loadExecutor = Executors.newFixedThreadPool(config.loadParallelism() - 1, 
+                                                        new NamedThreadFactory("modeshape-relational-db-loader"));
         }
     }
 
@@ -105,6 +130,15 @@ public class RelationalDb implements SchematicDb {
         // drop the table if configured to do so 
         if (config.dropOnExit()) {
             runWithConnection(statements::dropTable, false);
+            if (config.persistDeltas()) {
+                runWithConnection(statements::dropDeltaTable, false);
+            }
+        }
+
+        // stop loading documents in parallel
+        if (loadExecutor != null) {
+            loadExecutor.shutdownNow();
+            loadExecutor = null;
         }
 
         // and release any idle connections
@@ -112,6 +146,9 @@ public class RelationalDb implements SchematicDb {
         
         // and clear the caches
         transactionalCaches.stop();
+        if (documentCache != null) {
+            documentCache.clear();
+        }
     }
 
     private void cleanupConnections() {
@@ -161,9 +198,47 @@ public class RelationalDb implements SchematicDb {
         return persistedKeys.stream().filter(id -> !transactionalCaches.isRemoved(id)).collect(Collectors.toList());
     }
     
+    @Override
+    public Stream<String> streamKeys() {
+        if (!TransactionsHolder.hasActiveTransaction()) {
+            // use a dedicated connection which is not in auto-commit mode, so that drivers can use server-side cursors
+            return streamWithNewConnection(statements::streamAllIds);
+        }
+        // there is an active transaction, so use its connection and take into account the local changes
+        Set<String> changedKeys = transactionalCaches.documentKeys();
+        Stream<String> persistedKeys = runWithConnection(statements::streamAllIds, true)
+                .filter(id -> !changedKeys.contains(id) && !transactionalCaches.isRemoved(id));
+        return Stream.concat(persistedKeys, changedKeys.stream());
+    }
+
+    @Override
+    public Stream<SchematicEntry> scan(int batchSize) {
+        if (TransactionsHolder.hasActiveTransaction() || config.persistDeltas()) {
+            // either the local changes or the deltas have to be taken into account, so load the entries in batches
+            return SchematicDb.super.scan(batchSize);
+        }
+        return streamWithNewConnection(connection -> statements.streamAll(connection, batchSize, SchematicEntry::fromDocument));
+    }
+
+    private <R> Stream<R> streamWithNewConnection(SQLFunction<Stream<R>> function) {
+        Connection connection = newConnection(false, true);
+        Stream<R> stream;
+        try {
+            stream = function.execute(connection);
+        } catch (SQLException e) {
+            closeConnection(null, connection);
+            throw new RelationalProviderException(e);
+        }
+        // the connection is only released when the stream is closed
+        return stream.onClose(() -> closeConnection(null, connection));
+    }
+
     @Override
     public Document get(String key) {
         if (!TransactionsHolder.hasActiveTransaction()) {
+            if (documentCache != null) {
+                return getFromDocumentCache(key);
+            }
             // there is no active tx, so use a local read-only connection
             return runWithConnection(connection -> statements.getById(connection, key), true);
         }
@@ -191,8 +266,69 @@ public class RelationalDb implements SchematicDb {
         return doc;
     }
 
+    private Document getFromDocumentCache(String key) {
+        Document cachedDocument = documentCache.getIfValid(key);
+        if (cachedDocument != null) {
+            return cachedDocument;
+        }
+        return runWithConnection(connection -> {
+            // the generation and the timestamp must be read before the actual document, so that we never cache a document 
+            // with a timestamp that is more recent than its content 
+            long generation = documentCache.generation();
+            Timestamp lastChanged = statements.lastChanged(connection, Collections.singletonList(key)).get(key);
+            Document document = documentCache.revalidate(key, lastChanged);
+            if (document != null || lastChanged == null) {
+                return document;
+            }
+            document = statements.getById(connection, key);
+            if (document != null) {
+                documentCache.put(key, document, lastChanged, generation);
+            }
+            return document;
+        }, true);
+    }
+
+    private List<SchematicEntry> loadFromDocumentCache(Collection<String> keys) {
+        List<SchematicEntry> results = new ArrayList<>(keys.size());
+        List<String> toRevalidate = new ArrayList<>();
+        for (String key : keys) {
+            Document cachedDocument = documentCache.getIfValid(key);
+            if (cachedDocument != null) {
+                results.add(SchematicEntry.fromDocument(cachedDocument));
+            } else {
+                toRevalidate.add(key);
+            }
+        }
+        if (toRevalidate.isEmpty()) {
+            return results;
+        }
+        long generation = documentCache.generation();
+        Map<String, Timestamp> lastChangedById = runWithConnection(connection -> statements.lastChanged(connection, 
+                                                                                                        toRevalidate), true);
+        List<String> toLoad = new ArrayList<>();
+        for (String key : toRevalidate) {
+            Timestamp lastChanged = lastChangedById.get(key);
+            Document document = documentCache.revalidate(key, lastChanged);
+            if (document != null) {
+                results.add(SchematicEntry.fromDocument(document));
+            } else if (lastChanged != null) {
+                toLoad.add(key);
+            }
+        }
+        results.addAll(loadWithoutTransaction(toLoad, document -> {
+            SchematicEntry entry = SchematicEntry.fromDocument(document);
+            String id = entry.id();
+            documentCache.put(id, document, lastChangedById.get(id), generation);
+            return entry;
+        }));
+        return results;
+    }
+
     @Override
     public List<SchematicEntry> load(Collection<String> keys) {
+        if (documentCache != null && !TransactionsHolder.hasActiveTransaction()) {
+            return loadFromDocumentCache(keys);
+        }
         List<SchematicEntry> alreadyChangedInTransaction = Collections.emptyList();
         List<String> alreadyChangedKeys = new ArrayList<>();
         if (TransactionsHolder.hasActiveTransaction()) {
@@ -219,7 +355,9 @@ public class RelationalDb implements SchematicDb {
             return entry;
         };
 
-        List<SchematicEntry> results = runWithConnection(connection -> statements.load(connection, keys, documentParser), true);
+        List<SchematicEntry> results = TransactionsHolder.hasActiveTransaction() ?
+                                       runWithConnection(connection -> statements.load(connection, keys, documentParser), true) :
+                                       loadWithoutTransaction(keys, documentParser);
         results.addAll(alreadyChangedInTransaction);
         // if there's an active transaction make sure we also mark all the keys which were not found in the DB as 'new'
         // to prevent further DB lookups
@@ -227,6 +365,49 @@ public class RelationalDb implements SchematicDb {
         return results;
     }
 
+    private <R> List<R> loadWithoutTransaction(Collection<String> keys, Function<Document, R> parser) {
+        int batchSize = config.loadBatchSize();
+        ExecutorService executor = loadExecutor;
+        if (executor == null || keys.size() <= batchSize) {
+            return runWithConnection(connection -> statements.load(connection, keys, parser), true);
+        }
+        // split the keys into batches which are loaded concurrently, each via a different connection 
+        List<String> allKeys = new ArrayList<>(keys);
+        CompletionService<List<R>> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<List<R>>> futures = new ArrayList<>();
+        for (int startIdx = batchSize; startIdx < allKeys.size(); startIdx += batchSize) {
+            List<String> batch = allKeys.subList(startIdx, Math.min(startIdx + batchSize, allKeys.size()));
+            futures.add(completionService.submit(() -> loadBatch(batch, parser)));
+        }
+        logDebug("Loading {0} documents in {1} batches", allKeys.size(), futures.size() + 1);
+        try {
+            // load the first batch using the current thread and then collect the other batches as they complete
+            List<R> results = new ArrayList<>(allKeys.size());
+            results.addAll(loadBatch(allKeys.subList(0, batchSize), parser));
+            for (int i = 0; i < futures.size(); i++) {
+                results.addAll(completionService.take().get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RelationalProviderException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RelationalProviderException(cause);
+        } finally {
+            // make sure nothing is left running if any of the batches failed
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private <R> List<R> loadBatch(List<String> keys, Function<Document, R> parser) {
+        try (Connection connection = newConnection(true, true)) {
+            return statements.load(connection, keys, parser);
+        } catch (SQLException e) {
+            throw new RelationalProviderException(e);
+        }
+    }
+
     @Override
     public boolean lockForWriting( List<String> locks ) {
         if (locks.isEmpty()) {
@@ -240,6 +421,10 @@ public class RelationalDb implements SchematicDb {
     public void put(String key, SchematicEntry entry) {
         // simply store the put into the cache
         transactionalCaches.putForWriting(key, entry.source());
+        if (config.persistDeltas()) {
+            // the entire document is replaced, so it will have to be written in full
+            transactionalCaches.markReplaced(key);
+        }
     }
 
     @Override
@@ -258,9 +443,24 @@ public class RelationalDb implements SchematicDb {
             // it's the first time we're editing this document as part of this tx so store this document for writing...
             entryDocument = transactionalCaches.putForWriting(key, entry.source());
         }
+        if (config.persistDeltas()) {
+            return editIncrementally(key, entryDocument);
+        }
         return SchematicEntry.content(entryDocument).editable(); 
     }
 
+    private EditableDocument editIncrementally(String key, Document entryDocument) {
+        List<Operation> deltas = entryDocument instanceof MutableDocument ? transactionalCaches.deltasFor(key) : null;
+        if (deltas == null) {
+            // the changes can't be recorded, so make sure the document is written in full
+            transactionalCaches.markReplaced(key);
+            return SchematicEntry.content(entryDocument).editable();
+        }
+        // record all the changes made to the entry so that only those are written when the transaction commits
+        EditableDocument entryEditor = new IncrementalDocumentEditor((MutableDocument) entryDocument, deltas);
+        return (EditableDocument) SchematicEntry.content(entryEditor);
+    }
+
     @Override
     public SchematicEntry putIfAbsent(String key, Document content) {
         SchematicEntry existingEntry = getEntry(key);
@@ -281,11 +481,17 @@ public class RelationalDb implements SchematicDb {
     @Override
     public void removeAll() {
         runWithConnection(statements::removeAll, false);
+        if (documentCache != null) {
+            documentCache.clear();
+        }
     }
 
     @Override
     public boolean containsKey(String key) {
         if (!TransactionsHolder.hasActiveTransaction()) {
+            if (documentCache != null && documentCache.getIfValid(key) != null) {
+                return true;
+            }
             // if there is no active tx, just search the DB directly
             return runWithConnection(connection -> statements.exists(connection, key), true);
         }
@@ -376,12 +582,60 @@ public class RelationalDb implements SchematicDb {
 
         try {
             batchUpdate.insert(toInsert);
+            if (config.persistDeltas()) {
+                appendDeltas(tlConnection, cache, toUpdate, batchUpdate);
+                batchUpdate.removeDeltas(toRemove);
+            }
             batchUpdate.update(toUpdate);
             batchUpdate.remove(toRemove);
         } catch (SQLException e) {
             throw new RelationalProviderException(e);
         }
         tlConnection.commit();
+        if (documentCache != null) {
+            // only after the changes are visible to other connections can we make sure stale entries are not cached again
+            documentCache.invalidate(writeCache.keySet());
+        }
+    }
+
+    private void appendDeltas(Connection tlConnection, TransactionalCaches.TransactionalCache cache, 
+                              Map<String, Document> toUpdate, Statements.BatchUpdate batchUpdate) throws SQLException {
+        Map<String, Document> deltasById = new HashMap<>();
+        for (Iterator<Map.Entry<String, Document>> iterator = toUpdate.entrySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next().getKey();
+            List<Operation> operations = cache.getDeltas(key);
+            if (operations == null) {
+                // the document has been replaced, so it will be written in full
+                continue;
+            }
+            if (operations.isEmpty()) {
+                // the document was edited but nothing was actually changed
+                iterator.remove();
+                continue;
+            }
+            Document delta = DocumentDeltas.toDocument(operations);
+            if (delta != null) {
+                deltasById.put(key, delta);
+            }
+        }
+        
+        Map<String, Integer> lastSequences = statements.lastDeltaSequences(tlConnection, deltasById.keySet());
+        Map<String, Integer> sequencesById = new HashMap<>();
+        for (Iterator<String> iterator = deltasById.keySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            int sequence = lastSequences.getOrDefault(key, 0) + 1;
+            if (sequence > config.deltaCompactionThreshold()) {
+                // there are too many deltas for this document, so compact it by writing it in full
+                iterator.remove();
+            } else {
+                toUpdate.remove(key);
+                sequencesById.put(key, sequence);
+            }
+        }
+        logDebug("Appending deltas {0} for transaction {1}", deltasById, TransactionsHolder.activeTransaction());
+        batchUpdate.appendDeltas(deltasById, sequencesById);
+        // all the documents which are written in full make any existing deltas obsolete
+        batchUpdate.removeDeltas(new ArrayList<>(toUpdate.keySet()));
     }
 
     @Override
@@ -432,6 +686,10 @@ public class RelationalDb implements SchematicDb {
         return config;
     }
     
+    protected DocumentCache documentCache() {
+        return documentCache;
+    }
+    
     protected DataSourceManager dsManager() {
         return dsManager;
     }
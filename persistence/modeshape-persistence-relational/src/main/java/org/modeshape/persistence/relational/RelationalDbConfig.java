@@ -46,10 +46,19 @@ public final class RelationalDbConfig {
     public static final String PASSWORD = "password";
     public static final String DATASOURCE_JNDI_NAME = "dataSourceJndiName";
     public static final String POOL_SIZE = "poolSize";
+    public static final String PERSIST_DELTAS = "persistDeltas";
+    public static final String DELTA_COMPACTION_THRESHOLD = "deltaCompactionThreshold";
+    public static final String CACHE_SIZE_IN_BYTES = "cacheSizeInBytes";
+    public static final String CACHE_REVALIDATION_INTERVAL_IN_MILLIS = "cacheRevalidationIntervalInMillis";
+    public static final String LOAD_BATCH_SIZE = "loadBatchSize";
+    public static final String LOAD_PARALLELISM = "loadParallelism";
     
     protected static final List<String> ALL_FIELDS = Arrays.asList(Schematic.TYPE_FIELD, DROP_ON_EXIT, CREATE_ON_START, TABLE_NAME,
                                                                    FETCH_SIZE, COMPRESS, CONNECTION_URL, DRIVER, USERNAME,
-                                                                   PASSWORD, DATASOURCE_JNDI_NAME, POOL_SIZE);
+                                                                   PASSWORD, DATASOURCE_JNDI_NAME, POOL_SIZE, PERSIST_DELTAS,
+                                                                   DELTA_COMPACTION_THRESHOLD, CACHE_SIZE_IN_BYTES,
+                                                                   CACHE_REVALIDATION_INTERVAL_IN_MILLIS, LOAD_BATCH_SIZE,
+                                                                   LOAD_PARALLELISM);
     
     protected static final String DEFAULT_CONNECTION_URL = "jdbc:h2:mem:modeshape;DB_CLOSE_DELAY=0;MVCC=TRUE";
     protected static final String DEFAULT_DRIVER = "org.h2.Driver";
@@ -60,6 +69,11 @@ public final class RelationalDbConfig {
     protected static final String DEFAULT_MIN_IDLE = "1";
     protected static final String DEFAULT_IDLE_TIMEOUT = String.valueOf(TimeUnit.MINUTES.toMillis(1));
     protected static final int DEFAULT_FETCH_SIZE = 1000;
+    protected static final int DEFAULT_DELTA_COMPACTION_THRESHOLD = 20;
+    protected static final long DEFAULT_CACHE_SIZE_IN_BYTES = 0;
+    protected static final long DEFAULT_CACHE_REVALIDATION_INTERVAL_IN_MILLIS = 0;
+    protected static final int DEFAULT_LOAD_BATCH_SIZE = 500;
+    protected static final int DEFAULT_LOAD_PARALLELISM = 1;
     
     private final Document config;
     private final boolean createOnStart;
@@ -69,6 +83,12 @@ public final class RelationalDbConfig {
     private final boolean compress;
     private final String connectionUrl;
     private final String datasourceJNDIName; 
+    private final boolean persistDeltas;
+    private final int deltaCompactionThreshold;
+    private final long cacheSizeInBytes;
+    private final long cacheRevalidationIntervalInMillis;
+    private final int loadBatchSize;
+    private final int loadParallelism;
     
     protected RelationalDbConfig(Document document) {
         this.config = document;
@@ -79,6 +99,13 @@ public final class RelationalDbConfig {
         this.fetchSize = propertyAsInt(config, FETCH_SIZE, DEFAULT_FETCH_SIZE);
         this.compress = propertyAsBoolean(config, COMPRESS, false);
         this.connectionUrl = config.getString(CONNECTION_URL, DEFAULT_CONNECTION_URL);
+        this.persistDeltas = propertyAsBoolean(config, PERSIST_DELTAS, false);
+        this.deltaCompactionThreshold = propertyAsInt(config, DELTA_COMPACTION_THRESHOLD, DEFAULT_DELTA_COMPACTION_THRESHOLD);
+        this.cacheSizeInBytes = propertyAsLong(config, CACHE_SIZE_IN_BYTES, DEFAULT_CACHE_SIZE_IN_BYTES);
+        this.cacheRevalidationIntervalInMillis = propertyAsLong(config, CACHE_REVALIDATION_INTERVAL_IN_MILLIS,
+                                                                DEFAULT_CACHE_REVALIDATION_INTERVAL_IN_MILLIS);
+        this.loadBatchSize = propertyAsInt(config, LOAD_BATCH_SIZE, DEFAULT_LOAD_BATCH_SIZE);
+        this.loadParallelism = propertyAsInt(config, LOAD_PARALLELISM, DEFAULT_LOAD_PARALLELISM);
     }
 
     protected boolean isDatasourceManaged() {
@@ -133,7 +160,75 @@ public final class RelationalDbConfig {
     protected boolean compress() {
         return compress;
     }
+
+    /**
+     * Whether updates to existing documents should be stored as a list of changes appended to a separate delta table, instead
+     * of rewriting the entire document each time. 
+     * <p>
+     * Note that once enabled, this option should not be turned off while the delta table still contains entries, because those
+     * would be ignored when reading the documents.
+     * </p>
+     * 
+     * @return {@code true} if deltas should be persisted, {@code false} otherwise
+     */
+    protected boolean persistDeltas() {
+        return persistDeltas;
+    }
+
+    /**
+     * The maximum number of deltas which can be appended for a document before the document is compacted, meaning rewritten in
+     * full and its deltas removed.
+     * 
+     * @return the compaction threshold
+     */
+    protected int deltaCompactionThreshold() {
+        return deltaCompactionThreshold;
+    }
+    
+    /**
+     * The maximum number of bytes (estimated) that the documents cached across transactions may use. A value of 0 (the 
+     * default) disables the cache.
+     * 
+     * @return the maximum size of the cache, in bytes
+     */
+    protected long cacheSizeInBytes() {
+        return cacheSizeInBytes;
+    }
+
+    /**
+     * The amount of time during which a cached document is returned without checking its {@code LAST_CHANGED} timestamp
+     * against the DB. The default is 0, which revalidates each cache hit. A positive value is an explicit opt-in to stale reads:
+     * for up to that long, the changes made by other processes sharing the same DB (e.g. the other members of a cluster) are
+     * not seen.
+     * 
+     * @return the revalidation interval, in milliseconds
+     */
+    protected long cacheRevalidationIntervalInMillis() {
+        return cacheRevalidationIntervalInMillis;
+    }
     
+    /**
+     * The maximum number of documents which are loaded with a single statement when loading documents in parallel.
+     * 
+     * @return the batch size
+     * @see #loadParallelism()
+     */
+    protected int loadBatchSize() {
+        return loadBatchSize;
+    }
+
+    /**
+     * The maximum number of connections which are used concurrently when loading a large number of documents outside of a 
+     * transaction. The default value of 1 means that all the documents are always loaded using a single connection. Since each 
+     * of the loading threads needs its own connection, this value should be lower than the size of the connection pool.
+     * 
+     * @return the number of threads used to load documents
+     * @see #loadBatchSize()
+     */
+    protected int loadParallelism() {
+        return loadParallelism;
+    }
+
     private String propertyAsString(Document document, String fieldName, String defaultValue) {
         Object value = document.get(fieldName);
         return value == null ? defaultValue : value.toString();
@@ -150,6 +245,17 @@ public final class RelationalDbConfig {
         }
     }
     
+    private long propertyAsLong(Document document, String propertyName, long defaultValue) {
+        Object value = document.get(propertyName);
+        if (value == null) {
+            return defaultValue;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else {
+            return Long.valueOf(value.toString());
+        }
+    }
+    
     private boolean propertyAsBoolean(Document document, String propertyName, boolean defaultValue) {
         Object value = document.get(propertyName);
         if (value == null) {
@@ -31,6 +31,7 @@ public final class RelationalProviderI18n {
     public static I18n threadNotAssociatedWithTransaction;
     public static I18n threadAssociatedWithAnotherTransaction;
     public static I18n warnConnectionsNeedCleanup;
+    public static I18n unknownDeltaOperation;
 
     private RelationalProviderI18n() {
     }
@@ -17,10 +17,12 @@ package org.modeshape.persistence.relational;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.stream.Stream;
 import org.modeshape.schematic.document.Document;
 
 /**
@@ -37,6 +39,7 @@ public interface Statements {
     String CREATE_TABLE = "create_table";
     String DELETE_TABLE = "delete_table";
     String GET_ALL_IDS = "get_all_ids";
+    String GET_ALL_CONTENT = "get_all_content";
     String GET_BY_ID = "get_by_id";
     String CONTENT_EXISTS = "content_exists";
     String INSERT_CONTENT = "insert_content";
@@ -46,6 +49,16 @@ public interface Statements {
     String GET_MULTIPLE = "get_multiple";
     String LOCK_CONTENT = "lock_content";
     String MULTIPLE_SELECTION = "multiple_selection_clause";
+    String CREATE_DELTA_TABLE = "create_delta_table";
+    String DELETE_DELTA_TABLE = "delete_delta_table";
+    String GET_BY_ID_WITH_DELTAS = "get_by_id_with_deltas";
+    String GET_MULTIPLE_WITH_DELTAS = "get_multiple_with_deltas";
+    String LAST_DELTA_SEQUENCES = "last_delta_sequences";
+    String INSERT_DELTA = "insert_delta";
+    String REMOVE_DELTAS = "remove_deltas";
+    String REMOVE_ALL_DELTAS = "remove_all_deltas";
+    String GET_LAST_CHANGED = "get_last_changed";
+    String TOUCH_CONTENT = "touch_content";
 
     /**
      * Create a new table.
@@ -65,6 +78,25 @@ public interface Statements {
      */
     Void dropTable( Connection connection ) throws SQLException;
 
+    /**
+     * Creates the table which holds the document deltas, if {@link RelationalDbConfig#persistDeltas() delta persistence} is 
+     * enabled.
+     *
+     * @param connection a {@link Connection} instance; may not be null
+     * @return nothing
+     * @throws SQLException if the operation fails.
+     */
+    Void createDeltaTable( Connection connection ) throws SQLException;
+
+    /**
+     * Drops the table which holds the document deltas.
+     *
+     * @param connection a {@link Connection} instance; may not be null
+     * @return nothing
+     * @throws SQLException if the operation fails.
+     */
+    Void dropDeltaTable( Connection connection ) throws SQLException;
+
     /**
      * Returns all the ids from a table.
      *
@@ -74,6 +106,34 @@ public interface Statements {
      */
     List<String> getAllIds(Connection connection) throws SQLException;
 
+    /**
+     * Returns a stream over all the ids from a table, which are fetched lazily from the DB using a cursor.
+     * <p>
+     * The returned stream holds on to DB resources, so it must always be closed. Closing the stream will not close the 
+     * connection. Note that some drivers (e.g. PostgreSQL) will only use cursors if the connection is not in auto-commit mode.
+     * </p>
+     *
+     * @param connection a {@link Connection} instance; may not be null
+     * @return a {@link Stream} of ids; never {@code null}
+     * @throws SQLException if the operation fails.
+     */
+    Stream<String> streamAllIds( Connection connection ) throws SQLException;
+
+    /**
+     * Returns a stream over all the documents from a table, which are fetched lazily from the DB using a cursor.
+     * <p>
+     * The returned stream holds on to DB resources, so it must always be closed. Closing the stream will not close the 
+     * connection. 
+     * </p>
+     *
+     * @param connection a {@link Connection} instance; may not be null
+     * @param fetchSize the number of rows which should be fetched from the DB at once
+     * @param parser a {@link Function} which is used to transform or process each of the documents; may not be null
+     * @return a {@link Stream} of instances returned by the parser; never {@code null}
+     * @throws SQLException if the operation fails.
+     */
+    <R> Stream<R> streamAll( Connection connection, int fetchSize, Function<Document, R> parser ) throws SQLException;
+
     /**
      * Searches for a document with a certain id.
      *
@@ -105,6 +165,28 @@ public interface Statements {
      */
     <R> List<R> load(Connection connection, Collection<String> ids, Function<Document, R> parser) throws SQLException;
 
+    /**
+     * Returns the sequence number of the last delta which was appended for each of the given ids. Ids which don't have any
+     * deltas will not be part of the result.
+     *
+     * @param connection a {@link Connection} instance; may not be null
+     * @param ids a {@link Collection} of ids; may not be null
+     * @return a {@link Map} of sequence numbers keyed by id; never {@code null}
+     * @throws SQLException if the operation fails.
+     */
+    Map<String, Integer> lastDeltaSequences( Connection connection, Collection<String> ids ) throws SQLException;
+
+    /**
+     * Returns the value of the {@code LAST_CHANGED} column for each of the given ids. Ids which are not found in the DB will 
+     * not be part of the result.
+     *
+     * @param connection a {@link Connection} instance; may not be null
+     * @param ids a {@link Collection} of ids; may not be null
+     * @return a {@link Map} of timestamps keyed by id; never {@code null}
+     * @throws SQLException if the operation fails.
+     */
+    Map<String, Timestamp> lastChanged( Connection connection, Collection<String> ids ) throws SQLException;
+
     /**
      * Starts a batch update operation with the given connection.
      *
@@ -172,5 +254,25 @@ public interface Statements {
          * @param ids@throws SQLException if the operation fails.
          */
         void remove( List<String> ids ) throws SQLException;
+
+        /**
+         * Appends a delta for each of the given documents to the delta table and updates the {@code LAST_CHANGED} column of 
+         * each of those documents. 
+         *
+         * @param deltasById a {@link Map} of delta documents keyed by the id of the document they apply to; may not be 
+         * {@code null}
+         * @param sequencesById a {@link Map} containing the sequence number of each delta, keyed by the id of the document; may 
+         * not be {@code null}
+         * @throws SQLException if the operation fails.
+         */
+        void appendDeltas( Map<String, Document> deltasById, Map<String, Integer> sequencesById ) throws SQLException;
+
+        /**
+         * Removes all the deltas for the given list of ids.
+         *
+         * @param ids a {@link List} of ids, may not be {@code null}
+         * @throws SQLException if the operation fails.
+         */
+        void removeDeltas( List<String> ids ) throws SQLException;
     }
 }
@@ -15,8 +15,10 @@
  */
 package org.modeshape.persistence.relational;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -24,6 +26,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.internal.delta.Operation;
 import org.modeshape.schematic.internal.document.BasicDocument;
 
 /**
@@ -73,6 +76,14 @@ public final class TransactionalCaches {
         return cacheForActiveTransaction().putForWriting(key, doc);
     }
     
+    protected List<Operation> deltasFor(String key) {
+        return cacheForActiveTransaction().deltasFor(key);
+    }
+
+    protected void markReplaced(String key) {
+        cacheForActiveTransaction().markReplaced(key);
+    }
+    
     protected Set<String> documentKeys() {
         TransactionalCache transactionalCache = cacheForActiveTransaction();
         return transactionalCache.writeCache().entrySet()
@@ -129,6 +140,8 @@ public final class TransactionalCaches {
         private final ConcurrentMap<String, Document> read = new ConcurrentHashMap<>();
         private final ConcurrentMap<String, Document> write = new ConcurrentHashMap<>();
         private final Set<String> newIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private final ConcurrentMap<String, List<Operation>> deltas = new ConcurrentHashMap<>();
+        private final Set<String> replacedIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
         protected TransactionalCache(String txId) {
         }
@@ -165,12 +178,30 @@ public final class TransactionalCaches {
             return newIds.contains(id);
         }
         
+        protected List<Operation> deltasFor(String id) {
+            if (replacedIds.contains(id)) {
+                // the document was overwritten completely in this transaction, so changes can't be tracked incrementally
+                return null;
+            }
+            return deltas.computeIfAbsent(id, key -> Collections.synchronizedList(new ArrayList<>()));
+        }
+        
+        protected List<Operation> getDeltas(String id) {
+            return replacedIds.contains(id) ? null : deltas.get(id);
+        }
+        
+        protected void markReplaced(String id) {
+            replacedIds.add(id);
+            deltas.remove(id);
+        }
+        
         protected boolean isRemoved(String id) {
             return write.get(id) == REMOVED;
         }
         
         protected void remove(String id) {
             write.put(id, REMOVED);
+            markReplaced(id);
         }
         
         protected ConcurrentMap<String, Document> writeCache() {
@@ -185,6 +216,8 @@ public final class TransactionalCaches {
             read.clear();
             write.clear();
             newIds.clear();
+            deltas.clear();
+            replacedIds.clear();
         }
     }
 }
@@ -0,0 +1,111 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.persistence.relational;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.modeshape.schematic.AbstractSchematicDBTest;
+import org.modeshape.schematic.Schematic;
+import org.modeshape.schematic.SchematicDb;
+import org.modeshape.schematic.SchematicEntry;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.internal.document.MutableDocument;
+
+/**
+ * Test for {@link RelationalDb} when the shared {@link DocumentCache} is enabled, using an in-memory H2 database.
+ */
+public class RelationalDbCacheTest extends AbstractSchematicDBTest {
+
+    @Override
+    protected SchematicDb getDb() throws Exception {
+        return Schematic.getDb(RelationalDbCacheTest.class.getClassLoader().getResourceAsStream("db-config-h2-cache.json"));
+    }
+
+    @Test
+    public void shouldCacheDocumentsReadOutsideTransactions() throws Exception {
+        SchematicEntry entry = writeSingleEntry();
+        String id = entry.id();
+        DocumentCache cache = ((RelationalDb) db).documentCache();
+        assertEquals(0, cache.sizeInBytes());
+
+        Document first = db.get(id);
+        long size = cache.sizeInBytes();
+        assertTrue(size > 0);
+        // the timestamp has not changed, so the cached document should be returned without being read again
+        assertEquals(first, db.get(id));
+        assertEquals(size, cache.sizeInBytes());
+
+        List<SchematicEntry> loaded = db.load(Collections.singletonList(id));
+        assertEquals(1, loaded.size());
+        assertEquals(first, loaded.get(0).source());
+    }
+
+    @Test
+    public void shouldNotShareCachedDocumentsWithCallers() throws Exception {
+        SchematicEntry entry = writeSingleEntry();
+        String id = entry.id();
+        Document first = db.get(id);
+        Document second = db.get(id);
+        assertNotSame(first, second);
+
+        ((MutableDocument) first).put("firstName", "Changed");
+        assertEquals(second, db.get(id));
+        assertEquals(second, db.load(Collections.singletonList(id)).get(0).source());
+    }
+
+    @Test
+    public void shouldInvalidateCachedDocumentsOnCommit() throws Exception {
+        SchematicEntry entry = writeSingleEntry();
+        String id = entry.id();
+        db.get(id);
+
+        simulateTransaction(() -> db.editContent(id, false).setString("firstName", "John"));
+        assertEquals("John", db.getEntry(id).content().getString("firstName"));
+
+        simulateTransaction(() -> db.remove(id));
+        assertNull(db.get(id));
+        assertTrue(!db.containsKey(id));
+    }
+
+    @Test
+    public void shouldReloadDocumentsChangedByOtherProcesses() throws Exception {
+        SchematicEntry entry = writeSingleEntry();
+        String id = entry.id();
+        Document first = db.get(id);
+
+        // simulate a change made by another process, which the local cache knows nothing about
+        RelationalDb relationalDb = (RelationalDb) db;
+        String tableName = relationalDb.config().tableName();
+        try (Connection connection = relationalDb.newConnection(true, false);
+             PreparedStatement ps = connection.prepareStatement("UPDATE " + tableName + " SET LAST_CHANGED = ? WHERE ID = ?")) {
+            ps.setTimestamp(1, new Timestamp(System.currentTimeMillis() + 60000));
+            ps.setString(2, id);
+            assertEquals(1, ps.executeUpdate());
+        }
+
+        Document second = db.get(id);
+        assertEquals(first, second);
+        assertEquals(second, db.get(id));
+    }
+}
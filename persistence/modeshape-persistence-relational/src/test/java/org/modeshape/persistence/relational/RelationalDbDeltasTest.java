@@ -0,0 +1,135 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.persistence.relational;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.modeshape.schematic.AbstractSchematicDBTest;
+import org.modeshape.schematic.Schematic;
+import org.modeshape.schematic.SchematicDb;
+import org.modeshape.schematic.SchematicEntry;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.document.EditableArray;
+import org.modeshape.schematic.document.EditableDocument;
+
+/**
+ * Test for {@link RelationalDb} when storing incremental changes (deltas) instead of full documents, using an in-memory
+ * H2 database.
+ */
+public class RelationalDbDeltasTest extends AbstractSchematicDBTest {
+
+    @Override
+    protected SchematicDb getDb() throws Exception {
+        return Schematic.getDb(RelationalDbDeltasTest.class.getClassLoader().getResourceAsStream("db-config-h2-deltas.json"));
+    }
+
+    @Test
+    public void shouldStoreChangesAsDeltas() throws Exception {
+        SchematicEntry entry = writeSingleEntry();
+        String id = entry.id();
+        assertEquals(0, deltasCount(id));
+
+        simulateTransaction(() -> {
+            EditableDocument content = db.editContent(id, false);
+            content.setString("firstName", "John");
+            content.getDocument("address").setNumber("zip", 54321);
+            content.setArray("children", "child1", "child2");
+            return null;
+        });
+        assertEquals(1, deltasCount(id));
+
+        simulateTransaction(() -> {
+            EditableDocument content = db.editContent(id, false);
+            content.remove("phone");
+            EditableArray children = content.getArray("children");
+            children.addString("child3");
+            children.remove(0);
+            return null;
+        });
+        assertEquals(2, deltasCount(id));
+
+        Document content = db.getEntry(id).content();
+        assertEquals("John", content.getString("firstName"));
+        assertEquals(54321, (int) content.getDocument("address").getInteger("zip"));
+        assertEquals(null, content.get("phone"));
+        assertEquals(Arrays.asList("child2", "child3"), content.getArray("children"));
+
+        // check that bulk loading also applies the deltas
+        List<SchematicEntry> loaded = db.load(Collections.singletonList(id));
+        assertEquals(1, loaded.size());
+        assertEquals(content, loaded.get(0).content());
+    }
+
+    @Test
+    public void shouldCompactDeltasWhenThresholdIsReached() throws Exception {
+        SchematicEntry entry = writeSingleEntry();
+        String id = entry.id();
+        RelationalDbConfig config = ((RelationalDb) db).config();
+        int threshold = config.deltaCompactionThreshold();
+        for (int i = 0; i < threshold; i++) {
+            int value = i;
+            simulateTransaction(() -> db.editContent(id, false).setNumber("value", value));
+        }
+        assertEquals(threshold, deltasCount(id));
+
+        // the next change should rewrite the full document and remove all the deltas
+        simulateTransaction(() -> db.editContent(id, false).setNumber("value", 100));
+        assertEquals(0, deltasCount(id));
+        assertEquals(100, (int) db.getEntry(id).content().getInteger("value"));
+    }
+
+    @Test
+    public void shouldRemoveDeltasWhenDocumentIsReplacedOrRemoved() throws Exception {
+        SchematicEntry entry = writeSingleEntry();
+        String id = entry.id();
+        simulateTransaction(() -> db.editContent(id, false).setNumber("value", 2));
+        assertEquals(1, deltasCount(id));
+
+        simulateTransaction(() -> {
+            db.get(id);
+            db.put(id, DEFAULT_CONTENT);
+            return null;
+        });
+        assertEquals(0, deltasCount(id));
+        assertEquals(DEFAULT_CONTENT, db.getEntry(id).content());
+
+        simulateTransaction(() -> db.editContent(id, false).setNumber("value", 3));
+        assertEquals(1, deltasCount(id));
+        simulateTransaction(() -> db.remove(id));
+        assertEquals(0, deltasCount(id));
+        assertTrue(!db.containsKey(id));
+    }
+
+    private int deltasCount(String id) throws Exception {
+        RelationalDb relationalDb = (RelationalDb) db;
+        String tableName = relationalDb.config().tableName();
+        try (Connection connection = relationalDb.newConnection(true, true);
+             PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM " + tableName + "_DELTA WHERE ID = ?")) {
+            ps.setString(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
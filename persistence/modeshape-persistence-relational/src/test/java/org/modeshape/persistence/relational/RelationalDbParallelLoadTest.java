@@ -0,0 +1,63 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.persistence.relational;
+
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import org.modeshape.schematic.AbstractSchematicDBTest;
+import org.modeshape.schematic.Schematic;
+import org.modeshape.schematic.SchematicDb;
+import org.modeshape.schematic.SchematicEntry;
+
+/**
+ * Test for {@link RelationalDb} when loading large sets of documents in parallel batches, using an in-memory H2 database.
+ */
+public class RelationalDbParallelLoadTest extends AbstractSchematicDBTest {
+
+    @Override
+    protected SchematicDb getDb() throws Exception {
+        return Schematic.getDb(RelationalDbParallelLoadTest.class.getClassLoader()
+                                                              .getResourceAsStream("db-config-h2-parallel-load.json"));
+    }
+
+    @Test
+    public void shouldLoadDocumentsInParallelBatches() throws Exception {
+        List<SchematicEntry> entries = randomEntries(95);
+        simulateTransaction(() -> {
+            entries.forEach(entry -> db.put(entry.id(), entry.content()));
+            return null;
+        });
+        Set<String> expectedIds = entries.stream().map(SchematicEntry::id).collect(Collectors.toSet());
+        List<String> keys = new ArrayList<>(expectedIds);
+        // add a couple of keys which don't exist
+        keys.add(UUID.randomUUID().toString());
+        keys.add(UUID.randomUUID().toString());
+
+        List<SchematicEntry> loaded = db.load(keys);
+        assertEquals(expectedIds.size(), loaded.size());
+        assertEquals(expectedIds, loaded.stream().map(SchematicEntry::id).collect(Collectors.toSet()));
+        loaded.forEach(entry -> assertEquals(DEFAULT_CONTENT, entry.content()));
+
+        // within a transaction, the documents should be loaded via the transaction's connection
+        List<SchematicEntry> loadedInTx = simulateTransaction(() -> db.load(new ArrayList<>(keys)));
+        assertEquals(expectedIds, loadedInTx.stream().map(SchematicEntry::id).collect(Collectors.toSet()));
+    }
+}
@@ -35,7 +35,17 @@ public class MsValueMetric {
         new MsValueMetric(ValueMetric.SESSION_SAVES, "Session saves"),
         new MsValueMetric(ValueMetric.NODE_CHANGES, "Node changes"),
         new MsValueMetric(ValueMetric.EVENT_QUEUE_SIZE, "Event Queue size"),
-        new MsValueMetric(ValueMetric.SEQUENCED_COUNT, "Sequenced count")
+        new MsValueMetric(ValueMetric.SEQUENCED_COUNT, "Sequenced count"),
+        new MsValueMetric(ValueMetric.WORKSPACE_CACHE_HITS, "Workspace cache hits"),
+        new MsValueMetric(ValueMetric.WORKSPACE_CACHE_MISSES, "Workspace cache misses"),
+        new MsValueMetric(ValueMetric.WORKSPACE_CACHE_EVICTIONS, "Workspace cache evictions"),
+        new MsValueMetric(ValueMetric.QUERY_PLAN_CACHE_HITS, "Query plan cache hits"),
+        new MsValueMetric(ValueMetric.QUERY_PLAN_CACHE_MISSES, "Query plan cache misses"),
+        new MsValueMetric(ValueMetric.QUERY_BUFFERED_BYTES, "Query buffered bytes"),
+        new MsValueMetric(ValueMetric.QUERY_SPILLED_BYTES, "Query spilled bytes"),
+        new MsValueMetric(ValueMetric.QUERY_RESULT_CACHE_HITS, "Query result cache hits"),
+        new MsValueMetric(ValueMetric.QUERY_RESULT_CACHE_MISSES, "Query result cache misses"),
+        new MsValueMetric(ValueMetric.REINDEXED_NODES, "Reindexed nodes")
     };
     
     private ValueMetric metric;
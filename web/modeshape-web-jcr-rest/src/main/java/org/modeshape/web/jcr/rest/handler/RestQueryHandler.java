@@ -86,8 +86,10 @@ public final class RestQueryHandler extends AbstractHandler {
         assert statement != null;
 
         Session session = getSession(request, repositoryName, workspaceName);
-        Query query = createQuery(language, statement, session);
+        org.modeshape.jcr.api.query.Query query = createQuery(language, statement, session);
         bindExtraVariables(uriInfo, session.getValueFactory(), query);
+        // the rows are read only once, so they are computed only as they are added to the response ...
+        query.streaming(true);
 
         QueryResult result = query.execute();
         RestQueryResult restQueryResult = new RestQueryResult();